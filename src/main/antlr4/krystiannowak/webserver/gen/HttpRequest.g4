@@ -17,7 +17,7 @@ generalHeader
 
 request
 	: requestLine
-	( ( generalHeader | requestHeader ) CRLF )*
+	( ( generalHeader | requestHeader | extensionHeader ) CRLF )*
 	CRLF
 	;
 
@@ -52,6 +52,14 @@ requestHeader
 	| host
 	| referer
 	| userAgent
+	| ifNoneMatch
+	| ifModifiedSince
+	| range
+	| ifRange
+	;
+
+extensionHeader
+	: TEXT fieldValue
 	;
 
 httpVersion
@@ -90,6 +98,22 @@ userAgent
 	: 'User-Agent:' fieldValue
 	; 
 
+ifNoneMatch
+	: 'If-None-Match:' fieldValue
+	;
+
+ifModifiedSince
+	: 'If-Modified-Since:' fieldValue
+	;
+
+range
+	: 'Range:' fieldValue
+	;
+
+ifRange
+	: 'If-Range:' fieldValue
+	;
+
 fragment
 CR
 	: '\r'
@@ -118,7 +142,7 @@ LWS
 	;
 
 TEXT
-	: [a-zA-Z0-9/.,:;*()_+-=?]+
+	: [a-zA-Z0-9/.,:;*()_+-=?"]+
 	;
 
 DIGIT
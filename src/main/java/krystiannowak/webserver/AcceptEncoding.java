@@ -0,0 +1,169 @@
+package krystiannowak.webserver;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+
+/**
+ * The content codings acceptable to a client with their quality values as
+ * per <a href="https://tools.ietf.org/html/rfc2616#section-14.3">https://
+ * tools.ietf.org/html/rfc2616#section-14.3</a>. A coding not listed is
+ * acceptable with the quality of <code>*</code>, if listed, except for
+ * <code>identity</code>, which is acceptable unless excluded explicitly. A
+ * request without the header accepts <code>identity</code> only.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class AcceptEncoding {
+
+    /**
+     * The <code>identity</code> content coding.
+     */
+    public static final String IDENTITY = "identity";
+
+    /**
+     * The <code>gzip</code> content coding.
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * The content coding equivalent to <code>gzip</code> as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-3.5">https://
+     * tools.ietf.org/html/rfc2616#section-3.5</a>.
+     */
+    private static final String X_GZIP = "x-gzip";
+
+    /**
+     * The wildcard matching any coding not listed.
+     */
+    private static final String ANY = "*";
+
+    /**
+     * The name of the quality parameter.
+     */
+    private static final String QUALITY_PARAMETER = "q=";
+
+    /**
+     * The splitter of the list of the codings.
+     */
+    private static final Splitter LIST_SPLITTER = Splitter.on(',')
+            .trimResults().omitEmptyStrings();
+
+    /**
+     * The splitter of a coding and its parameters.
+     */
+    private static final Splitter PARAMETER_SPLITTER = Splitter.on(';')
+            .trimResults();
+
+    /**
+     * The accept encoding of a request without the header.
+     */
+    private static final AcceptEncoding IDENTITY_ONLY = new AcceptEncoding(
+            new HashMap<>());
+
+    /**
+     * The quality values of the codings listed (lower case).
+     */
+    private final Map<String, Float> qualities;
+
+    /**
+     * Creates the accept encoding.
+     *
+     * @param qualities
+     *            the quality values of the codings listed (lower case)
+     */
+    private AcceptEncoding(final Map<String, Float> qualities) {
+        this.qualities = qualities;
+    }
+
+    /**
+     * Parses the value of an <code>Accept-Encoding</code> header. A coding
+     * with a malformed quality value is considered not acceptable.
+     *
+     * @param value
+     *            the value of the header (<code>null</code> if none)
+     * @return the accept encoding
+     */
+    public static AcceptEncoding parse(final String value) {
+        if (value == null) {
+            return IDENTITY_ONLY;
+        }
+
+        Map<String, Float> qualities = new HashMap<>();
+        for (String element : LIST_SPLITTER.split(value)) {
+            String coding = null;
+            float quality = 1;
+            for (String part : PARAMETER_SPLITTER.split(element)) {
+                if (coding == null) {
+                    coding = part.toLowerCase(Locale.ROOT);
+                } else if (part.startsWith(QUALITY_PARAMETER)) {
+                    quality = parseQuality(
+                            part.substring(QUALITY_PARAMETER.length()));
+                }
+            }
+            if (X_GZIP.equals(coding)) {
+                coding = GZIP;
+            }
+            qualities.put(coding, quality);
+        }
+        return new AcceptEncoding(qualities);
+    }
+
+    /**
+     * Gets the quality value of the content coding given.
+     *
+     * @param coding
+     *            the content coding (lower case)
+     * @return the quality value (0 if not acceptable)
+     */
+    public float getQuality(final String coding) {
+        Float quality = qualities.get(coding);
+        if (quality == null) {
+            quality = qualities.get(ANY);
+        }
+        if (quality == null) {
+            if (IDENTITY.equals(coding)) {
+                return 1;
+            }
+            return 0;
+        }
+        return quality;
+    }
+
+    /**
+     * @param coding
+     *            the content coding (lower case)
+     * @return is the content coding acceptable
+     */
+    public boolean accepts(final String coding) {
+        return getQuality(coding) > 0;
+    }
+
+    /**
+     * Parses a quality value.
+     *
+     * @param text
+     *            the text to parse
+     * @return the quality value (0 if malformed or out of range)
+     */
+    private static float parseQuality(final String text) {
+        try {
+            float quality = Float.parseFloat(text);
+            if (quality >= 0 && quality <= 1) {
+                return quality;
+            }
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AcceptEncoding [qualities=" + qualities + "]";
+    }
+
+}
@@ -0,0 +1,393 @@
+package krystiannowak.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An access log kept off the request path: a request is recorded as a fixed
+ * size record (timestamp, method, path, status, bytes and latency - the
+ * strings just being references to the ones of the request) in a lock-free
+ * ring buffer, and a background thread drains the ring, formats the records
+ * and writes them to a file, rotated once it gets too large. Recording never
+ * formats, allocates nor blocks: many threads claim the slots with a CAS, and
+ * if the ring is full (the file cannot keep up) the record is dropped and
+ * counted.
+ * <p>
+ * A line of the file consists of the timestamp (ISO-8601, UTC), the method,
+ * the path, the status code, the length of the body in bytes (<code>-</code>
+ * if not known) and the latency in microseconds, separated with spaces.
+ *
+ * @author krystiannowak
+ *
+ */
+final class AccessLog implements Closeable {
+
+    /**
+     * The time the drainer sleeps for when the ring is empty.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(10);
+
+    /**
+     * The separator of the lines.
+     */
+    private static final char LINE_SEPARATOR = '\n';
+
+    /**
+     * A static logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+    /**
+     * The file to write to.
+     */
+    private final Path file;
+
+    /**
+     * The size in bytes a file is rotated at.
+     */
+    private final long maxFileSize;
+
+    /**
+     * The number of rotated files kept.
+     */
+    private final int files;
+
+    /**
+     * The number of slots of the ring (a power of 2).
+     */
+    private final int capacity;
+
+    /**
+     * The timestamps of the records in milliseconds since the epoch, by slot.
+     */
+    private final long[] timestamps;
+
+    /**
+     * The methods of the records, by slot.
+     */
+    private final String[] methods;
+
+    /**
+     * The paths of the records, by slot.
+     */
+    private final String[] paths;
+
+    /**
+     * The status codes of the records, by slot.
+     */
+    private final int[] statuses;
+
+    /**
+     * The lengths of the bodies of the records (-1 if not known), by slot.
+     */
+    private final long[] lengths;
+
+    /**
+     * The latencies of the records in nanoseconds, by slot.
+     */
+    private final long[] latencies;
+
+    /**
+     * The sequence (plus one) of the record published in a slot.
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The next sequence to be claimed.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * The next sequence to be drained (written by the drainer only).
+     */
+    private volatile long drained;
+
+    /**
+     * The number of records dropped as the ring was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The thread draining the ring, <code>null</code> if not started.
+     */
+    private Thread drainer;
+
+    /**
+     * Whether the drainer should keep running.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * The writer of the file (used by the drainer only), <code>null</code> if
+     * not open.
+     */
+    private Writer writer;
+
+    /**
+     * The size in bytes of the file being written (roughly - the characters
+     * written are counted).
+     */
+    private long fileSize;
+
+    /**
+     * Creates the log (not started).
+     *
+     * @param file
+     *            the file to write to
+     * @param capacity
+     *            the number of records the ring can hold (rounded up to a
+     *            power of 2)
+     * @param maxFileSize
+     *            the size in bytes a file is rotated at
+     * @param files
+     *            the number of rotated files kept
+     */
+    AccessLog(final Path file, final int capacity, final long maxFileSize,
+            final int files) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.files = files;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.timestamps = new long[this.capacity];
+        this.methods = new String[this.capacity];
+        this.paths = new String[this.capacity];
+        this.statuses = new int[this.capacity];
+        this.lengths = new long[this.capacity];
+        this.latencies = new long[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+    }
+
+    /**
+     * Starts the daemon thread draining the ring.
+     */
+    void start() {
+        drainer = new Thread(this::drainUntilClosed, "access-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Records a request handled (never blocking).
+     *
+     * @param method
+     *            the method of the request
+     * @param path
+     *            the Request-URI of the request
+     * @param status
+     *            the status code of the response
+     * @param length
+     *            the length of the body of the response (-1 if not known)
+     * @param latencyNanos
+     *            the latency of handling the request in nanoseconds
+     */
+    void log(final String method, final String path, final int status,
+            final long length, final long latencyNanos) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - drained >= capacity) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & (capacity - 1);
+        timestamps[slot] = System.currentTimeMillis();
+        methods[slot] = method;
+        paths[slot] = path;
+        statuses[slot] = status;
+        lengths[slot] = length;
+        latencies[slot] = latencyNanos;
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Drains the ring until the log is closed, sleeping while it is empty.
+     */
+    private void drainUntilClosed() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes all the records published so far to the file (called by the
+     * drainer, or on close once the drainer has finished).
+     *
+     * @return the number of records drained
+     */
+    int drain() {
+        long sequence = drained;
+        int count = 0;
+        StringBuilder line = new StringBuilder();
+        try {
+            while (true) {
+                int slot = (int) sequence & (capacity - 1);
+                if (published.get(slot) != sequence + 1) {
+                    break;
+                }
+                format(slot, line);
+                methods[slot] = null;
+                paths[slot] = null;
+                sequence++;
+                drained = sequence;
+                count++;
+                write(line);
+            }
+            if (count > 0 && writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            LOG.warn("cannot write access log {}", file, e);
+            closeWriter();
+        }
+        return count;
+    }
+
+    /**
+     * Formats a record into a line.
+     *
+     * @param slot
+     *            the slot of the record
+     * @param line
+     *            the builder to format the line into (cleared first)
+     */
+    private void format(final int slot, final StringBuilder line) {
+        line.setLength(0);
+        DateTimeFormatter.ISO_INSTANT.formatTo(
+                Instant.ofEpochMilli(timestamps[slot]), line);
+        line.append(' ').append(methods[slot]).append(' ')
+                .append(paths[slot]).append(' ').append(statuses[slot])
+                .append(' ');
+        if (lengths[slot] < 0) {
+            line.append('-');
+        } else {
+            line.append(lengths[slot]);
+        }
+        line.append(' ')
+                .append(TimeUnit.NANOSECONDS.toMicros(latencies[slot]))
+                .append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes a line to the file, rotating it first if it is too large.
+     *
+     * @param line
+     *            the line to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void write(final CharSequence line) throws IOException {
+        if (writer != null && fileSize >= maxFileSize) {
+            closeWriter();
+            rotate();
+        }
+        if (writer == null) {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            fileSize = Files.size(file);
+        }
+        writer.append(line);
+        fileSize += line.length();
+    }
+
+    /**
+     * Shifts the rotated files by one (dropping the oldest) and makes the
+     * file the first rotated one.
+     *
+     * @throws IOException
+     *             if a file cannot be moved
+     */
+    private void rotate() throws IOException {
+        Files.deleteIfExists(rotated(files));
+        for (int i = files - 1; i >= 1; i--) {
+            if (Files.exists(rotated(i))) {
+                Files.move(rotated(i), rotated(i + 1),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (files > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Gets the path of a rotated file.
+     *
+     * @param index
+     *            the index of the rotated file (1 for the newest)
+     * @return the path of the rotated file
+     */
+    private Path rotated(final int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    /**
+     * Closes the writer of the file quietly.
+     */
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.debug("cannot close access log {}", file, e);
+        }
+        writer = null;
+    }
+
+    /**
+     * @return the number of records dropped as the ring was full
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    long getPending() {
+        return Math.min(capacity, claimed.get() - drained);
+    }
+
+    /**
+     * Stops the drainer, writing all the records published before.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (drainer != null) {
+            LockSupport.unpark(drainer);
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+        closeWriter();
+    }
+
+}
@@ -0,0 +1,297 @@
+package krystiannowak.webserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A pool of worker threads sizing itself to the blocking ratio of its tasks.
+ * The wall clock and the CPU time of every task are measured (the latter with
+ * the {@link ThreadMXBean}), and once per period the pool is resized to keep
+ * the cores busy without oversubscribing them, as per the formula of
+ * <i>Java Concurrency in Practice</i>: <code>cores * (1 + wait / cpu)</code>,
+ * within the configured bounds. A workload blocked on the disk or on the
+ * clients gets more threads, a CPU bound one as many as there are cores.
+ * <p>
+ * A thread is taken up by a task for all its duration, waits for input
+ * included, so the pool never gets smaller than the number of tasks running
+ * and waiting for a thread, and it grows by the tasks waiting as soon as one
+ * is queued (up to the highest size), instead of leaving them to wait for a
+ * task to complete or for the next resizing.
+ * <p>
+ * A task waiting for input that may take arbitrarily long (such as a
+ * Keep-Alive connection waiting for the next request of its client) marks the
+ * wait with {@link #beginIdle()} and {@link #endIdle()}: the wait is left out
+ * of the measurement, as more threads would not make it any shorter, and the
+ * time measured so far is accounted right away, so that a long running task
+ * contributes to every resizing instead of only once it completes.
+ * <p>
+ * The queue of the tasks waiting for a thread is bounded, holding as many as
+ * the pool may have threads: once it is full, threads are added up to the
+ * highest size, and past that a task is rejected (with a
+ * {@link java.util.concurrent.RejectedExecutionException}), so that an
+ * overload is shed instead of waiting without bound.
+ * <p>
+ * If the CPU time of threads cannot be measured, the pool keeps its minimum
+ * size.
+ *
+ * @author krystiannowak
+ *
+ */
+final class AdaptiveThreadPool extends ThreadPoolExecutor {
+
+    /**
+     * The period of resizing in milliseconds.
+     */
+    private static final long RESIZE_PERIOD_MILLIS = 1000;
+
+    /**
+     * The time in seconds a thread over the current size is kept idle.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * A static logger.
+     */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(AdaptiveThreadPool.class);
+
+    /**
+     * The measurement of the CPU time of threads.
+     */
+    private static final ThreadMXBean THREADS = ManagementFactory
+            .getThreadMXBean();
+
+    /**
+     * The pool running the current thread's task, <code>null</code> if none.
+     */
+    private static final ThreadLocal<AdaptiveThreadPool> CURRENT =
+            new ThreadLocal<>();
+
+    /**
+     * The lowest size.
+     */
+    private final int minThreads;
+
+    /**
+     * The highest size.
+     */
+    private final int maxThreads;
+
+    /**
+     * The number of cores to keep busy.
+     */
+    private final int cores;
+
+    /**
+     * Whether the CPU time of threads is measured.
+     */
+    private final boolean measured;
+
+    /**
+     * The start times (wall clock and CPU) of the task run by a thread.
+     */
+    private final ThreadLocal<long[]> starts = ThreadLocal
+            .withInitial(() -> new long[2]);
+
+    /**
+     * The wall clock time of the tasks completed since the last resizing.
+     */
+    private final LongAdder wallNanos = new LongAdder();
+
+    /**
+     * The CPU time of the tasks completed since the last resizing.
+     */
+    private final LongAdder cpuNanos = new LongAdder();
+
+    /**
+     * The number of resizings done.
+     */
+    private final AtomicLong resizes = new AtomicLong();
+
+    /**
+     * The thread resizing the pool periodically.
+     */
+    private final ScheduledExecutorService resizer;
+
+    /**
+     * The blocking ratio (wait to CPU time) last measured.
+     */
+    private volatile double blockingRatio;
+
+    /**
+     * Creates the pool, starting with the lowest size.
+     *
+     * @param minThreads
+     *            the lowest size
+     * @param maxThreads
+     *            the highest size
+     * @param cores
+     *            the number of cores to keep busy
+     */
+    AdaptiveThreadPool(final int minThreads, final int maxThreads,
+            final int cores) {
+        super(Math.max(1, minThreads), Math.max(minThreads, maxThreads),
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1,
+                        Math.max(minThreads, maxThreads))),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("worker-%d").build());
+        this.minThreads = getCorePoolSize();
+        this.maxThreads = getMaximumPoolSize();
+        this.cores = cores;
+        this.measured = THREADS.isCurrentThreadCpuTimeSupported();
+        if (measured && !THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        this.resizer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("worker-resizer").build());
+        if (measured && this.minThreads < this.maxThreads) {
+            resizer.scheduleAtFixedRate(this::resize, RESIZE_PERIOD_MILLIS,
+                    RESIZE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        super.execute(command);
+        int queued = getQueue().size();
+        if (queued == 0) {
+            return;
+        }
+        int demand = getActiveCount() + queued;
+        int current = getCorePoolSize();
+        if (demand > current && current < maxThreads) {
+            int size = Math.min(maxThreads, demand);
+            setCorePoolSize(size);
+            resizes.incrementAndGet();
+            LOG.debug("worker pool grown from {} to {} threads for {} queued",
+                    current, size, queued);
+        }
+    }
+
+    @Override
+    protected void beforeExecute(final Thread thread, final Runnable task) {
+        CURRENT.set(this);
+        startMeasurement();
+    }
+
+    @Override
+    protected void afterExecute(final Runnable task, final Throwable failure) {
+        CURRENT.remove();
+        stopMeasurement();
+    }
+
+    /**
+     * Marks the current task as starting to wait for input (e.g. from a
+     * client), leaving the wait out of the measurement. Does nothing if the
+     * current thread is not a worker of a pool.
+     */
+    static void beginIdle() {
+        AdaptiveThreadPool pool = CURRENT.get();
+        if (pool != null) {
+            pool.stopMeasurement();
+        }
+    }
+
+    /**
+     * Marks the current task as done waiting for input, measuring it again.
+     * Does nothing if the current thread is not a worker of a pool.
+     */
+    static void endIdle() {
+        AdaptiveThreadPool pool = CURRENT.get();
+        if (pool != null) {
+            pool.startMeasurement();
+        }
+    }
+
+    /**
+     * Starts measuring the wall clock and the CPU time of the current thread.
+     */
+    private void startMeasurement() {
+        long[] start = starts.get();
+        start[0] = System.nanoTime();
+        if (measured) {
+            start[1] = THREADS.getCurrentThreadCpuTime();
+        }
+    }
+
+    /**
+     * Accounts the wall clock and the CPU time of the current thread since
+     * the measurement started.
+     */
+    private void stopMeasurement() {
+        long[] start = starts.get();
+        wallNanos.add(System.nanoTime() - start[0]);
+        if (measured) {
+            cpuNanos.add(THREADS.getCurrentThreadCpuTime() - start[1]);
+        }
+    }
+
+    /**
+     * Resizes the pool to the blocking ratio of the tasks measured since the
+     * last resizing (keeping the size if none), but not below the number of
+     * tasks running and waiting for a thread.
+     */
+    void resize() {
+        long wall = wallNanos.sumThenReset();
+        long cpu = Math.max(1, cpuNanos.sumThenReset());
+        int current = getCorePoolSize();
+        long target = current;
+        if (wall > 0) {
+            double ratio = Math.max(0, wall - cpu) / (double) cpu;
+            blockingRatio = ratio;
+            target = Math.round(Math.ceil(cores * (1 + ratio)));
+        }
+        target = Math.max(target, getActiveCount() + getQueue().size());
+
+        int size = (int) Math.max(minThreads, Math.min(maxThreads, target));
+        if (size != current) {
+            setCorePoolSize(size);
+            resizes.incrementAndGet();
+            LOG.info("worker pool resized from {} to {} threads (blocking "
+                    + "ratio {}, queued {})", current, size,
+                    String.format("%.2f", blockingRatio), getQueue().size());
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the number of resizings done
+     */
+    long getResizes() {
+        return resizes.get();
+    }
+
+    /**
+     * @return the blocking ratio (wait to CPU time) last measured
+     */
+    double getBlockingRatio() {
+        return blockingRatio;
+    }
+
+    @Override
+    protected void terminated() {
+        resizer.shutdownNow();
+        super.terminated();
+    }
+
+}
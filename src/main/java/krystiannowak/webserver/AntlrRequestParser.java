@@ -1,11 +1,8 @@
 package krystiannowak.webserver;
 
-import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
-
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 import java.util.Optional;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
@@ -16,8 +13,6 @@ import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.primitives.Bytes;
-
 import krystiannowak.webserver.gen.HttpRequestBaseListener;
 import krystiannowak.webserver.gen.HttpRequestLexer;
 import krystiannowak.webserver.gen.HttpRequestParser;
@@ -25,9 +20,14 @@ import krystiannowak.webserver.gen.HttpRequestParser.AcceptContext;
 import krystiannowak.webserver.gen.HttpRequestParser.AcceptEncodingContext;
 import krystiannowak.webserver.gen.HttpRequestParser.AcceptLanguageContext;
 import krystiannowak.webserver.gen.HttpRequestParser.ConnectionContext;
+import krystiannowak.webserver.gen.HttpRequestParser.ExtensionHeaderContext;
 import krystiannowak.webserver.gen.HttpRequestParser.HostContext;
 import krystiannowak.webserver.gen.HttpRequestParser.HttpVersionContext;
+import krystiannowak.webserver.gen.HttpRequestParser.IfModifiedSinceContext;
+import krystiannowak.webserver.gen.HttpRequestParser.IfNoneMatchContext;
+import krystiannowak.webserver.gen.HttpRequestParser.IfRangeContext;
 import krystiannowak.webserver.gen.HttpRequestParser.MethodContext;
+import krystiannowak.webserver.gen.HttpRequestParser.RangeContext;
 import krystiannowak.webserver.gen.HttpRequestParser.RefererContext;
 import krystiannowak.webserver.gen.HttpRequestParser.RequestURIContext;
 import krystiannowak.webserver.gen.HttpRequestParser.UserAgentContext;
@@ -35,7 +35,9 @@ import rx.Observable;
 
 /**
  * HTTP request parser based on ANTLR v4 grammar definition (simplified for this
- * exercise example).
+ * exercise example). The stream is split into request heads by a
+ * {@link RequestFramer}, so pipelined requests are parsed one by one, in
+ * order.
  *
  * @author krystiannowak
  *
@@ -47,53 +49,6 @@ public class AntlrRequestParser implements RequestParser {
      */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    /**
-     * Extracts bytes from an {@link InputStream} given till the moment the data
-     * from the stream is available. All other data which is not yet ready is
-     * abandoned (possibly for next consumption from the stream, as the stream
-     * is not closed after data extraction).
-     *
-     * @param is
-     *            the {@link InputStream} to extract bytes from
-     * @return the extracted bytes of data
-     * @throws IOException
-     *             in case an I/O error occurs
-     */
-    private byte[] readAvailable(final InputStream is) throws IOException {
-
-        byte[] result = readSome(is);
-        int availableEstimate = 0;
-        while ((availableEstimate = is.available()) > 0) {
-            byte[] buffer = new byte[availableEstimate];
-            int readLength = is.read(buffer, 0, buffer.length);
-            if (readLength > 0) {
-                result = Bytes.concat(result,
-                        Arrays.copyOf(buffer, readLength));
-            }
-        }
-
-        return result;
-    }
-
-    /**
-     * Reads some symbolic amount of data blocking on read.
-     *
-     * @param is
-     *            the {@link InputStream} to extract bytes from
-     * @return the extracted bytes of data
-     * @throws IOException
-     *             in case an I/O error occurs
-     */
-    private byte[] readSome(final InputStream is) throws IOException {
-        byte[] buffer = new byte[1];
-        int readLength = is.read(buffer, 0, buffer.length);
-        if (readLength > 0) {
-            return Arrays.copyOf(buffer, readLength);
-        } else {
-            return new byte[0];
-        }
-    }
-
     /**
      * Converts the binary buffer content into {@link Request}.
      *
@@ -104,8 +59,6 @@ public class AntlrRequestParser implements RequestParser {
      *             in case an I/O exception occurs
      */
     private Request fromBuffer(final byte[] buffer) throws IOException {
-        log.info("buffering received data: {}", deserialize(buffer));
-
         CharStream charStream = new ANTLRInputStream(
                 new ByteArrayInputStream(buffer));
         HttpRequestLexer lexer = new HttpRequestLexer(charStream);
@@ -173,6 +126,43 @@ public class AntlrRequestParser implements RequestParser {
                         .ifPresent(val -> request.setConnection(val));
             }
 
+            @Override
+            public void enterIfNoneMatch(final IfNoneMatchContext ctx) {
+                extractHeaderValue(ctx)
+                        .ifPresent(val -> request.setIfNoneMatch(val));
+            }
+
+            @Override
+            public void enterIfModifiedSince(
+                    final IfModifiedSinceContext ctx) {
+                extractHeaderValue(ctx)
+                        .ifPresent(val -> request.setIfModifiedSince(val));
+            }
+
+            @Override
+            public void enterRange(final RangeContext ctx) {
+                extractHeaderValue(ctx)
+                        .ifPresent(val -> request.setRange(val));
+            }
+
+            @Override
+            public void enterIfRange(final IfRangeContext ctx) {
+                extractHeaderValue(ctx)
+                        .ifPresent(val -> request.setIfRange(val));
+            }
+
+            @Override
+            public void enterExtensionHeader(
+                    final ExtensionHeaderContext ctx) {
+                String header = ctx.getText();
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    request.getHeaders().add(
+                            header.substring(0, colon).trim(),
+                            header.substring(colon + 1).trim());
+                }
+            }
+
             private Optional<String> extractHeaderValue(final ParseTree tree) {
                 if (tree.getChildCount() >= 2) {
                     return Optional.of(tree.getChild(1).getText().trim());
@@ -188,14 +178,15 @@ public class AntlrRequestParser implements RequestParser {
     @Override
     public final Observable<Request> parse(final InputStream is) {
         return Observable.create(subscriber -> {
+            RequestFramer framer = new RequestFramer();
             try {
                 boolean keepAlive = true;
                 while (keepAlive) {
 
-                    byte[] buffer = readAvailable(is);
-                    if (buffer.length > 0) {
+                    byte[] buffer = framer.next(is);
+                    if (buffer != null) {
                         Request request = fromBuffer(buffer);
-                        log.info("emitting parsed requst = {}", request);
+                        log.debug("emitting parsed request = {}", request);
                         subscriber.onNext(request);
 
                         if (!request.isKeepAlive()) {
@@ -0,0 +1,343 @@
+package krystiannowak.webserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct {@link ByteBuffer}s for socket reads and writes, so that
+ * the channels do not copy the data through a temporary native buffer on
+ * every call and no buffer is allocated per request. The buffers come in size
+ * classes (powers of 2) and a buffer released goes to a small cache of the
+ * releasing thread first (taken back without any synchronization), then to a
+ * lock-free queue shared by all the threads. The memory kept by the pool is
+ * capped, the thread caches included (each a few tens of kilobytes per size
+ * class, so a few megabytes with hundreds of workers); a buffer released over
+ * the cap (or of no size class) is just dropped. Only once the cap is reached
+ * the caches of the threads terminated are looked for, their memory given
+ * back to the cap.
+ * <p>
+ * With leak detection on, every buffer acquired is tracked together with the
+ * stack trace of its acquisition until released, and releasing a buffer not
+ * acquired (or released twice) fails. A pool of no memory allocates heap
+ * buffers and keeps none.
+ *
+ * @author krystiannowak
+ *
+ */
+final class BufferPool {
+
+    /**
+     * The size of the smallest size class.
+     */
+    static final int MIN_SIZE = 512;
+
+    /**
+     * The size of the largest size class.
+     */
+    static final int MAX_SIZE = 64 * 1024;
+
+    /**
+     * The memory in bytes kept by the cache of a thread per size class.
+     */
+    private static final int THREAD_CACHE_BYTES = 32 * 1024;
+
+    /**
+     * The number of size classes.
+     */
+    private static final int SIZE_CLASSES = Integer
+            .numberOfTrailingZeros(MAX_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+    /**
+     * The cap of the memory in bytes kept by the pool.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     * Whether the buffers are direct ones (and pooled).
+     */
+    private final boolean direct;
+
+    /**
+     * The shared queues of the buffers released, by size class.
+     */
+    private final List<Queue<ByteBuffer>> shared;
+
+    /**
+     * The caches of the threads, by size class.
+     */
+    private final ThreadLocal<List<ArrayDeque<ByteBuffer>>> threadCaches;
+
+    /**
+     * The caches of all the threads which have used the pool, by thread.
+     */
+    private final Map<Thread, List<ArrayDeque<ByteBuffer>>> caches =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The memory in bytes kept by the pool (the shared queues and the thread
+     * caches).
+     */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * The number of buffers allocated.
+     */
+    private final LongAdder allocated = new LongAdder();
+
+    /**
+     * The number of buffers acquired.
+     */
+    private final LongAdder acquired = new LongAdder();
+
+    /**
+     * The number of buffers released.
+     */
+    private final LongAdder released = new LongAdder();
+
+    /**
+     * The stack traces of the acquisitions of the buffers not released yet
+     * (by buffer identity), <code>null</code> if leak detection is off.
+     */
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    /**
+     * Creates the pool.
+     *
+     * @param maxPooledBytes
+     *            the cap of the memory in bytes kept by the pool (0 disables
+     *            pooling)
+     * @param leakDetection
+     *            whether the buffers not released are to be tracked
+     */
+    BufferPool(final long maxPooledBytes, final boolean leakDetection) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.direct = maxPooledBytes > 0;
+        this.shared = new ArrayList<>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            shared.add(new ConcurrentLinkedQueue<>());
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            List<ArrayDeque<ByteBuffer>> cache = new ArrayList<>(
+                    SIZE_CLASSES);
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                cache.add(new ArrayDeque<>());
+            }
+            caches.put(Thread.currentThread(), cache);
+            return cache;
+        });
+        if (leakDetection) {
+            this.outstanding = Collections
+                    .synchronizedMap(new IdentityHashMap<>());
+        } else {
+            this.outstanding = null;
+        }
+    }
+
+    /**
+     * Acquires a cleared buffer of at least the size given (the size of its
+     * size class), to be released when no longer used.
+     *
+     * @param size
+     *            the lowest capacity of the buffer
+     * @return the buffer
+     */
+    ByteBuffer acquire(final int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (direct && sizeClass >= 0) {
+            buffer = threadCaches.get().get(sizeClass).poll();
+            if (buffer == null) {
+                buffer = shared.get(sizeClass).poll();
+            }
+            if (buffer != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+        if (buffer == null) {
+            buffer = allocate(Math.max(size, classSize(sizeClass)));
+        }
+        acquired.increment();
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("buffer of "
+                    + buffer.capacity() + " bytes acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Releases a buffer acquired, to be reused. It must not be used
+     * afterwards.
+     *
+     * @param buffer
+     *            the buffer to release
+     */
+    void release(final ByteBuffer buffer) {
+        if (outstanding != null && outstanding.remove(buffer) == null) {
+            throw new IllegalStateException(
+                    "buffer not acquired or released already");
+        }
+        released.increment();
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        if (!direct || !buffer.isDirect() || sizeClass < 0
+                || classSize(sizeClass) != capacity) {
+            return;
+        }
+        if (!reserve(capacity)) {
+            return;
+        }
+        buffer.clear();
+        ArrayDeque<ByteBuffer> cache = threadCaches.get().get(sizeClass);
+        if (cache.size() * capacity < THREAD_CACHE_BYTES) {
+            cache.push(buffer);
+        } else {
+            shared.get(sizeClass).offer(buffer);
+        }
+    }
+
+    /**
+     * Reserves the memory of a buffer to be kept within the cap, looking for
+     * the caches of the threads terminated once the cap is reached.
+     *
+     * @param capacity
+     *            the capacity of the buffer
+     * @return whether reserved, <code>false</code> if over the cap
+     */
+    private boolean reserve(final int capacity) {
+        boolean reclaimed = false;
+        while (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            if (reclaimed || !reclaimTerminatedThreadCaches()) {
+                return false;
+            }
+            reclaimed = true;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the caches of the threads terminated, giving their memory back to
+     * the cap.
+     *
+     * @return whether any cache was dropped
+     */
+    private boolean reclaimTerminatedThreadCaches() {
+        boolean dropped = false;
+        for (Map.Entry<Thread, List<ArrayDeque<ByteBuffer>>> entry : caches
+                .entrySet()) {
+            if (entry.getKey().isAlive()
+                    || !caches.remove(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            for (ArrayDeque<ByteBuffer> cache : entry.getValue()) {
+                for (ByteBuffer buffer : cache) {
+                    pooledBytes.addAndGet(-buffer.capacity());
+                }
+            }
+            dropped = true;
+        }
+        return dropped;
+    }
+
+    /**
+     * Allocates a new buffer.
+     *
+     * @param capacity
+     *            the capacity of the buffer
+     * @return the buffer
+     */
+    private ByteBuffer allocate(final int capacity) {
+        allocated.increment();
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Finds the size class of the buffers of the size given.
+     *
+     * @param size
+     *            the size of a buffer
+     * @return the index of the size class, -1 if too large for any
+     */
+    private static int sizeClass(final int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        int rounded = Math.max(MIN_SIZE,
+                Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        return Integer.numberOfTrailingZeros(rounded)
+                - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Gets the size of the buffers of a size class.
+     *
+     * @param sizeClass
+     *            the index of the size class (-1 for none)
+     * @return the size of the buffers, 0 if no size class
+     */
+    private static int classSize(final int sizeClass) {
+        if (sizeClass < 0) {
+            return 0;
+        }
+        return MIN_SIZE << sizeClass;
+    }
+
+    /**
+     * @return the number of buffers allocated so far
+     */
+    long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return the number of buffers acquired and not released yet
+     */
+    long getInUse() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * @return the memory in bytes kept by the pool
+     */
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the cap of the memory in bytes kept by the pool
+     */
+    long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Gets the stack traces of the acquisitions of the buffers not released
+     * yet (if leak detection is on).
+     *
+     * @return the stack traces (empty if leak detection is off)
+     */
+    Collection<Throwable> getLeaks() {
+        if (outstanding == null) {
+            return Collections.emptyList();
+        }
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link MessageBody} backed by a {@link ByteBuffer} in memory.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class ByteBufferBody implements MessageBody {
+
+    /**
+     * The content of the body (its remaining bytes are yet to be written).
+     */
+    private final ByteBuffer content;
+
+    /**
+     * The length of the body.
+     */
+    private final long length;
+
+    /**
+     * Creates the body. The buffer given is not copied, but only its
+     * remaining bytes are used, without modifying its position.
+     *
+     * @param content
+     *            the content of the body
+     */
+    public ByteBufferBody(final ByteBuffer content) {
+        this.content = content.duplicate();
+        this.length = content.remaining();
+    }
+
+    /**
+     * @return the remaining content of the body, not to be modified
+     */
+    ByteBuffer getContent() {
+        return content;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean writeTo(final WritableByteChannel channel)
+            throws IOException {
+        if (content.hasRemaining()) {
+            channel.write(content);
+        }
+        return !content.hasRemaining();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferBody [length=" + getLength() + "]";
+    }
+
+}
@@ -0,0 +1,238 @@
+package krystiannowak.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+/**
+ * A satisfiable byte range of a representation as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-14.35.1">https://tools.
+ * ietf.org/html/rfc2616#section-14.35.1</a>, i.e. resolved against the length
+ * of the representation.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class ByteRange {
+
+    /**
+     * The only range unit supported.
+     */
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * The maximum number of ranges in a single request - requests for more
+     * (tiny, typically) ranges are served the whole representation, rather
+     * than a multipart body costing more than the content itself.
+     */
+    private static final int MAX_RANGES = 64;
+
+    /**
+     * The splitter of a byte-range-set.
+     */
+    private static final Splitter RANGE_SET_SPLITTER = Splitter.on(',')
+            .trimResults().omitEmptyStrings();
+
+    /**
+     * The matcher of the digits of a byte position.
+     */
+    private static final CharMatcher DIGITS = CharMatcher.inRange('0', '9');
+
+    /**
+     * The position of the first byte of the range.
+     */
+    private final long first;
+
+    /**
+     * The position of the last byte of the range (inclusive).
+     */
+    private final long last;
+
+    /**
+     * Creates the range.
+     *
+     * @param first
+     *            the position of the first byte of the range
+     * @param last
+     *            the position of the last byte of the range (inclusive)
+     */
+    public ByteRange(final long first, final long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header and resolves it against
+     * the length of the representation. The ranges which cannot be satisfied
+     * are dropped, the overlapping or adjacent ones are coalesced. Ranges
+     * adding up to more than the whole representation (e.g. the same range
+     * repeated) are not served at all, so that a single request cannot get
+     * the representation sent many times over.
+     *
+     * @param value
+     *            the value of the header
+     * @param length
+     *            the length of the representation
+     * @return the satisfiable ranges in ascending order (empty if none of the
+     *         ranges can be satisfied) or <code>null</code> if the header is to
+     *         be ignored (malformed, in an unknown unit, with too many ranges
+     *         or with ranges longer than the representation in total)
+     */
+    public static List<ByteRange> parse(final String value,
+            final long length) {
+        if (!value.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        List<String> specs = RANGE_SET_SPLITTER
+                .splitToList(value.substring(BYTES_UNIT.length()));
+        if (specs.isEmpty() || specs.size() > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(specs.size());
+        for (String spec : specs) {
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    long suffixLength = parsePosition(spec.substring(1));
+                    if (suffixLength > 0 && length > 0) {
+                        ranges.add(new ByteRange(
+                                Math.max(0, length - suffixLength),
+                                length - 1));
+                    }
+                    continue;
+                }
+
+                long firstPosition = parsePosition(spec.substring(0, dash));
+                long lastPosition = length - 1;
+                if (dash < spec.length() - 1) {
+                    lastPosition = parsePosition(spec.substring(dash + 1));
+                    if (lastPosition < firstPosition) {
+                        return null;
+                    }
+                }
+                if (firstPosition < length) {
+                    ranges.add(new ByteRange(firstPosition,
+                            Math.min(lastPosition, length - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        long total = 0;
+        for (ByteRange range : ranges) {
+            total += range.getLength();
+        }
+        if (total > length) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    /**
+     * Sorts the ranges given and merges the overlapping or adjacent ones.
+     *
+     * @param ranges
+     *            the ranges to coalesce (sorted in place)
+     * @return the coalesced ranges in ascending order
+     */
+    private static List<ByteRange> coalesce(final List<ByteRange> ranges) {
+        ranges.sort(Comparator.comparingLong(ByteRange::getFirst));
+        List<ByteRange> coalesced = new ArrayList<>(ranges.size());
+        for (ByteRange range : ranges) {
+            int previous = coalesced.size() - 1;
+            if (previous >= 0
+                    && range.first <= coalesced.get(previous).last + 1) {
+                coalesced.set(previous,
+                        new ByteRange(coalesced.get(previous).first, Math.max(
+                                coalesced.get(previous).last, range.last)));
+            } else {
+                coalesced.add(range);
+            }
+        }
+        return Collections.unmodifiableList(coalesced);
+    }
+
+    /**
+     * Parses a byte position (digits only, no sign).
+     *
+     * @param text
+     *            the text to parse
+     * @return the byte position
+     * @throws NumberFormatException
+     *             if the text is not a valid byte position
+     */
+    private static long parsePosition(final String text) {
+        if (text.isEmpty() || !DIGITS.matchesAllOf(text)) {
+            throw new NumberFormatException("not a byte position: " + text);
+        }
+        return Long.parseLong(text);
+    }
+
+    /**
+     * @return the position of the first byte of the range
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the position of the last byte of the range (inclusive)
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return the number of bytes of the range
+     */
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Formats the value of a <code>Content-Range</code> header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.16">https://tools
+     * .ietf.org/html/rfc2616#section-14.16</a>.
+     *
+     * @param instanceLength
+     *            the length of the whole representation
+     * @return the content range of this range
+     */
+    public String toContentRange(final long instanceLength) {
+        return "bytes " + first + "-" + last + "/" + instanceLength;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) obj;
+        return first == other.first && last == other.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(first, last);
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRange [first=" + first + ", last=" + last + "]";
+    }
+
+}
@@ -0,0 +1,121 @@
+package krystiannowak.webserver;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Response} served from the {@link FileCache}: the whole response is
+ * already serialized, split into a prefix (Status-Line and entity headers) and
+ * a suffix (<code>Content-Length</code>, the empty line and the body), so that
+ * the {@link ResponseWriter} only has to put the headers added afterwards
+ * (e.g. Keep-Alive ones) in between.
+ *
+ * @author krystiannowak
+ *
+ */
+final class CachedResponse extends DefaultResponse {
+
+    /**
+     * The headers serialized in the prefix.
+     */
+    private final ResponseHeaders serializedHeaders;
+
+    /**
+     * The body serialized in the suffix.
+     */
+    private final MessageBody serializedBody;
+
+    /**
+     * The serialized Status-Line and entity headers.
+     */
+    private final ByteBuffer prefix;
+
+    /**
+     * The serialized <code>Content-Length</code>, empty line and body.
+     */
+    private final ByteBuffer suffix;
+
+    /**
+     * The body alone.
+     */
+    private final ByteBuffer content;
+
+    /**
+     * Creates the response.
+     *
+     * @param headers
+     *            the headers serialized in the prefix
+     * @param prefix
+     *            the serialized Status-Line and headers
+     * @param suffix
+     *            the serialized <code>Content-Length</code>, empty line and
+     *            body
+     * @param content
+     *            the body alone
+     */
+    CachedResponse(final ResponseHeaders headers, final ByteBuffer prefix,
+            final ByteBuffer suffix, final ByteBuffer content) {
+        super(HTTP_OK, "OK");
+        headers.forEach(this::putHeader);
+        this.serializedHeaders = headers;
+        this.serializedBody = new ByteBufferBody(content);
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.content = content;
+        setMessageBody(serializedBody);
+    }
+
+    /**
+     * Checks whether the serialized form still holds, i.e. the body has not
+     * been replaced and the serialized headers have not been changed (other
+     * headers may have been added after them).
+     *
+     * @return can the serialized prefix and suffix be written
+     */
+    boolean isSerialized() {
+        ResponseHeaders headers = getHeaders();
+        if (getMessageBody() != serializedBody
+                || headers.size() < serializedHeaders.size()) {
+            return false;
+        }
+        for (int i = 0; i < serializedHeaders.size(); i++) {
+            if (!serializedHeaders.getName(i).equals(headers.getName(i))
+                    || !serializedHeaders.getValue(i)
+                            .equals(headers.getValue(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a new response sharing the serialized buffers with this one
+     */
+    CachedResponse copy() {
+        return new CachedResponse(serializedHeaders, prefix, suffix, content);
+    }
+
+    /**
+     * @return the number of headers serialized in the prefix
+     */
+    int getSerializedHeaders() {
+        return serializedHeaders.size();
+    }
+
+    /**
+     * @return a new buffer of the serialized Status-Line and entity headers
+     */
+    ByteBuffer getPrefix() {
+        return prefix.duplicate();
+    }
+
+    /**
+     * @return a new buffer of the serialized <code>Content-Length</code>,
+     *         empty line and body
+     */
+    ByteBuffer getSuffix() {
+        return suffix.duplicate();
+    }
+
+}
@@ -0,0 +1,122 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link StreamingBody} of a length not known up front, sent with the
+ * chunked transfer coding as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-3.6.1">https://tools.
+ * ietf.org/html/rfc2616#section-3.6.1</a>. Each part of the content produced
+ * becomes a chunk framed in place in the buffer it is produced into (its size
+ * written zero-padded in front of it), so the framing costs no copy. The
+ * response of the body has to have the <code>Transfer-Encoding</code>
+ * header set to <code>chunked</code>.
+ *
+ * @author krystiannowak
+ *
+ */
+public abstract class ChunkedBody extends StreamingBody {
+
+    /**
+     * The value of the <code>Transfer-Encoding</code> header of a response
+     * with a chunked body.
+     */
+    public static final String CHUNKED = "chunked";
+
+    /**
+     * The hexadecimal digits.
+     */
+    private static final byte[] HEX_DIGITS = SimpleStringSerialization
+            .serialize("0123456789abcdef");
+
+    /**
+     * The number of hexadecimal digits of a chunk size.
+     */
+    private static final int SIZE_DIGITS = 8;
+
+    /**
+     * The number of bits of a hexadecimal digit.
+     */
+    private static final int BITS_PER_DIGIT = 4;
+
+    /**
+     * The mask of a hexadecimal digit.
+     */
+    private static final int DIGIT_MASK = 0xf;
+
+    /**
+     * The line separator of the chunks.
+     */
+    private static final byte[] CRLF = SimpleStringSerialization
+            .serialize("\r\n");
+
+    /**
+     * The last chunk with an empty trailer.
+     */
+    private static final byte[] LAST_CHUNK = SimpleStringSerialization
+            .serialize("0\r\n\r\n");
+
+    /**
+     * The space taken by the framing of a chunk (and the last chunk) in the
+     * buffer.
+     */
+    private static final int FRAMING_SIZE = SIZE_DIGITS + 2 * CRLF.length
+            + LAST_CHUNK.length;
+
+    /**
+     * Creates the body.
+     *
+     * @param bufferSize
+     *            the size of the buffer to produce the chunks into
+     */
+    protected ChunkedBody(final int bufferSize) {
+        super(UNKNOWN_LENGTH, bufferSize + FRAMING_SIZE);
+    }
+
+    /**
+     * Produces the next part of the content into the buffer given.
+     *
+     * @param target
+     *            the buffer to put the content into (it has some space
+     *            remaining)
+     * @return <code>true</code> if there is more content to be produced
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected abstract boolean produceChunk(ByteBuffer target)
+            throws IOException;
+
+    @Override
+    protected final boolean produce(final ByteBuffer target)
+            throws IOException {
+        int start = target.position();
+        int limit = target.limit();
+        int dataStart = start + SIZE_DIGITS + CRLF.length;
+
+        target.position(dataStart);
+        target.limit(limit - CRLF.length - LAST_CHUNK.length);
+        boolean more = produceChunk(target);
+        int size = target.position() - dataStart;
+        target.limit(limit);
+
+        if (size > 0) {
+            for (int i = 0; i < SIZE_DIGITS; i++) {
+                int shift = (SIZE_DIGITS - 1 - i) * BITS_PER_DIGIT;
+                target.put(start + i,
+                        HEX_DIGITS[(size >>> shift) & DIGIT_MASK]);
+            }
+            target.put(start + SIZE_DIGITS, CRLF[0]);
+            target.put(start + SIZE_DIGITS + 1, CRLF[1]);
+            target.put(CRLF);
+        } else {
+            target.position(start);
+        }
+
+        if (!more) {
+            target.put(LAST_CHUNK);
+        }
+        return more;
+    }
+
+}
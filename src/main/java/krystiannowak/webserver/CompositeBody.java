@@ -0,0 +1,86 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A {@link MessageBody} made of other bodies written one after another, e.g.
+ * small in-memory part headers interleaved with file regions of a
+ * <code>multipart/byteranges</code> body. Each part keeps its own way of
+ * being written, so the file regions are still transferred without copying.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class CompositeBody implements MessageBody {
+
+    /**
+     * The parts of the body.
+     */
+    private final List<MessageBody> parts;
+
+    /**
+     * The length of the body.
+     */
+    private final long length;
+
+    /**
+     * The index of the part being written.
+     */
+    private int current;
+
+    /**
+     * Creates the body.
+     *
+     * @param parts
+     *            the parts of the body
+     */
+    public CompositeBody(final List<MessageBody> parts) {
+        this.parts = parts;
+        long total = 0;
+        for (MessageBody part : parts) {
+            total += part.getLength();
+        }
+        this.length = total;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean writeTo(final WritableByteChannel channel)
+            throws IOException {
+        while (current < parts.size()) {
+            if (!parts.get(current).writeTo(channel)) {
+                return false;
+            }
+            current++;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (MessageBody part : parts) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeBody [parts=" + parts.size() + ", length=" + length
+                + "]";
+    }
+
+}
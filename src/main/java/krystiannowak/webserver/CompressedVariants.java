@@ -0,0 +1,453 @@
+package krystiannowak.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A cache of the variants of representations compressed on the fly, shared by
+ * all the connections. A variant is keyed by the resource, the content coding
+ * and the entity tag of the representation, so each version of a file (or a
+ * directory listing) is compressed once per coding, with the best compression
+ * level, no matter how many clients fetch it. The total size of the variants
+ * cached is bounded, the least recently used ones are evicted.
+ * <p>
+ * A representation which is not worth compressing (media compressed already,
+ * too large or not getting smaller) is remembered as such, so that it is not
+ * considered again until it changes.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class CompressedVariants {
+
+    /**
+     * The <code>deflate</code> content coding (the zlib format).
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * The compression level, the best one as each variant is compressed only
+     * once.
+     */
+    private static final int LEVEL = Deflater.BEST_COMPRESSION;
+
+    /**
+     * The weight of a cached entry apart from its content.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * The initial capacity of the map of entries.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the map of entries.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The compressible media types apart from <code>text/*</code> and the
+     * <code>+xml</code> and <code>+json</code> ones.
+     */
+    private static final Set<String> COMPRESSIBLE_TYPES = ImmutableSet.of(
+            "application/javascript", "application/x-javascript",
+            "application/ecmascript", "application/json", "application/xml",
+            "application/rss+xml", "application/atom+xml",
+            "image/svg+xml", "image/x-icon", "image/bmp",
+            "application/x-font-ttf", "font/ttf", "font/otf");
+
+    /**
+     * The maximum total weight of the variants cached.
+     */
+    private final long capacity;
+
+    /**
+     * The maximum length of a representation to be compressed.
+     */
+    private final long maxLength;
+
+    /**
+     * The entries in access order (guarded by <code>this</code>).
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>(
+            INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /**
+     * The total weight of the entries (guarded by <code>this</code>).
+     */
+    private long weight;
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity
+     *            the maximum total weight in bytes of the variants cached (0
+     *            disables compression)
+     * @param maxLength
+     *            the maximum length of a representation to be compressed
+     */
+    public CompressedVariants(final long capacity, final long maxLength) {
+        this.capacity = capacity;
+        this.maxLength = Math.min(maxLength, capacity);
+    }
+
+    /**
+     * Selects the content coding to compress with for a client: the
+     * acceptable one of the highest quality, <code>gzip</code> if equal.
+     *
+     * @param acceptEncoding
+     *            the codings acceptable to the client
+     * @return the content coding or <code>null</code> if none is acceptable
+     *         (or compression is disabled)
+     */
+    public String selectCoding(final AcceptEncoding acceptEncoding) {
+        if (capacity <= 0) {
+            return null;
+        }
+        float gzip = acceptEncoding.getQuality(AcceptEncoding.GZIP);
+        float deflate = acceptEncoding.getQuality(DEFLATE);
+        if (gzip > 0 && gzip >= deflate) {
+            return AcceptEncoding.GZIP;
+        }
+        if (deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether content of the media type given is worth compressing.
+     *
+     * @param contentType
+     *            the media type (possibly with parameters)
+     * @return is the media type compressible
+     */
+    public static boolean isCompressible(final String contentType) {
+        String type = contentType;
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        type = type.trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.endsWith("+xml")
+                || type.endsWith("+json") || COMPRESSIBLE_TYPES.contains(type);
+    }
+
+    /**
+     * Gets the variant of the file given compressed with the coding given,
+     * compressing it if not cached yet.
+     *
+     * @param file
+     *            the resolved absolute regular file
+     * @param metadata
+     *            the current metadata of the file
+     * @param coding
+     *            the content coding
+     * @return the compressed content or <code>null</code> if the file is not
+     *         worth compressing
+     */
+    public byte[] get(final File file, final ResourceMetadata metadata,
+            final String coding) {
+        String key = key(file.getPath(), coding);
+        Entry entry = lookup(key, metadata);
+        if (entry != null) {
+            return entry.content;
+        }
+
+        byte[] compressed = null;
+        if (isCompressible(MimeTypeUtils.guessContentType(file))
+                && file.length() <= maxLength) {
+            try {
+                compressed = compress(Files.readAllBytes(file.toPath()),
+                        coding);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return store(key, metadata, compressed);
+    }
+
+    /**
+     * Gets the cached variant of the file given compressed with the coding
+     * given, without compressing (nor reading) the file if not cached.
+     *
+     * @param file
+     *            the resolved absolute regular file
+     * @param metadata
+     *            the current metadata of the file
+     * @param coding
+     *            the content coding
+     * @return the compressed content or <code>null</code> if not cached (or
+     *         the file is not worth compressing)
+     */
+    public byte[] peek(final File file, final ResourceMetadata metadata,
+            final String coding) {
+        Entry entry = lookup(key(file.getPath(), coding), metadata);
+        if (entry == null) {
+            return null;
+        }
+        return entry.content;
+    }
+
+    /**
+     * Gets the variant of the content given compressed with the coding given,
+     * compressing it if not cached yet.
+     *
+     * @param key
+     *            the key of the resource of the content (distinct from file
+     *            paths)
+     * @param metadata
+     *            the current metadata of the content
+     * @param coding
+     *            the content coding
+     * @param content
+     *            the content to compress
+     * @return the compressed content or <code>null</code> if the content is
+     *         not worth compressing
+     */
+    public byte[] get(final String key, final ResourceMetadata metadata,
+            final String coding, final byte[] content) {
+        String variantKey = key(key, coding);
+        Entry entry = lookup(variantKey, metadata);
+        if (entry != null) {
+            return entry.content;
+        }
+
+        byte[] compressed = null;
+        if (content.length <= maxLength) {
+            compressed = compress(content, coding);
+        }
+        return store(variantKey, metadata, compressed);
+    }
+
+    /**
+     * @return the number of entries cached
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total weight in bytes of the entries cached
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * @param resource
+     *            the key of the resource
+     * @param coding
+     *            the content coding
+     * @return the key of the variant
+     */
+    private static String key(final String resource, final String coding) {
+        return coding + '\n' + resource;
+    }
+
+    /**
+     * Looks the entry of the current version of the representation up.
+     *
+     * @param key
+     *            the key of the variant
+     * @param metadata
+     *            the current metadata of the representation
+     * @return the entry or <code>null</code> if none for the current version
+     */
+    private synchronized Entry lookup(final String key,
+            final ResourceMetadata metadata) {
+        Entry entry = entries.get(key);
+        if (entry == null
+                || !entry.entityTag.equals(metadata.getEntityTag())) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the variant (or the lack of it) of the current version of the
+     * representation, evicting the least recently used entries over the
+     * capacity.
+     *
+     * @param key
+     *            the key of the variant
+     * @param metadata
+     *            the current metadata of the representation
+     * @param compressed
+     *            the compressed content or <code>null</code> if not worth
+     *            compressing
+     * @return the compressed content or <code>null</code> if not worth
+     *         compressing
+     */
+    private synchronized byte[] store(final String key,
+            final ResourceMetadata metadata, final byte[] compressed) {
+        Entry entry = new Entry(metadata.getEntityTag(), compressed);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight();
+        }
+        weight += entry.weight();
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+        }
+        return entry.content;
+    }
+
+    /**
+     * Compresses the content given, unless it does not get smaller.
+     *
+     * @param content
+     *            the content to compress
+     * @param coding
+     *            the content coding (<code>gzip</code> or
+     *            <code>deflate</code>)
+     * @return the compressed content or <code>null</code> if it is not
+     *         smaller than the content
+     */
+    private static byte[] compress(final byte[] content,
+            final String coding) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                content.length / 2 + 1);
+        try (OutputStream out = open(compressed, coding)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot compress in memory", e);
+        }
+        if (compressed.size() >= content.length) {
+            return null;
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Opens the compressing stream of the coding given.
+     *
+     * @param out
+     *            the stream to write the compressed content to
+     * @param coding
+     *            the content coding (<code>gzip</code> or
+     *            <code>deflate</code>)
+     * @return the compressing stream
+     * @throws IOException
+     *             if the stream cannot be opened
+     */
+    private static OutputStream open(final OutputStream out,
+            final String coding) throws IOException {
+        if (AcceptEncoding.GZIP.equals(coding)) {
+            return new LevelGzipOutputStream(out, LEVEL);
+        }
+        return new LevelDeflaterOutputStream(out, LEVEL);
+    }
+
+    /**
+     * A {@link DeflaterOutputStream} (the zlib format) compressing with the
+     * level given.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class LevelDeflaterOutputStream
+            extends DeflaterOutputStream {
+
+        /**
+         * Creates the stream.
+         *
+         * @param out
+         *            the stream to write the compressed content to
+         * @param level
+         *            the compression level
+         */
+        private LevelDeflaterOutputStream(final OutputStream out,
+                final int level) {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * A {@link GZIPOutputStream} compressing with the level given.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+
+        /**
+         * Creates the stream.
+         *
+         * @param out
+         *            the stream to write the compressed content to
+         * @param level
+         *            the compression level
+         * @throws IOException
+         *             if the header cannot be written
+         */
+        private LevelGzipOutputStream(final OutputStream out, final int level)
+                throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * A cached variant of a version of a representation.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * The entity tag of the version of the representation compressed.
+         */
+        private final String entityTag;
+
+        /**
+         * The compressed content (<code>null</code> if not worth
+         * compressing).
+         */
+        private final byte[] content;
+
+        /**
+         * Creates the entry.
+         *
+         * @param entityTag
+         *            the entity tag of the version of the representation
+         * @param content
+         *            the compressed content (<code>null</code> if not worth
+         *            compressing)
+         */
+        private Entry(final String entityTag, final byte[] content) {
+            this.entityTag = entityTag;
+            this.content = content;
+        }
+
+        /**
+         * @return the weight of the entry in bytes
+         */
+        private long weight() {
+            if (content == null) {
+                return ENTRY_OVERHEAD;
+            }
+            return ENTRY_OVERHEAD + content.length;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package krystiannowak.webserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An adaptive limit of the work admitted concurrently, so that an overload is
+ * shed fast instead of queueing without bound. The limit follows the latency
+ * gradient (see the Gradient2 algorithm of Netflix concurrency-limits): the
+ * latency of every piece of work (the time it held its permit) is compared
+ * with its long term average, and while it stays within the tolerance the
+ * limit grows by the square root of itself (the queue allowed), when it gets
+ * higher the limit shrinks proportionally, by half at most. The changes are
+ * smoothed, and the limit does not grow while less than half of it is used,
+ * as such latency says nothing about the capacity.
+ * <p>
+ * Acquiring and releasing a permit is a lock-free counter operation, only the
+ * latency samples are serialized.
+ *
+ * @author krystiannowak
+ *
+ */
+final class ConcurrencyLimiter {
+
+    /**
+     * The lowest limit the adaptation can go down to.
+     */
+    private static final int MIN_LIMIT = 4;
+
+    /**
+     * The ratio of the latency to its long term average still considered as
+     * no queueing.
+     */
+    private static final double TOLERANCE = 1.5;
+
+    /**
+     * The lowest gradient, so that the limit is at most halved per sample.
+     */
+    private static final double MIN_GRADIENT = 0.5;
+
+    /**
+     * The weight of a new limit computed against the current one.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The number of samples the long term latency is averaged over.
+     */
+    private static final int LONG_WINDOW = 600;
+
+    /**
+     * The ratio of the long term latency to a sample over which the long term
+     * latency is decayed faster (after a load drop).
+     */
+    private static final double DRIFT_RATIO = 2;
+
+    /**
+     * The decay of the long term latency after a load drop.
+     */
+    private static final double DRIFT_DECAY = 0.95;
+
+    /**
+     * The lowest limit.
+     */
+    private final int minLimit;
+
+    /**
+     * The highest limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * Whether the limit adapts (otherwise all the work is admitted).
+     */
+    private final boolean adaptive;
+
+    /**
+     * The number of permits held.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The current limit.
+     */
+    private volatile int limit;
+
+    /**
+     * The exact value of the limit estimated (guarded by <code>this</code>).
+     */
+    private double estimate;
+
+    /**
+     * The long term average latency in nanoseconds, 0 if no sample yet
+     * (guarded by <code>this</code>).
+     */
+    private double longLatency;
+
+    /**
+     * Creates the limiter.
+     *
+     * @param initialLimit
+     *            the limit to start with (0 admits all the work)
+     * @param maxLimit
+     *            the highest limit
+     */
+    ConcurrencyLimiter(final int initialLimit, final int maxLimit) {
+        this.adaptive = initialLimit > 0;
+        if (adaptive) {
+            this.limit = initialLimit;
+        } else {
+            this.limit = Integer.MAX_VALUE;
+        }
+        this.maxLimit = Math.max(limit, maxLimit);
+        this.minLimit = Math.min(MIN_LIMIT, limit);
+        this.estimate = limit;
+    }
+
+    /**
+     * Acquires a permit if the limit has not been reached.
+     *
+     * @return <code>true</code> if acquired (it has to be released), otherwise
+     *         the work is to be shed
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit acquired.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Adapts the limit to the latency of a piece of work admitted.
+     *
+     * @param latencyNanos
+     *            the time in nanoseconds the work held its permit for
+     */
+    synchronized void onSample(final long latencyNanos) {
+        if (!adaptive) {
+            return;
+        }
+        double latency = Math.max(1, latencyNanos);
+        if (longLatency == 0) {
+            longLatency = latency;
+        } else {
+            longLatency += (latency - longLatency) / LONG_WINDOW;
+        }
+        if (longLatency > latency * DRIFT_RATIO) {
+            longLatency *= DRIFT_DECAY;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT,
+                Math.min(1, TOLERANCE * longLatency / latency));
+        if (gradient >= 1 && inFlight.get() < estimate / 2) {
+            return;
+        }
+        double target = estimate * gradient + Math.sqrt(estimate);
+        estimate = Math.max(minLimit, Math.min(maxLimit,
+                estimate * (1 - SMOOTHING) + target * SMOOTHING));
+        limit = (int) estimate;
+    }
+
+    /**
+     * @return the current limit
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of permits held
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+}
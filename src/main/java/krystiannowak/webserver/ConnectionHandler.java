@@ -4,35 +4,185 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Throwables;
+import com.google.common.net.HttpHeaders;
 
 import rx.Observable;
 
 /**
- * A main handler that deals with single HTTP connection.
+ * A main handler that deals with single HTTP connection. Keep-Alive is
+ * limited both in time and in the number of requests: a connection idle for
+ * longer than the configured timeout (waiting for a request, not writing a
+ * response) is closed by its timeout in the shared {@link TimingWheel}, and
+ * the last request allowed on a connection gets it closed after its response.
+ * <p>
+ * The requests handled by {@link #handle(HttpConnection)} (the blocking
+ * engine) are limited by the shared {@link ConcurrencyLimiter}: a request
+ * holds a permit from being read until its response is written, the time it
+ * held it being the latency the limit adapts to, so a connection idle between
+ * its requests holds none. A request over the limit gets a pre-serialized 503
+ * Service Unavailable and its connection is closed (the rest of its input
+ * drained briefly, so that the connection is not reset before the client
+ * reads the response). A connection accepted while no worker can take it up
+ * is rejected the same way by {@link #reject(HttpConnection)}, without
+ * blocking the accepting thread.
+ * <p>
+ * The latencies of the stages of handling the requests and the counts of the
+ * requests, responses and connections are recorded in the shared
+ * {@link Metrics}, exposed on the reserved path configured.
  *
  * @author krystiannowak
  *
  */
 public class ConnectionHandler {
 
+    /**
+     * The value of the <code>Connection</code> header closing a connection.
+     */
+    private static final String CLOSE = "close";
+
+    /**
+     * The highest number of the remaining requests the
+     * <code>Keep-Alive</code> header values are prepared for.
+     */
+    private static final int PREPARED_KEEP_ALIVE_VALUES = 1024;
+
+    /**
+     * The most bytes of the request of a connection shed drained before
+     * closing it.
+     */
+    private static final int SHED_DRAIN_BYTES = 8 * 1024;
+
+    /**
+     * The longest time in milliseconds a connection shed is drained for.
+     */
+    private static final int SHED_DRAIN_MILLIS = 100;
+
+    /**
+     * The time in nanoseconds a connection rejected is closed after.
+     */
+    private static final long REJECT_CLOSE_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(SHED_DRAIN_MILLIS);
+
     /**
      * The document root to look files and directories for.
      */
     private final File documentRoot;
 
     /**
-     * Instantiates this handler.
+     * The parser of the {@link Request}s.
+     */
+    private final RequestParser parser;
+
+    /**
+     * The dispatcher of the {@link Request}s handled.
+     */
+    private final RequestDispatcher dispatcher = new RequestDispatcher();
+
+    /**
+     * The time in seconds an idle Keep-Alive connection is kept open.
+     */
+    private final int keepAliveTimeout;
+
+    /**
+     * The maximum number of requests served on a connection.
+     */
+    private final int keepAliveMaxRequests;
+
+    /**
+     * The <code>Keep-Alive</code> header values prepared by the number of the
+     * remaining requests.
+     */
+    private final String[] keepAliveValues;
+
+    /**
+     * The timeouts of the idle connections, advanced by the server engine.
+     */
+    private final TimingWheel idleTimeouts;
+
+    /**
+     * The limit of the work admitted concurrently.
+     */
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * The pool of the buffers for socket reads and writes.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * The access log, <code>null</code> if disabled.
+     */
+    private final AccessLog accessLog;
+
+    /**
+     * The metrics of the server.
+     */
+    private final Metrics metrics;
+
+    /**
+     * Instantiates this handler with the {@link FileCache},
+     * {@link MappedFiles}, {@link DirectoryListings}, {@link MetadataIndex}
+     * and {@link CompressedVariants} configured, to be shared by all the
+     * connections.
+     *
+     * @param configuration
+     *            the server configuration
+     * @param parser
+     *            the parser of the {@link Request}s
+     */
+    public ConnectionHandler(final ServerConfiguration configuration,
+            final RequestParser parser) {
+        this.documentRoot = configuration.getDocumentRoot();
+        this.parser = parser;
+        this.keepAliveTimeout = configuration.getKeepAliveTimeout();
+        this.keepAliveMaxRequests = configuration.getKeepAliveMaxRequests();
+        this.keepAliveValues = prepareKeepAliveValues();
+        this.idleTimeouts = configuration.createIdleTimeouts();
+        this.limiter = configuration.createConcurrencyLimiter();
+        this.bufferPool = configuration.createBufferPool();
+        this.accessLog = configuration.createAccessLog();
+        this.metrics = new Metrics(limiter, bufferPool, accessLog);
+        setFilesystemHandlers(new FilesystemGetRequestHandler(documentRoot,
+                configuration.createFileCache(),
+                new MappedFiles(configuration.getMappedFileThreshold()),
+                new DirectoryListings(documentRoot,
+                        configuration.getDirectoryListings()),
+                new MetadataIndex(),
+                configuration.createCompressedVariants()));
+        setMetricsHandler(configuration.getMetricsPath());
+    }
+
+    /**
+     * Registers the handlers of GET and HEAD, both resolving the resources
+     * with the GET handler given.
+     *
+     * @param getHandler
+     *            the handler of GET requests
+     */
+    private void setFilesystemHandlers(
+            final FilesystemGetRequestHandler getHandler) {
+        dispatcher.setHandler(FilesystemGetRequestHandler.METHOD, getHandler);
+        dispatcher.setHandler(FilesystemHeadRequestHandler.METHOD,
+                new FilesystemHeadRequestHandler(getHandler));
+    }
+
+    /**
+     * Registers the handler exposing the metrics on the reserved path given.
      *
-     * @param documentRoot
-     *            the document root to look files and directories for
+     * @param path
+     *            the reserved path (empty does not expose the metrics)
      */
-    public ConnectionHandler(final File documentRoot) {
-        this.documentRoot = documentRoot;
+    private void setMetricsHandler(final String path) {
+        if (path != null && !path.isEmpty()) {
+            dispatcher.setPathHandler(path, new MetricsRequestHandler(metrics));
+        }
     }
 
     /**
@@ -42,55 +192,202 @@ public class ConnectionHandler {
 
     /**
      * Enriches {@link Response} with proper Keep-Alive HTTP headers if
-     * {@link Request} requested Keep-Alive behaviour.
+     * {@link Request} requested Keep-Alive behaviour, advertising the
+     * configured timeout and the number of requests still allowed. The last
+     * request allowed is turned into a non Keep-Alive one.
      *
      * @param request
      *            the {@link Request} to check Keep-Alive behaviour
      * @param response
      *            the {@link Response} to set Keep-Alive HTTP headers if needed
+     * @param requestNumber
+     *            the number of the request on its connection (starting from
+     *            1)
      */
     private void enrichWithKeepAlive(final Request request,
-            final Response response) {
-        if (request.isKeepAlive()) {
-            response.getHeaders().put("Connection", "Keep-Alive");
-            response.getHeaders().put("Keep-Alive", "timeout=15, max=100");
+            final Response response, final int requestNumber) {
+        if (!request.isKeepAlive()) {
+            return;
         }
+        if (requestNumber >= keepAliveMaxRequests) {
+            request.setConnection(CLOSE);
+            response.getHeaders().put(HttpHeaders.CONNECTION, CLOSE);
+            return;
+        }
+        response.getHeaders().put(HttpHeaders.CONNECTION, "Keep-Alive");
+        response.getHeaders().put("Keep-Alive",
+                keepAliveValue(keepAliveMaxRequests - requestNumber));
+    }
+
+    /**
+     * Prepares the <code>Keep-Alive</code> header values, so that they are
+     * not built for every request.
+     *
+     * @return the values by the number of the remaining requests
+     */
+    private String[] prepareKeepAliveValues() {
+        String[] values = new String[Math.max(0,
+                Math.min(keepAliveMaxRequests, PREPARED_KEEP_ALIVE_VALUES))];
+        for (int remaining = 0; remaining < values.length; remaining++) {
+            values[remaining] = "timeout=" + keepAliveTimeout + ", max="
+                    + remaining;
+        }
+        return values;
+    }
+
+    /**
+     * Gets the <code>Keep-Alive</code> header value.
+     *
+     * @param remaining
+     *            the number of the remaining requests allowed
+     * @return the header value
+     */
+    private String keepAliveValue(final int remaining) {
+        if (remaining < keepAliveValues.length) {
+            return keepAliveValues[remaining];
+        }
+        return "timeout=" + keepAliveTimeout + ", max=" + remaining;
+    }
+
+    /**
+     * Dispatches the {@link Request} given and prepares the {@link Response}
+     * to be written back on the connection. The connection is to be kept
+     * alive afterwards only if the request is still a Keep-Alive one. The
+     * latency of the dispatch is recorded in the metrics and the access log
+     * (if enabled).
+     *
+     * @param request
+     *            the {@link Request} to respond to
+     * @param requestNumber
+     *            the number of the request on its connection (starting from
+     *            1)
+     * @return the {@link Response} to be written
+     */
+    public final Response respond(final Request request,
+            final int requestNumber) {
+        long start = System.nanoTime();
+        Response response = dispatcher.handle(request);
+        long latency = System.nanoTime() - start;
+        metrics.record(Metrics.Stage.DISPATCH, latency);
+        metrics.onResponse(response.getStatusCode(),
+                response.getMessageBody().getLength());
+        if (accessLog != null) {
+            accessLog.log(request.getMethod(), request.getRequestUri(),
+                    response.getStatusCode(),
+                    response.getMessageBody().getLength(), latency);
+        }
+        enrichWithKeepAlive(request, response, requestNumber);
+        return response;
+    }
+
+    /**
+     * @return the timeouts of the idle connections, to be advanced by the
+     *         server engine
+     */
+    final TimingWheel getIdleTimeouts() {
+        return idleTimeouts;
+    }
+
+    /**
+     * @return the pool of the buffers for socket reads and writes
+     */
+    final BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return the metrics of the server
+     */
+    final Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the limit of the requests handled concurrently
+     */
+    final ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Records a connection accepted being taken up by its thread.
+     *
+     * @param acceptedNanos
+     *            the time in nanoseconds the connection was accepted at
+     */
+    final void onTakenUp(final long acceptedNanos) {
+        metrics.record(Metrics.Stage.ACCEPT, System.nanoTime() - acceptedNanos);
+    }
+
+    /**
+     * @return the time in nanoseconds from now an idle connection is to be
+     *         closed at
+     */
+    final long idleDeadline() {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(keepAliveTimeout);
     }
 
     /**
      * The main method of the handler to deal with the HTTP connection given.
+     * The connection is closed by its idle timeout if no complete request is
+     * received in time, which ends the handling quietly.
+     * <p>
+     * Every request holds a permit of the {@link ConcurrencyLimiter} until its
+     * response has been written, and is released afterwards, to be reused by
+     * the parser for the next request of the connection.
      *
      * @param connection
      *            the HTTP connection
-     * @return an Observable of emitted Messages
+     * @return an Observable of the {@link Response}s written
      */
     public final Observable<Message> handle(final HttpConnection connection) {
 
-        log.info("handling connection");
+        metrics.onConnectionOpened();
+        log.debug("handling connection");
 
         InputStream is = connection.getInputStream();
         OutputStream out = connection.getOutputStream();
-        ResponseWriter writer = new ResponseWriter(out);
-        RequestParser parser = new AntlrRequestParser();
-
-        RequestDispatcher dispatcher = new RequestDispatcher();
-        dispatcher.setHandler(FilesystemGetRequestHandler.METHOD,
-                new FilesystemGetRequestHandler(documentRoot));
-
-        return parser.parse(is).flatMap(request -> {
-            log.info("on next request parsed");
-            Response response = dispatcher.handle(request);
-            enrichWithKeepAlive(request, response);
-            log.info("about to write a response");
+        ResponseWriter writer = new ResponseWriter(
+                connection.getOutputChannel(), bufferPool);
+        AtomicInteger requests = new AtomicInteger();
+        TimingWheel.Timeout idle = idleTimeouts
+                .schedule(() -> closeQuietly(connection), idleDeadline());
+        return parser.parse(is).onErrorResumeNext(e -> {
+            if (idle.isExpired()) {
+                return Observable.empty();
+            }
+            return Observable.error(e);
+        }).flatMap(request -> {
+            idleTimeouts.cancel(idle);
+            if (!limiter.tryAcquire()) {
+                shed(request, connection);
+                return Observable.<Message>empty();
+            }
+            long start = System.nanoTime();
             try {
+                Response response = respond(request,
+                        requests.incrementAndGet());
+                long dispatched = System.nanoTime();
                 writer.write(response);
-                return Observable.from(new Message[] {request, response});
+                long written = System.nanoTime();
+                metrics.record(Metrics.Stage.WRITE, written - dispatched);
+                limiter.onSample(written - start);
+                if (request.isKeepAlive()) {
+                    idleTimeouts.reschedule(idle, idleDeadline());
+                }
+                return Observable.<Message>just(response);
             } catch (IOException e) {
-                return Observable.error(e);
+                throw Throwables.propagate(e);
+            } finally {
+                limiter.release();
+                request.release();
             }
+        }).doOnTerminate(() -> {
+            idleTimeouts.cancel(idle);
+            metrics.onConnectionClosed();
         }).doOnCompleted(() -> {
             try {
-                log.info("closing connection");
+                log.debug("closing connection");
                 writer.close();
                 out.close();
                 is.close();
@@ -100,4 +397,86 @@ public class ConnectionHandler {
             }
         });
     }
+
+    /**
+     * Rejects the request given over the concurrency limit with 503 Service
+     * Unavailable and closes its connection, ending the parsing of its
+     * requests.
+     *
+     * @param request
+     *            the request to reject
+     * @param connection
+     *            the connection of the request
+     */
+    private void shed(final Request request,
+            final HttpConnection connection) {
+        log.debug("shedding request over limit {}", limiter.getLimit());
+        request.setConnection(CLOSE);
+        request.release();
+        try (PendingResponse response = Responses.serviceUnavailable()) {
+            response.writeTo(connection.getOutputChannel());
+        } catch (IOException e) {
+            log.debug("cannot reject request", e);
+        }
+        try {
+            if (!connection.closeUnread(SHED_DRAIN_BYTES, SHED_DRAIN_MILLIS)) {
+                log.debug("connection shed closed before drained");
+            }
+        } catch (IOException e) {
+            log.debug("cannot close connection", e);
+        }
+    }
+
+    /**
+     * Rejects the connection given, accepted while no worker can take it up,
+     * with 503 Service Unavailable, without reading its request. The output
+     * is shut down right after the response, and the connection is closed by
+     * a timeout in the shared {@link TimingWheel} once the client has had the
+     * time to read it, draining only the input already received, so that the
+     * calling thread (the one accepting the connections) never waits.
+     *
+     * @param connection
+     *            the connection to reject
+     */
+    final void reject(final HttpConnection connection) {
+        log.debug("rejecting connection with no worker free");
+        idleTimeouts.schedule(() -> closeDrained(connection),
+                System.nanoTime() + REJECT_CLOSE_NANOS);
+        try (PendingResponse response = Responses.serviceUnavailable()) {
+            response.writeTo(connection.getOutputChannel());
+            connection.shutdownOutput();
+        } catch (IOException e) {
+            log.debug("cannot reject connection", e);
+        }
+    }
+
+    /**
+     * Closes the connection given quietly, draining the input already
+     * received first.
+     *
+     * @param connection
+     *            the connection to close
+     */
+    private void closeDrained(final HttpConnection connection) {
+        try {
+            connection.closeDrained(SHED_DRAIN_BYTES);
+        } catch (IOException e) {
+            log.debug("cannot close connection", e);
+        }
+    }
+
+    /**
+     * Closes the connection given quietly, e.g. as idle for too long
+     * (unblocking its read).
+     *
+     * @param connection
+     *            the connection to close
+     */
+    private void closeQuietly(final HttpConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.debug("cannot close connection", e);
+        }
+    }
 }
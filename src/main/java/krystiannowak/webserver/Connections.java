@@ -1,6 +1,5 @@
 package krystiannowak.webserver;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 
@@ -36,19 +35,4 @@ public final class Connections {
         }
 
     }
-
-    /**
-     * Handles given connection and emits {@link Message}s of this handling.
-     *
-     * @param connection
-     *            an {@link HTTPConnection} to handle
-     * @param documentRoot
-     *            the document root to handle files and folders
-     * @return an {@link Observable} of {@link Message}s emitted during handling
-     *         the {@link HTTPConnection}
-     */
-    public static Observable<Message> handle(final HttpConnection connection,
-            final File documentRoot) {
-        return new ConnectionHandler(documentRoot).handle(connection);
-    }
 }
@@ -1,11 +1,8 @@
 package krystiannowak.webserver;
 
-import java.util.Arrays;
+import java.net.HttpURLConnection;
 import java.util.Map;
-import java.util.Optional;
-
-import com.google.common.collect.Maps;
-import com.google.common.primitives.Bytes;
+import java.util.OptionalLong;
 
 /**
  * Default {@link Response} implementation.
@@ -20,11 +17,6 @@ public class DefaultResponse implements Response {
      */
     private static final String HTTP_VERSION = "HTTP/1.1";
 
-    /**
-     * No message body by default.
-     */
-    private static final byte[] EMPTY_MESSAGE_BODY = new byte[0];
-
     /**
      * The HTTP status code.
      */
@@ -38,12 +30,12 @@ public class DefaultResponse implements Response {
     /**
      * HTTP headers. Note the simplification - only unique headers supported.
      */
-    private Map<String, String> headers = Maps.newHashMap();
+    private final ResponseHeaders headers = new ResponseHeaders();
 
     /**
-     * Message body binary.
+     * Message body (no message body by default).
      */
-    private byte[] messageBody = EMPTY_MESSAGE_BODY;
+    private MessageBody messageBody = MessageBodies.empty();
 
     /**
      * Creates {@link DefaultResponse} instance.
@@ -74,18 +66,20 @@ public class DefaultResponse implements Response {
     }
 
     @Override
-    public final Map<String, String> getHeaders() {
+    public final ResponseHeaders getHeaders() {
         return headers;
     }
 
     /**
-     * Sets HTTP headers. Will overwrite any previously headers set.s
+     * Sets HTTP headers (in iteration order of the {@link Map} given). Will
+     * overwrite any previously headers set.
      *
      * @param headers
      *            the HTTP headers to set.
      */
     public final void setHeaders(final Map<String, String> headers) {
-        this.headers = headers;
+        this.headers.clear();
+        this.headers.putAll(headers);
     }
 
     /**
@@ -101,34 +95,52 @@ public class DefaultResponse implements Response {
     }
 
     @Override
-    public final byte[] getMessageBody() {
-        return Bytes.concat(messageBody);
+    public final MessageBody getMessageBody() {
+        return messageBody;
     }
 
     /**
      * Sets the message body.
      *
      * @param messageBody
-     *            the message body to be set
+     *            the message body to be set (not copied)
      */
     public final void setMessageBody(final byte[] messageBody) {
-        this.messageBody = Bytes.concat(messageBody);
+        setMessageBody(MessageBodies.of(messageBody));
+    }
+
+    /**
+     * Sets the message body.
+     *
+     * @param messageBody
+     *            the message body to be set
+     */
+    public final void setMessageBody(final MessageBody messageBody) {
+        this.messageBody = messageBody;
     }
 
+    /**
+     * The length of the message body, unless the status forbids a message
+     * body (<code>204 No Content</code> and <code>304 Not Modified</code>) or
+     * the body is sent chunked.
+     *
+     * @return the length of the message body if any
+     */
     @Override
-    public final Optional<Integer> getContentLength() {
-        if (messageBody.length > 0) {
-            return Optional.of(messageBody.length);
-        } else {
-            return Optional.empty();
+    public final OptionalLong getContentLength() {
+        if (statusCode == HttpURLConnection.HTTP_NO_CONTENT
+                || statusCode == HttpURLConnection.HTTP_NOT_MODIFIED
+                || messageBody.getLength() == MessageBody.UNKNOWN_LENGTH) {
+            return OptionalLong.empty();
         }
+        return OptionalLong.of(messageBody.getLength());
     }
 
     @Override
     public final String toString() {
         return "DefaultResponse [statusCode=" + statusCode + ", reasonPhrase="
                 + reasonPhrase + ", headers=" + headers + ", messageBody="
-                + Arrays.toString(messageBody) + "]";
+                + messageBody + "]";
     }
 
 }
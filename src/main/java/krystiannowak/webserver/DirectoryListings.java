@@ -0,0 +1,441 @@
+package krystiannowak.webserver;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A cache of directory listings rendered by the {@link IndexHtmlGenerator},
+ * kept as encoded bytes per directory (and Host), shared by all the
+ * connections. The directories listed are registered with a
+ * {@link WatchService}, whose events (entries created or deleted) invalidate
+ * their listings. A directory which cannot be watched has its modification
+ * time checked on each hit instead. The number of listings cached is bounded,
+ * the least recently used ones are evicted; a directory no longer listed in
+ * the cache (evicted or invalidated) is no longer watched either.
+ * <p>
+ * A directory with too many entries to be rendered in memory is not rendered
+ * at all - its listing (cached the same way) only marks it to be streamed.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class DirectoryListings implements Closeable {
+
+    /**
+     * The initial capacity of the map of listings.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the map of listings.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The default maximum number of entries of a directory rendered in
+     * memory.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    /**
+     * Instance logger.
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The document root to list directories of.
+     */
+    private final File documentRoot;
+
+    /**
+     * The maximum number of listings cached.
+     */
+    private final int maxListings;
+
+    /**
+     * The maximum number of entries of a directory rendered in memory.
+     */
+    private final int maxEntries;
+
+    /**
+     * The listings per directory and Host in access order (guarded by
+     * <code>this</code>).
+     */
+    private final LinkedHashMap<String, Listing> listings;
+
+    /**
+     * The service watching the directories listed (<code>null</code> if not
+     * available).
+     */
+    private final WatchService watchService;
+
+    /**
+     * The number of invalidations so far, so that a listing rendered
+     * concurrently with an invalidation is not cached.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates the cache and starts watching the document root.
+     *
+     * @param documentRoot
+     *            the document root to list directories of
+     * @param maxListings
+     *            the maximum number of listings cached (0 disables the cache)
+     */
+    public DirectoryListings(final File documentRoot, final int maxListings) {
+        this(documentRoot, maxListings, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates the cache and starts watching the document root.
+     *
+     * @param documentRoot
+     *            the document root to list directories of
+     * @param maxListings
+     *            the maximum number of listings cached (0 disables the cache)
+     * @param maxEntries
+     *            the maximum number of entries of a directory rendered in
+     *            memory
+     */
+    DirectoryListings(final File documentRoot, final int maxListings,
+            final int maxEntries) {
+        this.documentRoot = documentRoot;
+        this.maxListings = maxListings;
+        this.maxEntries = maxEntries;
+        this.listings = new LinkedHashMap<String, Listing>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Listing> eldest) {
+                if (size() <= DirectoryListings.this.maxListings) {
+                    return false;
+                }
+                unwatch(eldest.getValue());
+                return true;
+            }
+        };
+        this.watchService = startWatching();
+    }
+
+    /**
+     * Gets the encoded HTML listing of the directory given, rendering it if
+     * not cached or changed.
+     *
+     * @param subdirectory
+     *            the directory relative to the document root
+     * @param host
+     *            an {@link Optional} of Host header value
+     * @return the listing
+     */
+    public Listing get(final String subdirectory,
+            final Optional<String> host) {
+        File directory = new File(documentRoot, subdirectory)
+                .getAbsoluteFile();
+        if (maxListings == 0) {
+            return new Listing(directory, directory.lastModified(), null,
+                    render(subdirectory, host));
+        }
+
+        String key = subdirectory + '\n' + host.orElse("");
+        Listing listing;
+        synchronized (this) {
+            listing = listings.get(key);
+        }
+        if (listing != null && listing.isCurrent()) {
+            return listing;
+        }
+
+        long version = invalidations.get();
+        WatchKey watchKey = watch(directory.toPath());
+        listing = new Listing(directory, directory.lastModified(), watchKey,
+                render(subdirectory, host));
+        synchronized (this) {
+            if (version == invalidations.get()) {
+                listings.put(key, listing);
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * @return the number of listings cached
+     */
+    public synchronized int size() {
+        return listings.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Renders the listing of the directory given.
+     *
+     * @param subdirectory
+     *            the directory relative to the document root
+     * @param host
+     *            an {@link Optional} of Host header value
+     * @return the encoded HTML listing or <code>null</code> if the directory
+     *         has too many entries to be rendered in memory
+     */
+    private byte[] render(final String subdirectory,
+            final Optional<String> host) {
+        String html = new IndexHtmlGenerator(documentRoot, subdirectory, host)
+                .getHtml(maxEntries);
+        if (html == null) {
+            return null;
+        }
+        return SimpleStringSerialization.serialize(html);
+    }
+
+    /**
+     * Creates the {@link WatchService} for the document root and starts the
+     * thread processing its events.
+     *
+     * @return the service or <code>null</code> if not available (or the
+     *         cache is disabled)
+     */
+    private WatchService startWatching() {
+        if (maxListings == 0) {
+            return null;
+        }
+        try {
+            WatchService service = documentRoot.toPath().getFileSystem()
+                    .newWatchService();
+            Thread watcher = new Thread(() -> processEvents(service),
+                    "directory-listings-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("cannot watch {}, checking modification times instead",
+                    documentRoot, e);
+            return null;
+        }
+    }
+
+    /**
+     * Registers the directory given with the {@link WatchService} (a directory
+     * already registered is not registered again).
+     *
+     * @param directory
+     *            the directory to watch
+     * @return the key of the directory watched or <code>null</code> if not
+     *         watched
+     */
+    private WatchKey watch(final Path directory) {
+        if (watchService == null) {
+            return null;
+        }
+        try {
+            return directory.register(watchService, ENTRY_CREATE,
+                    ENTRY_DELETE);
+        } catch (IOException | ClosedWatchServiceException e) {
+            log.debug("cannot watch {}", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stops watching the directory of a listing removed from the cache,
+     * unless listed in the cache still (for another Host). The listings
+     * rendered meanwhile are not cached, as their directory may be no longer
+     * watched.
+     *
+     * @param removed
+     *            the listing removed (or being removed)
+     */
+    private void unwatch(final Listing removed) {
+        if (removed.watchKey == null) {
+            return;
+        }
+        for (Listing listing : listings.values()) {
+            if (listing != removed && listing.watchKey == removed.watchKey) {
+                return;
+            }
+        }
+        invalidations.incrementAndGet();
+        removed.watchKey.cancel();
+    }
+
+    /**
+     * Invalidates the listings of the directories changed, until the
+     * {@link WatchService} is closed.
+     *
+     * @param service
+     *            the service to take the events from
+     */
+    private void processEvents(final WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    overflow |= event.kind() == OVERFLOW;
+                }
+                if (overflow) {
+                    invalidate(null);
+                } else {
+                    invalidate((Path) key.watchable());
+                }
+                if (!key.reset()) {
+                    invalidate((Path) key.watchable());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("stopped watching {}", documentRoot);
+        }
+    }
+
+    /**
+     * Invalidates the listings of the directory given.
+     *
+     * @param directory
+     *            the directory changed (<code>null</code> for all)
+     */
+    private synchronized void invalidate(final Path directory) {
+        invalidations.incrementAndGet();
+        Iterator<Listing> iterator = listings.values().iterator();
+        while (iterator.hasNext()) {
+            Listing listing = iterator.next();
+            if (directory == null
+                    || listing.directory.toPath().equals(directory)) {
+                iterator.remove();
+                unwatch(listing);
+            }
+        }
+    }
+
+    /**
+     * A rendered listing with its validators.
+     *
+     * @author krystiannowak
+     *
+     */
+    public static final class Listing {
+
+        /**
+         * The directory listed.
+         */
+        private final File directory;
+
+        /**
+         * The modification time of the directory when listed.
+         */
+        private final long lastModified;
+
+        /**
+         * The key of the directory watched for changes (<code>null</code> if
+         * not watched).
+         */
+        private final WatchKey watchKey;
+
+        /**
+         * The encoded HTML listing (<code>null</code> if to be streamed).
+         */
+        private final byte[] html;
+
+        /**
+         * The validators of the listing, the entity tag being a hash of the
+         * encoded HTML (<code>null</code> if to be streamed).
+         */
+        private final ResourceMetadata metadata;
+
+        /**
+         * Creates the listing.
+         *
+         * @param directory
+         *            the directory listed
+         * @param lastModified
+         *            the modification time of the directory when listed
+         * @param watchKey
+         *            the key of the directory watched for changes
+         *            (<code>null</code> if not watched)
+         * @param html
+         *            the encoded HTML listing (<code>null</code> if to be
+         *            streamed)
+         */
+        private Listing(final File directory, final long lastModified,
+                final WatchKey watchKey, final byte[] html) {
+            this.directory = directory;
+            this.lastModified = lastModified;
+            this.watchKey = watchKey;
+            this.html = html;
+            if (html == null) {
+                this.metadata = null;
+            } else {
+                this.metadata = new ResourceMetadata("\""
+                        + Hashing.murmur3_128().hashBytes(html) + "\"",
+                        lastModified);
+            }
+        }
+
+        /**
+         * @return the encoded HTML listing (not to be modified)
+         */
+        public byte[] getHtml() {
+            return html;
+        }
+
+        /**
+         * @return <code>true</code> if the directory has too many entries to
+         *         be rendered in memory, so the listing is to be streamed
+         */
+        public boolean isStreamed() {
+            return html == null;
+        }
+
+        /**
+         * @return the validators of the listing (<code>null</code> if to be
+         *         streamed)
+         */
+        public ResourceMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return is the directory listed watched for changes
+         */
+        boolean isWatched() {
+            return watchKey != null && watchKey.isValid();
+        }
+
+        /**
+         * Checks whether the listing is still current: a watched directory is
+         * invalidated by events, otherwise its modification time is checked.
+         *
+         * @return is the listing current
+         */
+        private boolean isCurrent() {
+            return watchKey != null || directory.lastModified() == lastModified;
+        }
+    }
+
+}
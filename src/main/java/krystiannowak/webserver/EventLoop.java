@@ -0,0 +1,333 @@
+package krystiannowak.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single threaded reactor of the {@link NioServer}. A loop owns the
+ * connections registered with it for their whole lifetime: it reads, parses,
+ * dispatches and writes their requests on its own thread, so after a
+ * connection is handed over no other thread touches it. New connections come
+ * either from the acceptor through a lock-free queue, or straight from a
+ * listening channel of the loop's own (bound with <code>SO_REUSEPORT</code>,
+ * the kernel balancing the connections between the loops).
+ * <p>
+ * The loop also advances its own {@link TimingWheel} of the idle timeouts of
+ * its connections, waking up once per tick while any timeout is pending.
+ *
+ * @author krystiannowak
+ *
+ */
+final class EventLoop implements Closeable, Runnable {
+
+    /**
+     * The size of the buffer shared by the connections of the loop for socket
+     * reads.
+     */
+    private static final int READ_BUFFER_SIZE = BufferPool.MAX_SIZE;
+
+    /**
+     * A static logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+
+    /**
+     * The handler shared by all the connections to respond to requests.
+     */
+    private final ConnectionHandler handler;
+
+    /**
+     * The parser shared by all the connections.
+     */
+    private final RequestParser parser;
+
+    /**
+     * The selector multiplexing the channels of the loop.
+     */
+    private final Selector selector;
+
+    /**
+     * The channels accepted by the acceptor, to be registered by the loop.
+     */
+    private final Queue<Handover> accepted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The idle timeouts of the connections of the loop.
+     */
+    private final TimingWheel idleTimeouts;
+
+    /**
+     * A pooled buffer for socket reads (used by the loop thread only).
+     */
+    private final ByteBuffer readBuffer;
+
+    /**
+     * The listening channel of the loop's own, <code>null</code> if the
+     * connections are handed over by the acceptor.
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Whether the loop should keep running.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Creates the loop.
+     *
+     * @param handler
+     *            the handler to respond to requests
+     * @param parser
+     *            the parser of requests
+     * @param idleTimeouts
+     *            the idle timeouts of the connections of the loop
+     * @throws IOException
+     *             if the selector cannot be opened
+     */
+    EventLoop(final ConnectionHandler handler, final RequestParser parser,
+            final TimingWheel idleTimeouts) throws IOException {
+        this.handler = handler;
+        this.parser = parser;
+        this.idleTimeouts = idleTimeouts;
+        this.selector = Selector.open();
+        this.readBuffer = handler.getBufferPool().acquire(READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Makes the loop accept the connections of the listening channel given
+     * on its own (to be called before the loop is run).
+     *
+     * @param channel
+     *            the listening channel owned by the loop from now on
+     * @throws IOException
+     *             if the channel cannot be registered
+     */
+    void listen(final ServerSocketChannel channel) throws IOException {
+        this.serverChannel = channel;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands an accepted channel over to the loop (called by the acceptor).
+     *
+     * @param channel
+     *            the channel accepted
+     */
+    void register(final SocketChannel channel) {
+        accepted.add(new Handover(channel, System.nanoTime()));
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the loop until it is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            long tickMillis = Math.max(1, TimeUnit.NANOSECONDS
+                    .toMillis(idleTimeouts.getTickNanos()));
+            while (running) {
+                if (idleTimeouts.size() > 0) {
+                    selector.select(tickMillis);
+                } else {
+                    selector.select();
+                }
+                registerAccepted();
+                idleTimeouts.expire(System.nanoTime());
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    dispatch(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                LOG.error("event loop failed", e);
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Dispatches a selected key to the proper operation.
+     *
+     * @param key
+     *            the selected key
+     */
+    private void dispatch(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        NioConnection connection = (NioConnection) key.attachment();
+        if (key.isWritable()) {
+            connection.onWritable();
+        }
+        if (key.isValid() && key.isReadable()) {
+            connection.onReadable(readBuffer);
+        }
+    }
+
+    /**
+     * Accepts all the pending connections of the loop's own listening
+     * channel.
+     */
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                add(channel, System.nanoTime());
+            }
+        } catch (IOException e) {
+            LOG.warn("cannot accept channel connection", e);
+        }
+    }
+
+    /**
+     * Registers all the channels handed over by the acceptor.
+     */
+    private void registerAccepted() {
+        Handover handover;
+        while ((handover = accepted.poll()) != null) {
+            add(handover.channel, handover.acceptedNanos);
+        }
+    }
+
+    /**
+     * Registers a new connection with the loop.
+     *
+     * @param channel
+     *            the channel of the connection
+     * @param acceptedNanos
+     *            the time in nanoseconds the channel was accepted at
+     */
+    private void add(final SocketChannel channel, final long acceptedNanos) {
+        handler.onTakenUp(acceptedNanos);
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector,
+                    SelectionKey.OP_READ);
+            key.attach(new NioConnection(this, channel, key));
+            LOG.debug("new channel connection registered {}", channel);
+        } catch (IOException e) {
+            LOG.warn("cannot register channel connection", e);
+            try {
+                channel.close();
+            } catch (IOException closing) {
+                LOG.debug("cannot close channel", closing);
+            }
+        }
+    }
+
+    /**
+     * @return the handler to respond to requests
+     */
+    ConnectionHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the parser of requests
+     */
+    RequestParser getParser() {
+        return parser;
+    }
+
+    /**
+     * @return the idle timeouts of the connections of the loop
+     */
+    TimingWheel getIdleTimeouts() {
+        return idleTimeouts;
+    }
+
+    /**
+     * Closes all the registered channels, the selector and the listening
+     * channel (if any), and releases the read buffer.
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).close();
+                }
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.warn("cannot close selector", e);
+        }
+        Handover handover;
+        while ((handover = accepted.poll()) != null) {
+            try {
+                handover.channel.close();
+            } catch (IOException e) {
+                LOG.debug("cannot close channel", e);
+            }
+        }
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                LOG.warn("cannot close server channel", e);
+            }
+        }
+        handler.getBufferPool().release(readBuffer);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * A channel accepted by the acceptor, handed over to the loop.
+     */
+    private static final class Handover {
+
+        /**
+         * The channel accepted.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * The time in nanoseconds the channel was accepted at.
+         */
+        private final long acceptedNanos;
+
+        /**
+         * Creates the handover.
+         *
+         * @param channel
+         *            the channel accepted
+         * @param acceptedNanos
+         *            the time in nanoseconds the channel was accepted at
+         */
+        Handover(final SocketChannel channel, final long acceptedNanos) {
+            this.channel = channel;
+            this.acceptedNanos = acceptedNanos;
+        }
+
+    }
+
+}
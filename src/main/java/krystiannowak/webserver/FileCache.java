@@ -0,0 +1,575 @@
+package krystiannowak.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of complete serialized responses for small static files,
+ * so that serving a hot file (an icon, a stylesheet) costs neither file system
+ * access nor encoding - just a single write of a ready buffer.
+ * <p>
+ * The eviction follows W-TinyLFU: new entries enter a small LRU window and,
+ * when pushed out of it, are admitted to the main LRU region only if a
+ * {@link FrequencySketch} estimates they are used more often than the entry
+ * they would evict. This way a scan of many files used once does not flush
+ * the hot ones. The total size of the serialized responses is capped. A
+ * response is serialized on the heap, and copied to a direct buffer (written
+ * to the sockets without a copy) only once admitted to the main region, so
+ * that a file refused by the admission costs no native allocation.
+ * <p>
+ * An entry is kept coherent with its file by comparing the modification time
+ * and the size, checked at most once per revalidation interval, so a file
+ * changed on disk may still be served stale for that long. Lookups are
+ * lock-free; the bookkeeping of the eviction policy is done under a lock, but
+ * skipped for a hit when the lock is contended.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class FileCache {
+
+    /**
+     * The default interval of checking whether a cached file has changed.
+     */
+    private static final long DEFAULT_REVALIDATION_INTERVAL = TimeUnit.SECONDS
+            .toNanos(1);
+
+    /**
+     * The percentage of the capacity dedicated to the admission window.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Percentage base.
+     */
+    private static final int PERCENT = 100;
+
+    /**
+     * The assumed average size of an entry to size the frequency sketch.
+     */
+    private static final int AVERAGE_ENTRY_SIZE = 4 * 1024;
+
+    /**
+     * The maximum number of keys tracked by the frequency sketch.
+     */
+    private static final int MAX_TRACKED_KEYS = 1024 * 1024;
+
+    /**
+     * The initial capacity of the maps of the regions.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the maps of the regions.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The entries per resolved file path (for lock-free lookups).
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The admission window in access order (guarded by {@link #lock}).
+     */
+    private final LinkedHashMap<String, Entry> window = accessOrdered();
+
+    /**
+     * The main region in access order (guarded by {@link #lock}).
+     */
+    private final LinkedHashMap<String, Entry> main = accessOrdered();
+
+    /**
+     * The guard of the eviction policy state.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The access frequency estimates (guarded by {@link #lock}).
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * The maximum size of a file to be cached.
+     */
+    private final long maxFileSize;
+
+    /**
+     * The maximum total size of the admission window.
+     */
+    private final long windowCapacity;
+
+    /**
+     * The maximum total size of the main region.
+     */
+    private final long mainCapacity;
+
+    /**
+     * The interval of checking whether a cached file has changed (in
+     * nanoseconds).
+     */
+    private final long revalidationInterval;
+
+    /**
+     * The total size of the admission window (guarded by {@link #lock}).
+     */
+    private long windowWeight;
+
+    /**
+     * The total size of the main region (guarded by {@link #lock}).
+     */
+    private long mainWeight;
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity
+     *            the maximum total size of the cached responses in bytes (0
+     *            disables the cache)
+     * @param maxFileSize
+     *            the maximum size of a file to be cached in bytes
+     */
+    public FileCache(final long capacity, final long maxFileSize) {
+        this(capacity, maxFileSize, DEFAULT_REVALIDATION_INTERVAL);
+    }
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity
+     *            the maximum total size of the cached responses in bytes (0
+     *            disables the cache)
+     * @param maxFileSize
+     *            the maximum size of a file to be cached in bytes
+     * @param revalidationInterval
+     *            the interval of checking whether a cached file has changed
+     *            (in nanoseconds)
+     */
+    FileCache(final long capacity, final long maxFileSize,
+            final long revalidationInterval) {
+        this.maxFileSize = maxFileSize;
+        this.windowCapacity = capacity * WINDOW_PERCENT / PERCENT;
+        this.mainCapacity = capacity - windowCapacity;
+        this.revalidationInterval = revalidationInterval;
+        this.sketch = new FrequencySketch((int) Math.min(MAX_TRACKED_KEYS,
+                capacity / AVERAGE_ENTRY_SIZE));
+    }
+
+    /**
+     * Looks the cached response for the file given up. Checks whether the
+     * file has changed if not done within the revalidation interval.
+     *
+     * @param file
+     *            the resolved absolute file
+     * @return the cached response or <code>null</code> if none (or stale)
+     */
+    public Response get(final File file) {
+        Entry entry = entries.get(file.getPath());
+        if (entry == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (now - entry.validatedAt > revalidationInterval) {
+            if (!entry.isCurrent(file)) {
+                invalidate(entry);
+                return null;
+            }
+            entry.validatedAt = now;
+        }
+
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(entry.key);
+                if (window.get(entry.key) == null) {
+                    main.get(entry.key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry.newResponse();
+    }
+
+    /**
+     * Reads the file given and caches its serialized response if small
+     * enough.
+     *
+     * @param file
+     *            the resolved absolute regular file
+     * @return the cached response or <code>null</code> if the file cannot be
+     *         cached
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public Response load(final File file) throws IOException {
+        if (mainCapacity == 0) {
+            return null;
+        }
+
+        String key = file.getPath();
+        lock.lock();
+        try {
+            sketch.increment(key);
+        } finally {
+            lock.unlock();
+        }
+
+        BasicFileAttributes attributes = attributesOf(file);
+        if (attributes.size() > maxFileSize) {
+            return null;
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        Entry entry = new Entry(key, attributes,
+                serialize(file, attributes, content));
+        if (content.length != attributes.size() || !entry.isCurrent(file)) {
+            return null;
+        }
+
+        lock.lock();
+        try {
+            Entry previous = entries.get(key);
+            if (previous != null) {
+                remove(previous);
+            }
+            entries.put(key, entry);
+            window.put(key, entry);
+            windowWeight += entry.weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        return entry.newResponse();
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size of the cached responses in bytes
+     */
+    public long weight() {
+        lock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves entries pushed out of the admission window to the main region if
+     * they are used more often than the entries they would evict from there.
+     */
+    private void evict() {
+        while (windowWeight > windowCapacity) {
+            Iterator<Entry> eldest = window.values().iterator();
+            Entry candidate = eldest.next();
+            eldest.remove();
+            windowWeight -= candidate.weight;
+            if (!admit(candidate)) {
+                entries.remove(candidate.key, candidate);
+            }
+        }
+    }
+
+    /**
+     * Admits the candidate pushed out of the admission window to the main
+     * region if it is used more often than the least recently used entry,
+     * evicting that entry (and the following ones, as needed) to make room.
+     *
+     * @param candidate
+     *            the entry pushed out of the admission window
+     * @return is the candidate admitted
+     */
+    private boolean admit(final Entry candidate) {
+        if (candidate.weight > mainCapacity) {
+            return false;
+        }
+        Iterator<Entry> victims = main.values().iterator();
+        boolean compared = false;
+        while (mainWeight + candidate.weight > mainCapacity) {
+            if (!victims.hasNext()) {
+                return false;
+            }
+            Entry victim = victims.next();
+            if (!compared && sketch.frequency(candidate.key) <= sketch
+                    .frequency(victim.key)) {
+                return false;
+            }
+            compared = true;
+            victims.remove();
+            mainWeight -= victim.weight;
+            entries.remove(victim.key, victim);
+        }
+        Entry admitted = candidate.toDirect();
+        main.put(admitted.key, admitted);
+        mainWeight += admitted.weight;
+        entries.replace(admitted.key, candidate, admitted);
+        return true;
+    }
+
+    /**
+     * Invalidates the stale entry given.
+     *
+     * @param entry
+     *            the entry to invalidate
+     */
+    private void invalidate(final Entry entry) {
+        lock.lock();
+        try {
+            if (entries.get(entry.key) == entry) {
+                remove(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry given from the cache (under the lock).
+     *
+     * @param entry
+     *            the entry to remove
+     */
+    private void remove(final Entry entry) {
+        entries.remove(entry.key);
+        if (window.remove(entry.key) != null) {
+            windowWeight -= entry.weight;
+        } else if (main.remove(entry.key) != null) {
+            mainWeight -= entry.weight;
+        }
+    }
+
+    /**
+     * Serializes the complete response for the file given into a heap buffer.
+     *
+     * @param file
+     *            the file
+     * @param attributes
+     *            the attributes of the file read before its content
+     * @param content
+     *            the content of the file
+     * @return the serialized response
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static CachedResponse serialize(final File file,
+            final BasicFileAttributes attributes, final byte[] content)
+            throws IOException {
+        FileResponse response = new FileResponse(file);
+        ResourceMetadata.of(attributes).applyTo(response);
+        response.setMessageBody(content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResponseWriter writer = new ResponseWriter(out)) {
+            writer.write(response);
+        }
+        byte[] wire = out.toByteArray();
+
+        int suffixLength = SimpleStringSerialization.serialize(
+                "Content-Length: " + content.length + "\r\n\r\n").length
+                + content.length;
+        return cachedResponse(response.getHeaders(), ByteBuffer.wrap(wire),
+                wire.length - suffixLength, content.length);
+    }
+
+    /**
+     * Creates the cached response over the serialized response given.
+     *
+     * @param headers
+     *            the headers serialized
+     * @param wire
+     *            the serialized response (its remaining bytes)
+     * @param prefixLength
+     *            the length of the part preceding the
+     *            <code>Content-Length</code> header
+     * @param contentLength
+     *            the length of the content
+     * @return the cached response sharing the buffer
+     */
+    private static CachedResponse cachedResponse(
+            final ResponseHeaders headers, final ByteBuffer wire,
+            final int prefixLength, final int contentLength) {
+        int length = wire.remaining();
+        return new CachedResponse(headers, slice(wire, 0, prefixLength),
+                slice(wire, prefixLength, length),
+                slice(wire, length - contentLength, length));
+    }
+
+    /**
+     * @param buffer
+     *            the buffer to slice
+     * @param from
+     *            the index of the first byte of the slice
+     * @param to
+     *            the index after the last byte of the slice
+     * @return a read-only slice of the buffer
+     */
+    private static ByteBuffer slice(final ByteBuffer buffer, final int from,
+            final int to) {
+        ByteBuffer slice = buffer.asReadOnlyBuffer();
+        slice.limit(to).position(from);
+        return slice.slice();
+    }
+
+    /**
+     * Reads the attributes of the file given with a single system call.
+     *
+     * @param file
+     *            the file
+     * @return the file attributes
+     * @throws IOException
+     *             if the attributes cannot be read (e.g. the file is gone)
+     */
+    private static BasicFileAttributes attributesOf(final File file)
+            throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    /**
+     * @return an empty access ordered {@link LinkedHashMap}
+     */
+    private static LinkedHashMap<String, Entry> accessOrdered() {
+        return new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    }
+
+    /**
+     * A cached serialized response.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * The resolved file path.
+         */
+        private final String key;
+
+        /**
+         * The modification time of the file cached.
+         */
+        private final long lastModified;
+
+        /**
+         * The size of the file cached.
+         */
+        private final long length;
+
+        /**
+         * The response serialized (to be copied per hit).
+         */
+        private final CachedResponse response;
+
+        /**
+         * The size of the serialized response.
+         */
+        private final int weight;
+
+        /**
+         * When the file was checked last time (nanoseconds, racy updates are
+         * harmless).
+         */
+        private volatile long validatedAt = System.nanoTime();
+
+        /**
+         * Creates the entry.
+         *
+         * @param key
+         *            the resolved file path
+         * @param attributes
+         *            the attributes of the file read before its content
+         * @param response
+         *            the serialized response
+         */
+        private Entry(final String key, final BasicFileAttributes attributes,
+                final CachedResponse response) {
+            this(key, attributes.lastModifiedTime().toMillis(),
+                    attributes.size(), response);
+        }
+
+        /**
+         * Creates the entry.
+         *
+         * @param key
+         *            the resolved file path
+         * @param lastModified
+         *            the modification time of the file cached
+         * @param length
+         *            the size of the file cached
+         * @param response
+         *            the serialized response
+         */
+        private Entry(final String key, final long lastModified,
+                final long length, final CachedResponse response) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.response = response;
+            this.weight = response.getPrefix().remaining()
+                    + response.getSuffix().remaining();
+        }
+
+        /**
+         * Checks whether the file has not changed since cached.
+         *
+         * @param file
+         *            the file cached
+         * @return is the entry still current
+         */
+        private boolean isCurrent(final File file) {
+            try {
+                BasicFileAttributes attributes = attributesOf(file);
+                return attributes.isRegularFile() && attributes.size() == length
+                        && attributes.lastModifiedTime()
+                                .toMillis() == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Copies the entry into a direct buffer, once admitted to the main
+         * region.
+         *
+         * @return the entry with its response in a direct buffer
+         */
+        private Entry toDirect() {
+            ByteBuffer prefix = response.getPrefix();
+            ByteBuffer suffix = response.getSuffix();
+            ByteBuffer wire = ByteBuffer.allocateDirect(weight);
+            int prefixLength = prefix.remaining();
+            wire.put(prefix).put(suffix).flip();
+            Entry entry = new Entry(key, lastModified, length,
+                    cachedResponse(response.getHeaders(), wire, prefixLength,
+                            (int) length));
+            entry.validatedAt = validatedAt;
+            return entry;
+        }
+
+        /**
+         * @return a new response sharing the serialized buffers
+         */
+        private CachedResponse newResponse() {
+            return response.copy();
+        }
+    }
+
+}
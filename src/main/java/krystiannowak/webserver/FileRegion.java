@@ -0,0 +1,83 @@
+package krystiannowak.webserver;
+
+import java.io.File;
+
+/**
+ * A region of a {@link File} to be transferred as a message body straight
+ * from the file system, without reading its content into memory.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class FileRegion {
+
+    /**
+     * The file of the region.
+     */
+    private final File file;
+
+    /**
+     * The position in the file the region starts at.
+     */
+    private final long position;
+
+    /**
+     * The number of bytes of the region.
+     */
+    private final long count;
+
+    /**
+     * Creates a region of the {@link File} given.
+     *
+     * @param file
+     *            the file of the region
+     * @param position
+     *            the position in the file the region starts at
+     * @param count
+     *            the number of bytes of the region
+     */
+    public FileRegion(final File file, final long position, final long count) {
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Creates a region covering the whole content of the {@link File} given.
+     *
+     * @param file
+     *            the file of the region
+     * @return the region of the whole file
+     */
+    public static FileRegion of(final File file) {
+        return new FileRegion(file, 0, file.length());
+    }
+
+    /**
+     * @return the file of the region
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the position in the file the region starts at
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of bytes of the region
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion [file=" + file + ", position=" + position
+                + ", count=" + count + "]";
+    }
+
+}
@@ -0,0 +1,95 @@
+package krystiannowak.webserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link MessageBody} backed by a {@link FileRegion}. It is sent with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so that
+ * the file content never enters the Java heap.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class FileRegionBody implements MessageBody {
+
+    /**
+     * The file region of the body.
+     */
+    private final FileRegion region;
+
+    /**
+     * The channel of the file region, opened on the first transfer.
+     */
+    private FileChannel fileChannel;
+
+    /**
+     * The current position in the file.
+     */
+    private long position;
+
+    /**
+     * Creates the body.
+     *
+     * @param region
+     *            the file region of the body
+     */
+    public FileRegionBody(final FileRegion region) {
+        this.region = region;
+        this.position = region.getPosition();
+    }
+
+    /**
+     * @return the file region of the body
+     */
+    public FileRegion getRegion() {
+        return region;
+    }
+
+    @Override
+    public long getLength() {
+        return region.getCount();
+    }
+
+    @Override
+    public boolean writeTo(final WritableByteChannel channel)
+            throws IOException {
+        if (fileChannel == null) {
+            fileChannel = FileChannel.open(region.getFile().toPath(),
+                    StandardOpenOption.READ);
+        }
+
+        long end = region.getPosition() + region.getCount();
+        while (position < end) {
+            long sent = fileChannel.transferTo(position, end - position,
+                    channel);
+            if (sent == 0) {
+                if (fileChannel.size() < end) {
+                    throw new EOFException(
+                            "file truncated while sending: " + region);
+                }
+                return false;
+            }
+            position += sent;
+        }
+
+        close();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegionBody [region=" + region + "]";
+    }
+
+}
@@ -2,19 +2,17 @@ package krystiannowak.webserver;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 
-import com.google.common.base.Throwables;
-import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 
 /**
- * Naive {@link Response} for transmitting {@link File}'s content. Note that
- * this simple implementation reads all the content of the {@link File} into
- * byte array in memory - be careful with big files.
+ * {@link Response} for transmitting {@link File}'s content. The content is not
+ * read into memory - the body is backed by a {@link FileRegion} which is
+ * transferred straight from the file system (or by a shared memory mapping).
+ * As a file may be served precompressed depending on the
+ * <code>Accept-Encoding</code> of the request, the response always varies on
+ * it.
  *
  * @author krystiannowak
  *
@@ -29,26 +27,26 @@ public class FileResponse extends DefaultResponse {
      *            created.
      */
     public FileResponse(final File file) {
-        super(HTTP_OK, "OK");
-        putHeader(HttpHeaders.CONTENT_TYPE,
-                MimeTypeUtils.guessContentType(file));
-        readFileIntoMessageBody(file);
+        this(file, MessageBodies.of(FileRegion.of(file)));
     }
 
     /**
-     * Reads the content of the {@link File} given into memory.
+     * Creating an instance of {@link FileResponse} based on given {@link File}
+     * with its content provided by the {@link MessageBody} given (e.g. a
+     * memory mapping from {@link MappedFiles}).
      *
      * @param file
-     *            the {@link File} to read
+     *            the {@link File} for which this {@link Response} is to be
+     *            created.
+     * @param content
+     *            the content of the file
      */
-    private void readFileIntoMessageBody(final File file) {
-        try {
-            FileInputStream fis = new FileInputStream(file);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ByteStreams.copy(fis, baos);
-            setMessageBody(baos.toByteArray());
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
+    public FileResponse(final File file, final MessageBody content) {
+        super(HTTP_OK, "OK");
+        putHeader(HttpHeaders.CONTENT_TYPE,
+                MimeTypeUtils.guessContentType(file));
+        putHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        setMessageBody(content);
     }
 }
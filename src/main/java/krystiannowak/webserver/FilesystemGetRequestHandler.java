@@ -3,14 +3,23 @@ package krystiannowak.webserver;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static krystiannowak.webserver.Responses.forbidden;
 import static krystiannowak.webserver.Responses.notFound;
+import static krystiannowak.webserver.Responses.notModified;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 
+import krystiannowak.webserver.DirectoryListings.Listing;
+
 /**
  * A {@link RequestDispatcher} for HTTP method GET.
  *
@@ -25,13 +34,76 @@ public class FilesystemGetRequestHandler implements RequestHandler {
     private final File documentRoot;
 
     /**
-     * Instantiates this {@link RequestHandler}.
+     * Instance logger.
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The cache of the serialized responses for small files.
+     */
+    private final FileCache fileCache;
+
+    /**
+     * The shared memory mappings of large files.
+     */
+    private final MappedFiles mappedFiles;
+
+    /**
+     * The cache of the directory listings.
+     */
+    private final DirectoryListings directoryListings;
+
+    /**
+     * The index of the validators of the files.
+     */
+    private final MetadataIndex metadataIndex;
+
+    /**
+     * The cache of the variants compressed on the fly.
+     */
+    private final CompressedVariants compressedVariants;
+
+    /**
+     * Instantiates this {@link RequestHandler} with no {@link FileCache},
+     * {@link MappedFiles}, {@link DirectoryListings} cache nor
+     * {@link CompressedVariants}.
      *
      * @param documentRoot
      *            the document root to look files and directories for
      */
     public FilesystemGetRequestHandler(final File documentRoot) {
+        this(documentRoot, new FileCache(0, 0), new MappedFiles(0),
+                new DirectoryListings(documentRoot, 0), new MetadataIndex(),
+                new CompressedVariants(0, 0));
+    }
+
+    /**
+     * Instantiates this {@link RequestHandler}.
+     *
+     * @param documentRoot
+     *            the document root to look files and directories for
+     * @param fileCache
+     *            the cache of the serialized responses for small files
+     * @param mappedFiles
+     *            the shared memory mappings of large files
+     * @param directoryListings
+     *            the cache of the directory listings
+     * @param metadataIndex
+     *            the index of the validators of the files
+     * @param compressedVariants
+     *            the cache of the variants compressed on the fly
+     */
+    public FilesystemGetRequestHandler(final File documentRoot,
+            final FileCache fileCache, final MappedFiles mappedFiles,
+            final DirectoryListings directoryListings,
+            final MetadataIndex metadataIndex,
+            final CompressedVariants compressedVariants) {
         this.documentRoot = documentRoot;
+        this.fileCache = fileCache;
+        this.mappedFiles = mappedFiles;
+        this.directoryListings = directoryListings;
+        this.metadataIndex = metadataIndex;
+        this.compressedVariants = compressedVariants;
     }
 
     /**
@@ -39,6 +111,11 @@ public class FilesystemGetRequestHandler implements RequestHandler {
      */
     public static final String METHOD = "GET";
 
+    /**
+     * The suffix of the name of a precompressed variant of a file.
+     */
+    private static final String GZIP_SUFFIX = ".gz";
+
     @Override
     public final Response handle(final Request request) {
 
@@ -54,6 +131,7 @@ public class FilesystemGetRequestHandler implements RequestHandler {
 
         File resource = new File(documentRoot, path).getAbsoluteFile();
 
+        // checked before any variant or indexed validator is looked up
         if (!resource.exists() || resource.isHidden()) {
             return notFound(path);
         }
@@ -62,20 +140,319 @@ public class FilesystemGetRequestHandler implements RequestHandler {
             return forbidden(path);
         }
 
+        AcceptEncoding acceptEncoding = AcceptEncoding
+                .parse(request.getAcceptEncoding());
+        if (acceptEncoding.accepts(AcceptEncoding.GZIP)) {
+            Response precompressed = precompressedResponse(request, resource);
+            if (precompressed != null) {
+                return precompressed;
+            }
+        }
+
+        String coding = compressedVariants.selectCoding(acceptEncoding);
+        if (coding != null && request.getRange() == null) {
+            Response compressed = compressedResponse(request, resource,
+                    coding);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+
+        ResourceMetadata indexed = null;
+        if (request.isConditional()) {
+            indexed = metadataIndex.get(resource);
+            if (indexed != null && indexed.isNotModified(request)) {
+                return notModified(indexed);
+            }
+        }
+
+        if (request.getRange() == null
+                && (indexed != null || !request.isConditional())) {
+            Response cached = fileCache.get(resource);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         if (resource.isFile()) {
-            return new FileResponse(resource);
+            return fileResponse(request, resource);
         }
 
         if (resource.isDirectory()) {
-            IndexHtmlGenerator indexGenerator = new IndexHtmlGenerator(
-                    documentRoot, path, Optional.empty());
-            DefaultResponse response = new StringResponse(HTTP_OK, "OK",
-                    indexGenerator.getHtml());
-            response.putHeader(HttpHeaders.CONTENT_TYPE,
-                    MediaType.HTML_UTF_8.toString());
-            return response;
+            return directoryResponse(request, resource, path, coding);
         }
 
         return forbidden(path);
     }
+
+    /**
+     * Creates the {@link Response} for the file given, indexing its
+     * {@link ResourceMetadata}: 304 Not Modified if the request is satisfied
+     * by the validators, 206 Partial Content if byte ranges are requested,
+     * otherwise from the {@link FileCache} if the file is small enough or from
+     * a shared mapping if it is large enough. The content of the file is
+     * neither read nor mapped for a HEAD request.
+     *
+     * @param request
+     *            the {@link Request} to respond to
+     * @param file
+     *            the file to respond with
+     * @return the {@link Response} for the file
+     */
+    private Response fileResponse(final Request request, final File file) {
+        try {
+            ResourceMetadata metadata = metadataIndex.load(file);
+            if (metadata.isNotModified(request)) {
+                return notModified(metadata);
+            }
+            if (request.getRange() != null
+                    && metadata.isRangeApplicable(request)) {
+                Response partial = rangeResponse(request, file, metadata);
+                if (partial != null) {
+                    return partial;
+                }
+            }
+            if (isBodiless(request)) {
+                DefaultResponse response = new FileResponse(file);
+                metadata.applyTo(response);
+                return response;
+            }
+            Response cached = fileCache.load(file);
+            if (cached != null) {
+                return cached;
+            }
+            DefaultResponse response;
+            if (mappedFiles.isMappable(file.length())) {
+                response = new FileResponse(file, mappedFiles.map(file));
+            } else {
+                response = new FileResponse(file);
+            }
+            metadata.applyTo(response);
+            return response;
+        } catch (IOException e) {
+            log.warn("cannot read attributes of file {}", file, e);
+            return new FileResponse(file);
+        }
+    }
+
+    /**
+     * Creates the {@link Response} for the byte ranges of the file requested:
+     * 206 Partial Content with the satisfiable ranges sent as file regions or
+     * 416 Requested Range Not Satisfiable if there are none.
+     *
+     * @param request
+     *            the {@link Request} with a <code>Range</code> header
+     * @param file
+     *            the file to respond with
+     * @param metadata
+     *            the validators of the file
+     * @return the {@link Response} for the ranges or <code>null</code> if the
+     *         <code>Range</code> header is to be ignored
+     */
+    private Response rangeResponse(final Request request, final File file,
+            final ResourceMetadata metadata) {
+        long length = file.length();
+        List<ByteRange> ranges = ByteRange.parse(request.getRange(), length);
+        if (ranges == null) {
+            return null;
+        }
+        if (ranges.isEmpty()) {
+            return Responses.rangeNotSatisfiable(length);
+        }
+        DefaultResponse response = new PartialFileResponse(file, ranges,
+                length);
+        metadata.applyTo(response);
+        return response;
+    }
+
+    /**
+     * Creates the {@link Response} with the precompressed variant of the file
+     * given (the file with the <code>.gz</code> suffix next to it), if there
+     * is one not older than the file itself. The variant keeps the content
+     * type of the file and is sent without any compression work. Both
+     * lookups are answered by the {@link MetadataIndex}, so a file without a
+     * variant costs no further stat call. Ranges are not supported for the
+     * variant - a ranged request gets the whole variant.
+     *
+     * @param request
+     *            the {@link Request} accepting <code>gzip</code>
+     * @param file
+     *            the file requested
+     * @return the {@link Response} with the variant or <code>null</code> if
+     *         there is no (up to date) variant
+     */
+    private Response precompressedResponse(final Request request,
+            final File file) {
+        File variant = new File(file.getPath() + GZIP_SUFFIX);
+        ResourceMetadata compressed = metadataIndex.find(variant);
+        if (compressed == null) {
+            return null;
+        }
+        ResourceMetadata original = metadataIndex.find(file);
+        if (original == null
+                || compressed.getLastModified() < original.getLastModified()) {
+            return null;
+        }
+
+        return encodedResponse(request, MimeTypeUtils.guessContentType(file),
+                compressed.withCoding(AcceptEncoding.GZIP),
+                AcceptEncoding.GZIP,
+                () -> MessageBodies.of(FileRegion.of(variant)));
+    }
+
+    /**
+     * Creates the {@link Response} with the file given compressed on the fly
+     * with the coding given, if it is worth compressing. The compressed
+     * variant is cached, so the file is compressed once per version. A HEAD
+     * request does not get the file compressed, only a cached variant.
+     *
+     * @param request
+     *            the {@link Request} accepting the coding
+     * @param file
+     *            the file requested
+     * @param coding
+     *            the content coding to compress with
+     * @return the {@link Response} with the compressed variant or
+     *         <code>null</code> if not a regular file worth compressing
+     */
+    private Response compressedResponse(final Request request,
+            final File file, final String coding) {
+        ResourceMetadata metadata = metadataIndex.find(file);
+        if (metadata == null) {
+            return null;
+        }
+        byte[] compressed;
+        if (isBodiless(request)) {
+            compressed = compressedVariants.peek(file, metadata, coding);
+        } else {
+            compressed = compressedVariants.get(file, metadata, coding);
+        }
+        if (compressed == null) {
+            return null;
+        }
+        return encodedResponse(request, MimeTypeUtils.guessContentType(file),
+                metadata.withCoding(coding), coding,
+                () -> MessageBodies.of(compressed));
+    }
+
+    /**
+     * Creates the {@link Response} with the listing of the directory given,
+     * compressed with the coding given if any, or streamed if the directory
+     * is too large to be rendered in memory.
+     *
+     * @param request
+     *            the {@link Request} to respond to
+     * @param directory
+     *            the resolved absolute directory
+     * @param path
+     *            the path of the directory requested
+     * @param coding
+     *            the content coding to compress with (<code>null</code> if
+     *            none)
+     * @return the {@link Response} with the listing
+     */
+    private Response directoryResponse(final Request request,
+            final File directory, final String path, final String coding) {
+        Listing listing = directoryListings.get(path, Optional.empty());
+        if (listing.isStreamed()) {
+            return streamedDirectoryResponse(path);
+        }
+        ResourceMetadata metadata = listing.getMetadata();
+        String contentType = MediaType.HTML_UTF_8.toString();
+
+        if (coding != null) {
+            byte[] compressed = compressedVariants.get(
+                    directory.getPath() + File.separator, metadata, coding,
+                    listing.getHtml());
+            if (compressed != null) {
+                return encodedResponse(request, contentType,
+                        metadata.withCoding(coding), coding,
+                        () -> MessageBodies.of(compressed));
+            }
+        }
+
+        Response response;
+        if (metadata.isNotModified(request)) {
+            response = notModified(metadata);
+        } else {
+            DefaultResponse listingResponse = new DefaultResponse(HTTP_OK,
+                    "OK");
+            listingResponse.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+            metadata.applyTo(listingResponse);
+            listingResponse.setMessageBody(listing.getHtml());
+            response = listingResponse;
+        }
+        response.getHeaders().put(HttpHeaders.VARY,
+                HttpHeaders.ACCEPT_ENCODING);
+        return response;
+    }
+
+    /**
+     * Creates the {@link Response} streaming the listing of the directory
+     * given with the chunked transfer coding, rendered while the directory is
+     * iterated. It has no validators and is not compressed, as neither is
+     * known before the whole listing is sent.
+     *
+     * @param path
+     *            the path of the directory requested
+     * @return the {@link Response} streaming the listing
+     */
+    private Response streamedDirectoryResponse(final String path) {
+        DefaultResponse response = new DefaultResponse(HTTP_OK, "OK");
+        response.putHeader(HttpHeaders.CONTENT_TYPE,
+                MediaType.HTML_UTF_8.toString());
+        response.putHeader(HttpHeaders.TRANSFER_ENCODING,
+                ChunkedBody.CHUNKED);
+        response.setMessageBody(new IndexHtmlGenerator(documentRoot, path,
+                Optional.empty()).stream());
+        return response;
+    }
+
+    /**
+     * Creates the {@link Response} with a variant of a representation in a
+     * content coding: 304 Not Modified if the request is satisfied by the
+     * validators of the variant, the variant otherwise.
+     *
+     * @param request
+     *            the {@link Request} to respond to
+     * @param contentType
+     *            the content type of the representation
+     * @param metadata
+     *            the validators of the variant
+     * @param coding
+     *            the content coding of the variant
+     * @param body
+     *            the supplier of the body of the variant (not called for 304)
+     * @return the {@link Response} with the variant
+     */
+    private static Response encodedResponse(final Request request,
+            final String contentType, final ResourceMetadata metadata,
+            final String coding, final Supplier<MessageBody> body) {
+        Response response;
+        if (metadata.isNotModified(request)) {
+            response = notModified(metadata);
+        } else {
+            DefaultResponse variant = new DefaultResponse(HTTP_OK, "OK");
+            variant.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+            variant.putHeader(HttpHeaders.CONTENT_ENCODING, coding);
+            metadata.applyTo(variant);
+            variant.setMessageBody(body.get());
+            response = variant;
+        }
+        response.getHeaders().put(HttpHeaders.VARY,
+                HttpHeaders.ACCEPT_ENCODING);
+        return response;
+    }
+
+    /**
+     * Checks whether the request is a HEAD one, so that the body of the
+     * response is never written and the content of files is not to be read.
+     *
+     * @param request
+     *            the {@link Request} to check
+     * @return is the request a HEAD one
+     */
+    private static boolean isBodiless(final Request request) {
+        return FilesystemHeadRequestHandler.METHOD.equals(request.getMethod());
+    }
 }
@@ -0,0 +1,40 @@
+package krystiannowak.webserver;
+
+/**
+ * A {@link RequestDispatcher} for HTTP method HEAD. The resources are
+ * resolved exactly as for GET by the {@link FilesystemGetRequestHandler},
+ * which (for a HEAD request) uses the file metadata only and never opens nor
+ * reads the content of a file, so that the headers are identical to the ones
+ * of GET at the cost of a stat call at most.
+ *
+ * @author krystiannowak
+ *
+ */
+public class FilesystemHeadRequestHandler implements RequestHandler {
+
+    /**
+     * Method HEAD {@link String} value.
+     */
+    public static final String METHOD = "HEAD";
+
+    /**
+     * The handler resolving the resources.
+     */
+    private final FilesystemGetRequestHandler getHandler;
+
+    /**
+     * Instantiates this {@link RequestHandler}.
+     *
+     * @param getHandler
+     *            the handler of GET requests to resolve the resources with
+     */
+    public FilesystemHeadRequestHandler(
+            final FilesystemGetRequestHandler getHandler) {
+        this.getHandler = getHandler;
+    }
+
+    @Override
+    public final Response handle(final Request request) {
+        return new HeadResponse(getHandler.handle(request));
+    }
+}
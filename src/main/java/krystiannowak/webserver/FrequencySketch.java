@@ -0,0 +1,185 @@
+package krystiannowak.webserver;
+
+/**
+ * A probabilistic estimate of how often keys were seen recently (a count-min
+ * sketch of 4-bit counters, see TinyLFU). Each key increments four counters,
+ * its frequency being the minimum of them; when the number of increments
+ * reaches the sample size all the counters are halved, so that the history
+ * ages. The memory used is a <code>long</code> per expected key. An instance
+ * is not thread-safe.
+ *
+ * @author krystiannowak
+ *
+ */
+final class FrequencySketch {
+
+    /**
+     * The seeds of the hash functions (one per counter of a key).
+     */
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    /**
+     * The mask to clear the highest bit of each counter after halving.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * The maximum value of a 4-bit counter (also the mask of a counter).
+     */
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * The number of bits of a counter.
+     */
+    private static final int COUNTER_BITS = 4;
+
+    /**
+     * The number of bits of a byte (the hash bits picking a counter per
+     * seed).
+     */
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * The half of the bits of a <code>long</code>.
+     */
+    private static final int HALF_LONG_BITS = 32;
+
+    /**
+     * The number of increments per table slot after which counters are
+     * halved.
+     */
+    private static final int SAMPLE_FACTOR = 10;
+
+    /**
+     * The multiplier spreading the bits of a hash code (the golden ratio).
+     */
+    private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+    /**
+     * The minimum number of table slots.
+     */
+    private static final int MIN_SIZE = 16;
+
+    /**
+     * The counters, 16 per slot.
+     */
+    private final long[] table;
+
+    /**
+     * The mask of a table index.
+     */
+    private final int tableMask;
+
+    /**
+     * The number of increments after which counters are halved.
+     */
+    private final int sampleSize;
+
+    /**
+     * The number of increments since the last halving.
+     */
+    private int additions;
+
+    /**
+     * Creates the sketch.
+     *
+     * @param expectedKeys
+     *            the expected number of distinct keys to be tracked
+     */
+    FrequencySketch(final int expectedKeys) {
+        int size = Integer.highestOneBit(Math.max(expectedKeys, MIN_SIZE) - 1)
+                << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = SAMPLE_FACTOR * size;
+    }
+
+    /**
+     * Estimates how often the key has been seen recently.
+     *
+     * @param key
+     *            the key
+     * @return the estimated frequency (up to 15)
+     */
+    int frequency(final Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long slot = table[indexOf(hash, i)];
+            int count = (int) (slot >>> offsetOf(hash, i)) & MAX_COUNT;
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of the key.
+     *
+     * @param key
+     *            the key
+     */
+    void increment(final Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = offsetOf(hash, i);
+            if (((table[index] >>> offset) & MAX_COUNT) != MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all the counters so that the old occurrences fade out.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    /**
+     * @param hash
+     *            the spread hash of a key
+     * @param i
+     *            the number of the counter of the key
+     * @return the index of the table slot holding the counter
+     */
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> HALF_LONG_BITS;
+        return (int) h & tableMask;
+    }
+
+    /**
+     * @param hash
+     *            the spread hash of a key
+     * @param i
+     *            the number of the counter of the key
+     * @return the bit offset of the counter within its table slot
+     */
+    private static int offsetOf(final int hash, final int i) {
+        return ((hash >>> (i * BYTE_BITS)) & MAX_COUNT) * COUNTER_BITS;
+    }
+
+    /**
+     * Spreads the bits of a hash code, so that similar keys use different
+     * counters.
+     *
+     * @param hashCode
+     *            the hash code of a key
+     * @return the spread hash
+     */
+    private static int spread(final int hashCode) {
+        int h = hashCode * GOLDEN_RATIO;
+        return h ^ (h >>> (HALF_LONG_BITS / 2));
+    }
+
+}
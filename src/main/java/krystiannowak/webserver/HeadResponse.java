@@ -0,0 +1,72 @@
+package krystiannowak.webserver;
+
+import java.util.OptionalLong;
+
+/**
+ * A {@link Response} to a HEAD request as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-9.4">https://tools.
+ * ietf.org/html/rfc2616#section-9.4</a>: the status and the headers of the
+ * {@link Response} the same request would get with GET, including the
+ * <code>Content-Length</code> of its body, but no message body at all.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class HeadResponse implements Response {
+
+    /**
+     * The response to the GET request.
+     */
+    private final Response response;
+
+    /**
+     * The empty message body sent instead.
+     */
+    private final MessageBody messageBody = MessageBodies.empty();
+
+    /**
+     * Creates the response.
+     *
+     * @param response
+     *            the response to the GET request (its body is never written)
+     */
+    public HeadResponse(final Response response) {
+        this.response = response;
+    }
+
+    @Override
+    public String getHttpVersion() {
+        return response.getHttpVersion();
+    }
+
+    @Override
+    public int getStatusCode() {
+        return response.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+        return response.getReasonPhrase();
+    }
+
+    @Override
+    public ResponseHeaders getHeaders() {
+        return response.getHeaders();
+    }
+
+    @Override
+    public MessageBody getMessageBody() {
+        return messageBody;
+    }
+
+    @Override
+    public OptionalLong getContentLength() {
+        return response.getContentLength();
+    }
+
+    @Override
+    public String toString() {
+        return "HeadResponse [response=" + response + "]";
+    }
+
+}
@@ -0,0 +1,272 @@
+package krystiannowak.webserver;
+
+/**
+ * Well known names of the request headers, interned so that a name received
+ * can be recognized with a single hash table probe (case insensitive, without
+ * decoding it first) and the headers with such names looked up in constant
+ * time.
+ *
+ * @author krystiannowak
+ *
+ */
+public enum HeaderName {
+
+    /**
+     * Host header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.23">https://tools
+     * .ietf.org/html/rfc2616#section-14.23</a>.
+     */
+    HOST("Host"),
+
+    /**
+     * Connection header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.10">https://tools
+     * .ietf.org/html/rfc2616#section-14.10</a>.
+     */
+    CONNECTION("Connection"),
+
+    /**
+     * Accept header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.1">https://tools.
+     * ietf.org/html/rfc2616#section-14.1</a>.
+     */
+    ACCEPT("Accept"),
+
+    /**
+     * Accept-Encoding header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.3">https://tools.
+     * ietf.org/html/rfc2616#section-14.3</a>.
+     */
+    ACCEPT_ENCODING("Accept-Encoding"),
+
+    /**
+     * Accept-Language header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.4">https://tools.
+     * ietf.org/html/rfc2616#section-14.4</a>.
+     */
+    ACCEPT_LANGUAGE("Accept-Language"),
+
+    /**
+     * User-Agent header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.43">https://tools
+     * .ietf.org/html/rfc2616#section-14.43</a>.
+     */
+    USER_AGENT("User-Agent"),
+
+    /**
+     * Referer header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.36">https://tools
+     * .ietf.org/html/rfc2616#section-14.36</a>.
+     */
+    REFERER("Referer"),
+
+    /**
+     * If-None-Match header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.26">https://tools
+     * .ietf.org/html/rfc2616#section-14.26</a>.
+     */
+    IF_NONE_MATCH("If-None-Match"),
+
+    /**
+     * If-Modified-Since header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.25">https://tools
+     * .ietf.org/html/rfc2616#section-14.25</a>.
+     */
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+
+    /**
+     * Range header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.35">https://tools
+     * .ietf.org/html/rfc2616#section-14.35</a>.
+     */
+    RANGE("Range"),
+
+    /**
+     * If-Range header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.27">https://tools
+     * .ietf.org/html/rfc2616#section-14.27</a>.
+     */
+    IF_RANGE("If-Range"),
+
+    /**
+     * Content-Length header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.13">https://tools
+     * .ietf.org/html/rfc2616#section-14.13</a>.
+     */
+    CONTENT_LENGTH("Content-Length"),
+
+    /**
+     * Cache-Control header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.9">https://tools.
+     * ietf.org/html/rfc2616#section-14.9</a>.
+     */
+    CACHE_CONTROL("Cache-Control"),
+
+    /**
+     * Pragma header as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.32">https://tools
+     * .ietf.org/html/rfc2616#section-14.32</a>.
+     */
+    PRAGMA("Pragma"),
+
+    /**
+     * Cookie header as per
+     * <a href="https://tools.ietf.org/html/rfc6265#section-5.4">https://tools.
+     * ietf.org/html/rfc6265#section-5.4</a>.
+     */
+    COOKIE("Cookie");
+
+    /**
+     * The size of the hash table of the names (a power of 2, at least twice
+     * the number of the names to keep the probes short).
+     */
+    private static final int TABLE_SIZE = 64;
+
+    /**
+     * The multiplier of the hash function.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * The difference between upper and lower case ASCII letters.
+     */
+    private static final int CASE_DIFFERENCE = 'a' - 'A';
+
+    /**
+     * The names by the hash of their lower case bytes (open addressing with
+     * linear probing).
+     */
+    private static final HeaderName[] TABLE = new HeaderName[TABLE_SIZE];
+
+    static {
+        for (HeaderName name : values()) {
+            int slot = hash(name.lowerCase, 0, name.lowerCase.length);
+            while (TABLE[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE[slot] = name;
+        }
+    }
+
+    /**
+     * The canonical spelling of the name.
+     */
+    private final String name;
+
+    /**
+     * The lower case bytes of the name.
+     */
+    private final byte[] lowerCase;
+
+    /**
+     * Creates the name.
+     *
+     * @param name
+     *            the canonical spelling of the name
+     */
+    HeaderName(final String name) {
+        this.name = name;
+        this.lowerCase = SimpleStringSerialization
+                .serialize(name.toLowerCase());
+    }
+
+    /**
+     * @return the canonical spelling of the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Finds the well known name equal (case insensitive) to the bytes given.
+     *
+     * @param data
+     *            the buffer with the name
+     * @param start
+     *            the offset of the name
+     * @param end
+     *            the offset following the name
+     * @return the name or <code>null</code> if not well known
+     */
+    static HeaderName lookup(final byte[] data, final int start,
+            final int end) {
+        int slot = hash(data, start, end);
+        while (TABLE[slot] != null) {
+            if (TABLE[slot].matches(data, start, end)) {
+                return TABLE[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the well known name equal (case insensitive) to the one given.
+     *
+     * @param name
+     *            the name to find
+     * @return the name or <code>null</code> if not well known
+     */
+    public static HeaderName lookup(final String name) {
+        byte[] data = SimpleStringSerialization.serialize(name);
+        return lookup(data, 0, data.length);
+    }
+
+    /**
+     * Checks (case insensitive) whether the bytes given are this name.
+     *
+     * @param data
+     *            the buffer with the name to check
+     * @param start
+     *            the offset of the name
+     * @param end
+     *            the offset following the name
+     * @return does the name match
+     */
+    boolean matches(final byte[] data, final int start, final int end) {
+        if (end - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (toLowerCase(data[start + i]) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the lower case of the bytes given into a slot of the table.
+     *
+     * @param data
+     *            the buffer with the name
+     * @param start
+     *            the offset of the name
+     * @param end
+     *            the offset following the name
+     * @return the slot of the table
+     */
+    private static int hash(final byte[] data, final int start,
+            final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = hash * HASH_MULTIPLIER + toLowerCase(data[i]);
+        }
+        return (hash ^ (hash >>> (Integer.SIZE / 2))) & (TABLE_SIZE - 1);
+    }
+
+    /**
+     * Converts an ASCII letter to lower case.
+     *
+     * @param b
+     *            the byte to convert
+     * @return the lower case letter or the byte unchanged if not a letter
+     */
+    static int toLowerCase(final byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return b + CASE_DIFFERENCE;
+        }
+        return b;
+    }
+
+}
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A representation of an HTTP connection abstraction.
@@ -14,13 +17,19 @@ import java.net.Socket;
  */
 public class HttpConnection implements Closeable {
 
+    /**
+     * The size of the buffer to drain the unread requests with.
+     */
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
     /**
      * A {@link Socket} to handle the connection on.
      */
     private final Socket socket;
 
     /**
-     * An {@link InputStream} to read the HTTP requests from.
+     * An {@link InputStream} to read the HTTP requests from (its reads left
+     * out of the measurement of the {@link AdaptiveThreadPool}).
      */
     private final InputStream inputStream;
 
@@ -30,7 +39,16 @@ public class HttpConnection implements Closeable {
     private final OutputStream outputStream;
 
     /**
-     * Creates the connection.
+     * A {@link WritableByteChannel} to write the HTTP responses to - the
+     * socket's own channel if present (allowing zero-copy file transfers),
+     * otherwise a channel wrapping the {@link OutputStream}.
+     */
+    private final WritableByteChannel outputChannel;
+
+    /**
+     * Creates the connection. Nagle's algorithm is disabled on its socket, as
+     * a response written in more than one part (its head and its body) would
+     * otherwise wait for the delayed acknowledgement of the client.
      *
      * @param socket
      *            the {@link Socket} to create connection on
@@ -40,8 +58,14 @@ public class HttpConnection implements Closeable {
      */
     public HttpConnection(final Socket socket) throws IOException {
         this.socket = socket;
-        inputStream = socket.getInputStream();
+        socket.setTcpNoDelay(true);
+        inputStream = new IdleInputStream(socket.getInputStream());
         outputStream = socket.getOutputStream();
+        if (socket.getChannel() != null) {
+            outputChannel = socket.getChannel();
+        } else {
+            outputChannel = Channels.newChannel(outputStream);
+        }
     }
 
     /**
@@ -58,6 +82,102 @@ public class HttpConnection implements Closeable {
         return outputStream;
     }
 
+    /**
+     * @return the {@link WritableByteChannel} of this connection
+     */
+    public final WritableByteChannel getOutputChannel() {
+        return outputChannel;
+    }
+
+    /**
+     * Closes the connection after a response written without reading the
+     * request: the output is shut down first (the response is followed by
+     * FIN), and the request still unread is drained for a while, so that the
+     * kernel does not reset the connection (discarding the response) for the
+     * data left unread.
+     *
+     * @param maxBytes
+     *            the most bytes to drain
+     * @param timeoutMillis
+     *            the longest time in milliseconds to wait for the client
+     * @return <code>true</code> if the client has closed its side in time
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public final boolean closeUnread(final int maxBytes,
+            final int timeoutMillis) throws IOException {
+        try {
+            socket.shutdownOutput();
+            socket.setSoTimeout(timeoutMillis);
+            return drain(maxBytes);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Shuts the output down after a response written without reading the
+     * request, the response being followed by FIN.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public final void shutdownOutput() throws IOException {
+        socket.shutdownOutput();
+    }
+
+    /**
+     * Closes the connection after its output has been shut down, draining
+     * first the input already received (without waiting for more), so that
+     * the kernel does not reset the connection for the data left unread.
+     *
+     * @param maxBytes
+     *            the most bytes to drain
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public final void closeDrained(final int maxBytes) throws IOException {
+        try {
+            long drained = 0;
+            int available = inputStream.available();
+            while (available > 0 && drained < maxBytes) {
+                drained += inputStream
+                        .skip(Math.min(available, maxBytes - drained));
+                available = inputStream.available();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Reads and discards the input until its end, the bytes given are read
+     * or the read times out.
+     *
+     * @param maxBytes
+     *            the most bytes to read
+     * @return <code>true</code> if the end of the input has been reached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private boolean drain(final int maxBytes) throws IOException {
+        byte[] buffer = new byte[Math.min(maxBytes, DRAIN_BUFFER_SIZE)];
+        int drained = 0;
+        try {
+            while (drained < maxBytes) {
+                int read = inputStream.read(buffer, 0,
+                        Math.min(buffer.length, maxBytes - drained));
+                if (read < 0) {
+                    return true;
+                }
+                drained += read;
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        return false;
+    }
+
     @Override
     public final void close() throws IOException {
         if (inputStream != null) {
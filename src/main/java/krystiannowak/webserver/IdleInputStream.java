@@ -0,0 +1,49 @@
+package krystiannowak.webserver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} of a connection marking every read as a wait for the
+ * client to the {@link AdaptiveThreadPool} running it, so that the time a
+ * worker spends blocked on a Keep-Alive connection idle between its requests
+ * does not count as the blocking of the work it does.
+ *
+ * @author krystiannowak
+ *
+ */
+final class IdleInputStream extends FilterInputStream {
+
+    /**
+     * Creates the stream.
+     *
+     * @param in
+     *            the stream of the connection
+     */
+    IdleInputStream(final InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        AdaptiveThreadPool.beginIdle();
+        try {
+            return super.read();
+        } finally {
+            AdaptiveThreadPool.endIdle();
+        }
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        AdaptiveThreadPool.beginIdle();
+        try {
+            return super.read(buffer, offset, length);
+        } finally {
+            AdaptiveThreadPool.endIdle();
+        }
+    }
+
+}
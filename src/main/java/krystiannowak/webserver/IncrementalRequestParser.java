@@ -0,0 +1,97 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+
+/**
+ * A hand-written HTTP request parser decoding the bytes of the
+ * {@link InputStream} with a {@link RequestDecoder} as soon as they arrive.
+ * Requests split into many reads as well as many (pipelined) requests
+ * received in a single read are handled; a message body announced with
+ * <code>Content-Length</code> is skipped. The requests released by the
+ * consumer are reused for the next ones on the same connection.
+ *
+ * @author krystiannowak
+ *
+ */
+public class IncrementalRequestParser implements RequestParser {
+
+    /**
+     * The size of the buffer to read the {@link InputStream} with.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * An instance logger.
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public final Observable<Request> parse(final InputStream is) {
+        return Observable.create(subscriber -> {
+            RequestDecoder decoder = new RequestDecoder();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int position = 0;
+            int limit = 0;
+            long toSkip = 0;
+            try {
+                boolean keepAlive = true;
+                while (keepAlive && !subscriber.isUnsubscribed()) {
+
+                    if (position == limit) {
+                        position = 0;
+                        limit = is.read(buffer, 0, buffer.length);
+                        if (limit < 0) {
+                            break;
+                        }
+                    }
+
+                    if (toSkip > 0) {
+                        int skipped = (int) Math.min(toSkip, limit - position);
+                        position += skipped;
+                        toSkip -= skipped;
+                        continue;
+                    }
+
+                    position += decoder.decode(buffer, position,
+                            limit - position);
+
+                    if (decoder.isComplete() || decoder.isError()) {
+                        boolean malformed = decoder.isError();
+                        toSkip = decoder.getBodyLength();
+                        Request request = decoder.take();
+                        log.debug("emitting parsed request = {}", request);
+                        subscriber.onNext(request);
+
+                        keepAlive = request.isKeepAlive() && !malformed;
+                    }
+                }
+            } catch (IOException e) {
+                subscriber.onError(e);
+            }
+
+            subscriber.onCompleted();
+        });
+    }
+
+    @Override
+    public final Function<byte[], Request> forConnection() {
+        RequestDecoder decoder = new RequestDecoder();
+        return head -> {
+            decoder.decode(head, 0, head.length);
+            boolean decoded = decoder.isComplete() || decoder.isError();
+            Request request = decoder.take();
+            if (!decoded) {
+                return null;
+            }
+            return request;
+        };
+    }
+
+}
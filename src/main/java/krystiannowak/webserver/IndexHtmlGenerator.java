@@ -1,13 +1,23 @@
 package krystiannowak.webserver;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.Iterators;
 
 /**
  * A generator for an HTML index page showing the content of given directory.
@@ -66,59 +76,159 @@ public class IndexHtmlGenerator {
      * @return the HTML index
      */
     public final String getHtml() {
+        return getHtml(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the rendered HTML representation of index of the directory, unless
+     * it has more entries than the number given. The entries are read before
+     * anything is rendered, to be sorted (directories first, then by name).
+     *
+     * @param maxEntries
+     *            the maximum number of entries to render in memory
+     * @return the HTML index or <code>null</code> if the directory has more
+     *         entries
+     */
+    public final String getHtml(final int maxEntries) {
+        List<Entry> entries = readEntries(maxEntries);
+        if (entries == null) {
+            return null;
+        }
+
         StringBuilder sb = new StringBuilder();
-        renderDocument(sb);
+        renderPrologue(sb);
+        for (Entry entry : entries) {
+            renderTableDataLine(sb, entry);
+        }
+        renderEpilogue(sb);
         return sb.toString();
     }
 
     /**
-     * Renders the HTML document.
+     * Creates a {@link MessageBody} streaming the HTML index of the directory
+     * while iterating it, in the directory order (not sorted), sent with the
+     * chunked transfer coding. Neither the time to the first byte nor the
+     * memory used depend on the number of entries of the directory. The
+     * directory is opened only once the body is written.
+     *
+     * @return the body streaming the index
+     */
+    public final MessageBody stream() {
+        StringBuilder prologue = new StringBuilder();
+        renderPrologue(prologue);
+        StringBuilder epilogue = new StringBuilder();
+        renderEpilogue(epilogue);
+        return new ListingBody(prologue.toString(), epilogue.toString());
+    }
+
+    /**
+     * Renders the HTML table row of the directory entry given.
+     *
+     * @param path
+     *            the directory entry
+     * @return the HTML table row
+     */
+    private String renderRow(final Path path) {
+        StringBuilder row = new StringBuilder();
+        renderTableDataLine(row, new Entry(path.toFile()));
+        return row.toString();
+    }
+
+    /**
+     * @return the directory listed
+     */
+    private File directory() {
+        return new File(documentRoot, subdirectory);
+    }
+
+    /**
+     * Reads the entries of the directory sorted (directories first, then by
+     * name), unless there are more than the number given.
+     *
+     * @param maxEntries
+     *            the maximum number of entries to read
+     * @return the sorted entries (none if the directory cannot be read) or
+     *         <code>null</code> if there are more
+     */
+    private List<Entry> readEntries(final int maxEntries) {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files
+                .newDirectoryStream(directory().toPath())) {
+            for (Path path : stream) {
+                if (paths.size() == maxEntries) {
+                    return null;
+                }
+                paths.add(path);
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> entries = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            entries.add(new Entry(path.toFile()));
+        }
+        entries.sort(Comparator.comparing(Entry::isFile)
+                .thenComparing(Entry::getName));
+        return entries;
+    }
+
+    /**
+     * Renders the HTML document up to the table data rows of the entries.
      *
      * @param sb
      *            a {@link StringBuilder} for the HTML document
      */
-    private void renderDocument(final StringBuilder sb) {
+    private void renderPrologue(final StringBuilder sb) {
         sb.append(DOCTYPE);
         sb.append(NEW_LINE);
         sb.append("<html>");
         sb.append(NEW_LINE);
         renderHead(sb);
-        renderBody(sb);
-        sb.append("</html>");
+        sb.append("<body>");
+        sb.append(NEW_LINE);
+        renderH1(sb);
+        sb.append("<table>");
         sb.append(NEW_LINE);
+        renderTableHeader(sb);
+        renderTableLine(sb);
+        if (!subdirectory.equals("/")) {
+            renderTableBackLink(sb, directory());
+        }
     }
 
     /**
-     * Renders the HTML head tag and its content.
+     * Renders the HTML document after the table data rows of the entries.
      *
      * @param sb
      *            a {@link StringBuilder} for the HTML document
      */
-    private void renderHead(final StringBuilder sb) {
-        sb.append("<head>");
+    private void renderEpilogue(final StringBuilder sb) {
+        renderTableLine(sb);
+        sb.append("</table>");
         sb.append(NEW_LINE);
-        sb.append("<title>");
-        sb.append("Index of ");
-        sb.append(subdirectory);
-        sb.append("</title>");
+        renderAddress(sb);
+        sb.append("</body>");
         sb.append(NEW_LINE);
-        sb.append("</head>");
+        sb.append("</html>");
         sb.append(NEW_LINE);
     }
 
     /**
-     * Renders the HTML body tag and its content.
+     * Renders the HTML head tag and its content.
      *
      * @param sb
      *            a {@link StringBuilder} for the HTML document
      */
-    private void renderBody(final StringBuilder sb) {
-        sb.append("<body>");
+    private void renderHead(final StringBuilder sb) {
+        sb.append("<head>");
         sb.append(NEW_LINE);
-        renderH1(sb);
-        renderTable(sb);
-        renderAddress(sb);
-        sb.append("</body>");
+        sb.append("<title>");
+        sb.append("Index of ");
+        sb.append(subdirectory);
+        sb.append("</title>");
+        sb.append(NEW_LINE);
+        sb.append("</head>");
         sb.append(NEW_LINE);
     }
 
@@ -136,23 +246,6 @@ public class IndexHtmlGenerator {
         sb.append(NEW_LINE);
     }
 
-    /**
-     * Renders the HTML table tag and its content.
-     *
-     * @param sb
-     *            a {@link StringBuilder} for the HTML document
-     */
-    private void renderTable(final StringBuilder sb) {
-        sb.append("<table>");
-        sb.append(NEW_LINE);
-        renderTableHeader(sb);
-        renderTableLine(sb);
-        renderTableData(sb);
-        renderTableLine(sb);
-        sb.append("</table>");
-        sb.append(NEW_LINE);
-    }
-
     /**
      * Renders the HTML table header row tag and its content.
      *
@@ -183,31 +276,6 @@ public class IndexHtmlGenerator {
         sb.append(NEW_LINE);
     }
 
-    /**
-     * Renders the HTML table data rows.
-     *
-     * @param sb
-     *            a {@link StringBuilder} for the HTML document
-     */
-    private void renderTableData(final StringBuilder sb) {
-        File dir = new File(documentRoot, subdirectory);
-
-        if (!subdirectory.equals("/")) {
-            renderTableBackLink(sb, dir);
-        }
-
-        File[] files = dir.listFiles();
-        if (files != null) {
-            List<File> fileList = Arrays.asList(files);
-            fileList.sort(Comparator.comparing(File::isFile)
-                    .thenComparing(File::getName));
-
-            for (File file : fileList) {
-                renderTableDataLine(sb, file);
-            }
-        }
-    }
-
     /**
      * Renders the HTML table row with back link.
      *
@@ -235,13 +303,14 @@ public class IndexHtmlGenerator {
      *
      * @param sb
      *            a {@link StringBuilder} for the HTML document
-     * @param file
+     * @param entry
      *            a file or directory for which to generate this row with name
      *            and link
      */
-    private void renderTableDataLine(final StringBuilder sb, final File file) {
-        String fileName = file.getName();
-        if (file.isDirectory()) {
+    private void renderTableDataLine(final StringBuilder sb,
+            final Entry entry) {
+        String fileName = entry.getName();
+        if (entry.isDirectory()) {
             fileName += "/";
         }
 
@@ -298,4 +367,169 @@ public class IndexHtmlGenerator {
             sb.append(NEW_LINE);
         });
     }
+
+    /**
+     * A {@link ChunkedBody} of the HTML index pieces (the rows rendered as the
+     * directory is iterated).
+     *
+     * @author krystiannowak
+     *
+     */
+    private final class ListingBody extends ChunkedBody {
+
+        /**
+         * The HTML index up to the rows.
+         */
+        private final String prologue;
+
+        /**
+         * The HTML index after the rows.
+         */
+        private final String epilogue;
+
+        /**
+         * The directory stream iterated (opened on the first write).
+         */
+        private DirectoryStream<Path> directoryStream;
+
+        /**
+         * The pieces of the HTML index rendered lazily.
+         */
+        private Iterator<String> pieces;
+
+        /**
+         * The encoded piece not produced completely yet.
+         */
+        private ByteBuffer pending = ByteBuffer.allocate(0);
+
+        /**
+         * Creates the body.
+         *
+         * @param prologue
+         *            the HTML index up to the rows
+         * @param epilogue
+         *            the HTML index after the rows
+         */
+        private ListingBody(final String prologue, final String epilogue) {
+            super(DEFAULT_BUFFER_SIZE);
+            this.prologue = prologue;
+            this.epilogue = epilogue;
+        }
+
+        @Override
+        protected boolean produceChunk(final ByteBuffer target)
+                throws IOException {
+            if (pieces == null) {
+                directoryStream = Files
+                        .newDirectoryStream(directory().toPath());
+                pieces = Iterators.concat(
+                        Iterators.singletonIterator(prologue),
+                        Iterators.transform(directoryStream.iterator(),
+                                IndexHtmlGenerator.this::renderRow),
+                        Iterators.singletonIterator(epilogue));
+            }
+            try {
+                while (true) {
+                    if (pending.hasRemaining()) {
+                        int count = Math.min(pending.remaining(),
+                                target.remaining());
+                        ByteBuffer part = pending.duplicate();
+                        part.limit(part.position() + count);
+                        target.put(part);
+                        pending.position(pending.position() + count);
+                        if (pending.hasRemaining()) {
+                            return true;
+                        }
+                    }
+                    if (!pieces.hasNext()) {
+                        return false;
+                    }
+                    pending = ByteBuffer.wrap(SimpleStringSerialization
+                            .serialize(pieces.next()));
+                }
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        protected void release() throws IOException {
+            if (directoryStream != null) {
+                directoryStream.close();
+            }
+        }
+    }
+
+    /**
+     * A directory entry with its type read once (with a single stat call),
+     * so that sorting does not hit the file system per comparison.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * The name of the entry.
+         */
+        private final String name;
+
+        /**
+         * Whether the entry is a regular file.
+         */
+        private final boolean file;
+
+        /**
+         * Whether the entry is a directory.
+         */
+        private final boolean directory;
+
+        /**
+         * Reads the type of the file given.
+         *
+         * @param file
+         *            the file or directory
+         */
+        private Entry(final File file) {
+            this.name = file.getName();
+            BasicFileAttributes attributes = readAttributes(file);
+            this.file = attributes != null && attributes.isRegularFile();
+            this.directory = attributes != null && attributes.isDirectory();
+        }
+
+        /**
+         * @return the name of the entry
+         */
+        private String getName() {
+            return name;
+        }
+
+        /**
+         * @return is the entry a regular file
+         */
+        private boolean isFile() {
+            return file;
+        }
+
+        /**
+         * @return is the entry a directory
+         */
+        private boolean isDirectory() {
+            return directory;
+        }
+
+        /**
+         * @param file
+         *            the file to read the attributes of
+         * @return the attributes or <code>null</code> if cannot be read
+         */
+        private static BasicFileAttributes readAttributes(final File file) {
+            try {
+                return Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
 }
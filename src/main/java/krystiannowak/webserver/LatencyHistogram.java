@@ -0,0 +1,194 @@
+package krystiannowak.webserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with log-linear buckets (as in HdrHistogram):
+ * every power of 2 of nanoseconds is split into a few linear sub-buckets, so
+ * that a latency is counted with a bounded relative error (12.5%) whatever
+ * its magnitude, in a fixed number of counters. Recording is lock-free and
+ * allocation-free - an index computed with a few bit operations and a single
+ * atomic increment - so it can be done for every request from any thread.
+ * <p>
+ * It is exported in the Prometheus text format with the bucket bounds at the
+ * powers of 2 of nanoseconds, where the counts are exact.
+ *
+ * @author krystiannowak
+ *
+ */
+final class LatencyHistogram {
+
+    /**
+     * The number of bits of the sub-bucket of a power of 2.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of sub-buckets of a power of 2.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, enough for any non-negative <code>long</code>.
+     */
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The power of 2 of nanoseconds of the lowest bound exported (about a
+     * microsecond).
+     */
+    private static final int LOWEST_EXPORTED_BITS = 10;
+
+    /**
+     * The power of 2 of nanoseconds of the highest bound exported (about a
+     * minute).
+     */
+    private static final int HIGHEST_EXPORTED_BITS = 36;
+
+    /**
+     * The number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The counts of the latencies by bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The sum of the latencies in nanoseconds.
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds (a negative one counts as 0)
+     */
+    void record(final long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(index(value));
+        sum.add(value);
+    }
+
+    /**
+     * Finds the bucket of a latency.
+     *
+     * @param value
+     *            the non-negative latency in nanoseconds
+     * @return the index of the bucket
+     */
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value)
+                - SUB_BUCKET_BITS;
+        return (exponent + 1) * SUB_BUCKETS
+                + (int) ((value >>> exponent) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the lowest latency counted in a bucket.
+     *
+     * @param index
+     *            the index of the bucket
+     * @return the lowest latency in nanoseconds
+     */
+    static long lowestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << exponent;
+    }
+
+    /**
+     * @return the number of the latencies recorded
+     */
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the latencies recorded in nanoseconds
+     */
+    long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets the number of the latencies recorded below a bound.
+     *
+     * @param bound
+     *            the bound in nanoseconds (exact if a power of 2, the counts
+     *            of the bucket of the bound being left out otherwise)
+     * @return the number of the latencies lower than the bound
+     */
+    long getCountBelow(final long bound) {
+        long count = 0;
+        for (int i = 0; i < index(Math.max(0, bound)); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format (in seconds), as the
+     * samples of a histogram metric already declared.
+     *
+     * @param out
+     *            the builder to write to
+     * @param name
+     *            the name of the metric
+     * @param labels
+     *            the labels of the samples, e.g. <code>stage="parse",</code>
+     *            (each followed by a comma)
+     */
+    void writeTo(final StringBuilder out, final String name,
+            final String labels) {
+        long cumulative = 0;
+        int bucket = 0;
+        for (int bits = LOWEST_EXPORTED_BITS;
+                bits <= HIGHEST_EXPORTED_BITS; bits++) {
+            int bound = index(1L << bits);
+            for (; bucket < bound; bucket++) {
+                cumulative += counts.get(bucket);
+            }
+            out.append(name).append("_bucket{").append(labels)
+                    .append("le=\"").append((1L << bits) / NANOS_PER_SECOND)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        for (; bucket < BUCKETS; bucket++) {
+            cumulative += counts.get(bucket);
+        }
+        out.append(name).append("_bucket{").append(labels)
+                .append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(trim(labels)).append("} ")
+                .append(getSum() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count{").append(trim(labels)).append("} ")
+                .append(cumulative).append('\n');
+    }
+
+    /**
+     * Removes the trailing comma of the labels.
+     *
+     * @param labels
+     *            the labels, each followed by a comma
+     * @return the labels separated with commas only
+     */
+    private static String trim(final String labels) {
+        if (labels.endsWith(",")) {
+            return labels.substring(0, labels.length() - 1);
+        }
+        return labels;
+    }
+
+}
@@ -0,0 +1,414 @@
+package krystiannowak.webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory mappings of large files shared by all the connections, so that many
+ * clients fetching the same file (at once or one after another) are served
+ * from the page cache without a copy per connection nor a mapping per
+ * request. A mapping is kept until evicted (the least recently used one, over
+ * the maximum number of mappings) or until its file changes on disk
+ * (different modification time or size), the file getting a new mapping. Each
+ * {@link MessageBody} created holds a reference to the mapping too, so an old
+ * mapping is unmapped only once the last body using it is closed.
+ * <p>
+ * A file truncated while being served makes the access to its mapping fail
+ * (with an {@link InternalError}, the JVM's report of the bus error, which
+ * compiled code may only raise some time after the faulting access). So a
+ * body checks the length of its file before each write and fails with an
+ * {@link IOException} once it is shorter than the mapping, catching the
+ * {@link InternalError} of a truncation racing the write too; either way only
+ * its own connection is closed, and the mapping is dropped.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class MappedFiles {
+
+    /**
+     * Static {@link Logger}.
+     */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(MappedFiles.class);
+
+    /**
+     * The way of unmapping buffers eagerly available in the JVM.
+     */
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    /**
+     * The default maximum number of mappings kept.
+     */
+    private static final int DEFAULT_MAX_MAPPINGS = 256;
+
+    /**
+     * The initial capacity of the map of mappings.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the map of mappings.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The minimum size of a file to be mapped.
+     */
+    private final long threshold;
+
+    /**
+     * The current mappings per resolved file path in access order (guarded by
+     * <code>this</code>), each holding a reference to its mapping.
+     */
+    private final Map<String, Mapping> mappings;
+
+    /**
+     * Creates the mappings registry.
+     *
+     * @param threshold
+     *            the minimum size of a file to be mapped (0 disables mapping)
+     */
+    public MappedFiles(final long threshold) {
+        this(threshold, DEFAULT_MAX_MAPPINGS);
+    }
+
+    /**
+     * Creates the mappings registry.
+     *
+     * @param threshold
+     *            the minimum size of a file to be mapped (0 disables mapping)
+     * @param maxMappings
+     *            the maximum number of mappings kept
+     */
+    MappedFiles(final long threshold, final int maxMappings) {
+        this.threshold = threshold;
+        this.mappings = new LinkedHashMap<String, Mapping>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Mapping> eldest) {
+                if (size() <= maxMappings) {
+                    return false;
+                }
+                release(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Checks whether a file of the length given is to be served mapped.
+     *
+     * @param length
+     *            the length of a file
+     * @return should the file be mapped
+     */
+    public boolean isMappable(final long length) {
+        return threshold > 0 && length >= threshold
+                && length <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a {@link MessageBody} of the whole file given, sharing its
+     * mapping with the other bodies of the same file. The body has to be
+     * closed to release the mapping.
+     *
+     * @param file
+     *            the file to map
+     * @return the body backed by the mapping
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    public MessageBody map(final File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String key = file.getPath();
+
+        synchronized (this) {
+            Mapping mapping = mappings.get(key);
+            if (mapping == null || mapping.lastModified != lastModified
+                    || mapping.buffer.capacity() != attributes.size()) {
+                if (mapping != null) {
+                    drop(mapping);
+                }
+                mapping = new Mapping(key, lastModified,
+                        mapFile(file, attributes.size()));
+                mappings.put(key, mapping);
+            }
+            mapping.references++;
+            return new MappedBody(mapping);
+        }
+    }
+
+    /**
+     * @return the number of files currently mapped
+     */
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    /**
+     * Removes the mapping given from the ones kept (if still kept), releasing
+     * the reference held by this registry.
+     *
+     * @param mapping
+     *            the mapping to drop
+     */
+    private synchronized void drop(final Mapping mapping) {
+        if (mappings.remove(mapping.key, mapping)) {
+            release(mapping);
+        }
+    }
+
+    /**
+     * Releases a reference to the mapping given, unmapping it if it is not
+     * used any more.
+     *
+     * @param mapping
+     *            the mapping to release
+     */
+    private synchronized void release(final Mapping mapping) {
+        if (--mapping.references > 0) {
+            return;
+        }
+        UNMAPPER.unmap(mapping.buffer);
+    }
+
+    /**
+     * Maps the whole file given read-only.
+     *
+     * @param file
+     *            the file to map
+     * @param size
+     *            the size of the file
+     * @return the mapped buffer
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    private static MappedByteBuffer mapFile(final File file, final long size)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * A reference-counted mapping of a file.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Mapping {
+
+        /**
+         * The resolved file path.
+         */
+        private final String key;
+
+        /**
+         * The modification time of the file mapped.
+         */
+        private final long lastModified;
+
+        /**
+         * The mapped content of the file.
+         */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The number of bodies using the mapping, plus one while kept by the
+         * registry (guarded by the {@link MappedFiles}).
+         */
+        private int references = 1;
+
+        /**
+         * Creates the mapping.
+         *
+         * @param key
+         *            the resolved file path
+         * @param lastModified
+         *            the modification time of the file mapped
+         * @param buffer
+         *            the mapped content of the file
+         */
+        private Mapping(final String key, final long lastModified,
+                final MappedByteBuffer buffer) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A {@link MessageBody} written from a shared mapping.
+     *
+     * @author krystiannowak
+     *
+     */
+    private final class MappedBody implements MessageBody {
+
+        /**
+         * The mapping used.
+         */
+        private final Mapping mapping;
+
+        /**
+         * The private view of the mapping (its remaining bytes are yet to be
+         * written).
+         */
+        private final ByteBuffer content;
+
+        /**
+         * Whether the mapping has been released.
+         */
+        private boolean released;
+
+        /**
+         * Creates the body holding a reference to the mapping.
+         *
+         * @param mapping
+         *            the mapping to use
+         */
+        private MappedBody(final Mapping mapping) {
+            this.mapping = mapping;
+            this.content = mapping.buffer.duplicate();
+        }
+
+        @Override
+        public long getLength() {
+            return content.capacity();
+        }
+
+        @Override
+        public boolean writeTo(final WritableByteChannel channel)
+                throws IOException {
+            if (content.hasRemaining()) {
+                if (new File(mapping.key).length() < content.capacity()) {
+                    drop(mapping);
+                    throw new IOException("mapped file " + mapping.key
+                            + " truncated before written");
+                }
+                try {
+                    channel.write(content);
+                } catch (InternalError e) {
+                    drop(mapping);
+                    throw new IOException("mapped file " + mapping.key
+                            + " truncated while written", e);
+                }
+            }
+            return !content.hasRemaining();
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(mapping);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MappedBody [file=" + mapping.key + ", length="
+                    + getLength() + "]";
+        }
+    }
+
+    /**
+     * Unmaps buffers eagerly, with the means the JVM offers (otherwise the
+     * mapping is left to be unmapped when garbage collected).
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Unmapper {
+
+        /**
+         * The target to invoke the unmapping method on (<code>null</code>
+         * for a method of the buffer).
+         */
+        private final Object target;
+
+        /**
+         * The unmapping method (<code>null</code> if not available).
+         */
+        private final Method method;
+
+        /**
+         * Creates the unmapper.
+         *
+         * @param target
+         *            the target to invoke the unmapping method on
+         * @param method
+         *            the unmapping method
+         */
+        private Unmapper(final Object target, final Method method) {
+            this.target = target;
+            this.method = method;
+        }
+
+        /**
+         * Finds <code>Unsafe.invokeCleaner</code> (Java 9+) or falls back to
+         * the cleaner of the buffer (Java 8).
+         *
+         * @return the unmapper
+         */
+        private static Unmapper create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), unsafeClass
+                        .getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("no Unsafe.invokeCleaner, using buffer cleaner", e);
+                return new Unmapper(null, null);
+            }
+        }
+
+        /**
+         * Unmaps the buffer given; it must not be accessed afterwards.
+         *
+         * @param buffer
+         *            the buffer to unmap
+         */
+        private void unmap(final MappedByteBuffer buffer) {
+            try {
+                if (method != null) {
+                    method.invoke(target, buffer);
+                    return;
+                }
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("cannot unmap buffer eagerly", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package krystiannowak.webserver;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Utilities for creating most common {@link MessageBody}s.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class MessageBodies {
+
+    /**
+     * An empty buffer shared by all the empty bodies.
+     */
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer
+            .allocate(0).asReadOnlyBuffer();
+
+    /**
+     * No instantiation possible.
+     */
+    private MessageBodies() {
+    }
+
+    /**
+     * @return an empty {@link MessageBody}
+     */
+    public static MessageBody empty() {
+        return new ByteBufferBody(EMPTY_BUFFER);
+    }
+
+    /**
+     * Creates a {@link MessageBody} of the content given.
+     *
+     * @param content
+     *            the content of the body (not copied)
+     * @return the body backed by the content
+     */
+    public static MessageBody of(final byte[] content) {
+        return new ByteBufferBody(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Creates a {@link MessageBody} to be transferred from the file region
+     * given.
+     *
+     * @param region
+     *            the file region
+     * @return the body backed by the file region
+     */
+    public static MessageBody of(final FileRegion region) {
+        return new FileRegionBody(region);
+    }
+
+    /**
+     * Creates a {@link MessageBody} of the bodies given written one after
+     * another.
+     *
+     * @param parts
+     *            the parts of the body
+     * @return the body of the parts
+     */
+    public static MessageBody concat(final List<MessageBody> parts) {
+        return new CompositeBody(parts);
+    }
+
+}
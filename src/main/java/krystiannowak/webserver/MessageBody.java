@@ -0,0 +1,43 @@
+package krystiannowak.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A message body of a {@link Response}. A body can be backed by a buffer in
+ * memory, a region of a file or a producer generating the content
+ * incrementally, so that writing it needs only a constant amount of memory.
+ * A body is written once - it keeps the progress of writing, so that it can
+ * be written to a non-blocking channel in many steps.
+ *
+ * @author krystiannowak
+ *
+ */
+public interface MessageBody extends Closeable {
+
+    /**
+     * The length of a body not known before it is written completely (sent
+     * with the chunked transfer coding).
+     */
+    long UNKNOWN_LENGTH = -1;
+
+    /**
+     * Gets the length of the body in bytes.
+     *
+     * @return the length of the body or {@link #UNKNOWN_LENGTH}
+     */
+    long getLength();
+
+    /**
+     * Writes as much of the (remaining) body as the channel accepts.
+     *
+     * @param channel
+     *            the channel to write to
+     * @return <code>true</code> if the body has been written completely
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException;
+
+}
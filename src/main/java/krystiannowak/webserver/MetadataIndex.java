@@ -0,0 +1,252 @@
+package krystiannowak.webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory index of the {@link ResourceMetadata} of the files served,
+ * shared by all the connections, so that a conditional request is answered
+ * without reading the file. An entry is checked against the file (a single
+ * stat call) at most once per revalidation interval, like the
+ * {@link FileCache} entries. The absence of a file looked up with
+ * {@link #find(File)} (e.g. a precompressed variant) is indexed the same way,
+ * as is a file which cannot be read - only readable regular files have their
+ * validators indexed, and the access to the resource requested is checked
+ * before any of them is used.
+ * The number of entries is bounded, the least recently used ones are evicted.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class MetadataIndex {
+
+    /**
+     * The default maximum number of entries.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 16 * 1024;
+
+    /**
+     * The default interval of checking whether a file has changed.
+     */
+    private static final long DEFAULT_REVALIDATION_INTERVAL = TimeUnit.SECONDS
+            .toNanos(1);
+
+    /**
+     * The initial capacity of the map of entries.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the map of entries.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The interval of checking whether a file has changed (in nanoseconds).
+     */
+    private final long revalidationInterval;
+
+    /**
+     * The entries per resolved file path in access order (guarded by
+     * <code>this</code>).
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates the index with the defaults.
+     */
+    public MetadataIndex() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_REVALIDATION_INTERVAL);
+    }
+
+    /**
+     * Creates the index.
+     *
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param revalidationInterval
+     *            the interval of checking whether a file has changed (in
+     *            nanoseconds)
+     */
+    MetadataIndex(final int maxEntries, final long revalidationInterval) {
+        this.revalidationInterval = revalidationInterval;
+        this.entries = new LinkedHashMap<String, Entry>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the metadata of the file given if indexed, checking the file only
+     * if not done within the revalidation interval.
+     *
+     * @param file
+     *            the resolved absolute file
+     * @return the metadata or <code>null</code> if not indexed (or stale)
+     */
+    public ResourceMetadata get(final File file) {
+        Entry entry = entry(file);
+        if (entry == null || !revalidate(file, entry)) {
+            return null;
+        }
+        return entry.metadata;
+    }
+
+    /**
+     * Gets the metadata of the file given, indexing it if not indexed yet.
+     * Unlike {@link #get(File)}, the absence of the file is indexed as well,
+     * so that looking up a file which usually does not exist (e.g. an
+     * optional variant of another file) costs no stat call either.
+     *
+     * @param file
+     *            the resolved absolute file
+     * @return the metadata or <code>null</code> if not a readable regular
+     *         file
+     */
+    public ResourceMetadata find(final File file) {
+        Entry entry = entry(file);
+        if (entry != null && revalidate(file, entry)) {
+            return entry.metadata;
+        }
+        ResourceMetadata metadata = read(file);
+        synchronized (this) {
+            entries.put(file.getPath(), new Entry(metadata));
+        }
+        return metadata;
+    }
+
+    /**
+     * Reads the metadata of the regular file given and indexes it.
+     *
+     * @param file
+     *            the resolved absolute regular file
+     * @return the metadata of the file
+     * @throws IOException
+     *             if the attributes of the file cannot be read
+     */
+    public ResourceMetadata load(final File file) throws IOException {
+        ResourceMetadata metadata = ResourceMetadata.of(Files
+                .readAttributes(file.toPath(), BasicFileAttributes.class));
+        synchronized (this) {
+            entries.put(file.getPath(), new Entry(metadata));
+        }
+        return metadata;
+    }
+
+    /**
+     * @param file
+     *            the resolved absolute file
+     * @return the entry of the file or <code>null</code> if not indexed
+     */
+    private synchronized Entry entry(final File file) {
+        return entries.get(file.getPath());
+    }
+
+    /**
+     * Checks the entry given against the file if not done within the
+     * revalidation interval, removing it if the file has changed.
+     *
+     * @param file
+     *            the resolved absolute file
+     * @param entry
+     *            the entry of the file
+     * @return is the entry still valid
+     */
+    private boolean revalidate(final File file, final Entry entry) {
+        long now = System.nanoTime();
+        if (now - entry.validatedAt <= revalidationInterval) {
+            return true;
+        }
+        ResourceMetadata current = read(file);
+        if (!sameEntityTag(current, entry.metadata)) {
+            synchronized (this) {
+                entries.remove(file.getPath(), entry);
+            }
+            return false;
+        }
+        entry.validatedAt = now;
+        return true;
+    }
+
+    /**
+     * @param one
+     *            a metadata or <code>null</code>
+     * @param other
+     *            another metadata or <code>null</code>
+     * @return are both absent or of the same entity tag
+     */
+    private static boolean sameEntityTag(final ResourceMetadata one,
+            final ResourceMetadata other) {
+        if (one == null || other == null) {
+            return one == other;
+        }
+        return one.getEntityTag().equals(other.getEntityTag());
+    }
+
+    /**
+     * Reads the current metadata of the file given.
+     *
+     * @param file
+     *            the file
+     * @return the metadata or <code>null</code> if not a readable regular
+     *         file any more
+     */
+    private static ResourceMetadata read(final File file) {
+        try {
+            BasicFileAttributes attributes = Files
+                    .readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()
+                    || !Files.isReadable(file.toPath())) {
+                return null;
+            }
+            return ResourceMetadata.of(attributes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An indexed metadata.
+     *
+     * @author krystiannowak
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * The metadata of the file (<code>null</code> if the file does not
+         * exist).
+         */
+        private final ResourceMetadata metadata;
+
+        /**
+         * When the file was checked last time (nanoseconds, racy updates are
+         * harmless).
+         */
+        private volatile long validatedAt = System.nanoTime();
+
+        /**
+         * Creates the entry.
+         *
+         * @param metadata
+         *            the metadata of the file (<code>null</code> if the file
+         *            does not exist)
+         */
+        private Entry(final ResourceMetadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+}
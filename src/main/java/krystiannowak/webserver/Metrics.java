@@ -0,0 +1,341 @@
+package krystiannowak.webserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the server: a {@link LatencyHistogram} per stage of
+ * handling the requests, striped counters of the requests, the bytes, the
+ * status classes and the connections, and the gauges of the shared
+ * components (the {@link ConcurrencyLimiter}, the {@link BufferPool}, the
+ * {@link AccessLog} and the {@link AdaptiveThreadPool} of the workers).
+ * Recording is lock-free and allocation-free; the metrics are rendered in the
+ * Prometheus text format on demand only.
+ *
+ * @author krystiannowak
+ *
+ */
+final class Metrics {
+
+    /**
+     * The stages of handling a request measured.
+     */
+    enum Stage {
+
+        /**
+         * From a connection accepted until its thread takes it up (a worker
+         * or an event loop).
+         */
+        ACCEPT,
+
+        /**
+         * Parsing a complete request head.
+         */
+        PARSE,
+
+        /**
+         * Dispatching a request to its handler, preparing the response.
+         */
+        DISPATCH,
+
+        /**
+         * Writing a response to its connection.
+         */
+        WRITE;
+
+        /**
+         * The label of the stage.
+         */
+        private final String label = "stage=\"" + name().toLowerCase()
+                + "\",";
+
+    }
+
+    /**
+     * The prefix of the names of the metrics.
+     */
+    private static final String PREFIX = "webserver_";
+
+    /**
+     * The name of the metric of the latencies of the stages.
+     */
+    private static final String STAGE_LATENCY = PREFIX
+            + "stage_latency_seconds";
+
+    /**
+     * The number of the status classes (1xx to 5xx).
+     */
+    private static final int STATUS_CLASSES = 5;
+
+    /**
+     * The number of status codes in a status class.
+     */
+    private static final int STATUS_CLASS_SIZE = 100;
+
+    /**
+     * The histograms of the latencies by stage.
+     */
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage
+            .values().length];
+
+    /**
+     * The number of requests handled.
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * The number of bytes of the response bodies of a known length.
+     */
+    private final LongAdder responseBytes = new LongAdder();
+
+    /**
+     * The number of responses by status class.
+     */
+    private final LongAdder[] statusClasses = new LongAdder[STATUS_CLASSES];
+
+    /**
+     * The number of connections opened.
+     */
+    private final LongAdder connectionsOpened = new LongAdder();
+
+    /**
+     * The number of connections closed.
+     */
+    private final LongAdder connectionsClosed = new LongAdder();
+
+    /**
+     * The limit of the work admitted concurrently.
+     */
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * The pool of the buffers for socket reads and writes.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * The access log, <code>null</code> if disabled.
+     */
+    private final AccessLog accessLog;
+
+    /**
+     * The pool of the workers, <code>null</code> if none.
+     */
+    private volatile AdaptiveThreadPool workerPool;
+
+    /**
+     * Creates the metrics.
+     *
+     * @param limiter
+     *            the limit of the work admitted concurrently
+     * @param bufferPool
+     *            the pool of the buffers for socket reads and writes
+     * @param accessLog
+     *            the access log, <code>null</code> if disabled
+     */
+    Metrics(final ConcurrencyLimiter limiter, final BufferPool bufferPool,
+            final AccessLog accessLog) {
+        this.limiter = limiter;
+        this.bufferPool = bufferPool;
+        this.accessLog = accessLog;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < STATUS_CLASSES; i++) {
+            statusClasses[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Sets the pool of the workers to expose the gauges of.
+     *
+     * @param workerPool
+     *            the pool of the workers
+     */
+    void setWorkerPool(final AdaptiveThreadPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param stage
+     *            the stage
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    void record(final Stage stage, final long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts a response prepared.
+     *
+     * @param statusCode
+     *            the status code of the response
+     * @param length
+     *            the length of the body (-1 if not known, not counted)
+     */
+    void onResponse(final int statusCode, final long length) {
+        requests.increment();
+        if (length > 0) {
+            responseBytes.add(length);
+        }
+        int statusClass = statusCode / STATUS_CLASS_SIZE - 1;
+        if (statusClass >= 0 && statusClass < STATUS_CLASSES) {
+            statusClasses[statusClass].increment();
+        }
+    }
+
+    /**
+     * Counts a connection opened.
+     */
+    void onConnectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    /**
+     * Counts a connection closed.
+     */
+    void onConnectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Gets the histogram of the latencies of a stage.
+     *
+     * @param stage
+     *            the stage
+     * @return the histogram
+     */
+    LatencyHistogram getHistogram(final Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * Renders all the metrics in the Prometheus text format (version 0.0.4).
+     *
+     * @return the metrics
+     */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        declare(out, STAGE_LATENCY, "histogram",
+                "Latency of the stages of handling requests.");
+        for (Stage stage : Stage.values()) {
+            getHistogram(stage).writeTo(out, STAGE_LATENCY, stage.label);
+        }
+
+        counter(out, "requests_total", "Requests handled.", requests.sum());
+        counter(out, "response_bytes_total",
+                "Bytes of the response bodies of a known length.",
+                responseBytes.sum());
+        declare(out, PREFIX + "responses_total", "counter",
+                "Responses by status class.");
+        for (int i = 0; i < STATUS_CLASSES; i++) {
+            out.append(PREFIX).append("responses_total{class=\"").append(i + 1)
+                    .append("xx\"} ").append(statusClasses[i].sum())
+                    .append('\n');
+        }
+        counter(out, "connections_opened_total", "Connections opened.",
+                connectionsOpened.sum());
+        gauge(out, "connections_open", "Connections open.",
+                connectionsOpened.sum() - connectionsClosed.sum());
+
+        gauge(out, "concurrency_limit", "Limit of the concurrent work.",
+                limiter.getLimit());
+        gauge(out, "concurrency_in_flight", "Work admitted in flight.",
+                limiter.getInFlight());
+
+        counter(out, "buffers_allocated_total", "Buffers allocated.",
+                bufferPool.getAllocated());
+        gauge(out, "buffers_in_use", "Buffers acquired and not released.",
+                bufferPool.getInUse());
+        gauge(out, "buffer_pool_bytes", "Memory kept by the buffer pool.",
+                bufferPool.getPooledBytes());
+
+        AdaptiveThreadPool workers = workerPool;
+        if (workers != null) {
+            gauge(out, "worker_threads", "Threads of the worker pool.",
+                    workers.getPoolSize());
+            gauge(out, "worker_queue_depth", "Tasks waiting for a worker.",
+                    workers.getQueueDepth());
+            counter(out, "worker_pool_resizes_total",
+                    "Resizings of the worker pool.", workers.getResizes());
+            gauge(out, "worker_blocking_ratio",
+                    "Blocking ratio of the workers last measured.",
+                    workers.getBlockingRatio());
+        }
+
+        if (accessLog != null) {
+            counter(out, "access_log_dropped_total",
+                    "Access log records dropped.", accessLog.getDropped());
+            gauge(out, "access_log_pending",
+                    "Access log records waiting to be written.",
+                    accessLog.getPending());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a counter.
+     *
+     * @param out
+     *            the builder to write to
+     * @param name
+     *            the name of the metric (without the prefix)
+     * @param help
+     *            the description of the metric
+     * @param value
+     *            the value
+     */
+    private static void counter(final StringBuilder out, final String name,
+            final String help, final long value) {
+        declare(out, PREFIX + name, "counter", help);
+        out.append(PREFIX).append(name).append(' ').append(value)
+                .append('\n');
+    }
+
+    /**
+     * Writes a gauge.
+     *
+     * @param out
+     *            the builder to write to
+     * @param name
+     *            the name of the metric (without the prefix)
+     * @param help
+     *            the description of the metric
+     * @param value
+     *            the value
+     */
+    private static void gauge(final StringBuilder out, final String name,
+            final String help, final double value) {
+        declare(out, PREFIX + name, "gauge", help);
+        out.append(PREFIX).append(name).append(' ');
+        if (value == Math.rint(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Writes the help and the type of a metric.
+     *
+     * @param out
+     *            the builder to write to
+     * @param name
+     *            the full name of the metric
+     * @param type
+     *            the type of the metric
+     * @param help
+     *            the description of the metric
+     */
+    private static void declare(final StringBuilder out, final String name,
+            final String type, final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help)
+                .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type)
+                .append('\n');
+    }
+
+}
@@ -0,0 +1,53 @@
+package krystiannowak.webserver;
+
+import java.net.HttpURLConnection;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * A {@link RequestHandler} of the reserved path exposing the {@link Metrics}
+ * of the server in the Prometheus text format, to GET and HEAD requests (the
+ * {@link RequestDispatcher} refusing any other method on a reserved path).
+ * The metrics are rendered per request and never cached.
+ *
+ * @author krystiannowak
+ *
+ */
+final class MetricsRequestHandler implements RequestHandler {
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; "
+            + "charset=utf-8";
+
+    /**
+     * The metrics exposed.
+     */
+    private final Metrics metrics;
+
+    /**
+     * Instantiates this {@link RequestHandler}.
+     *
+     * @param metrics
+     *            the metrics exposed
+     */
+    MetricsRequestHandler(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response handle(final Request request) {
+        boolean head = FilesystemHeadRequestHandler.METHOD
+                .equals(request.getMethod());
+        StringResponse response = new StringResponse(HttpURLConnection.HTTP_OK,
+                "OK", metrics.render());
+        response.putHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+        response.putHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        if (head) {
+            return new HeadResponse(response);
+        }
+        return response;
+    }
+
+}
@@ -0,0 +1,288 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A state of a single non-blocking connection owned by an {@link EventLoop}.
+ * All the methods are called on the thread of the loop only - the requests
+ * are parsed, dispatched and serialized there too. Requests are processed one
+ * at a time, in order of arrival - reading is suspended while a response is
+ * being written. The idle timeout of the connection is pending only while it
+ * waits for a complete request. The requests are not subject to the
+ * {@link ConcurrencyLimiter}: a loop handles a single request at a time and
+ * stops reading while its response is being written, so the work in flight
+ * is bounded by the number of loops and the excess waits in the socket
+ * buffers instead. The connection has a parser of its own, reusing every
+ * request (released once its response is prepared) for the next one. The
+ * latencies of parsing a request head and of writing a response (from
+ * preparing it until written completely) are recorded in the
+ * {@link Metrics}.
+ *
+ * @author krystiannowak
+ *
+ */
+final class NioConnection {
+
+    /**
+     * A static logger.
+     */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(NioConnection.class);
+
+    /**
+     * The event loop owning this connection.
+     */
+    private final EventLoop loop;
+
+    /**
+     * The channel of this connection.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The selection key of the channel.
+     */
+    private final SelectionKey key;
+
+    /**
+     * The writer serializing the responses of this connection.
+     */
+    private final ResponseWriter writer;
+
+    /**
+     * The framer of the received, not yet handled bytes.
+     */
+    private final RequestFramer framer = new RequestFramer();
+
+    /**
+     * The parser of the request heads of this connection.
+     */
+    private final Function<byte[], Request> parser;
+
+    /**
+     * The idle timeout of the connection.
+     */
+    private final TimingWheel.Timeout idle;
+
+    /**
+     * The metrics of the server.
+     */
+    private final Metrics metrics;
+
+    /**
+     * The response being written, <code>null</code> if none.
+     */
+    private PendingResponse outgoing;
+
+    /**
+     * The time in nanoseconds writing the pending response started at.
+     */
+    private long writeStart;
+
+    /**
+     * Whether the connection should be kept open after the response is
+     * written.
+     */
+    private boolean keepAlive;
+
+    /**
+     * The number of requests handled so far.
+     */
+    private int requests;
+
+    /**
+     * Creates the connection state.
+     *
+     * @param loop
+     *            the event loop owning this connection
+     * @param channel
+     *            the channel of this connection
+     * @param key
+     *            the selection key of the channel
+     */
+    NioConnection(final EventLoop loop, final SocketChannel channel,
+            final SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.writer = new ResponseWriter(channel,
+                loop.getHandler().getBufferPool());
+        this.parser = loop.getParser().forConnection();
+        this.metrics = loop.getHandler().getMetrics();
+        metrics.onConnectionOpened();
+        this.idle = loop.getIdleTimeouts().schedule(this::close,
+                loop.getHandler().idleDeadline());
+    }
+
+    /**
+     * Reads all the data available on the channel and handles the complete
+     * requests.
+     *
+     * @param buffer
+     *            a buffer to read the data through
+     */
+    void onReadable(final ByteBuffer buffer) {
+        try {
+            int read;
+            do {
+                buffer.clear();
+                read = channel.read(buffer);
+                if (read > 0) {
+                    buffer.flip();
+                    framer.append(buffer);
+                }
+            } while (read == buffer.capacity());
+
+            if (read < 0) {
+                close();
+                return;
+            }
+        } catch (IOException e) {
+            LOG.debug("cannot read from channel", e);
+            close();
+            return;
+        }
+        processAll();
+    }
+
+    /**
+     * Continues writing the pending response and handles the requests
+     * received meanwhile.
+     */
+    void onWritable() {
+        if (writeOutgoing()) {
+            processAll();
+        }
+    }
+
+    /**
+     * Writes as much of the pending response as the channel accepts.
+     *
+     * @return <code>true</code> if the response has been written completely
+     *         and the connection is kept alive
+     */
+    private boolean writeOutgoing() {
+        try {
+            if (!outgoing.writeTo(channel)) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+        } catch (IOException e) {
+            LOG.debug("cannot write to channel", e);
+            close();
+            return false;
+        }
+
+        closeQuietly(outgoing);
+        outgoing = null;
+        metrics.record(Metrics.Stage.WRITE, System.nanoTime() - writeStart);
+        if (!keepAlive) {
+            close();
+            return false;
+        }
+        loop.getIdleTimeouts().reschedule(idle,
+                loop.getHandler().idleDeadline());
+        return true;
+    }
+
+    /**
+     * Handles the complete requests received one by one, until a response
+     * cannot be written at once or there is no complete request left.
+     */
+    private void processAll() {
+        while (outgoing == null && channel.isOpen()) {
+            byte[] head = framer.next();
+            if (head == null) {
+                if (framer.isOverflow()) {
+                    LOG.warn("request head too long, closing connection");
+                    close();
+                } else {
+                    framer.trim();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                return;
+            }
+
+            loop.getIdleTimeouts().cancel(idle);
+            if (!process(head) || !writeOutgoing()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles a request, making its response the pending one.
+     *
+     * @param head
+     *            the request head to handle
+     * @return <code>false</code> if the connection has been closed instead
+     */
+    private boolean process(final byte[] head) {
+        Request request = null;
+        try {
+            long start = System.nanoTime();
+            request = parser.apply(head);
+            if (request == null) {
+                close();
+                return false;
+            }
+            metrics.record(Metrics.Stage.PARSE, System.nanoTime() - start);
+            Response response = loop.getHandler().respond(request,
+                    ++requests);
+            writeStart = System.nanoTime();
+            outgoing = writer.prepare(response);
+            keepAlive = request.isKeepAlive();
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("cannot handle request", e);
+            close();
+            return false;
+        } finally {
+            if (request != null) {
+                request.release();
+            }
+        }
+    }
+
+    /**
+     * Closes the connection quietly.
+     */
+    void close() {
+        if (channel.isOpen()) {
+            metrics.onConnectionClosed();
+        }
+        loop.getIdleTimeouts().cancel(idle);
+        key.cancel();
+        if (outgoing != null) {
+            closeQuietly(outgoing);
+            outgoing = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("cannot close channel", e);
+        }
+    }
+
+    /**
+     * Releases the resources of a response quietly.
+     *
+     * @param response
+     *            the response to release
+     */
+    private static void closeQuietly(final PendingResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            LOG.debug("cannot close response", e);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package krystiannowak.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking server engine of many reactors: a number of
+ * {@link EventLoop}s (by default one per core), each with its own selector
+ * thread owning the connections registered with it. A connection is
+ * read, parsed, dispatched and written on its loop only, so after it is
+ * accepted there is no hand-off between threads and an idle Keep-Alive
+ * connection costs no thread at all.
+ * <p>
+ * By default a single acceptor (the thread running the server) accepts the
+ * connections and hands them over to the loops in turns. Alternatively every
+ * loop listens on its own channel bound with <code>SO_REUSEPORT</code>, and
+ * the kernel balances the connections between them; if the option is not
+ * supported, the acceptor is used.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class NioServer implements Closeable, Runnable {
+
+    /**
+     * The maximum length of the queue of incoming connections.
+     */
+    private static final int BACKLOG = 1024;
+
+    /**
+     * The name of the socket option letting many channels listen on a port
+     * (looked up by name, as it is available since Java 9 only).
+     */
+    private static final String SO_REUSEPORT = "SO_REUSEPORT";
+
+    /**
+     * An instance logger.
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The port number to listen on.
+     */
+    private final int port;
+
+    /**
+     * The event loops.
+     */
+    private final List<EventLoop> loops = new ArrayList<>();
+
+    /**
+     * The threads running the event loops.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * The listening channel of the acceptor, <code>null</code> if the loops
+     * listen on their own.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Whether the server should keep running.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Creates the server and binds it to the configured port.
+     *
+     * @param configuration
+     *            the server configuration
+     * @param parser
+     *            the {@link RequestParser} to use
+     * @throws IOException
+     *             if the server socket cannot be opened
+     */
+    public NioServer(final ServerConfiguration configuration,
+            final RequestParser parser) throws IOException {
+        this.port = configuration.getPort();
+        ConnectionHandler handler = new ConnectionHandler(configuration,
+                parser);
+        for (int i = 0; i < Math.max(1, configuration.getEventLoops()); i++) {
+            loops.add(new EventLoop(handler, parser,
+                    configuration.createIdleTimeouts()));
+        }
+
+        if (configuration.isReusePort() && listenOnLoops()) {
+            serverChannel = null;
+        } else {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+        }
+    }
+
+    /**
+     * Binds a listening channel per loop with <code>SO_REUSEPORT</code>.
+     *
+     * @return <code>false</code> if the option is not supported
+     * @throws IOException
+     *             if a channel cannot be bound
+     */
+    @SuppressWarnings("unchecked")
+    private boolean listenOnLoops() throws IOException {
+        for (EventLoop loop : loops) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            SocketOption<Boolean> reusePort = null;
+            for (SocketOption<?> option : channel.supportedOptions()) {
+                if (SO_REUSEPORT.equals(option.name())) {
+                    reusePort = (SocketOption<Boolean>) option;
+                }
+            }
+            if (reusePort == null) {
+                log.warn("{} not supported, using a single acceptor",
+                        SO_REUSEPORT);
+                channel.close();
+                return false;
+            }
+            channel.setOption(reusePort, true);
+            channel.bind(new InetSocketAddress(port), BACKLOG);
+            loop.listen(channel);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the event loops and accepts the connections on the current
+     * thread (or just waits for the loops to finish if they listen on their
+     * own) until the server is closed.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < loops.size(); i++) {
+            Thread thread = new Thread(loops.get(i), "event-loop-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        log.info("NIO server on port {} started with {} event loops", port,
+                loops.size());
+        try {
+            if (serverChannel == null) {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } else {
+                accept();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Accepts the connections and hands them over to the loops in turns.
+     */
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                loops.get(next).register(channel);
+                next = (next + 1) % loops.size();
+            } catch (AsynchronousCloseException e) {
+                log.debug("acceptor closed", e);
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("cannot accept channel connection", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (EventLoop loop : loops) {
+            loop.close();
+        }
+        if (serverChannel != null) {
+            try {
+                log.info("closing channel on port {}", port);
+                serverChannel.close();
+            } catch (IOException e) {
+                log.warn("cannot close server channel", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package krystiannowak.webserver;
+
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * 206 Partial Content {@link Response} as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-10.2.7">https://tools.
+ * ietf.org/html/rfc2616#section-10.2.7</a> for transmitting byte ranges of a
+ * {@link File}. A single range is sent as the body with a
+ * <code>Content-Range</code> header, many ranges as a
+ * <code>multipart/byteranges</code> body as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-19.2">https://tools.
+ * ietf.org/html/rfc2616#section-19.2</a>. Either way every range is a
+ * {@link FileRegion} transferred straight from the file system - only the
+ * small part headers are kept in memory.
+ *
+ * @author krystiannowak
+ *
+ */
+public class PartialFileResponse extends DefaultResponse {
+
+    /**
+     * The boundary separating the parts of multipart bodies, random per
+     * server run so that it is not predictable from the content served.
+     */
+    private static final String BOUNDARY = UUID.randomUUID().toString()
+            .replace("-", "");
+
+    /**
+     * The line separator of the part headers.
+     */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Creating an instance of {@link PartialFileResponse} of the ranges of the
+     * {@link File} given.
+     *
+     * @param file
+     *            the {@link File} to send the ranges of
+     * @param ranges
+     *            the satisfiable ranges to send (at least one)
+     * @param length
+     *            the length of the file the ranges have been resolved against
+     */
+    public PartialFileResponse(final File file, final List<ByteRange> ranges,
+            final long length) {
+        super(HTTP_PARTIAL, "Partial Content");
+        String contentType = MimeTypeUtils.guessContentType(file);
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+            putHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(length));
+            setMessageBody(MessageBodies.of(region(file, range)));
+            return;
+        }
+
+        putHeader(HttpHeaders.CONTENT_TYPE,
+                "multipart/byteranges; boundary=" + BOUNDARY);
+        List<MessageBody> parts = new ArrayList<>(ranges.size() * 2 + 1);
+        for (ByteRange range : ranges) {
+            parts.add(MessageBodies.of(serialize(CRLF + "--" + BOUNDARY + CRLF
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF
+                    + HttpHeaders.CONTENT_RANGE + ": "
+                    + range.toContentRange(length) + CRLF + CRLF)));
+            parts.add(MessageBodies.of(region(file, range)));
+        }
+        parts.add(MessageBodies
+                .of(serialize(CRLF + "--" + BOUNDARY + "--" + CRLF)));
+        setMessageBody(MessageBodies.concat(parts));
+    }
+
+    /**
+     * @param file
+     *            the file of the range
+     * @param range
+     *            the range
+     * @return the region of the file covered by the range
+     */
+    private static FileRegion region(final File file, final ByteRange range) {
+        return new FileRegion(file, range.getFirst(), range.getLength());
+    }
+}
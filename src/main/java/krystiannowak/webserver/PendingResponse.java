@@ -0,0 +1,126 @@
+package krystiannowak.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link Response} serialized by the {@link ResponseWriter} and ready to be
+ * written to a channel, possibly in many steps when the channel is
+ * non-blocking: the serialized parts (the head, possibly together with an
+ * in-memory body) followed by the {@link MessageBody}. The parts are written
+ * with a single gathering write, so that a small response takes a single
+ * system call. Closing the response releases its pooled buffer (if any).
+ *
+ * @author krystiannowak
+ *
+ */
+public final class PendingResponse implements Closeable {
+
+    /**
+     * The serialized parts to be written first.
+     */
+    private final ByteBuffer[] parts;
+
+    /**
+     * The message body to be written after the parts.
+     */
+    private final MessageBody body;
+
+    /**
+     * The pool of the pooled buffer, <code>null</code> if none.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The pooled buffer to be released once written, <code>null</code> if
+     * none (or released already).
+     */
+    private ByteBuffer pooled;
+
+    /**
+     * Creates the pending response.
+     *
+     * @param parts
+     *            the serialized parts to be written first
+     * @param body
+     *            the message body to be written after the parts
+     */
+    PendingResponse(final ByteBuffer[] parts, final MessageBody body) {
+        this(parts, body, null, null);
+    }
+
+    /**
+     * Creates the pending response owning a pooled buffer.
+     *
+     * @param parts
+     *            the serialized parts to be written first
+     * @param body
+     *            the message body to be written after the parts
+     * @param pool
+     *            the pool of the pooled buffer
+     * @param pooled
+     *            the pooled buffer (one of the parts) to be released on close
+     */
+    PendingResponse(final ByteBuffer[] parts, final MessageBody body,
+            final BufferPool pool, final ByteBuffer pooled) {
+        this.parts = parts;
+        this.body = body;
+        this.pool = pool;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts.
+     *
+     * @param channel
+     *            the channel to write to
+     * @return <code>true</code> if the response has been written completely
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public boolean writeTo(final WritableByteChannel channel)
+            throws IOException {
+        if (hasRemainingParts()) {
+            if (channel instanceof GatheringByteChannel) {
+                ((GatheringByteChannel) channel).write(parts);
+            } else {
+                for (ByteBuffer part : parts) {
+                    channel.write(part);
+                    if (part.hasRemaining()) {
+                        return false;
+                    }
+                }
+            }
+            if (hasRemainingParts()) {
+                return false;
+            }
+        }
+
+        return body.writeTo(channel);
+    }
+
+    /**
+     * @return are there any bytes of the parts still to be written
+     */
+    private boolean hasRemainingParts() {
+        for (ByteBuffer part : parts) {
+            if (part.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pooled != null) {
+            pool.release(pooled);
+            pooled = null;
+        }
+        body.close();
+    }
+
+}
@@ -1,15 +1,28 @@
 package krystiannowak.webserver;
 
+import java.util.function.Consumer;
+
 /**
  * A (simplified) representation of an HTTP request roughly based on
  * <a href="https://tools.ietf.org/html/rfc2616">https://tools.ietf.org/html/
- * rfc2616</a>.
+ * rfc2616</a>. All the headers are kept in {@link RequestHeaders}; the getters
+ * of the well known ones just look them up there.
+ * <p>
+ * A request decoded by a parser of a connection is valid until it is
+ * {@link #release() released} once its response has been written: then it is
+ * reset and reused for the next request of the connection, so no reference to
+ * it (nor to its headers) may be kept after that.
  *
  * @author krystiannowak
  *
  */
 public class Request implements Message {
 
+    /**
+     * The HTTP-Version of the requests persistent by default.
+     */
+    private static final String HTTP_1_1 = "HTTP/1.1";
+
     /**
      * Method as per
      * <a href="https://tools.ietf.org/html/rfc2616#section-5.1.1">https://tools
@@ -32,53 +45,15 @@ public class Request implements Message {
     private String httpVersion;
 
     /**
-     * Host header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.23">https://tools
-     * .ietf.org/html/rfc2616#section-14.23</a>.
-     */
-    private String host;
-
-    /**
-     * Referer header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.36">https://tools
-     * .ietf.org/html/rfc2616#section-14.36</a>.
-     */
-    private String referer;
-
-    /**
-     * User-Agent header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.43">https://tools
-     * .ietf.org/html/rfc2616#section-14.43</a>.
-     */
-    private String userAgent;
-
-    /**
-     * Accept header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.1">https://tools.
-     * ietf.org/html/rfc2616#section-14.1</a>.
+     * The headers.
      */
-    private String accept;
+    private RequestHeaders headers = new RequestHeaders();
 
     /**
-     * Accept-Language header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.4">https://tools.
-     * ietf.org/html/rfc2616#section-14.4</a>.
+     * Takes the request back to be reused once released, <code>null</code>
+     * if it is not to be reused (or has been released already).
      */
-    private String acceptLanguage;
-
-    /**
-     * Accept-Encoding header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.3">https://tools.
-     * ietf.org/html/rfc2616#section-14.3</a>.
-     */
-    private String acceptEncoding;
-
-    /**
-     * Connection header as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-14.10">https://tools
-     * .ietf.org/html/rfc2616#section-14.10</a>.
-     */
-    private String connection;
+    private Consumer<Request> recycler;
 
     /**
      * Method getter.
@@ -137,13 +112,43 @@ public class Request implements Message {
         this.httpVersion = httpVersion;
     }
 
+    /**
+     * Headers getter.
+     *
+     * @return all the headers
+     */
+    public final RequestHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Headers setter.
+     *
+     * @param headers
+     *            all the headers
+     */
+    public final void setHeaders(final RequestHeaders headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Gets the value of any header (case insensitive name).
+     *
+     * @param name
+     *            the header name
+     * @return the header value or <code>null</code> if there is none
+     */
+    public final String getHeader(final String name) {
+        return headers.get(name);
+    }
+
     /**
      * Host header getter.
      *
      * @return Host header value
      */
     public final String getHost() {
-        return host;
+        return headers.get(HeaderName.HOST);
     }
 
     /**
@@ -153,7 +158,7 @@ public class Request implements Message {
      *            Host header value
      */
     public final void setHost(final String host) {
-        this.host = host;
+        headers.set(HeaderName.HOST, host);
     }
 
     /**
@@ -162,7 +167,7 @@ public class Request implements Message {
      * @return Referer header value
      */
     public final String getReferer() {
-        return referer;
+        return headers.get(HeaderName.REFERER);
     }
 
     /**
@@ -172,7 +177,7 @@ public class Request implements Message {
      *            Referer header value
      */
     public final void setReferer(final String referer) {
-        this.referer = referer;
+        headers.set(HeaderName.REFERER, referer);
     }
 
     /**
@@ -181,7 +186,7 @@ public class Request implements Message {
      * @return User-Agent header value
      */
     public final String getUserAgent() {
-        return userAgent;
+        return headers.get(HeaderName.USER_AGENT);
     }
 
     /**
@@ -191,7 +196,7 @@ public class Request implements Message {
      *            User-Agent header value
      */
     public final void setUserAgent(final String userAgent) {
-        this.userAgent = userAgent;
+        headers.set(HeaderName.USER_AGENT, userAgent);
     }
 
     /**
@@ -200,7 +205,7 @@ public class Request implements Message {
      * @return Accept header value
      */
     public final String getAccept() {
-        return accept;
+        return headers.get(HeaderName.ACCEPT);
     }
 
     /**
@@ -210,7 +215,7 @@ public class Request implements Message {
      *            Accept header value
      */
     public final void setAccept(final String accept) {
-        this.accept = accept;
+        headers.set(HeaderName.ACCEPT, accept);
     }
 
     /**
@@ -219,7 +224,7 @@ public class Request implements Message {
      * @return Accept-Language header value
      */
     public final String getAcceptLanguage() {
-        return acceptLanguage;
+        return headers.get(HeaderName.ACCEPT_LANGUAGE);
     }
 
     /**
@@ -229,7 +234,7 @@ public class Request implements Message {
      *            Accept-Language header value
      */
     public final void setAcceptLanguage(final String acceptLanguage) {
-        this.acceptLanguage = acceptLanguage;
+        headers.set(HeaderName.ACCEPT_LANGUAGE, acceptLanguage);
     }
 
     /**
@@ -238,7 +243,7 @@ public class Request implements Message {
      * @return Accept-Encoding header value
      */
     public final String getAcceptEncoding() {
-        return acceptEncoding;
+        return headers.get(HeaderName.ACCEPT_ENCODING);
     }
 
     /**
@@ -248,7 +253,7 @@ public class Request implements Message {
      *            Accept-Encoding header value
      */
     public final void setAcceptEncoding(final String acceptEncoding) {
-        this.acceptEncoding = acceptEncoding;
+        headers.set(HeaderName.ACCEPT_ENCODING, acceptEncoding);
     }
 
     /**
@@ -257,7 +262,7 @@ public class Request implements Message {
      * @return Connection header value
      */
     public final String getConnection() {
-        return connection;
+        return headers.get(HeaderName.CONNECTION);
     }
 
     /**
@@ -267,25 +272,191 @@ public class Request implements Message {
      *            Connection header value
      */
     public final void setConnection(final String connection) {
-        this.connection = connection;
+        headers.set(HeaderName.CONNECTION, connection);
+    }
+
+    /**
+     * If-None-Match header getter.
+     *
+     * @return If-None-Match header value
+     */
+    public final String getIfNoneMatch() {
+        return headers.get(HeaderName.IF_NONE_MATCH);
+    }
+
+    /**
+     * If-None-Match header setter.
+     *
+     * @param ifNoneMatch
+     *            If-None-Match header value
+     */
+    public final void setIfNoneMatch(final String ifNoneMatch) {
+        headers.set(HeaderName.IF_NONE_MATCH, ifNoneMatch);
+    }
+
+    /**
+     * If-Modified-Since header getter.
+     *
+     * @return If-Modified-Since header value
+     */
+    public final String getIfModifiedSince() {
+        return headers.get(HeaderName.IF_MODIFIED_SINCE);
     }
 
     /**
-     * Tests if Keep-Alive behaviour is requested.
+     * If-Modified-Since header setter.
+     *
+     * @param ifModifiedSince
+     *            If-Modified-Since header value
+     */
+    public final void setIfModifiedSince(final String ifModifiedSince) {
+        headers.set(HeaderName.IF_MODIFIED_SINCE, ifModifiedSince);
+    }
+
+    /**
+     * Range header getter.
+     *
+     * @return Range header value
+     */
+    public final String getRange() {
+        return headers.get(HeaderName.RANGE);
+    }
+
+    /**
+     * Range header setter.
+     *
+     * @param range
+     *            Range header value
+     */
+    public final void setRange(final String range) {
+        headers.set(HeaderName.RANGE, range);
+    }
+
+    /**
+     * If-Range header getter.
+     *
+     * @return If-Range header value
+     */
+    public final String getIfRange() {
+        return headers.get(HeaderName.IF_RANGE);
+    }
+
+    /**
+     * If-Range header setter.
+     *
+     * @param ifRange
+     *            If-Range header value
+     */
+    public final void setIfRange(final String ifRange) {
+        headers.set(HeaderName.IF_RANGE, ifRange);
+    }
+
+    /**
+     * Checks whether the request is conditional on the validators of the
+     * resource.
+     *
+     * @return has the request If-None-Match or If-Modified-Since header
+     */
+    public final boolean isConditional() {
+        return headers.contains(HeaderName.IF_NONE_MATCH)
+                || headers.contains(HeaderName.IF_MODIFIED_SINCE);
+    }
+
+    /**
+     * Tests if Keep-Alive behaviour is requested: an HTTP/1.1 connection is
+     * persistent unless the <code>close</code> connection option is given, as
+     * per <a href="https://tools.ietf.org/html/rfc2616#section-8.1.2">https://
+     * tools.ietf.org/html/rfc2616#section-8.1.2</a>, any other only with the
+     * <code>Keep-Alive</code> option.
      *
      * @return is Keep-Alive requested
      */
     public final boolean isKeepAlive() {
-        return "Keep-Alive".equalsIgnoreCase(getConnection());
+        String connection = getConnection();
+        if (hasConnectionOption(connection, "close")) {
+            return false;
+        }
+        return HTTP_1_1.equals(httpVersion)
+                || hasConnectionOption(connection, "Keep-Alive");
+    }
+
+    /**
+     * Checks whether a <code>Connection</code> header value lists an option.
+     *
+     * @param connection
+     *            the header value (<code>null</code> if none)
+     * @param option
+     *            the option to look for (case insensitive)
+     * @return is the option listed
+     */
+    private static boolean hasConnectionOption(final String connection,
+            final String option) {
+        if (connection == null) {
+            return false;
+        }
+        int start = 0;
+        while (start <= connection.length()) {
+            int end = connection.indexOf(',', start);
+            if (end < 0) {
+                end = connection.length();
+            }
+            int from = start;
+            int to = end;
+            while (from < to && connection.charAt(from) == ' ') {
+                from++;
+            }
+            while (to > from && connection.charAt(to - 1) == ' ') {
+                to--;
+            }
+            if (to - from == option.length() && connection
+                    .regionMatches(true, from, option, 0, option.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Sets what takes the request back to be reused once released.
+     *
+     * @param recycler
+     *            the recycler of the request
+     */
+    final void setRecycler(final Consumer<Request> recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Releases the request once its response has been written, so that it can
+     * be reused for the next request of its connection. The request must not
+     * be used afterwards. Releasing a request not to be reused (or released
+     * already) does nothing.
+     */
+    public final void release() {
+        Consumer<Request> pending = recycler;
+        if (pending != null) {
+            recycler = null;
+            pending.accept(this);
+        }
+    }
+
+    /**
+     * Resets the request to be reused, keeping the arrays and the buffer of
+     * its headers.
+     */
+    final void reset() {
+        method = null;
+        requestUri = null;
+        httpVersion = null;
+        headers.clear();
     }
 
     @Override
     public final String toString() {
         return "Request [method=" + method + ", requestUri=" + requestUri
-                + ", httpVersion=" + httpVersion + ", host=" + host
-                + ", userAgent=" + userAgent + ", accept=" + accept
-                + ", acceptLanguage=" + acceptLanguage + ", acceptEncoding="
-                + acceptEncoding + ", connection=" + connection + "]";
+                + ", httpVersion=" + httpVersion + ", headers=" + headers
+                + "]";
     }
 
 }
@@ -0,0 +1,547 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A resumable, byte level state machine decoding HTTP/1.1 request heads
+ * (Request-Line and headers as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-5">https://tools.ietf.
+ * org/html/rfc2616#section-5</a>). The input can be fed in arbitrary parts -
+ * the decoder consumes the bytes up to the end of the current request head
+ * and leaves the rest (e.g. a pipelined request) to the caller.
+ * <p>
+ * Any header is accepted and none is decoded: the header lines are kept in a
+ * buffer handed over to the {@link RequestHeaders} of the request, which just
+ * records the offsets of the names and the values. Well known methods and HTTP
+ * versions are matched against constants, so apart from the {@link Request}
+ * itself and the buffer of its headers, decoding allocates nothing - and once
+ * a request taken is {@link Request#release() released}, it is reused (with
+ * its headers and their buffer) for the next one. An instance is not
+ * thread-safe and is meant to be used for a single connection.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class RequestDecoder {
+
+    /**
+     * The maximum length of a request head.
+     */
+    private static final int MAX_HEAD_LENGTH = 64 * 1024;
+
+    /**
+     * The initial size of the token buffer.
+     */
+    private static final int INITIAL_TOKEN_SIZE = 256;
+
+    /**
+     * The initial size of the buffer of the header lines of a request.
+     */
+    private static final int INITIAL_HEADERS_SIZE = 1024;
+
+    /**
+     * Carriage return.
+     */
+    private static final byte CR = '\r';
+
+    /**
+     * Line feed.
+     */
+    private static final byte LF = '\n';
+
+    /**
+     * Space.
+     */
+    private static final byte SP = ' ';
+
+    /**
+     * Horizontal tab.
+     */
+    private static final byte HT = '\t';
+
+    /**
+     * The radix of the <code>Content-Length</code> value.
+     */
+    private static final int DECIMAL = 10;
+
+    /**
+     * The separator of a header name and its value.
+     */
+    private static final byte COLON = ':';
+
+    /**
+     * Well known methods as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-5.1.1">https://tools
+     * .ietf.org/html/rfc2616#section-5.1.1</a>, matched without decoding.
+     */
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT",
+            "DELETE", "OPTIONS", "TRACE", "CONNECT"};
+
+    /**
+     * Well known HTTP versions, matched without decoding.
+     */
+    private static final String[] HTTP_VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+
+    /**
+     * The states of the decoder.
+     */
+    private enum State {
+
+        /**
+         * Decoding the Method.
+         */
+        METHOD,
+
+        /**
+         * Decoding the Request-URI.
+         */
+        REQUEST_URI,
+
+        /**
+         * Decoding the HTTP-Version.
+         */
+        HTTP_VERSION,
+
+        /**
+         * At the beginning of a header line (or the final empty line).
+         */
+        HEADER_START,
+
+        /**
+         * Decoding a header name.
+         */
+        HEADER_NAME,
+
+        /**
+         * Decoding a header value.
+         */
+        HEADER_VALUE,
+
+        /**
+         * Skipping the rest of a line (e.g. a folded one).
+         */
+        SKIP_LINE,
+
+        /**
+         * The request head has been decoded.
+         */
+        COMPLETE,
+
+        /**
+         * The request head is malformed.
+         */
+        ERROR
+    }
+
+    /**
+     * The current state.
+     */
+    private State state = State.METHOD;
+
+    /**
+     * The buffer for the token being decoded (reused between requests).
+     */
+    private byte[] token = new byte[INITIAL_TOKEN_SIZE];
+
+    /**
+     * The length of the token being decoded.
+     */
+    private int tokenLength;
+
+    /**
+     * The number of bytes of the current request head consumed so far.
+     */
+    private int headLength;
+
+    /**
+     * The buffer of the header lines of the request being decoded (handed
+     * over to its headers).
+     */
+    private byte[] headers;
+
+    /**
+     * The length of the header lines of the request being decoded.
+     */
+    private int headersLength;
+
+    /**
+     * The offset of the name of the header being decoded.
+     */
+    private int nameStart;
+
+    /**
+     * The offset following the name of the header being decoded.
+     */
+    private int nameEnd;
+
+    /**
+     * The offset of the value of the header being decoded, -1 if not started.
+     */
+    private int valueStart;
+
+    /**
+     * The offset following the value of the header being decoded (trailing
+     * whitespace trimmed).
+     */
+    private int valueEnd;
+
+    /**
+     * The well known name of the header being decoded (<code>null</code> if
+     * not well known).
+     */
+    private HeaderName name;
+
+    /**
+     * The request being decoded, <code>null</code> if not started yet.
+     */
+    private Request request;
+
+    /**
+     * A request released to be reused, <code>null</code> if none.
+     */
+    private Request spare;
+
+    /**
+     * Takes the requests released back.
+     */
+    private final Consumer<Request> recycler = this::recycle;
+
+    /**
+     * The length of the message body of the request being decoded.
+     */
+    private long bodyLength;
+
+    /**
+     * Decodes the bytes given, up to the end of the current request head.
+     *
+     * @param data
+     *            the data to decode
+     * @param offset
+     *            the offset of the data to start with
+     * @param length
+     *            the number of bytes available
+     * @return the number of bytes consumed
+     */
+    public int decode(final byte[] data, final int offset, final int length) {
+        if (request == null) {
+            start();
+        }
+        int position = offset;
+        int end = offset + length;
+        while (position < end && !isComplete() && !isError()) {
+            accept(data[position]);
+            position++;
+        }
+        headLength += position - offset;
+        if (!isComplete() && headLength > MAX_HEAD_LENGTH) {
+            state = State.ERROR;
+        }
+        return position - offset;
+    }
+
+    /**
+     * @return <code>true</code> if the request head has been decoded
+     */
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * @return <code>true</code> if the request head is malformed
+     */
+    public boolean isError() {
+        return state == State.ERROR;
+    }
+
+    /**
+     * Gets the length of the message body following the request head (as
+     * announced with <code>Content-Length</code>), to be skipped or read by
+     * the caller before decoding the next request.
+     *
+     * @return the length of the message body (0 if none)
+     */
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Takes the request decoded (possibly partially, in case of an error) and
+     * resets the decoder for the next request.
+     *
+     * @return the request decoded
+     */
+    public Request take() {
+        if (request == null) {
+            start();
+        }
+        Request decoded = request;
+        decoded.getHeaders().setBuffer(headers);
+        request = null;
+        headers = null;
+        headersLength = 0;
+        state = State.METHOD;
+        tokenLength = 0;
+        headLength = 0;
+        name = null;
+        bodyLength = 0;
+        return decoded;
+    }
+
+    /**
+     * Starts decoding a new request, reusing the one released if any.
+     */
+    private void start() {
+        if (spare != null) {
+            request = spare;
+            spare = null;
+            request.reset();
+            headers = request.getHeaders().getBuffer();
+        } else {
+            request = new Request();
+        }
+        if (headers == null) {
+            headers = new byte[INITIAL_HEADERS_SIZE];
+        }
+        request.setRecycler(recycler);
+    }
+
+    /**
+     * Takes a request released back, to be reused for the next one (it is
+     * reset only then, so that the owner of the decoder can still check the
+     * request just handled, e.g. whether it is a Keep-Alive one).
+     *
+     * @param released
+     *            the request released
+     */
+    private void recycle(final Request released) {
+        spare = released;
+    }
+
+    /**
+     * Moves the state machine by a single byte.
+     *
+     * @param b
+     *            the byte to accept
+     */
+    private void accept(final byte b) {
+        switch (state) {
+        case METHOD:
+            if (b == SP) {
+                request.setMethod(token(METHODS));
+                state = State.REQUEST_URI;
+            } else if (b != CR && b != LF) {
+                append(b);
+            }
+            break;
+        case REQUEST_URI:
+            if (b == SP) {
+                request.setRequestUri(token());
+                state = State.HTTP_VERSION;
+            } else if (b == LF) {
+                state = State.ERROR;
+            } else if (b != CR) {
+                append(b);
+            }
+            break;
+        case HTTP_VERSION:
+            if (b == LF) {
+                request.setHttpVersion(token(HTTP_VERSIONS));
+                state = State.HEADER_START;
+            } else if (b != CR) {
+                append(b);
+            }
+            break;
+        case HEADER_START:
+            acceptHeaderStart(b, store(b));
+            break;
+        case HEADER_NAME:
+            acceptHeaderName(b, store(b));
+            break;
+        case HEADER_VALUE:
+            acceptHeaderValue(b, store(b));
+            break;
+        case SKIP_LINE:
+            store(b);
+            if (b == LF) {
+                state = State.HEADER_START;
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Accepts the first byte of a header line.
+     *
+     * @param b
+     *            the byte to accept
+     * @param position
+     *            the offset of the byte in the header lines
+     */
+    private void acceptHeaderStart(final byte b, final int position) {
+        if (b == LF) {
+            state = State.COMPLETE;
+        } else if (b == SP || b == HT) {
+            // obsolete line folding, not supported - the line is skipped
+            state = State.SKIP_LINE;
+        } else if (b != CR) {
+            nameStart = position;
+            state = State.HEADER_NAME;
+        }
+    }
+
+    /**
+     * Accepts a byte of a header name.
+     *
+     * @param b
+     *            the byte to accept
+     * @param position
+     *            the offset of the byte in the header lines
+     */
+    private void acceptHeaderName(final byte b, final int position) {
+        if (b == COLON) {
+            nameEnd = position;
+            name = HeaderName.lookup(headers, nameStart, nameEnd);
+            valueStart = -1;
+            valueEnd = position + 1;
+            state = State.HEADER_VALUE;
+        } else if (b == LF) {
+            state = State.HEADER_START;
+        }
+    }
+
+    /**
+     * Accepts a byte of a header value (trimming it), the value of
+     * <code>Content-Length</code> being decoded straight into a number.
+     *
+     * @param b
+     *            the byte to accept
+     * @param position
+     *            the offset of the byte in the header lines
+     */
+    private void acceptHeaderValue(final byte b, final int position) {
+        if (b == LF) {
+            if (valueStart < 0) {
+                valueStart = valueEnd;
+            }
+            request.getHeaders().add(name, nameStart, nameEnd, valueStart,
+                    valueEnd);
+            state = State.HEADER_START;
+        } else if (b != CR && !isWhitespace(b)) {
+            if (valueStart < 0) {
+                valueStart = position;
+            }
+            valueEnd = position + 1;
+            if (name == HeaderName.CONTENT_LENGTH) {
+                acceptContentLengthDigit(b);
+            }
+        }
+    }
+
+    /**
+     * Accepts a digit of a <code>Content-Length</code> value.
+     *
+     * @param b
+     *            the byte to accept
+     */
+    private void acceptContentLengthDigit(final byte b) {
+        int digit = Character.digit(b, DECIMAL);
+        if (digit >= 0) {
+            bodyLength = bodyLength * DECIMAL + digit;
+        } else {
+            state = State.ERROR;
+        }
+    }
+
+    /**
+     * Stores a byte of the header lines.
+     *
+     * @param b
+     *            the byte to store
+     * @return the offset of the byte in the header lines
+     */
+    private int store(final byte b) {
+        if (headersLength == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        headers[headersLength] = b;
+        return headersLength++;
+    }
+
+    /**
+     * Appends a byte to the token being decoded.
+     *
+     * @param b
+     *            the byte to append
+     */
+    private void append(final byte b) {
+        if (tokenLength == token.length) {
+            token = Arrays.copyOf(token, token.length * 2);
+        }
+        token[tokenLength++] = b;
+    }
+
+    /**
+     * Decodes the current token and starts a new one.
+     *
+     * @return the decoded token
+     */
+    private String token() {
+        String decoded = deserialize(token, 0, tokenLength);
+        tokenLength = 0;
+        return decoded;
+    }
+
+    /**
+     * Matches the current token against the constants given, decoding it only
+     * if none matches, and starts a new token.
+     *
+     * @param constants
+     *            the constants to match against
+     * @return the matched constant or the decoded token
+     */
+    private String token(final String[] constants) {
+        for (String constant : constants) {
+            if (tokenEquals(constant)) {
+                tokenLength = 0;
+                return constant;
+            }
+        }
+        return token();
+    }
+
+    /**
+     * Checks whether the current token is equal to the (ASCII) constant given.
+     *
+     * @param constant
+     *            the constant to compare with
+     * @return is the token equal to the constant
+     */
+    private boolean tokenEquals(final String constant) {
+        if (constant.length() != tokenLength) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != constant.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the byte is a linear whitespace.
+     *
+     * @param b
+     *            the byte to check
+     * @return is the byte a space or a tab
+     */
+    private static boolean isWhitespace(final byte b) {
+        return b == SP || b == HT;
+    }
+
+}
@@ -10,7 +10,10 @@ import com.google.common.collect.Maps;
 
 /**
  * A {@link RequestHandler} being in fact a dispatcher for registered
- * {@link RequestHandler}s per given HTTP method.
+ * {@link RequestHandler}s per given HTTP method. A {@link RequestHandler} can
+ * also be registered for a reserved path (matched exactly, the query left
+ * out), taking precedence over the ones per method for GET and HEAD requests
+ * to that path; any other method on a reserved path is not allowed.
  *
  * @author krystiannowak
  *
@@ -23,6 +26,12 @@ public class RequestDispatcher implements RequestHandler {
     private final Map<String, RequestHandler> methodToHandler = Maps
             .newHashMap();
 
+    /**
+     * Registered {@link RequestHandler}s per reserved path.
+     */
+    private final Map<String, RequestHandler> pathToHandler = Maps
+            .newHashMap();
+
     /**
      * Setting given {@link RequestHandler} per HTTP method.
      *
@@ -36,6 +45,19 @@ public class RequestDispatcher implements RequestHandler {
         methodToHandler.put(method, handler);
     }
 
+    /**
+     * Setting given {@link RequestHandler} per reserved path.
+     *
+     * @param path
+     *            the path to be handled (for GET and HEAD only)
+     * @param handler
+     *            the {@link RequestHandler} registered
+     */
+    public final void setPathHandler(final String path,
+            final RequestHandler handler) {
+        pathToHandler.put(path, handler);
+    }
+
     @Override
     public final Response handle(final Request request) {
 
@@ -51,6 +73,20 @@ public class RequestDispatcher implements RequestHandler {
 
         }
 
+        if (!pathToHandler.isEmpty() && request.getRequestUri() != null) {
+            RequestHandler pathHandler = pathToHandler
+                    .get(path(request.getRequestUri()));
+            if (pathHandler != null) {
+                if (!FilesystemGetRequestHandler.METHOD
+                        .equals(request.getMethod())
+                        && !FilesystemHeadRequestHandler.METHOD
+                                .equals(request.getMethod())) {
+                    return badMethod(request.getMethod());
+                }
+                return pathHandler.handle(request);
+            }
+        }
+
         RequestHandler methodHandler = methodToHandler.get(request.getMethod());
         if (methodHandler == null) {
             return badMethod(request.getMethod());
@@ -59,4 +95,19 @@ public class RequestDispatcher implements RequestHandler {
         return methodHandler.handle(request);
     }
 
+    /**
+     * Leaves the query out of the Request-URI given.
+     *
+     * @param requestUri
+     *            the Request-URI
+     * @return the path of the Request-URI
+     */
+    private static String path(final String requestUri) {
+        int query = requestUri.indexOf('?');
+        if (query < 0) {
+            return requestUri;
+        }
+        return requestUri.substring(0, query);
+    }
+
 }
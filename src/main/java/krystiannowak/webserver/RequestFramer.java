@@ -0,0 +1,311 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the bytes received on a connection into request heads (Request-Line
+ * and headers terminated with an empty line as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-5">https://tools.ietf.
+ * org/html/rfc2616#section-5</a>). The bytes after a complete head are kept
+ * for the next one, so that requests split into many reads as well as many
+ * (pipelined) requests received in a single read are framed properly. A
+ * message body announced with <code>Content-Length</code> is skipped, as no
+ * supported method makes use of it.
+ * <p>
+ * The buffer grows geometrically and the search for the end of a head
+ * resumes where it stopped, so framing costs time linear to the number of
+ * bytes received. An instance is not thread-safe.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class RequestFramer {
+
+    /**
+     * The maximum accepted length of a request head.
+     */
+    public static final int MAX_HEAD_LENGTH = 64 * 1024;
+
+    /**
+     * The size of a single read from an {@link InputStream}.
+     */
+    private static final int READ_SIZE = 8 * 1024;
+
+    /**
+     * The terminator of a request head - an empty line.
+     */
+    private static final byte[] END_OF_HEAD = {'\r', '\n', '\r', '\n'};
+
+    /**
+     * The header announcing the length of a message body (lower case).
+     */
+    private static final byte[] CONTENT_LENGTH = SimpleStringSerialization
+            .serialize("\r\ncontent-length:");
+
+    /**
+     * The radix of the <code>Content-Length</code> value.
+     */
+    private static final int DECIMAL = 10;
+
+    /**
+     * Received bytes (<code>null</code> until needed or trimmed).
+     */
+    private byte[] buffer;
+
+    /**
+     * The index of the first pending byte in {@link #buffer}.
+     */
+    private int start;
+
+    /**
+     * The index after the last pending byte in {@link #buffer}.
+     */
+    private int limit;
+
+    /**
+     * The number of pending bytes already searched for the end of a head.
+     */
+    private int scanned;
+
+    /**
+     * The number of bytes of a message body still to be skipped.
+     */
+    private long toSkip;
+
+    /**
+     * Appends the received bytes given.
+     *
+     * @param data
+     *            the received bytes (all the remaining ones are consumed)
+     */
+    public void append(final ByteBuffer data) {
+        int length = data.remaining();
+        ensureCapacity(length);
+        data.get(buffer, limit, length);
+        limit += length;
+    }
+
+    /**
+     * Appends the received bytes given.
+     *
+     * @param data
+     *            the array holding the received bytes
+     * @param offset
+     *            the offset of the received bytes
+     * @param length
+     *            the number of received bytes
+     */
+    public void append(final byte[] data, final int offset,
+            final int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, limit, length);
+        limit += length;
+    }
+
+    /**
+     * Reads the next complete request head from the stream, blocking until it
+     * is received.
+     *
+     * @param is
+     *            the stream to read from
+     * @return the next request head or <code>null</code> if the stream ended
+     *         (or the head is too long)
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public byte[] next(final InputStream is) throws IOException {
+        byte[] head = next();
+        while (head == null && !isOverflow()) {
+            ensureCapacity(READ_SIZE);
+            int read = is.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return null;
+            }
+            limit += read;
+            head = next();
+        }
+        return head;
+    }
+
+    /**
+     * Takes the next complete request head from the bytes received so far.
+     *
+     * @return the next request head or <code>null</code> if not complete yet
+     */
+    public byte[] next() {
+        skipBody();
+        if (toSkip > 0) {
+            return null;
+        }
+
+        int end = findEndOfHead();
+        if (end < 0) {
+            return null;
+        }
+
+        byte[] head = Arrays.copyOfRange(buffer, start, end);
+        start = end;
+        scanned = 0;
+        toSkip = contentLength(head);
+        skipBody();
+        return head;
+    }
+
+    /**
+     * @return <code>true</code> if the pending head exceeds the maximum length
+     *         and will never be complete
+     */
+    public boolean isOverflow() {
+        return toSkip == 0 && limit - start > MAX_HEAD_LENGTH
+                && findEndOfHead() < 0;
+    }
+
+    /**
+     * @return the number of received bytes pending
+     */
+    public int pending() {
+        return limit - start;
+    }
+
+    /**
+     * Searches the pending bytes for the end of a head, starting where the
+     * previous search stopped.
+     *
+     * @return the index after the end of the head or -1 if not found
+     */
+    private int findEndOfHead() {
+        int from = start + Math.max(0, scanned - END_OF_HEAD.length + 1);
+        for (int i = from; i <= limit - END_OF_HEAD.length; i++) {
+            if (matches(buffer, i, END_OF_HEAD)) {
+                return i + END_OF_HEAD.length;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+
+    /**
+     * Discards as much of the message body to be skipped as received.
+     */
+    private void skipBody() {
+        int skipped = (int) Math.min(toSkip, limit - start);
+        start += skipped;
+        toSkip -= skipped;
+        if (start == limit) {
+            start = 0;
+            limit = 0;
+            scanned = 0;
+        }
+    }
+
+    /**
+     * Releases the buffer if there are no bytes pending, so that an idle
+     * connection holds no memory.
+     */
+    public void trim() {
+        if (start == limit) {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Makes sure the given number of bytes can be appended, compacting or
+     * growing the buffer if needed.
+     *
+     * @param length
+     *            the number of bytes to be appended
+     */
+    private void ensureCapacity(final int length) {
+        if (buffer == null) {
+            buffer = new byte[Math.max(length, READ_SIZE)];
+            return;
+        }
+        if (buffer.length - limit >= length) {
+            return;
+        }
+        int pending = limit - start;
+        if (start > 0 && buffer.length - pending >= length) {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        } else {
+            byte[] grown = new byte[Math.max(pending + length,
+                    buffer.length * 2)];
+            System.arraycopy(buffer, start, grown, 0, pending);
+            buffer = grown;
+        }
+        start = 0;
+        limit = pending;
+    }
+
+    /**
+     * Finds the value of the <code>Content-Length</code> header in the head
+     * given.
+     *
+     * @param head
+     *            the request head
+     * @return the length of the message body (0 if not announced)
+     */
+    private static long contentLength(final byte[] head) {
+        for (int i = 0; i <= head.length - CONTENT_LENGTH.length; i++) {
+            if (matchesIgnoreCase(head, i, CONTENT_LENGTH)) {
+                long length = 0;
+                for (int j = i + CONTENT_LENGTH.length; j < head.length; j++) {
+                    int digit = Character.digit(head[j], DECIMAL);
+                    if (digit >= 0) {
+                        length = length * DECIMAL + digit;
+                    } else if (head[j] != ' ' && head[j] != '\t') {
+                        break;
+                    }
+                }
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether the pattern is present in the data at the offset given.
+     *
+     * @param data
+     *            the data to check
+     * @param offset
+     *            the offset in the data
+     * @param pattern
+     *            the pattern to find
+     * @return is the pattern present
+     */
+    private static boolean matches(final byte[] data, final int offset,
+            final byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (data[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the lower case pattern is present in the data at the
+     * offset given, ignoring the case of the data.
+     *
+     * @param data
+     *            the data to check
+     * @param offset
+     *            the offset in the data
+     * @param pattern
+     *            the lower case pattern to find
+     * @return is the pattern present
+     */
+    private static boolean matchesIgnoreCase(final byte[] data,
+            final int offset, final byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (Character.toLowerCase(data[offset + i]) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
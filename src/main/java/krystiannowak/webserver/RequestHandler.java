@@ -10,7 +10,10 @@ public interface RequestHandler {
 
     /**
      * Handles given {@link Request} and generates a {@link Response}
-     * accordingly.
+     * accordingly. The request is released (to be reused for the next request
+     * of its connection) once the response has been written, so neither the
+     * request nor its headers may be referenced by the response or kept in
+     * any other way.
      *
      * @param request
      *            a {@link Request} to be handled
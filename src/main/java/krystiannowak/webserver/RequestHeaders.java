@@ -0,0 +1,356 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+
+import java.util.Arrays;
+
+/**
+ * The headers of a {@link Request}, kept compact: a header received is just a
+ * few offsets into the buffer of the request head, and its value is decoded
+ * only when asked for (then cached), so the headers no handler reads cost no
+ * allocation at all. Any header is kept, in the order received; the ones with
+ * a well known {@link HeaderName} are indexed on arrival and looked up in
+ * constant time, the others by a (case insensitive) scan.
+ * <p>
+ * The headers can also be added or set as decoded values (e.g. by a parser
+ * which decodes them anyway, or to override a header received). Cleared, the
+ * headers keep their arrays and buffer to be reused for the next request of a
+ * connection. An instance is not thread-safe.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class RequestHeaders {
+
+    /**
+     * The initial capacity (number of headers).
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of offsets kept per header.
+     */
+    private static final int OFFSETS = 4;
+
+    /**
+     * The index of the name start within the offsets of a header.
+     */
+    private static final int NAME_START = 0;
+
+    /**
+     * The index of the name end within the offsets of a header.
+     */
+    private static final int NAME_END = 1;
+
+    /**
+     * The index of the value start within the offsets of a header.
+     */
+    private static final int VALUE_START = 2;
+
+    /**
+     * The index of the value end within the offsets of a header.
+     */
+    private static final int VALUE_END = 3;
+
+    /**
+     * The number of the well known names.
+     */
+    private static final int KNOWN_NAMES = HeaderName.values().length;
+
+    /**
+     * The buffer of the request head the offsets point into.
+     */
+    private byte[] buffer;
+
+    /**
+     * The number of headers.
+     */
+    private int size;
+
+    /**
+     * The offsets of the names and values of the headers in the buffer.
+     */
+    private int[] offsets = new int[INITIAL_CAPACITY * OFFSETS];
+
+    /**
+     * The well known names of the headers (<code>null</code> if not well
+     * known).
+     */
+    private HeaderName[] known = new HeaderName[INITIAL_CAPACITY];
+
+    /**
+     * The names of the headers, decoded lazily.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * The values of the headers, decoded lazily.
+     */
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    /**
+     * The index of the first header with a well known name, by the name
+     * ordinal (-1 if none).
+     */
+    private final int[] firstIndex = new int[KNOWN_NAMES];
+
+    /**
+     * Creates empty headers.
+     */
+    public RequestHeaders() {
+        Arrays.fill(firstIndex, -1);
+    }
+
+    /**
+     * Sets the buffer the offsets of the headers received point into (once it
+     * is complete).
+     *
+     * @param buffer
+     *            the buffer of the request head
+     */
+    void setBuffer(final byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the buffer of the request head the offsets point into (to be
+     *         reused), <code>null</code> if none
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Removes all the headers, keeping the arrays and the buffer.
+     */
+    void clear() {
+        Arrays.fill(known, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(firstIndex, -1);
+        size = 0;
+    }
+
+    /**
+     * Adds a header received, not decoding it.
+     *
+     * @param name
+     *            the well known name of the header (<code>null</code> if not
+     *            well known)
+     * @param nameStart
+     *            the offset of the name in the buffer
+     * @param nameEnd
+     *            the offset following the name
+     * @param valueStart
+     *            the offset of the value in the buffer
+     * @param valueEnd
+     *            the offset following the value
+     */
+    void add(final HeaderName name, final int nameStart, final int nameEnd,
+            final int valueStart, final int valueEnd) {
+        int index = append(name);
+        offsets[index * OFFSETS + NAME_START] = nameStart;
+        offsets[index * OFFSETS + NAME_END] = nameEnd;
+        offsets[index * OFFSETS + VALUE_START] = valueStart;
+        offsets[index * OFFSETS + VALUE_END] = valueEnd;
+    }
+
+    /**
+     * Adds a decoded header.
+     *
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value
+     */
+    public void add(final String name, final String value) {
+        int index = append(HeaderName.lookup(name));
+        names[index] = name;
+        values[index] = value;
+    }
+
+    /**
+     * Sets a header with a well known name, replacing all the headers with
+     * that name.
+     *
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value (<code>null</code> just removes the headers)
+     */
+    public void set(final HeaderName name, final String value) {
+        int index = firstIndex[name.ordinal()];
+        if (index >= 0) {
+            remove(name, index);
+        }
+        if (value != null) {
+            add(name.getName(), value);
+        }
+    }
+
+    /**
+     * Gets the value of the first header with a well known name.
+     *
+     * @param name
+     *            the header name
+     * @return the header value or <code>null</code> if there is none
+     */
+    public String get(final HeaderName name) {
+        int index = firstIndex[name.ordinal()];
+        if (index < 0) {
+            return null;
+        }
+        return getValue(index);
+    }
+
+    /**
+     * Gets the value of the first header with the name given (case
+     * insensitive).
+     *
+     * @param name
+     *            the header name
+     * @return the header value or <code>null</code> if there is none
+     */
+    public String get(final String name) {
+        HeaderName wellKnown = HeaderName.lookup(name);
+        if (wellKnown != null) {
+            return get(wellKnown);
+        }
+        for (int i = 0; i < size; i++) {
+            if (known[i] == null && name.equalsIgnoreCase(getName(i))) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether there is a header with a well known name.
+     *
+     * @param name
+     *            the header name
+     * @return is there such a header
+     */
+    public boolean contains(final HeaderName name) {
+        return firstIndex[name.ordinal()] >= 0;
+    }
+
+    /**
+     * @return the number of headers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the name of a header.
+     *
+     * @param index
+     *            the index of the header (in the order received)
+     * @return the header name
+     */
+    public String getName(final int index) {
+        if (names[index] == null) {
+            names[index] = decode(index, NAME_START, NAME_END);
+        }
+        return names[index];
+    }
+
+    /**
+     * Gets the value of a header.
+     *
+     * @param index
+     *            the index of the header (in the order received)
+     * @return the header value
+     */
+    public String getValue(final int index) {
+        if (values[index] == null) {
+            values[index] = decode(index, VALUE_START, VALUE_END);
+        }
+        return values[index];
+    }
+
+    /**
+     * Decodes a part of a header received.
+     *
+     * @param index
+     *            the index of the header
+     * @param start
+     *            the index of the start offset of the part
+     * @param end
+     *            the index of the end offset of the part
+     * @return the decoded part
+     */
+    private String decode(final int index, final int start, final int end) {
+        int from = offsets[index * OFFSETS + start];
+        return deserialize(buffer, from, offsets[index * OFFSETS + end] - from);
+    }
+
+    /**
+     * Appends a new header, growing the arrays if needed.
+     *
+     * @param name
+     *            the well known name of the header (<code>null</code> if not
+     *            well known)
+     * @return the index of the header
+     */
+    private int append(final HeaderName name) {
+        if (size == known.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity * OFFSETS);
+            known = Arrays.copyOf(known, capacity);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int index = size++;
+        known[index] = name;
+        names[index] = null;
+        values[index] = null;
+        if (name != null && firstIndex[name.ordinal()] < 0) {
+            firstIndex[name.ordinal()] = index;
+        }
+        return index;
+    }
+
+    /**
+     * Removes all the headers with a well known name.
+     *
+     * @param name
+     *            the header name
+     * @param first
+     *            the index of the first header with that name
+     */
+    private void remove(final HeaderName name, final int first) {
+        int kept = first;
+        for (int i = first; i < size; i++) {
+            if (known[i] != name) {
+                System.arraycopy(offsets, i * OFFSETS, offsets,
+                        kept * OFFSETS, OFFSETS);
+                known[kept] = known[i];
+                names[kept] = names[i];
+                values[kept] = values[i];
+                kept++;
+            }
+        }
+        size = kept;
+        Arrays.fill(firstIndex, -1);
+        for (int i = 0; i < size; i++) {
+            if (known[i] != null && firstIndex[known[i].ordinal()] < 0) {
+                firstIndex[known[i].ordinal()] = i;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(getName(i)).append(": ").append(getValue(i));
+        }
+        return builder.append(']').toString();
+    }
+
+}
@@ -1,6 +1,8 @@
 package krystiannowak.webserver;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.function.Function;
 
 import rx.Observable;
 
@@ -21,4 +23,18 @@ public interface RequestParser {
      */
     Observable<Request> parse(InputStream is);
 
+    /**
+     * Creates a parser of single, complete request heads (e.g. framed by a
+     * {@link RequestFramer}) for a single connection. The parser may reuse the
+     * requests {@link Request#release() released} for the next ones; by
+     * default every head is parsed on its own with {@link #parse(InputStream)}.
+     *
+     * @return a function parsing a request head into a {@link Request}
+     *         (<code>null</code> if none)
+     */
+    default Function<byte[], Request> forConnection() {
+        return head -> parse(new ByteArrayInputStream(head)).toBlocking()
+                .firstOrDefault(null);
+    }
+
 }
@@ -0,0 +1,219 @@
+package krystiannowak.webserver;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Splitter;
+import com.google.common.net.HttpHeaders;
+
+/**
+ * The validators of a resource: a strong entity tag as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-14.19">https://tools.
+ * ietf.org/html/rfc2616#section-14.19</a> and the last modification date as
+ * per <a href="https://tools.ietf.org/html/rfc2616#section-14.29">https://
+ * tools.ietf.org/html/rfc2616#section-14.29</a>, both formatted once, so that
+ * a conditional request is evaluated without touching the resource.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class ResourceMetadata {
+
+    /**
+     * The format of HTTP-date as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-3.3.1">https://
+     * tools.ietf.org/html/rfc2616#section-3.3.1</a> (RFC 1123 with a two digit
+     * day).
+     */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * The prefix of a weak entity tag.
+     */
+    private static final String WEAK_PREFIX = "W/";
+
+    /**
+     * The entity tag matching any.
+     */
+    private static final String ANY = "*";
+
+    /**
+     * The entity tag.
+     */
+    private final String entityTag;
+
+    /**
+     * The last modification time in milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * The last modification time formatted as HTTP-date.
+     */
+    private final String lastModifiedDate;
+
+    /**
+     * Creates the metadata.
+     *
+     * @param entityTag
+     *            the strong entity tag (quoted)
+     * @param lastModified
+     *            the last modification time in milliseconds
+     */
+    public ResourceMetadata(final String entityTag, final long lastModified) {
+        this.entityTag = entityTag;
+        this.lastModified = lastModified;
+        this.lastModifiedDate = HTTP_DATE
+                .format(Instant.ofEpochMilli(lastModified));
+    }
+
+    /**
+     * Creates the metadata of a file from its attributes: the entity tag
+     * combines the modification time and the size of the file.
+     *
+     * @param attributes
+     *            the attributes of the file
+     * @return the metadata of the file
+     */
+    public static ResourceMetadata of(final BasicFileAttributes attributes) {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        return new ResourceMetadata("\"" + Long.toHexString(lastModified) + "-"
+                + Long.toHexString(attributes.size()) + "\"", lastModified);
+    }
+
+    /**
+     * Creates the metadata of a variant of the representation in the content
+     * coding given: the same last modification date with an entity tag
+     * distinct from the one of the representation itself.
+     *
+     * @param coding
+     *            the content coding of the variant
+     * @return the metadata of the variant
+     */
+    public ResourceMetadata withCoding(final String coding) {
+        return new ResourceMetadata(entityTag.substring(0,
+                entityTag.length() - 1) + "-" + coding + "\"", lastModified);
+    }
+
+    /**
+     * @return the entity tag (quoted)
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * @return the last modification time in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Puts the <code>ETag</code> and <code>Last-Modified</code> headers to the
+     * response given.
+     *
+     * @param response
+     *            the response to put the validators to
+     */
+    public void applyTo(final Response response) {
+        response.getHeaders().put(HttpHeaders.ETAG, entityTag);
+        response.getHeaders().put(HttpHeaders.LAST_MODIFIED, lastModifiedDate);
+    }
+
+    /**
+     * Checks whether the conditional request given is satisfied by the
+     * current representation, i.e. <code>If-None-Match</code> matches the
+     * entity tag (weak comparison as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.26">https://
+     * tools.ietf.org/html/rfc2616#section-14.26</a>) or, if not present, the
+     * resource has not been modified since <code>If-Modified-Since</code>.
+     *
+     * @param request
+     *            the request to check
+     * @return can 304 Not Modified be responded
+     */
+    public boolean isNotModified(final Request request) {
+        if (request.getIfNoneMatch() != null) {
+            for (String tag : Splitter.on(',').trimResults().omitEmptyStrings()
+                    .split(request.getIfNoneMatch())) {
+                if (tag.equals(ANY) || stripWeak(tag).equals(entityTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (request.getIfModifiedSince() != null) {
+            try {
+                long since = ZonedDateTime.parse(request.getIfModifiedSince(),
+                        DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                        .toEpochMilli();
+                return TimeUnit.MILLISECONDS.toSeconds(lastModified)
+                        <= TimeUnit.MILLISECONDS.toSeconds(since);
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the <code>Range</code> of the request given applies to
+     * the current representation, i.e. there is no <code>If-Range</code> or
+     * it matches the entity tag (strong comparison) or the last modification
+     * date exactly, as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.27">https://
+     * tools.ietf.org/html/rfc2616#section-14.27</a>.
+     *
+     * @param request
+     *            the request to check
+     * @return can the ranges requested be sent
+     */
+    public boolean isRangeApplicable(final Request request) {
+        String ifRange = request.getIfRange();
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_PREFIX)) {
+            return ifRange.equals(entityTag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange,
+                    DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                    .toEpochMilli();
+            return TimeUnit.MILLISECONDS.toSeconds(lastModified)
+                    == TimeUnit.MILLISECONDS.toSeconds(date);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param tag
+     *            an entity tag
+     * @return the entity tag without the weak indicator
+     */
+    private static String stripWeak(final String tag) {
+        if (tag.startsWith(WEAK_PREFIX)) {
+            return tag.substring(WEAK_PREFIX.length());
+        }
+        return tag;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceMetadata [entityTag=" + entityTag + ", lastModified="
+                + lastModifiedDate + "]";
+    }
+
+}
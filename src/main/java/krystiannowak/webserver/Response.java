@@ -1,7 +1,6 @@
 package krystiannowak.webserver;
 
-import java.util.Map;
-import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
  * A representation of an HTTP {@link Response} (roughtly) based on
@@ -40,22 +39,21 @@ public interface Response extends Message {
      *
      * @return HTTP headers
      */
-    Map<String, String> getHeaders();
+    ResponseHeaders getHeaders();
 
     /**
-     * Gets message body. In case there is no body, an empty byte array is
-     * returned.
+     * Gets message body. In case there is no body, an empty
+     * {@link MessageBody} is returned.
      *
      * @return the message body
      */
-    byte[] getMessageBody();
+    MessageBody getMessageBody();
 
     /**
-     * Gets the length of the non-empty content if present. If not, then either
-     * the length cannot be calculated or the message body lenght is 0.
+     * Gets the length of the message body if known.
      *
-     * @return an {@link Optional} of content length
+     * @return an {@link OptionalLong} of content length
      */
-    Optional<Integer> getContentLength();
+    OptionalLong getContentLength();
 
 }
@@ -0,0 +1,184 @@
+package krystiannowak.webserver;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A compact container of HTTP response headers keeping the names and values
+ * in two arrays, in order of insertion. Names are case-insensitive as per
+ * <a href="https://tools.ietf.org/html/rfc2616#section-4.2">https://tools.
+ * ietf.org/html/rfc2616#section-4.2</a>; note the simplification - only
+ * unique headers supported. A response has just a handful of headers, so a
+ * linear search is cheaper than hashing and costs no per-entry objects.
+ *
+ * @author krystiannowak
+ *
+ */
+public final class ResponseHeaders {
+
+    /**
+     * The initial number of headers the container can hold.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The header names.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * The header values.
+     */
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    /**
+     * The number of headers.
+     */
+    private int size;
+
+    /**
+     * Puts a header, replacing the value of the header with the same name if
+     * present.
+     *
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value
+     */
+    public void put(final String name, final String value) {
+        int index = indexOf(name);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Puts all the headers from the {@link Map} given, in its iteration order.
+     *
+     * @param headers
+     *            the headers to put
+     */
+    public void putAll(final Map<String, String> headers) {
+        headers.forEach(this::put);
+    }
+
+    /**
+     * Gets a header value.
+     *
+     * @param name
+     *            the header name
+     * @return the header value or <code>null</code> if not present
+     */
+    public String get(final String name) {
+        int index = indexOf(name);
+        if (index >= 0) {
+            return values[index];
+        }
+        return null;
+    }
+
+    /**
+     * Removes a header.
+     *
+     * @param name
+     *            the header name
+     */
+    public void remove(final String name) {
+        int index = indexOf(name);
+        if (index >= 0) {
+            size--;
+            System.arraycopy(names, index + 1, names, index, size - index);
+            System.arraycopy(values, index + 1, values, index, size - index);
+            names[size] = null;
+            values[size] = null;
+        }
+    }
+
+    /**
+     * Removes all the headers.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return the number of headers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the name of a header at the index given.
+     *
+     * @param index
+     *            the index of the header (in order of insertion)
+     * @return the header name
+     */
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    /**
+     * Gets the value of a header at the index given.
+     *
+     * @param index
+     *            the index of the header (in order of insertion)
+     * @return the header value
+     */
+    public String getValue(final int index) {
+        return values[index];
+    }
+
+    /**
+     * Performs the action given for each header, in order of insertion.
+     *
+     * @param action
+     *            the action to perform with the header name and value
+     */
+    public void forEach(final BiConsumer<String, String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    /**
+     * Finds the index of a header.
+     *
+     * @param name
+     *            the header name (case-insensitive)
+     * @return the index of the header or -1 if not present
+     */
+    private int indexOf(final String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(names[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+}
@@ -5,12 +5,22 @@ import static krystiannowak.webserver.SimpleStringSerialization.serialize;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HttpHeaders;
-import com.google.common.primitives.Bytes;
 
 /**
- * Writes {@link Response}s to an {@link OutputStream}.
+ * Writes {@link Response}s to a {@link WritableByteChannel} (or an
+ * {@link OutputStream}). The Status-Line and headers are encoded straight into
+ * a buffer of the {@link BufferPool} (held only until the response is
+ * written), using pre-encoded fragments for the Status-Lines and the common
+ * header names, and are written together with an in-memory message body with
+ * a single gathering write. A {@link CachedResponse} is written straight from
+ * its serialized buffers.
  *
  * @author krystiannowak
  *
@@ -22,19 +32,94 @@ public class ResponseWriter implements Closeable {
      * <a href="https://tools.ietf.org/html/rfc2616#section-2.2">https://tools.
      * ietf.org/html/rfc2616#section-2.2</a>.
      */
-    private static final String SP = " ";
+    private static final byte SP = ' ';
 
     /**
      * CRLF carriage return and linefeed representation as per
      * <a href="https://tools.ietf.org/html/rfc2616#section-2.2">https://tools.
      * ietf.org/html/rfc2616#section-2.2</a>.
      */
-    private static final String CRLF = "\r\n";
+    private static final byte[] CRLF = {'\r', '\n'};
 
     /**
-     * An {@link OutputStream} to write {@link Response}s to.
+     * The separator of a header name and its value.
      */
-    private final OutputStream os;
+    private static final byte[] HEADER_SEPARATOR = {':', ' '};
+
+    /**
+     * The initial size of the buffer to encode the head of a response into.
+     */
+    private static final int INITIAL_HEAD_SIZE = 512;
+
+    /**
+     * The maximum number of digits of a content length.
+     */
+    private static final int MAX_DIGITS = 19;
+
+    /**
+     * The radix of the content length.
+     */
+    private static final int DECIMAL = 10;
+
+    /**
+     * The first character not encoded as a single byte.
+     */
+    private static final char FIRST_NON_ASCII = 0x80;
+
+    /**
+     * The (exclusive) upper limit of the status codes having their
+     * Status-Lines cached.
+     */
+    private static final int MAX_STATUS_CODE = 600;
+
+    /**
+     * Cached Status-Lines per status code (racy initialization is harmless, as
+     * the cached instances are immutable).
+     */
+    private static final StatusLine[] STATUS_LINES =
+            new StatusLine[MAX_STATUS_CODE];
+
+    /**
+     * Pre-encoded common header names followed by the separator.
+     */
+    private static final Map<String, byte[]> HEADER_NAMES = preEncode(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.DATE,
+            HttpHeaders.SERVER, HttpHeaders.LAST_MODIFIED, HttpHeaders.ETAG,
+            HttpHeaders.ACCEPT_RANGES, HttpHeaders.CONTENT_RANGE,
+            HttpHeaders.CONTENT_ENCODING, HttpHeaders.VARY,
+            HttpHeaders.TRANSFER_ENCODING);
+
+    /**
+     * The pre-encoded <code>Content-Length</code> header name.
+     */
+    private static final byte[] CONTENT_LENGTH = HEADER_NAMES
+            .get(HttpHeaders.CONTENT_LENGTH);
+
+    /**
+     * The pool of no memory, allocating heap buffers.
+     */
+    private static final BufferPool UNPOOLED = new BufferPool(0, false);
+
+    /**
+     * A {@link WritableByteChannel} to write {@link Response}s to.
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * The pool of the buffers to encode the heads of responses into.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The buffer the head of a response is being encoded into.
+     */
+    private ByteBuffer head;
+
+    /**
+     * A scratch buffer for the digits of a content length.
+     */
+    private final byte[] digits = new byte[MAX_DIGITS];
 
     /**
      * Creates the writer.
@@ -43,11 +128,35 @@ public class ResponseWriter implements Closeable {
      *            the {@link OutputStream} for {@link Response}s
      */
     public ResponseWriter(final OutputStream outputStream) {
-        this.os = outputStream;
+        this(Channels.newChannel(outputStream));
+    }
+
+    /**
+     * Creates the writer.
+     *
+     * @param channel
+     *            the {@link WritableByteChannel} for {@link Response}s
+     */
+    public ResponseWriter(final WritableByteChannel channel) {
+        this(channel, UNPOOLED);
+    }
+
+    /**
+     * Creates the writer encoding the heads into the buffers of a pool.
+     *
+     * @param channel
+     *            the {@link WritableByteChannel} for {@link Response}s
+     * @param pool
+     *            the pool of the buffers to encode the heads into
+     */
+    ResponseWriter(final WritableByteChannel channel, final BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
     }
 
     /**
-     * Writes the {@link Response} given to the {@link OutputStream}.
+     * Writes the {@link Response} given to the channel, blocking until it is
+     * written completely.
      *
      * @param response
      *            the {@link Response} to write
@@ -55,106 +164,279 @@ public class ResponseWriter implements Closeable {
      *             if an I/O error occurs
      */
     public final void write(final Response response) throws IOException {
-        os.write(Bytes.concat(
-                serialize(new ResponseTextBuilder(response).toString()),
-                response.getMessageBody()));
-        os.flush();
+        try (PendingResponse pending = prepare(response)) {
+            boolean written = false;
+            while (!written) {
+                written = pending.writeTo(channel);
+            }
+        }
+    }
+
+    /**
+     * Encodes the head of the {@link Response} given into a
+     * {@link PendingResponse} which can be written to a channel in many steps
+     * together with the {@link MessageBody}. The head is encoded into a pooled
+     * buffer released when the pending response is closed.
+     *
+     * @param response
+     *            the {@link Response} to encode
+     * @return the response ready to be written
+     */
+    public final PendingResponse prepare(final Response response) {
+        head = pool.acquire(INITIAL_HEAD_SIZE);
+        if (response instanceof CachedResponse
+                && ((CachedResponse) response).isSerialized()) {
+            return prepareCached((CachedResponse) response);
+        }
+
+        putStatusLine(response);
+        putHeaderLines(response.getHeaders(), 0);
+        putContentLength(response);
+        putBytes(CRLF);
+        head.flip();
+
+        MessageBody body = response.getMessageBody();
+        if (body instanceof ByteBufferBody) {
+            ByteBuffer[] parts = {head, ((ByteBufferBody) body).getContent()};
+            return pending(parts, body);
+        }
+        return pending(new ByteBuffer[] {head}, body);
+    }
+
+    /**
+     * Hands the head buffer over to a new pending response.
+     *
+     * @param parts
+     *            the serialized parts to be written first
+     * @param body
+     *            the message body to be written after the parts
+     * @return the response ready to be written
+     */
+    private PendingResponse pending(final ByteBuffer[] parts,
+            final MessageBody body) {
+        PendingResponse pending = new PendingResponse(parts, body, pool, head);
+        head = null;
+        return pending;
+    }
+
+    /**
+     * Prepares a response already serialized by the {@link FileCache}, only
+     * putting the headers added after caching between the serialized prefix
+     * and suffix.
+     *
+     * @param response
+     *            the cached response
+     * @return the response ready to be written
+     */
+    private PendingResponse prepareCached(final CachedResponse response) {
+        putHeaderLines(response.getHeaders(),
+                response.getSerializedHeaders());
+        head.flip();
+        ByteBuffer[] parts = {response.getPrefix(), head,
+                response.getSuffix()};
+        return pending(parts, MessageBodies.empty());
     }
 
     @Override
     public final void close() throws IOException {
-        if (os != null) {
-            os.close();
+        if (channel != null) {
+            channel.close();
         }
     }
 
     /**
-     * A builder to write the textual part of the response as per
-     * <a href="https://tools.ietf.org/html/rfc2616#section-6">https://tools.
-     * ietf.org/html/rfc2616#section-6</a>.
+     * Puts the HTTP response Status-Line as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-6.1">https://
+     * tools.ietf.org/html/rfc2616#section-6.1</a>.
+     *
+     * @param response
+     *            the response to put the Status-Line for
+     */
+    private void putStatusLine(final Response response) {
+        int code = response.getStatusCode();
+        if (code < 0 || code >= MAX_STATUS_CODE) {
+            putBytes(new StatusLine(response).bytes);
+            return;
+        }
+
+        StatusLine statusLine = STATUS_LINES[code];
+        if (statusLine == null || !statusLine.matches(response)) {
+            statusLine = new StatusLine(response);
+            STATUS_LINES[code] = statusLine;
+        }
+        putBytes(statusLine.bytes);
+    }
+
+    /**
+     * Puts HTTP response header lines as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-6">https://tools
+     * .ietf.org/html/rfc2616#section-6</a>.
+     *
+     * @param headers
+     *            the headers to put header lines for
+     * @param from
+     *            the index of the first header to put
+     */
+    private void putHeaderLines(final ResponseHeaders headers,
+            final int from) {
+        for (int i = from; i < headers.size(); i++) {
+            byte[] name = HEADER_NAMES.get(headers.getName(i));
+            if (name != null) {
+                putBytes(name);
+            } else {
+                putText(headers.getName(i));
+                putBytes(HEADER_SEPARATOR);
+            }
+            putText(headers.getValue(i));
+            putBytes(CRLF);
+        }
+    }
+
+    /**
+     * Puts <code>Content-Length</code> HTTP header according to
+     * <a href="https://tools.ietf.org/html/rfc2616#section-14.13">https://
+     * tools.ietf.org/html/rfc2616#section-14.13</a> with a value of content
+     * length if known.
+     *
+     * @param response
+     *            the response to put the header line for
+     */
+    private void putContentLength(final Response response) {
+        response.getContentLength().ifPresent(contentLength -> {
+            putBytes(CONTENT_LENGTH);
+            putNumber(contentLength);
+            putBytes(CRLF);
+        });
+    }
+
+    /**
+     * Puts the bytes given.
+     *
+     * @param bytes
+     *            the bytes to put
+     */
+    private void putBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        head.put(bytes);
+    }
+
+    /**
+     * Puts the text given, encoding it directly if it is ASCII.
+     *
+     * @param text
+     *            the text to put
+     */
+    private void putText(final String text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= FIRST_NON_ASCII) {
+                byte[] rest = serialize(text.substring(i));
+                ensureCapacity(rest.length);
+                head.put(rest);
+                return;
+            }
+            head.put((byte) c);
+        }
+    }
+
+    /**
+     * Puts the decimal digits of the (non negative) number given.
+     *
+     * @param number
+     *            the number to put
+     */
+    private void putNumber(final long number) {
+        int start = digits.length;
+        long rest = number;
+        do {
+            digits[--start] = (byte) ('0' + rest % DECIMAL);
+            rest /= DECIMAL;
+        } while (rest > 0);
+        ensureCapacity(digits.length - start);
+        head.put(digits, start, digits.length - start);
+    }
+
+    /**
+     * Makes sure the head buffer can take the given number of bytes more.
+     *
+     * @param length
+     *            the number of bytes to be put
+     */
+    private void ensureCapacity(final int length) {
+        if (head.remaining() < length) {
+            ByteBuffer grown = pool.acquire(Math.max(head.capacity() * 2,
+                    head.position() + length));
+            head.flip();
+            grown.put(head);
+            pool.release(head);
+            head = grown;
+        }
+    }
+
+    /**
+     * Pre-encodes the header names given, each followed by the separator.
+     *
+     * @param names
+     *            the header names
+     * @return the pre-encoded header names
+     */
+    private static Map<String, byte[]> preEncode(final String... names) {
+        ImmutableMap.Builder<String, byte[]> builder = ImmutableMap.builder();
+        for (String name : names) {
+            builder.put(name, serialize(name + ": "));
+        }
+        return builder.build();
+    }
+
+    /**
+     * A pre-encoded Status-Line.
      *
      * @author krystiannowak
      *
      */
-    private static final class ResponseTextBuilder {
+    private static final class StatusLine {
 
         /**
-         * A {@link StringBuilder} to accumulate the text to be build.
+         * The HTTP version of the Status-Line.
          */
-        private final StringBuilder sb = new StringBuilder();
+        private final String httpVersion;
 
         /**
-         * Constructs the builder.
-         *
-         * @param response
-         *            the response for which to build the textual representation
+         * The reason phrase of the Status-Line.
          */
-        private ResponseTextBuilder(final Response response) {
-            appendStatusLine(response);
-            appendHeaderLines(response);
-            sb.append(CRLF);
-        }
-
-        @Override
-        public String toString() {
-            return sb.toString();
-        }
+        private final String reasonPhrase;
 
         /**
-         * Appends the HTTP response Status-Line as per
-         * <a href="https://tools.ietf.org/html/rfc2616#section-6.1">https://
-         * tools.ietf.org/html/rfc2616#section-6.1</a>.
-         *
-         * @param response
-         *            the response to build the Status-Line for
+         * The encoded Status-Line including the CRLF.
          */
-        private void appendStatusLine(final Response response) {
-            sb.append(response.getHttpVersion());
-            sb.append(SP);
-            sb.append(response.getStatusCode());
-            sb.append(SP);
-            sb.append(response.getReasonPhrase());
-            sb.append(CRLF);
-        }
+        private final byte[] bytes;
 
         /**
-         * Builds HTTP request header lines as per
-         * <a href="https://tools.ietf.org/html/rfc2616#section-6">https://tools
-         * .ietf.org/html/rfc2616#section-6</a> additionally adding
-         * <code>Content-Length</code> HTTP header according to
-         * <a href="https://tools.ietf.org/html/rfc2616#section-14.13">https://
-         * tools.ietf.org/html/rfc2616#section-14.13</a> with a value of content
-         * length if present.
+         * Encodes the Status-Line of the response given.
          *
          * @param response
-         *            the response to build header lines for
+         *            the response to encode the Status-Line of
          */
-        private void appendHeaderLines(final Response response) {
-            response.getHeaders()
-                    .forEach((name, value) -> appendHeader(name, value));
-            response.getContentLength().ifPresent(contentLength -> appendHeader(
-                    HttpHeaders.CONTENT_LENGTH, contentLength));
+        private StatusLine(final Response response) {
+            this.httpVersion = response.getHttpVersion();
+            this.reasonPhrase = response.getReasonPhrase();
+            this.bytes = serialize(httpVersion + (char) SP
+                    + response.getStatusCode() + (char) SP + reasonPhrase
+                    + "\r\n");
         }
 
         /**
-         * Appends an HTTP header line as per
-         * <a href="https://tools.ietf.org/html/rfc2616#section-6">https://tools
-         * .ietf.org/html/rfc2616#section-6</a>.
+         * Checks whether this Status-Line is the one of the response given.
          *
-         * @param <T>
-         *            the type of the header value
-         * @param name
-         *            the header name
-         * @param value
-         *            the header value
+         * @param response
+         *            the response to check
+         * @return does the Status-Line match the response
          */
-        private <T> void appendHeader(final String name, final T value) {
-            sb.append(name);
-            sb.append(':');
-            sb.append(SP);
-            sb.append(value);
-            sb.append(CRLF);
+        private boolean matches(final Response response) {
+            return httpVersion.equals(response.getHttpVersion())
+                    && reasonPhrase.equals(response.getReasonPhrase());
         }
-
     }
 }
@@ -1,6 +1,9 @@
 package krystiannowak.webserver;
 
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+
+import com.google.common.net.HttpHeaders;
 
 /**
  * Utilities for creating most common {@link Response}s.
@@ -10,12 +13,46 @@ import java.net.HttpURLConnection;
  */
 public final class Responses {
 
+    /**
+     * The status code of 416 Requested Range Not Satisfiable (not defined by
+     * {@link HttpURLConnection}).
+     */
+    public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * The serialized 503 Service Unavailable shedding load: no body, retry
+     * after a second, closing the connection.
+     */
+    private static final ByteBuffer SERVICE_UNAVAILABLE = ByteBuffer
+            .wrap(SimpleStringSerialization
+                    .serialize("HTTP/1.1 503 Service Unavailable\r\n"
+                            + HttpHeaders.RETRY_AFTER + ": 1\r\n"
+                            + HttpHeaders.CONTENT_LENGTH + ": 0\r\n"
+                            + HttpHeaders.CONNECTION + ": close\r\n\r\n"))
+            .asReadOnlyBuffer();
+
     /**
      * No instantiation possible.
      */
     private Responses() {
     }
 
+    /**
+     * 304 Not Modified as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-10.3.5">https://
+     * tools.ietf.org/html/rfc2616#section-10.3.5</a>, with no message body.
+     *
+     * @param metadata
+     *            the validators of the resource
+     * @return 304 Not Modified {@link Response}
+     */
+    public static Response notModified(final ResourceMetadata metadata) {
+        DefaultResponse response = new DefaultResponse(
+                HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified");
+        metadata.applyTo(response);
+        return response;
+    }
+
     /**
      * 400 Bad Request as per
      * <a href="https://tools.ietf.org/html/rfc2616#section-10.4.1">https://
@@ -72,6 +109,38 @@ public final class Responses {
                 "Method Not Allowed", "Method '" + method + "' is not allowed");
     }
 
+    /**
+     * 416 Requested Range Not Satisfiable as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-10.4.17">https://
+     * tools.ietf.org/html/rfc2616#section-10.4.17</a>.
+     *
+     * @param length
+     *            the current length of the selected resource
+     * @return 416 Requested Range Not Satisfiable {@link Response}
+     */
+    public static Response rangeNotSatisfiable(final long length) {
+        StringResponse response = new StringResponse(
+                HTTP_RANGE_NOT_SATISFIABLE, "Requested Range Not Satisfiable",
+                "None of the ranges requested overlaps the resource");
+        response.putHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        return response;
+    }
+
+    /**
+     * 503 Service Unavailable as per
+     * <a href="https://tools.ietf.org/html/rfc2616#section-10.5.4">https://
+     * tools.ietf.org/html/rfc2616#section-10.5.4</a>, sent when shedding load.
+     * It is serialized once, so rejecting a request costs no allocation but
+     * the wrapping buffer.
+     *
+     * @return 503 Service Unavailable ready to be written
+     */
+    static PendingResponse serviceUnavailable() {
+        return new PendingResponse(
+                new ByteBuffer[] {SERVICE_UNAVAILABLE.duplicate()},
+                MessageBodies.empty());
+    }
+
     /**
      * 505 HTTP Version Not Supported as per
      * <a href="https://tools.ietf.org/html/rfc2616#section-10.5.6">https://
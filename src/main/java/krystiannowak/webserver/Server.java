@@ -2,20 +2,25 @@ package krystiannowak.webserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import rx.Observable;
-import rx.Scheduler;
-import rx.schedulers.Schedulers;
+import rx.functions.Actions;
 import rx.subscriptions.Subscriptions;
 
 /**
@@ -34,11 +39,6 @@ public final class Server {
      */
     private static final Logger LOG = LoggerFactory.getLogger(Server.class);
 
-    /**
-     * Default number of threads (if not overridden from configuration).
-     */
-    private static final int DEFAULT_NUMBER_OF_THREADS = 8;
-
     /**
      * Default port number for the server (if not overridden from
      * configuration).
@@ -55,67 +55,222 @@ public final class Server {
      * Main entry point to the server executable.
      *
      * @param args
-     *            arguments (not used)
+     *            arguments (not used, see {@link ServerConfiguration} for the
+     *            system properties to configure the server with)
      */
     public static void main(final String[] args) {
 
-        final File documentRoot = new File(DEFAULT_DOCUMENT_ROOT)
+        final ServerConfiguration configuration = ServerConfiguration
+                .fromSystemProperties();
+        LOG.info("starting with {}", configuration);
+
+        final File documentRoot = configuration.getDocumentRoot()
                 .getAbsoluteFile();
         assertDocumentRoot(documentRoot);
+        configuration.setDocumentRoot(documentRoot);
 
-        final int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+        switch (configuration.getEngine()) {
+        case NIO:
+            runNio(configuration);
+            break;
+        default:
+            ExecutorService threadPoolExecutorService = configuration
+                    .createWorkerPool();
 
-        ExecutorService threadPoolExecutorService = Executors
-                .newFixedThreadPool(numberOfThreads);
-        Scheduler scheduler = Schedulers.from(threadPoolExecutorService);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    threadPoolExecutorService.shutdownNow();
+                }
+            });
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                threadPoolExecutorService.shutdownNow();
-            }
-        });
+            runBlocking(configuration, threadPoolExecutorService);
+            break;
+        }
+
+    }
+
+    /**
+     * Runs the non-blocking {@link NioServer} engine, accepting the
+     * connections on the current thread.
+     *
+     * @param configuration
+     *            the server configuration
+     */
+    private static void runNio(final ServerConfiguration configuration) {
+        try {
+            NioServer server = new NioServer(configuration,
+                    configuration.getParser().create());
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            server.run();
+        } catch (IOException e) {
+            LOG.error("an error occured", e);
+        }
+    }
+
+    /**
+     * Runs the blocking, thread-per-connection engine on the current thread,
+     * which only accepts the connections. The whole pipeline of a connection
+     * (parsing, dispatching and writing the responses) runs on a worker, so
+     * the connections are served in parallel, as many at a time as there are
+     * workers. A connection the workers refuse to take up (all of them busy
+     * and their queue full) is rejected with 503 Service Unavailable right
+     * away. A failure of a connection is logged and ends only that
+     * connection.
+     *
+     * @param configuration
+     *            the server configuration
+     * @param executorService
+     *            the workers to handle the connections on
+     */
+    static void runBlocking(final ServerConfiguration configuration,
+            final ExecutorService executorService) {
+        try {
+            runBlocking(configuration, executorService,
+                    bind(configuration.getPort()));
+        } catch (IOException e) {
+            LOG.error("an error occured", e);
+        }
+    }
+
+    /**
+     * Binds the server socket of the blocking engine. It is the socket of a
+     * blocking {@link ServerSocketChannel}, so that the sockets accepted have
+     * their channels, the responses being written (and the files transferred
+     * with <code>sendfile</code>) straight to them.
+     *
+     * @param port
+     *            the port to listen on
+     * @return the bound server socket
+     * @throws IOException
+     *             if the socket cannot be bound
+     */
+    static ServerSocket bind(final int port) throws IOException {
+        return ServerSocketChannel.open().bind(new InetSocketAddress(port))
+                .socket();
+    }
+
+    /**
+     * Runs the blocking engine on the current thread, accepting the
+     * connections on the server socket given until it is closed (closing it
+     * stops the engine, the connections accepted still being served by the
+     * workers).
+     *
+     * @param configuration
+     *            the server configuration
+     * @param executorService
+     *            the workers to handle the connections on
+     * @param serverSocket
+     *            the bound server socket to accept the connections on
+     */
+    static void runBlocking(final ServerConfiguration configuration,
+            final ExecutorService executorService,
+            final ServerSocket serverSocket) {
+        runBlocking(new ConnectionHandler(configuration,
+                configuration.getParser().create()), executorService,
+                serverSocket);
+    }
+
+    /**
+     * Runs the blocking engine on the current thread with the handler given,
+     * accepting the connections on the server socket given until it is
+     * closed.
+     *
+     * @param handler
+     *            the handler of the connections
+     * @param executorService
+     *            the workers to handle the connections on
+     * @param serverSocket
+     *            the bound server socket to accept the connections on
+     */
+    static void runBlocking(final ConnectionHandler handler,
+            final ExecutorService executorService,
+            final ServerSocket serverSocket) {
+
+        ScheduledExecutorService ticker = startIdleTimeouts(
+                handler.getIdleTimeouts());
+        if (executorService instanceof AdaptiveThreadPool) {
+            handler.getMetrics()
+                    .setWorkerPool((AdaptiveThreadPool) executorService);
+        }
+        final int port = serverSocket.getLocalPort();
 
         Observable.<Socket>create(subscriber -> {
-            try {
-                final int port = DEFAULT_PORT_NUMBER;
-
-                final ServerSocket serverSocket = new ServerSocket(port);
-                subscriber.add(Subscriptions.create(() -> {
-                    try {
-                        LOG.info("closing socket on port {}", port);
-                        serverSocket.close();
-                    } catch (IOException e) {
-                        throw Throwables.propagate(e);
-                    }
-                }));
-                LOG.info("server on port {} started", port);
-                while (!subscriber.isUnsubscribed()) {
-                    try {
-                        Socket socket = serverSocket.accept();
-                        LOG.info("new socket connection accepted");
-                        subscriber.onNext(socket);
-                    } catch (SocketTimeoutException e) {
-                        LOG.warn("timeout while accepting socket connection",
-                                e);
-                    } catch (Exception e) {
-                        subscriber.onError(e);
+            subscriber.add(Subscriptions.create(() -> {
+                try {
+                    LOG.info("closing socket on port {}", port);
+                    serverSocket.close();
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }));
+            LOG.info("server on port {} started", port);
+            while (!subscriber.isUnsubscribed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    LOG.debug("new socket connection accepted");
+                    subscriber.onNext(socket);
+                } catch (SocketTimeoutException e) {
+                    LOG.warn("timeout while accepting socket connection", e);
+                } catch (Exception e) {
+                    if (serverSocket.isClosed()) {
+                        subscriber.onCompleted();
+                        return;
                     }
+                    subscriber.onError(e);
                 }
-            } catch (IOException e) {
-                subscriber.onError(e);
             }
-        }).flatMap(socket -> {
-            LOG.info("receiving connection on a socket {}", socket);
-            return Connections.connection(socket);
-        }).flatMap(connection -> {
-            return Connections.handle(connection, documentRoot);
-        }).observeOn(scheduler).subscribe(message -> {
-            LOG.info(message.toString());
+        }).subscribe(socket -> {
+            LOG.debug("receiving connection on a socket {}", socket);
+            long accepted = System.nanoTime();
+            Observable<HttpConnection> connection = Connections
+                    .connection(socket);
+            try {
+                executorService.execute(() -> connection.flatMap(c -> {
+                    handler.onTakenUp(accepted);
+                    return handler.handle(c);
+                }).subscribe(Actions.empty(), Server::onConnectionFailed));
+            } catch (RejectedExecutionException e) {
+                connection.subscribe(handler::reject,
+                        Server::onConnectionFailed);
+            }
         }, t -> {
             LOG.error("an error occured", t);
         });
 
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Logs a failure of a connection, which ends only that connection.
+     *
+     * @param t
+     *            the failure
+     */
+    private static void onConnectionFailed(final Throwable t) {
+        LOG.warn("connection failed", t);
+    }
+
+    /**
+     * Starts a daemon thread advancing the {@link TimingWheel} given once per
+     * its tick, closing the connections idle for too long.
+     *
+     * @param idleTimeouts
+     *            the timeouts of the idle connections
+     * @return the thread advancing the timeouts, to be shut down once the
+     *         server stops
+     */
+    private static ScheduledExecutorService startIdleTimeouts(
+            final TimingWheel idleTimeouts) {
+        ScheduledExecutorService ticker = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("idle-timeouts")
+                        .build());
+        long tick = idleTimeouts.getTickNanos();
+        ticker.scheduleAtFixedRate(
+                () -> idleTimeouts.expire(System.nanoTime()), tick, tick,
+                TimeUnit.NANOSECONDS);
+        return ticker;
     }
 
     /**
@@ -0,0 +1,922 @@
+package krystiannowak.webserver;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A configuration of the {@link Server}. All the values can be overridden
+ * with system properties (e.g. <code>-Dwebserver.port=8080</code>), otherwise
+ * the defaults are used.
+ *
+ * @author krystiannowak
+ *
+ */
+public class ServerConfiguration {
+
+    /**
+     * A prefix for all the system properties of the configuration.
+     */
+    private static final String PREFIX = "webserver.";
+
+    /**
+     * The lowest default number of threads.
+     */
+    private static final int MIN_DEFAULT_NUMBER_OF_THREADS = 8;
+
+    /**
+     * Default number of threads (if not overridden from configuration): the
+     * number of cores, but not fewer than 8, as a worker is taken up by a
+     * connection for as long as it is kept alive.
+     */
+    private static final int DEFAULT_NUMBER_OF_THREADS = Math.max(
+            MIN_DEFAULT_NUMBER_OF_THREADS,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Default highest number of threads of the adaptive worker pool.
+     */
+    private static final int DEFAULT_MAX_NUMBER_OF_THREADS = 256;
+
+    /**
+     * Default number of event loops of the {@link NioServer}: the number of
+     * cores.
+     */
+    private static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime()
+            .availableProcessors();
+
+    /**
+     * Default capacity of the {@link FileCache} in bytes.
+     */
+    private static final long DEFAULT_FILE_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default maximum size of a file cached in the {@link FileCache}.
+     */
+    private static final long DEFAULT_FILE_CACHE_MAX_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Default capacity of the {@link CompressedVariants} in bytes.
+     */
+    private static final long DEFAULT_COMPRESSION_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Default maximum size of a file compressed on the fly.
+     */
+    private static final long DEFAULT_COMPRESSION_MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * Default maximum number of directory listings cached.
+     */
+    private static final int DEFAULT_DIRECTORY_LISTINGS = 256;
+
+    /**
+     * Default time in seconds an idle Keep-Alive connection is kept open.
+     */
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 15;
+
+    /**
+     * Default maximum number of requests served on a connection.
+     */
+    private static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 100;
+
+    /**
+     * Default initial limit of the work admitted concurrently.
+     */
+    private static final int DEFAULT_CONCURRENCY_LIMIT = 64;
+
+    /**
+     * Default highest limit of the work admitted concurrently.
+     */
+    private static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 1024;
+
+    /**
+     * Default cap of the memory kept by the {@link BufferPool} in bytes.
+     */
+    private static final long DEFAULT_BUFFER_POOL_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default size in bytes an {@link AccessLog} file is rotated at.
+     */
+    private static final long DEFAULT_ACCESS_LOG_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default number of rotated {@link AccessLog} files kept.
+     */
+    private static final int DEFAULT_ACCESS_LOG_FILES = 5;
+
+    /**
+     * Default reserved path the metrics are exposed on.
+     */
+    public static final String DEFAULT_METRICS_PATH = "/_metrics";
+
+    /**
+     * The number of records the ring of the {@link AccessLog} can hold.
+     */
+    private static final int ACCESS_LOG_CAPACITY = 16 * 1024;
+
+    /**
+     * The duration of a tick of the wheel of the idle timeouts.
+     */
+    private static final long IDLE_TIMEOUT_TICK_MILLIS = 100;
+
+    /**
+     * The number of ticks per rotation of the wheel of the idle timeouts.
+     */
+    private static final int IDLE_TIMEOUT_TICKS_PER_WHEEL = 512;
+
+    /**
+     * Available server engines.
+     *
+     * @author krystiannowak
+     *
+     */
+    public enum Engine {
+
+        /**
+         * Thread-per-connection engine based on blocking sockets.
+         */
+        BLOCKING,
+
+        /**
+         * Selector based engine multiplexing non-blocking sockets.
+         */
+        NIO
+    }
+
+    /**
+     * Available request parsers.
+     *
+     * @author krystiannowak
+     *
+     */
+    public enum Parser {
+
+        /**
+         * Parser based on ANTLR grammar, see {@link AntlrRequestParser}.
+         */
+        ANTLR {
+            @Override
+            public RequestParser create() {
+                return new AntlrRequestParser();
+            }
+        },
+
+        /**
+         * Hand-written byte level parser, see
+         * {@link IncrementalRequestParser}.
+         */
+        INCREMENTAL {
+            @Override
+            public RequestParser create() {
+                return new IncrementalRequestParser();
+            }
+        };
+
+        /**
+         * Creates the parser.
+         *
+         * @return the parser created
+         */
+        public abstract RequestParser create();
+    }
+
+    /**
+     * The document root to look files and directories for.
+     */
+    private File documentRoot = new File(Server.DEFAULT_DOCUMENT_ROOT);
+
+    /**
+     * The port number to listen on.
+     */
+    private int port = Server.DEFAULT_PORT_NUMBER;
+
+    /**
+     * The number of worker threads.
+     */
+    private int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+
+    /**
+     * The highest number of worker threads.
+     */
+    private int maxNumberOfThreads = DEFAULT_MAX_NUMBER_OF_THREADS;
+
+    /**
+     * The engine to serve the connections with.
+     */
+    private Engine engine = Engine.BLOCKING;
+
+    /**
+     * The number of event loops of the {@link NioServer}.
+     */
+    private int eventLoops = DEFAULT_EVENT_LOOPS;
+
+    /**
+     * Whether every event loop of the {@link NioServer} listens on its own
+     * with <code>SO_REUSEPORT</code>.
+     */
+    private boolean reusePort;
+
+    /**
+     * The parser of the requests.
+     */
+    private Parser parser = Parser.ANTLR;
+
+    /**
+     * The capacity of the {@link FileCache} in bytes.
+     */
+    private long fileCacheSize = DEFAULT_FILE_CACHE_SIZE;
+
+    /**
+     * The maximum size of a file cached in the {@link FileCache}.
+     */
+    private long fileCacheMaxFileSize = DEFAULT_FILE_CACHE_MAX_FILE_SIZE;
+
+    /**
+     * The minimum size of a file to be served from a shared memory mapping.
+     */
+    private long mappedFileThreshold;
+
+    /**
+     * The maximum number of directory listings cached.
+     */
+    private int directoryListings = DEFAULT_DIRECTORY_LISTINGS;
+
+    /**
+     * The capacity of the {@link CompressedVariants} in bytes.
+     */
+    private long compressionCacheSize = DEFAULT_COMPRESSION_CACHE_SIZE;
+
+    /**
+     * The maximum size of a file compressed on the fly.
+     */
+    private long compressionMaxFileSize = DEFAULT_COMPRESSION_MAX_FILE_SIZE;
+
+    /**
+     * The time in seconds an idle Keep-Alive connection is kept open.
+     */
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+
+    /**
+     * The maximum number of requests served on a connection.
+     */
+    private int keepAliveMaxRequests = DEFAULT_KEEP_ALIVE_MAX_REQUESTS;
+
+    /**
+     * The initial limit of the work admitted concurrently.
+     */
+    private int concurrencyLimit = DEFAULT_CONCURRENCY_LIMIT;
+
+    /**
+     * The highest limit of the work admitted concurrently.
+     */
+    private int maxConcurrencyLimit = DEFAULT_MAX_CONCURRENCY_LIMIT;
+
+    /**
+     * The cap of the memory kept by the {@link BufferPool} in bytes.
+     */
+    private long bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+
+    /**
+     * The file of the {@link AccessLog}, empty if disabled.
+     */
+    private String accessLog = "";
+
+    /**
+     * The size in bytes an {@link AccessLog} file is rotated at.
+     */
+    private long accessLogMaxSize = DEFAULT_ACCESS_LOG_MAX_SIZE;
+
+    /**
+     * The number of rotated {@link AccessLog} files kept.
+     */
+    private int accessLogFiles = DEFAULT_ACCESS_LOG_FILES;
+
+    /**
+     * The reserved path the metrics are exposed on, empty if not exposed.
+     */
+    private String metricsPath = DEFAULT_METRICS_PATH;
+
+    /**
+     * Creates a configuration with the defaults overridden by the system
+     * properties if present.
+     *
+     * @return the configuration
+     */
+    public static ServerConfiguration fromSystemProperties() {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.setDocumentRoot(new File(System.getProperty(
+                PREFIX + "documentRoot", Server.DEFAULT_DOCUMENT_ROOT)));
+        configuration.setPort(
+                Integer.getInteger(PREFIX + "port", configuration.getPort()));
+        configuration.setNumberOfThreads(Integer.getInteger(PREFIX + "threads",
+                configuration.getNumberOfThreads()));
+        configuration.setMaxNumberOfThreads(Integer.getInteger(
+                PREFIX + "maxThreads", configuration.getMaxNumberOfThreads()));
+        configuration.setEngine(Engine.valueOf(System.getProperty(
+                PREFIX + "engine", configuration.getEngine().name())
+                .toUpperCase()));
+        configuration.setEventLoops(Integer.getInteger(PREFIX + "eventLoops",
+                configuration.getEventLoops()));
+        configuration.setReusePort(Boolean.getBoolean(PREFIX + "reusePort"));
+        configuration.setParser(Parser.valueOf(System.getProperty(
+                PREFIX + "parser", configuration.getParser().name())
+                .toUpperCase()));
+        configuration.setFileCacheSize(Long.getLong(PREFIX + "fileCacheSize",
+                configuration.getFileCacheSize()));
+        configuration.setFileCacheMaxFileSize(Long.getLong(
+                PREFIX + "fileCacheMaxFileSize",
+                configuration.getFileCacheMaxFileSize()));
+        configuration.setMappedFileThreshold(Long.getLong(
+                PREFIX + "mappedFileThreshold",
+                configuration.getMappedFileThreshold()));
+        configuration.setDirectoryListings(Integer.getInteger(
+                PREFIX + "directoryListings",
+                configuration.getDirectoryListings()));
+        configuration.setCompressionCacheSize(Long.getLong(
+                PREFIX + "compressionCacheSize",
+                configuration.getCompressionCacheSize()));
+        configuration.setCompressionMaxFileSize(Long.getLong(
+                PREFIX + "compressionMaxFileSize",
+                configuration.getCompressionMaxFileSize()));
+        configuration.setKeepAliveTimeout(Integer.getInteger(
+                PREFIX + "keepAliveTimeout",
+                configuration.getKeepAliveTimeout()));
+        configuration.setKeepAliveMaxRequests(Integer.getInteger(
+                PREFIX + "keepAliveMaxRequests",
+                configuration.getKeepAliveMaxRequests()));
+        configuration.setConcurrencyLimit(Integer.getInteger(
+                PREFIX + "concurrencyLimit",
+                configuration.getConcurrencyLimit()));
+        configuration.setMaxConcurrencyLimit(Integer.getInteger(
+                PREFIX + "maxConcurrencyLimit",
+                configuration.getMaxConcurrencyLimit()));
+        configuration.setBufferPoolSize(Long.getLong(
+                PREFIX + "bufferPoolSize", configuration.getBufferPoolSize()));
+        configuration.setAccessLog(System.getProperty(PREFIX + "accessLog",
+                configuration.getAccessLog()));
+        configuration.setAccessLogMaxSize(Long.getLong(
+                PREFIX + "accessLogMaxSize",
+                configuration.getAccessLogMaxSize()));
+        configuration.setAccessLogFiles(Integer.getInteger(
+                PREFIX + "accessLogFiles", configuration.getAccessLogFiles()));
+        configuration.setMetricsPath(System.getProperty(PREFIX + "metricsPath",
+                configuration.getMetricsPath()));
+        return configuration;
+    }
+
+    /**
+     * Document root getter.
+     *
+     * @return the document root
+     */
+    public final File getDocumentRoot() {
+        return documentRoot;
+    }
+
+    /**
+     * Document root setter.
+     *
+     * @param documentRoot
+     *            the document root
+     */
+    public final void setDocumentRoot(final File documentRoot) {
+        this.documentRoot = documentRoot;
+    }
+
+    /**
+     * Port number getter.
+     *
+     * @return the port number
+     */
+    public final int getPort() {
+        return port;
+    }
+
+    /**
+     * Port number setter.
+     *
+     * @param port
+     *            the port number
+     */
+    public final void setPort(final int port) {
+        this.port = port;
+    }
+
+    /**
+     * Number of worker threads getter.
+     *
+     * @return the number of worker threads
+     */
+    public final int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * Number of worker threads setter.
+     *
+     * @param numberOfThreads
+     *            the number of worker threads
+     */
+    public final void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Maximum number of worker threads getter.
+     *
+     * @return the highest number of worker threads
+     */
+    public final int getMaxNumberOfThreads() {
+        return maxNumberOfThreads;
+    }
+
+    /**
+     * Maximum number of worker threads setter.
+     *
+     * @param maxNumberOfThreads
+     *            the highest number of worker threads (not more than the
+     *            number of worker threads makes the pool fixed)
+     */
+    public final void setMaxNumberOfThreads(final int maxNumberOfThreads) {
+        this.maxNumberOfThreads = maxNumberOfThreads;
+    }
+
+    /**
+     * Creates the pool of worker threads configured, sizing itself between
+     * the number of worker threads and the highest one.
+     *
+     * @return a new {@link AdaptiveThreadPool}
+     */
+    final AdaptiveThreadPool createWorkerPool() {
+        return new AdaptiveThreadPool(numberOfThreads, maxNumberOfThreads,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Engine getter.
+     *
+     * @return the engine to serve the connections with
+     */
+    public final Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Engine setter.
+     *
+     * @param engine
+     *            the engine to serve the connections with
+     */
+    public final void setEngine(final Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Event loops getter.
+     *
+     * @return the number of event loops of the {@link NioServer}
+     */
+    public final int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Event loops setter.
+     *
+     * @param eventLoops
+     *            the number of event loops of the {@link NioServer}
+     */
+    public final void setEventLoops(final int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Reuse port getter.
+     *
+     * @return does every event loop of the {@link NioServer} listen on its
+     *         own with <code>SO_REUSEPORT</code>
+     */
+    public final boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Reuse port setter.
+     *
+     * @param reusePort
+     *            whether every event loop of the {@link NioServer} listens
+     *            on its own with <code>SO_REUSEPORT</code> (otherwise a single
+     *            acceptor hands the connections over to the loops)
+     */
+    public final void setReusePort(final boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Parser getter.
+     *
+     * @return the parser of the requests
+     */
+    public final Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * Parser setter.
+     *
+     * @param parser
+     *            the parser of the requests
+     */
+    public final void setParser(final Parser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * File cache size getter.
+     *
+     * @return the capacity of the {@link FileCache} in bytes
+     */
+    public final long getFileCacheSize() {
+        return fileCacheSize;
+    }
+
+    /**
+     * File cache size setter.
+     *
+     * @param fileCacheSize
+     *            the capacity of the {@link FileCache} in bytes (0 disables
+     *            the cache)
+     */
+    public final void setFileCacheSize(final long fileCacheSize) {
+        this.fileCacheSize = fileCacheSize;
+    }
+
+    /**
+     * File cache maximum file size getter.
+     *
+     * @return the maximum size of a file cached in the {@link FileCache}
+     */
+    public final long getFileCacheMaxFileSize() {
+        return fileCacheMaxFileSize;
+    }
+
+    /**
+     * File cache maximum file size setter.
+     *
+     * @param fileCacheMaxFileSize
+     *            the maximum size of a file cached in the {@link FileCache}
+     */
+    public final void setFileCacheMaxFileSize(
+            final long fileCacheMaxFileSize) {
+        this.fileCacheMaxFileSize = fileCacheMaxFileSize;
+    }
+
+    /**
+     * Mapped file threshold getter.
+     *
+     * @return the minimum size of a file to be served from a shared memory
+     *         mapping
+     */
+    public final long getMappedFileThreshold() {
+        return mappedFileThreshold;
+    }
+
+    /**
+     * Mapped file threshold setter.
+     *
+     * @param mappedFileThreshold
+     *            the minimum size of a file to be served from a shared memory
+     *            mapping (0 disables mapping)
+     */
+    public final void setMappedFileThreshold(final long mappedFileThreshold) {
+        this.mappedFileThreshold = mappedFileThreshold;
+    }
+
+    /**
+     * Directory listings getter.
+     *
+     * @return the maximum number of directory listings cached
+     */
+    public final int getDirectoryListings() {
+        return directoryListings;
+    }
+
+    /**
+     * Directory listings setter.
+     *
+     * @param directoryListings
+     *            the maximum number of directory listings cached (0 disables
+     *            the cache)
+     */
+    public final void setDirectoryListings(final int directoryListings) {
+        this.directoryListings = directoryListings;
+    }
+
+    /**
+     * Compression cache size getter.
+     *
+     * @return the capacity of the {@link CompressedVariants} in bytes
+     */
+    public final long getCompressionCacheSize() {
+        return compressionCacheSize;
+    }
+
+    /**
+     * Compression cache size setter.
+     *
+     * @param compressionCacheSize
+     *            the capacity of the {@link CompressedVariants} in bytes (0
+     *            disables compression on the fly)
+     */
+    public final void setCompressionCacheSize(
+            final long compressionCacheSize) {
+        this.compressionCacheSize = compressionCacheSize;
+    }
+
+    /**
+     * Compression maximum file size getter.
+     *
+     * @return the maximum size of a file compressed on the fly
+     */
+    public final long getCompressionMaxFileSize() {
+        return compressionMaxFileSize;
+    }
+
+    /**
+     * Compression maximum file size setter.
+     *
+     * @param compressionMaxFileSize
+     *            the maximum size of a file compressed on the fly
+     */
+    public final void setCompressionMaxFileSize(
+            final long compressionMaxFileSize) {
+        this.compressionMaxFileSize = compressionMaxFileSize;
+    }
+
+    /**
+     * Keep-Alive timeout getter.
+     *
+     * @return the time in seconds an idle Keep-Alive connection is kept open
+     */
+    public final int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Keep-Alive timeout setter.
+     *
+     * @param keepAliveTimeout
+     *            the time in seconds an idle Keep-Alive connection is kept
+     *            open (also the time to wait for the first request)
+     */
+    public final void setKeepAliveTimeout(final int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Keep-Alive maximum requests getter.
+     *
+     * @return the maximum number of requests served on a connection
+     */
+    public final int getKeepAliveMaxRequests() {
+        return keepAliveMaxRequests;
+    }
+
+    /**
+     * Keep-Alive maximum requests setter.
+     *
+     * @param keepAliveMaxRequests
+     *            the maximum number of requests served on a connection (1
+     *            disables Keep-Alive)
+     */
+    public final void setKeepAliveMaxRequests(final int keepAliveMaxRequests) {
+        this.keepAliveMaxRequests = keepAliveMaxRequests;
+    }
+
+    /**
+     * Concurrency limit getter.
+     *
+     * @return the initial limit of the work admitted concurrently
+     */
+    public final int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Concurrency limit setter.
+     *
+     * @param concurrencyLimit
+     *            the initial limit of the work admitted concurrently (0
+     *            disables load shedding)
+     */
+    public final void setConcurrencyLimit(final int concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Maximum concurrency limit getter.
+     *
+     * @return the highest limit of the work admitted concurrently
+     */
+    public final int getMaxConcurrencyLimit() {
+        return maxConcurrencyLimit;
+    }
+
+    /**
+     * Maximum concurrency limit setter.
+     *
+     * @param maxConcurrencyLimit
+     *            the highest limit of the work admitted concurrently
+     */
+    public final void setMaxConcurrencyLimit(final int maxConcurrencyLimit) {
+        this.maxConcurrencyLimit = maxConcurrencyLimit;
+    }
+
+    /**
+     * Buffer pool size getter.
+     *
+     * @return the cap of the memory kept by the {@link BufferPool} in bytes
+     */
+    public final long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    /**
+     * Buffer pool size setter.
+     *
+     * @param bufferPoolSize
+     *            the cap of the memory kept by the {@link BufferPool} in
+     *            bytes (0 disables pooling)
+     */
+    public final void setBufferPoolSize(final long bufferPoolSize) {
+        this.bufferPoolSize = bufferPoolSize;
+    }
+
+    /**
+     * Creates the {@link BufferPool} configured.
+     *
+     * @return a new {@link BufferPool}
+     */
+    final BufferPool createBufferPool() {
+        return new BufferPool(bufferPoolSize, false);
+    }
+
+    /**
+     * Access log getter.
+     *
+     * @return the file of the {@link AccessLog}, empty if disabled
+     */
+    public final String getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Access log setter.
+     *
+     * @param accessLog
+     *            the file of the {@link AccessLog} (empty disables it)
+     */
+    public final void setAccessLog(final String accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Access log maximum size getter.
+     *
+     * @return the size in bytes an {@link AccessLog} file is rotated at
+     */
+    public final long getAccessLogMaxSize() {
+        return accessLogMaxSize;
+    }
+
+    /**
+     * Access log maximum size setter.
+     *
+     * @param accessLogMaxSize
+     *            the size in bytes an {@link AccessLog} file is rotated at
+     */
+    public final void setAccessLogMaxSize(final long accessLogMaxSize) {
+        this.accessLogMaxSize = accessLogMaxSize;
+    }
+
+    /**
+     * Access log files getter.
+     *
+     * @return the number of rotated {@link AccessLog} files kept
+     */
+    public final int getAccessLogFiles() {
+        return accessLogFiles;
+    }
+
+    /**
+     * Access log files setter.
+     *
+     * @param accessLogFiles
+     *            the number of rotated {@link AccessLog} files kept
+     */
+    public final void setAccessLogFiles(final int accessLogFiles) {
+        this.accessLogFiles = accessLogFiles;
+    }
+
+    /**
+     * Metrics path getter.
+     *
+     * @return the reserved path the metrics are exposed on, empty if not
+     *         exposed
+     */
+    public final String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Metrics path setter.
+     *
+     * @param metricsPath
+     *            the reserved path the metrics are exposed on (empty does not
+     *            expose them)
+     */
+    public final void setMetricsPath(final String metricsPath) {
+        this.metricsPath = metricsPath;
+    }
+
+    /**
+     * Creates and starts the {@link AccessLog} configured, closed (with the
+     * pending records written) when the JVM shuts down.
+     *
+     * @return a new {@link AccessLog} or <code>null</code> if disabled
+     */
+    final AccessLog createAccessLog() {
+        if (accessLog == null || accessLog.isEmpty()) {
+            return null;
+        }
+        AccessLog log = new AccessLog(Paths.get(accessLog),
+                ACCESS_LOG_CAPACITY, accessLogMaxSize, accessLogFiles);
+        log.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close));
+        return log;
+    }
+
+    /**
+     * Creates the {@link ConcurrencyLimiter} configured.
+     *
+     * @return a new {@link ConcurrencyLimiter}
+     */
+    final ConcurrencyLimiter createConcurrencyLimiter() {
+        return new ConcurrencyLimiter(concurrencyLimit, maxConcurrencyLimit);
+    }
+
+    /**
+     * Creates the {@link TimingWheel} of the idle timeouts of the
+     * connections.
+     *
+     * @return a new {@link TimingWheel}
+     */
+    final TimingWheel createIdleTimeouts() {
+        return new TimingWheel(
+                TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_TICK_MILLIS),
+                IDLE_TIMEOUT_TICKS_PER_WHEEL, System.nanoTime());
+    }
+
+    /**
+     * Creates the {@link CompressedVariants} configured.
+     *
+     * @return a new {@link CompressedVariants}
+     */
+    public final CompressedVariants createCompressedVariants() {
+        return new CompressedVariants(compressionCacheSize,
+                compressionMaxFileSize);
+    }
+
+    /**
+     * Creates the {@link FileCache} configured.
+     *
+     * @return a new {@link FileCache}
+     */
+    public final FileCache createFileCache() {
+        return new FileCache(fileCacheSize, fileCacheMaxFileSize);
+    }
+
+    @Override
+    public final String toString() {
+        return "ServerConfiguration [documentRoot=" + documentRoot + ", port="
+                + port + ", numberOfThreads=" + numberOfThreads
+                + ", maxNumberOfThreads=" + maxNumberOfThreads + ", engine="
+                + engine + ", eventLoops=" + eventLoops + ", reusePort="
+                + reusePort + ", parser=" + parser + ", fileCacheSize="
+                + fileCacheSize + ", fileCacheMaxFileSize="
+                + fileCacheMaxFileSize + ", mappedFileThreshold="
+                + mappedFileThreshold + ", directoryListings="
+                + directoryListings + ", compressionCacheSize="
+                + compressionCacheSize + ", compressionMaxFileSize="
+                + compressionMaxFileSize + ", keepAliveTimeout="
+                + keepAliveTimeout + ", keepAliveMaxRequests="
+                + keepAliveMaxRequests + ", concurrencyLimit="
+                + concurrencyLimit + ", maxConcurrencyLimit="
+                + maxConcurrencyLimit + ", bufferPoolSize=" + bufferPoolSize
+                + ", accessLog=" + accessLog + ", accessLogMaxSize="
+                + accessLogMaxSize + ", accessLogFiles=" + accessLogFiles
+                + ", metricsPath=" + metricsPath + "]";
+    }
+
+}
@@ -35,6 +35,23 @@ public final class SimpleStringSerialization {
         return new String(data, DEFAULT_CHARSET);
     }
 
+    /**
+     * Deserializes a {@link String} from a part of a byte array given using
+     * default (simplified) {@link Charset}.
+     *
+     * @param data
+     *            a byte array to deserialize a {@link String} from
+     * @param offset
+     *            the index of the first byte to deserialize
+     * @param length
+     *            the number of bytes to deserialize
+     * @return deserialized {@link String}
+     */
+    public static String deserialize(final byte[] data, final int offset,
+            final int length) {
+        return new String(data, offset, length, DEFAULT_CHARSET);
+    }
+
     /**
      * Serializes a given {@link String} into a byte array using default
      * (simplified) {@link Charset}.
@@ -0,0 +1,115 @@
+package krystiannowak.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link MessageBody} generated incrementally by a producer. The content is
+ * produced into a single buffer of a fixed size which is drained to the
+ * channel before more content is produced, so a body of any length costs
+ * only the buffer.
+ *
+ * @author krystiannowak
+ *
+ */
+public abstract class StreamingBody implements MessageBody {
+
+    /**
+     * The default size of the buffer to produce the content into.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The length of the content to be produced.
+     */
+    private final long length;
+
+    /**
+     * The size of the buffer to produce the content into.
+     */
+    private final int bufferSize;
+
+    /**
+     * The buffer of produced, not yet written content (allocated on the first
+     * write).
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Whether the producer has finished producing the content.
+     */
+    private boolean finished;
+
+    /**
+     * Creates the body.
+     *
+     * @param length
+     *            the length of the content to be produced
+     * @param bufferSize
+     *            the size of the buffer to produce the content into
+     */
+    protected StreamingBody(final long length, final int bufferSize) {
+        this.length = length;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Produces the next part of the content into the buffer given.
+     *
+     * @param target
+     *            the buffer to put the content into (it has some space
+     *            remaining)
+     * @return <code>true</code> if there is more content to be produced
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected abstract boolean produce(ByteBuffer target) throws IOException;
+
+    @Override
+    public final long getLength() {
+        return length;
+    }
+
+    @Override
+    public final boolean writeTo(final WritableByteChannel channel)
+            throws IOException {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+            buffer.flip();
+        }
+
+        while (true) {
+            if (buffer.hasRemaining()) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+            }
+
+            if (finished) {
+                return true;
+            }
+
+            buffer.clear();
+            finished = !produce(buffer);
+            buffer.flip();
+        }
+    }
+
+    @Override
+    public final void close() throws IOException {
+        buffer = null;
+        release();
+    }
+
+    /**
+     * Releases the resources of the producer (nothing by default).
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected void release() throws IOException {
+    }
+
+}
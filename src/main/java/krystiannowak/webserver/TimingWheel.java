@@ -0,0 +1,294 @@
+package krystiannowak.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel (see Varghese and Lauck) of the timeouts of the
+ * connections. The time is divided into ticks and every timeout is kept in a
+ * doubly linked list of the wheel slot its deadline tick hashes to, with the
+ * number of full rotations still to wait. Scheduling, rescheduling and
+ * cancelling a timeout cost O(1) no matter how many are pending, while the
+ * expiry is checked once per tick for a single slot. A timeout expires within
+ * a tick after its deadline.
+ * <p>
+ * The wheel does not keep time on its own - it has to be advanced
+ * periodically (e.g. by the selector loop) with {@link #expire(long)}, which
+ * runs the tasks of the expired timeouts on the calling thread.
+ *
+ * @author krystiannowak
+ *
+ */
+final class TimingWheel {
+
+    /**
+     * The duration of a tick in nanoseconds.
+     */
+    private final long tickNanos;
+
+    /**
+     * The time of the tick 0 in nanoseconds.
+     */
+    private final long startNanos;
+
+    /**
+     * The first timeouts of the slots (guarded by <code>this</code>).
+     */
+    private final Timeout[] slots;
+
+    /**
+     * The mask of a slot index.
+     */
+    private final int mask;
+
+    /**
+     * The next tick to be processed (guarded by <code>this</code>).
+     */
+    private long currentTick;
+
+    /**
+     * The number of the pending timeouts (guarded by <code>this</code>).
+     */
+    private int size;
+
+    /**
+     * Creates the wheel.
+     *
+     * @param tickNanos
+     *            the duration of a tick in nanoseconds
+     * @param ticksPerWheel
+     *            the number of slots of the wheel (rounded up to a power of
+     *            two)
+     * @param nowNanos
+     *            the current time in nanoseconds (as per
+     *            {@link System#nanoTime()})
+     */
+    TimingWheel(final long tickNanos, final int ticksPerWheel,
+            final long nowNanos) {
+        if (tickNanos <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tick (" + tickNanos
+                    + ") and ticks per wheel (" + ticksPerWheel
+                    + ") need to be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+        int length = Integer.highestOneBit(ticksPerWheel);
+        if (length < ticksPerWheel) {
+            length <<= 1;
+        }
+        this.slots = new Timeout[length];
+        this.mask = length - 1;
+    }
+
+    /**
+     * @return the duration of a tick in nanoseconds
+     */
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * @return the number of the pending timeouts
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Schedules a new timeout.
+     *
+     * @param task
+     *            the task to run once the timeout expires
+     * @param deadlineNanos
+     *            the time to expire at in nanoseconds
+     * @return the timeout scheduled
+     */
+    synchronized Timeout schedule(final Runnable task,
+            final long deadlineNanos) {
+        Timeout timeout = new Timeout(task);
+        add(timeout, deadlineNanos);
+        return timeout;
+    }
+
+    /**
+     * Moves the deadline of the timeout given, scheduling it again if it has
+     * been cancelled (but not if it has expired already).
+     *
+     * @param timeout
+     *            the timeout to reschedule
+     * @param deadlineNanos
+     *            the new time to expire at in nanoseconds
+     * @return <code>false</code> if the timeout has expired already
+     */
+    synchronized boolean reschedule(final Timeout timeout,
+            final long deadlineNanos) {
+        if (timeout.expired) {
+            return false;
+        }
+        remove(timeout);
+        add(timeout, deadlineNanos);
+        return true;
+    }
+
+    /**
+     * Cancels the timeout given (if pending).
+     *
+     * @param timeout
+     *            the timeout to cancel
+     */
+    synchronized void cancel(final Timeout timeout) {
+        remove(timeout);
+    }
+
+    /**
+     * Advances the wheel to the time given and runs the tasks of the timeouts
+     * expired (outside of the lock of the wheel).
+     *
+     * @param nowNanos
+     *            the current time in nanoseconds
+     */
+    void expire(final long nowNanos) {
+        for (Runnable task : advance(nowNanos)) {
+            task.run();
+        }
+    }
+
+    /**
+     * Processes all the ticks due up to the time given.
+     *
+     * @param nowNanos
+     *            the current time in nanoseconds
+     * @return the tasks of the timeouts expired
+     */
+    private synchronized List<Runnable> advance(final long nowNanos) {
+        long lastTick = (nowNanos - startNanos) / tickNanos;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, lastTick + 1);
+            return new ArrayList<>(0);
+        }
+
+        List<Runnable> expired = new ArrayList<>();
+        for (; currentTick <= lastTick && size > 0; currentTick++) {
+            Timeout timeout = slots[(int) (currentTick & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds == 0) {
+                    remove(timeout);
+                    timeout.expired = true;
+                    expired.add(timeout.task);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+        currentTick = Math.max(currentTick, lastTick + 1);
+        return expired;
+    }
+
+    /**
+     * Links the timeout given into the slot of its deadline.
+     *
+     * @param timeout
+     *            the timeout (not linked)
+     * @param deadlineNanos
+     *            the time to expire at in nanoseconds
+     */
+    private void add(final Timeout timeout, final long deadlineNanos) {
+        long tick = Math.max(currentTick,
+                (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        timeout.rounds = (tick - currentTick) / slots.length;
+        int index = (int) (tick & mask);
+        timeout.slot = index;
+        timeout.prev = null;
+        timeout.next = slots[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[index] = timeout;
+        size++;
+    }
+
+    /**
+     * Unlinks the timeout given from its slot (if linked).
+     *
+     * @param timeout
+     *            the timeout
+     */
+    private void remove(final Timeout timeout) {
+        if (timeout.slot < 0) {
+            return;
+        }
+        if (timeout.prev == null) {
+            slots[timeout.slot] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        size--;
+    }
+
+    /**
+     * A timeout of a {@link TimingWheel} (its links are guarded by the
+     * wheel).
+     *
+     * @author krystiannowak
+     *
+     */
+    static final class Timeout {
+
+        /**
+         * The task to run once expired.
+         */
+        private final Runnable task;
+
+        /**
+         * The index of the slot linked into, -1 if not linked.
+         */
+        private int slot = -1;
+
+        /**
+         * The number of full rotations of the wheel still to wait.
+         */
+        private long rounds;
+
+        /**
+         * The previous timeout of the slot.
+         */
+        private Timeout prev;
+
+        /**
+         * The next timeout of the slot.
+         */
+        private Timeout next;
+
+        /**
+         * Whether the timeout has expired.
+         */
+        private volatile boolean expired;
+
+        /**
+         * Creates the timeout.
+         *
+         * @param task
+         *            the task to run once expired
+         */
+        private Timeout(final Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return has the timeout expired (and its task been run or about to
+         *         be run)
+         */
+        boolean isExpired() {
+            return expired;
+        }
+    }
+
+}
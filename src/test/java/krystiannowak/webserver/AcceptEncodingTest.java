@@ -0,0 +1,48 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AcceptEncodingTest {
+
+    @Test
+    public void missingHeaderAcceptsIdentityOnly() {
+        AcceptEncoding sut = AcceptEncoding.parse(null);
+
+        assertTrue(sut.accepts(AcceptEncoding.IDENTITY));
+        assertFalse(sut.accepts(AcceptEncoding.GZIP));
+    }
+
+    @Test
+    public void qualityValuesAreParsed() {
+        AcceptEncoding sut = AcceptEncoding
+                .parse("GZIP;q=0.5, deflate ; q=0, br");
+
+        assertEquals(0.5f, sut.getQuality(AcceptEncoding.GZIP), 0);
+        assertEquals(0f, sut.getQuality("deflate"), 0);
+        assertEquals(1f, sut.getQuality("br"), 0);
+        assertEquals(1f, sut.getQuality(AcceptEncoding.IDENTITY), 0);
+        assertFalse(sut.accepts("compress"));
+    }
+
+    @Test
+    public void wildcardMatchesCodingsNotListed() {
+        AcceptEncoding sut = AcceptEncoding.parse("*;q=0.3, deflate;q=0");
+
+        assertEquals(0.3f, sut.getQuality(AcceptEncoding.GZIP), 0);
+        assertFalse(sut.accepts("deflate"));
+
+        assertFalse("identity can be excluded with the wildcard",
+                AcceptEncoding.parse("*;q=0").accepts(AcceptEncoding.IDENTITY));
+    }
+
+    @Test
+    public void legacyGzipNameAndMalformedQualityAreHandled() {
+        assertTrue(AcceptEncoding.parse("x-gzip").accepts(AcceptEncoding.GZIP));
+        assertFalse(AcceptEncoding.parse("gzip;q=high")
+                .accepts(AcceptEncoding.GZIP));
+    }
+}
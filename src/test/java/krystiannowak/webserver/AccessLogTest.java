@@ -0,0 +1,83 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreWrittenOnceClosed() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("access.log");
+        AccessLog sut = new AccessLog(file, 16, 1024 * 1024, 1);
+        sut.start();
+
+        sut.log("GET", "/index.html", 200, 1234,
+                TimeUnit.MICROSECONDS.toNanos(56));
+        sut.log("HEAD", "/missing", 404, -1, 0);
+        sut.close();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0)
+                .matches("\\S+Z GET /index\\.html 200 1234 56"));
+        assertTrue(lines.get(1),
+                lines.get(1).matches("\\S+Z HEAD /missing 404 - 0"));
+        assertEquals(0, sut.getPending());
+        assertEquals(0, sut.getDropped());
+    }
+
+    @Test
+    public void recordsOverCapacityAreDropped() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("access.log");
+        AccessLog sut = new AccessLog(file, 4, 1024 * 1024, 1);
+
+        for (int i = 0; i < 10; i++) {
+            sut.log("GET", "/" + i, 200, 0, 0);
+        }
+        assertEquals(4, sut.getPending());
+        assertEquals(6, sut.getDropped());
+
+        assertEquals(4, sut.drain());
+        sut.log("GET", "/again", 200, 0, 0);
+        sut.close();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(4), lines.get(4).contains(" /again "));
+    }
+
+    @Test
+    public void fileIsRotatedOnceTooLarge() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("access.log");
+        AccessLog sut = new AccessLog(file, 16, 1, 2);
+
+        for (int i = 0; i < 4; i++) {
+            sut.log("GET", "/" + i, 200, 0, 0);
+            sut.drain();
+        }
+        sut.close();
+
+        assertTrue(Files.readAllLines(file).get(0).contains(" /3 "));
+        assertTrue(Files.readAllLines(file.resolveSibling("access.log.1"))
+                .get(0).contains(" /2 "));
+        assertTrue(Files.readAllLines(file.resolveSibling("access.log.2"))
+                .get(0).contains(" /1 "));
+        assertTrue("oldest file should be dropped",
+                !Files.exists(file.resolveSibling("access.log.3")));
+    }
+
+}
@@ -0,0 +1,185 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AdaptiveThreadPoolTest {
+
+    private AdaptiveThreadPool sut;
+
+    @BeforeClass
+    public static void warmUp() {
+        // compiles the busy loop, so that the CPU bound tasks measured do
+        // not share the core with the JIT compiler
+        spin(300);
+    }
+
+    @After
+    public void tearDown() {
+        sut.shutdownNow();
+    }
+
+    @Test
+    public void poolGrowsForBlockingTasks() throws Exception {
+        sut = new AdaptiveThreadPool(1, 8, 1);
+        run(4, () -> sleep(50));
+
+        sut.resize();
+        assertEquals(8, sut.getCorePoolSize());
+        assertEquals(1, sut.getResizes());
+        assertTrue("blocking ratio should be high",
+                sut.getBlockingRatio() > 7);
+    }
+
+    @Test
+    public void poolStaysAtCoresForCpuBoundTasks() throws Exception {
+        sut = new AdaptiveThreadPool(1, 8, 2);
+        run(4, () -> spin(100));
+
+        sut.resize();
+        assertTrue("pool should not oversubscribe cores",
+                sut.getCorePoolSize() <= 3);
+    }
+
+    @Test
+    public void poolShrinksBackToMinimum() throws Exception {
+        sut = new AdaptiveThreadPool(1, 8, 1);
+        run(2, () -> sleep(50));
+        sut.resize();
+        run(1, () -> spin(100));
+
+        sut.resize();
+        assertTrue("pool should shrink", sut.getCorePoolSize() <= 2);
+        assertEquals(2, sut.getResizes());
+    }
+
+    @Test
+    public void poolDoesNotGrowForTasksIdleOnInput() throws Exception {
+        sut = new AdaptiveThreadPool(1, 8, 1);
+        run(4, () -> {
+            for (int i = 0; i < 5; i++) {
+                AdaptiveThreadPool.beginIdle();
+                sleep(20);
+                AdaptiveThreadPool.endIdle();
+                spin(5);
+            }
+        });
+
+        sut.resize();
+        assertTrue("idle wait should not drive the pool to its maximum",
+                sut.getCorePoolSize() <= 2);
+    }
+
+    @Test
+    public void idleReadsOfConnectionAreLeftOut() throws Exception {
+        // a fixed size, so that the pool is not resized in the meantime
+        sut = new AdaptiveThreadPool(2, 2, 1);
+        PipedOutputStream client = new PipedOutputStream();
+        InputStream in = new IdleInputStream(new PipedInputStream(client));
+        CountDownLatch read = new CountDownLatch(1);
+        sut.execute(() -> {
+            try {
+                in.read(new byte[16]);
+                spin(10);
+                read.countDown();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(500);
+        client.write(1);
+        client.flush();
+        assertTrue(read.await(10, TimeUnit.SECONDS));
+        Thread.sleep(20);
+
+        sut.resize();
+        // the read counted would make it about 50, the CPU taken by other
+        // threads during the short spin only a fraction of that
+        assertTrue("idle read should not count as blocking: "
+                + sut.getBlockingRatio(), sut.getBlockingRatio() < 25);
+    }
+
+    @Test
+    public void poolGrowsForMoreIdleConnectionsThanCores() throws Exception {
+        sut = new AdaptiveThreadPool(1, 8, 1);
+        PipedOutputStream client = new PipedOutputStream();
+        InputStream in = new IdleInputStream(new PipedInputStream(client));
+        int connections = 5;
+        CountDownLatch started = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            sut.execute(() -> {
+                started.countDown();
+                try {
+                    in.read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        try {
+            assertTrue("every connection should get a thread right away",
+                    started.await(1, TimeUnit.SECONDS));
+
+            sut.resize();
+            assertTrue("pool should not shrink below the connections",
+                    sut.getCorePoolSize() >= connections);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void poolIsNotResizedWithoutCompletedTasks() {
+        sut = new AdaptiveThreadPool(2, 8, 1);
+        sut.resize();
+
+        assertEquals(2, sut.getCorePoolSize());
+        assertEquals(0, sut.getResizes());
+        assertEquals(0, sut.getQueueDepth());
+    }
+
+    // one task after another, as queued tasks would make the pool grow
+    private void run(int tasks, Runnable task) throws InterruptedException {
+        for (int i = 0; i < tasks; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            sut.execute(() -> {
+                task.run();
+                done.countDown();
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            while (sut.getActiveCount() > 0) {
+                Thread.sleep(1);
+            }
+        }
+        Thread.sleep(20);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void spin(long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long sum = 0;
+        while (System.nanoTime() < end) {
+            sum += end;
+        }
+        assertTrue(sum != 1);
+    }
+}
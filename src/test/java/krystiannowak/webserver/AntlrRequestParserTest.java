@@ -1,11 +1,14 @@
 package krystiannowak.webserver;
 
 import static krystiannowak.webserver.Observables.get;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+
 import org.junit.Test;
 
 public class AntlrRequestParserTest {
@@ -86,6 +89,50 @@ public class AntlrRequestParserTest {
 
     }
 
+    @Test
+    public void conditionalHeadersAreParsed() throws Exception {
+        Request request = get(sut.parse(new ByteArrayInputStream(serialize(
+                "GET /b/bfile1 HTTP/1.1\r\n"
+                + "If-None-Match: \"16b-2a\", W/\"17c-2b\"\r\n"
+                + "If-Modified-Since: Sun, 24 Jan 2016 00:02:08 GMT\r\n"
+                + "\r\n"))));
+
+        assertEquals("If-None-Match header should match",
+                "\"16b-2a\", W/\"17c-2b\"", request.getIfNoneMatch());
+        assertEquals("If-Modified-Since header should match",
+                "Sun, 24 Jan 2016 00:02:08 GMT", request.getIfModifiedSince());
+    }
+
+    @Test
+    public void rangeHeadersAreParsed() throws Exception {
+        Request request = get(sut.parse(new ByteArrayInputStream(serialize(
+                "GET /b/bfile1 HTTP/1.1\r\n"
+                + "Range: bytes=0-99,-100\r\n"
+                + "If-Range: \"16b-2a\"\r\n"
+                + "\r\n"))));
+
+        assertEquals("Range header should match", "bytes=0-99,-100",
+                request.getRange());
+        assertEquals("If-Range header should match", "\"16b-2a\"",
+                request.getIfRange());
+    }
+
+    @Test
+    public void extensionHeadersAreKept() throws Exception {
+        Request request = get(sut.parse(new ByteArrayInputStream(serialize(
+                "GET /a/aa/ HTTP/1.1\r\n"
+                + "X-Forwarded-For: 10.0.0.1, 10.0.0.2\r\n"
+                + "host: localhost:8080\r\n"
+                + "\r\n"))));
+
+        assertEquals("Request URI should match", "/a/aa/",
+                request.getRequestUri());
+        assertEquals("extension header should be kept", "10.0.0.1, 10.0.0.2",
+                request.getHeader("x-forwarded-for"));
+        assertEquals("Host header should match (case insensitive)",
+                "localhost:8080", request.getHost());
+    }
+
     private Request parseRequestFromResource(String resourceName)
             throws Exception {
         Request request = get(
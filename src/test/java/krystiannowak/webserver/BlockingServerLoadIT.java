@@ -0,0 +1,268 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+public class BlockingServerLoadIT {
+
+    private static final int BASE_PORT = Server.DEFAULT_PORT_NUMBER + 10;
+
+    private static final int WORKERS = 4;
+
+    private static final int CLIENTS = 16;
+
+    private static final int REQUESTS_PER_CLIENT = 5;
+
+    private static final long CLIENT_PAUSE_MILLIS = 20;
+
+    private static final String PATH = "/c/ca/caa/caaa/caaaa/caaaafile1";
+
+    // more than the socket buffers of both ends can hold
+    private static final long LARGE_FILE_SIZE = 64 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RunningServer server;
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void stalledConnectionsDoNotHoldUpOthers() throws Exception {
+        server = new RunningServer(BASE_PORT, WORKERS);
+        List<Socket> stalled = new ArrayList<>();
+        try {
+            for (int i = 0; i < WORKERS - 1; i++) {
+                Socket socket = new Socket("localhost", BASE_PORT);
+                socket.getOutputStream().write(serialize("GET " + PATH));
+                socket.getOutputStream().flush();
+                stalled.add(socket);
+            }
+
+            try (Socket socket = new Socket("localhost", BASE_PORT)) {
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(serialize("GET " + PATH
+                        + " HTTP/1.1\r\nConnection: close\r\n\r\n"));
+                String response = deserialize(
+                        ByteStreams.toByteArray(socket.getInputStream()));
+                assertTrue("connection should be served on a free worker",
+                        response.contains("this is just a dummy file"));
+            }
+        } finally {
+            for (Socket socket : stalled) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void allRequestsOfConcurrentClientsAreServed() throws Exception {
+        server = new RunningServer(BASE_PORT + 1, WORKERS);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                tasks.add(() -> fetchAll(BASE_PORT + 1));
+            }
+            int served = 0;
+            for (Future<Integer> result : clients.invokeAll(tasks)) {
+                served += result.get();
+            }
+            assertEquals(CLIENTS * REQUESTS_PER_CLIENT, served);
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void requestOverLimitGetsServiceUnavailable() throws Exception {
+        try (RandomAccessFile large = new RandomAccessFile(
+                folder.newFile("large.bin"), "rw")) {
+            large.setLength(LARGE_FILE_SIZE);
+        }
+        ServerConfiguration configuration = configuration(BASE_PORT + 2);
+        configuration.setConcurrencyLimit(1);
+        configuration.setMaxConcurrencyLimit(1);
+        configuration.setDocumentRoot(folder.getRoot());
+        server = new RunningServer(configuration,
+                Executors.newFixedThreadPool(WORKERS));
+        try (Socket stalled = new Socket("localhost", BASE_PORT + 2)) {
+            stalled.getOutputStream()
+                    .write(serialize("GET /large.bin HTTP/1.1\r\n\r\n"));
+            stalled.getOutputStream().flush();
+            server.awaitInFlight(1);
+
+            try (Socket socket = new Socket("localhost", BASE_PORT + 2)) {
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(serialize("GET " + PATH
+                        + " HTTP/1.1\r\nUser-Agent: "
+                        + Strings.repeat("x", 4096) + "\r\n\r\n"));
+                String response = deserialize(
+                        ByteStreams.toByteArray(socket.getInputStream()));
+                assertTrue(response, response.startsWith(
+                        "HTTP/1.1 503 Service Unavailable\r\n"));
+                assertTrue(response.contains("Retry-After: 1\r\n"));
+            }
+        }
+    }
+
+    @Test
+    public void connectionWithNoWorkerFreeGetsServiceUnavailable()
+            throws Exception {
+        server = new RunningServer(configuration(BASE_PORT + 5),
+                new AdaptiveThreadPool(1, 1, 1));
+        // the first connection takes up the only worker, the second one the
+        // only place in its queue
+        InetSocketAddress address = new InetSocketAddress("localhost",
+                BASE_PORT + 5);
+        try (Socket idle = new Socket();
+                Socket queued = new Socket();
+                Socket socket = new Socket()) {
+            idle.connect(address);
+            queued.connect(address);
+            socket.connect(address);
+            socket.setSoTimeout(10_000);
+            String response = deserialize(
+                    ByteStreams.toByteArray(socket.getInputStream()));
+            assertTrue(response, response.startsWith(
+                    "HTTP/1.1 503 Service Unavailable\r\n"));
+        }
+    }
+
+    @Test
+    public void acceptedConnectionsAreWrittenToTheirChannels()
+            throws Exception {
+        try (ServerSocket serverSocket = Server.bind(BASE_PORT + 3);
+                Socket client = new Socket()) {
+            client.connect(new InetSocketAddress("localhost", BASE_PORT + 3));
+            HttpConnection connection = new HttpConnection(
+                    serverSocket.accept());
+            assertTrue("responses should be written to the socket channel",
+                    connection.getOutputChannel() instanceof SocketChannel);
+            connection.close();
+        }
+    }
+
+    @Test
+    public void acceptedConnectionsDoNotDelaySmallWrites() throws Exception {
+        try (ServerSocket serverSocket = Server.bind(BASE_PORT + 4);
+                Socket client = new Socket()) {
+            client.connect(new InetSocketAddress("localhost", BASE_PORT + 4));
+            Socket socket = serverSocket.accept();
+            HttpConnection connection = new HttpConnection(socket);
+            assertTrue("Nagle's algorithm should be disabled",
+                    socket.getTcpNoDelay());
+            connection.close();
+        }
+    }
+
+    // a request sent in two parts, as by a client on a slow network
+    private static int fetchAll(int port) throws Exception {
+        int served = 0;
+        for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(10_000);
+                OutputStream out = socket.getOutputStream();
+                out.write(serialize("GET " + PATH + " "));
+                out.flush();
+                Thread.sleep(CLIENT_PAUSE_MILLIS);
+                out.write(serialize(
+                        "HTTP/1.1\r\nConnection: close\r\n\r\n"));
+                String response = deserialize(
+                        ByteStreams.toByteArray(socket.getInputStream()));
+                if (response.contains("this is just a dummy file")) {
+                    served++;
+                }
+            }
+        }
+        return served;
+    }
+
+    private static ServerConfiguration configuration(int port) {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.setPort(port);
+        configuration.setDocumentRoot(
+                configuration.getDocumentRoot().getAbsoluteFile());
+        return configuration;
+    }
+
+    /**
+     * The blocking engine accepting on a socket bound up front (so it is
+     * ready once created), stopped by closing the socket.
+     */
+    private static final class RunningServer {
+
+        private final ConnectionHandler handler;
+
+        private final ServerSocket serverSocket;
+
+        private final ExecutorService acceptor = Executors
+                .newSingleThreadExecutor();
+
+        private final ExecutorService workerPool;
+
+        private RunningServer(int port, int workers) throws IOException {
+            this(configuration(port), Executors.newFixedThreadPool(workers));
+        }
+
+        private RunningServer(ServerConfiguration configuration,
+                ExecutorService workerPool) throws IOException {
+            this.workerPool = workerPool;
+            handler = new ConnectionHandler(configuration,
+                    configuration.getParser().create());
+            serverSocket = Server.bind(configuration.getPort());
+            acceptor.submit(() -> Server.runBlocking(handler, workerPool,
+                    serverSocket));
+        }
+
+        // waits for the requests holding a permit of the limiter
+        private void awaitInFlight(int requests) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (handler.getLimiter().getInFlight() != requests) {
+                assertTrue("requests in flight should be " + requests,
+                        System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        private void close() throws IOException, InterruptedException {
+            serverSocket.close();
+            acceptor.shutdown();
+            workerPool.shutdown();
+            assertTrue("acceptor should stop",
+                    acceptor.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue("workers should stop",
+                    workerPool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
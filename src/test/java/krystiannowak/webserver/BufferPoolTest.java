@@ -0,0 +1,159 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    private static final long MEMORY = 1024 * 1024;
+
+    private BufferPool sut = new BufferPool(MEMORY, true);
+
+    @Test
+    public void buffersAreRoundedUpToSizeClasses() {
+        assertEquals(BufferPool.MIN_SIZE, acquireAndRelease(1));
+        assertEquals(BufferPool.MIN_SIZE, acquireAndRelease(512));
+        assertEquals(1024, acquireAndRelease(513));
+        assertEquals(BufferPool.MAX_SIZE, acquireAndRelease(40000));
+        assertEquals("buffer over the largest class should fit exactly",
+                100000, acquireAndRelease(100000));
+        assertEquals(0, sut.getInUse());
+    }
+
+    @Test
+    public void releasedBufferIsReusedCleared() {
+        ByteBuffer first = sut.acquire(2000);
+        assertTrue(first.isDirect());
+        first.putInt(42).flip();
+        sut.release(first);
+
+        ByteBuffer second = sut.acquire(1500);
+
+        assertSame("released buffer should be reused", first, second);
+        assertEquals(0, second.position());
+        assertEquals(second.capacity(), second.limit());
+        assertEquals(1, sut.getAllocated());
+    }
+
+    @Test
+    public void buffersOverThreadCacheAreSharedBetweenThreads()
+            throws Exception {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            buffers.add(sut.acquire(BufferPool.MAX_SIZE));
+        }
+        buffers.forEach(sut::release);
+        assertEquals("thread cached buffer should be counted too",
+                4 * BufferPool.MAX_SIZE, sut.getPooledBytes());
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            ByteBuffer taken = other.submit(
+                    () -> sut.acquire(BufferPool.MAX_SIZE)).get();
+            assertTrue(buffers.contains(taken));
+            assertEquals(3 * BufferPool.MAX_SIZE, sut.getPooledBytes());
+            sut.release(taken);
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void memoryKeptIsCapped() {
+        BufferPool capped = new BufferPool(BufferPool.MAX_SIZE, false);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            buffers.add(capped.acquire(BufferPool.MAX_SIZE));
+        }
+        buffers.forEach(capped::release);
+
+        assertEquals(BufferPool.MAX_SIZE, capped.getPooledBytes());
+        assertEquals(0, capped.getInUse());
+    }
+
+    @Test
+    public void threadCachesAreCappedToo() throws Exception {
+        BufferPool capped = new BufferPool(4 * BufferPool.MAX_SIZE, false);
+        ExecutorService workers = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> releases = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                releases.add(workers.submit(() -> capped
+                        .release(capped.acquire(BufferPool.MAX_SIZE))));
+            }
+            for (Future<?> release : releases) {
+                release.get();
+            }
+        } finally {
+            workers.shutdown();
+        }
+
+        assertEquals(4 * BufferPool.MAX_SIZE, capped.getPooledBytes());
+    }
+
+    @Test
+    public void cachesOfTerminatedThreadsAreReclaimed() throws Exception {
+        BufferPool capped = new BufferPool(BufferPool.MAX_SIZE, false);
+        Thread other = new Thread(() -> capped
+                .release(capped.acquire(BufferPool.MAX_SIZE)));
+        other.start();
+        other.join();
+        assertEquals(BufferPool.MAX_SIZE, capped.getPooledBytes());
+
+        ByteBuffer buffer = capped.acquire(BufferPool.MAX_SIZE);
+        capped.release(buffer);
+
+        assertSame("terminated thread cache should make room", buffer,
+                capped.acquire(BufferPool.MAX_SIZE));
+    }
+
+    @Test
+    public void leaksAreReportedWithAcquisitionTrace() {
+        ByteBuffer leaked = sut.acquire(100);
+        sut.release(sut.acquire(100));
+
+        assertEquals(1, sut.getInUse());
+        assertEquals(1, sut.getLeaks().size());
+        assertTrue(sut.getLeaks().iterator().next().getStackTrace()[1]
+                .getMethodName().equals("leaksAreReportedWithAcquisitionTrace"));
+
+        sut.release(leaked);
+        assertTrue(sut.getLeaks().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseIsDetected() {
+        ByteBuffer buffer = sut.acquire(100);
+        sut.release(buffer);
+        sut.release(buffer);
+    }
+
+    @Test
+    public void poolOfNoMemoryAllocatesHeapBuffers() {
+        BufferPool unpooled = new BufferPool(0, false);
+        ByteBuffer first = unpooled.acquire(100);
+        assertFalse(first.isDirect());
+        unpooled.release(first);
+
+        assertNotSame(first, unpooled.acquire(100));
+        assertEquals(2, unpooled.getAllocated());
+    }
+
+    private int acquireAndRelease(int size) {
+        ByteBuffer buffer = sut.acquire(size);
+        sut.release(buffer);
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,65 @@
+package krystiannowak.webserver;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void rangesAreResolvedAgainstLength() {
+        assertEquals(asList(new ByteRange(0, 99), new ByteRange(200, 299),
+                new ByteRange(900, 999)),
+                ByteRange.parse("bytes=0-99, 200-299, -100", 1000));
+        assertEquals(asList(new ByteRange(0, 999)),
+                ByteRange.parse("bytes=-5000", 1000));
+    }
+
+    @Test
+    public void overlappingAndAdjacentRangesAreCoalesced() {
+        assertEquals(asList(new ByteRange(0, 199), new ByteRange(300, 399)),
+                ByteRange.parse("bytes=300-399,100-199,0-49,50-120", 1000));
+    }
+
+    @Test
+    public void rangesLongerThanRepresentationAreIgnored() {
+        assertNull(ByteRange.parse("bytes=0-,0-,0-", 1000));
+        assertNull(ByteRange.parse("bytes=0-599,400-999", 1000));
+    }
+
+    @Test
+    public void lastPositionIsLimitedToLength() {
+        assertEquals(asList(new ByteRange(500, 999)),
+                ByteRange.parse("bytes=500-5000", 1000));
+    }
+
+    @Test
+    public void unsatisfiableRangesAreDropped() {
+        assertEquals(asList(new ByteRange(0, 0)),
+                ByteRange.parse("bytes=1000-1100,0-0,-0", 1000));
+        assertTrue("no range should be satisfiable",
+                ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue("no range of an empty file should be satisfiable",
+                ByteRange.parse("bytes=0-,-10", 0).isEmpty());
+    }
+
+    @Test
+    public void malformedRangesAreIgnored() {
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=5", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=--1", 1000));
+        assertNull(ByteRange.parse("bytes=+1-2", 1000));
+    }
+
+    @Test
+    public void contentRangeIsFormatted() {
+        assertEquals("bytes 10-19/1000",
+                new ByteRange(10, 19).toContentRange(1000));
+    }
+}
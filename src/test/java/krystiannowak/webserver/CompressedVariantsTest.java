@@ -0,0 +1,92 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+public class CompressedVariantsTest {
+
+    private static final byte[] TEXT = Strings.repeat("compressible ", 200)
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final CompressedVariants sut = new CompressedVariants(64 * 1024,
+            16 * 1024);
+
+    private final ResourceMetadata version1 = new ResourceMetadata("\"v1\"",
+            0);
+
+    @Test
+    public void codingIsSelectedByQuality() {
+        assertEquals("gzip", sut.selectCoding(AcceptEncoding.parse("gzip")));
+        assertEquals("deflate", sut.selectCoding(
+                AcceptEncoding.parse("gzip;q=0.5, deflate")));
+        assertEquals("gzip", sut.selectCoding(AcceptEncoding.parse("*")));
+        assertNull(sut.selectCoding(AcceptEncoding.parse("br")));
+        assertNull(new CompressedVariants(0, 0)
+                .selectCoding(AcceptEncoding.parse("gzip")));
+    }
+
+    @Test
+    public void variantsAreCompressedOncePerVersion() throws IOException {
+        byte[] gzip = sut.get("/text", version1, "gzip", TEXT);
+        byte[] deflate = sut.get("/text", version1, "deflate", TEXT);
+
+        assertArrayEquals(TEXT, decompress(new GZIPInputStream(
+                new ByteArrayInputStream(gzip))));
+        assertArrayEquals(TEXT, decompress(new InflaterInputStream(
+                new ByteArrayInputStream(deflate))));
+        assertSame("variant should be cached", gzip,
+                sut.get("/text", version1, "gzip", TEXT));
+        assertFalse("new version should be compressed again",
+                gzip == sut.get("/text", new ResourceMetadata("\"v2\"", 0),
+                        "gzip", TEXT));
+    }
+
+    @Test
+    public void incompressibleContentIsNotCompressed() {
+        assertNull(sut.get("/tiny", version1, "gzip", new byte[] {1}));
+        assertNull(sut.get("/large", version1, "gzip",
+                new byte[32 * 1024]));
+    }
+
+    @Test
+    public void mediaTypesAreClassified() {
+        assertTrue(CompressedVariants
+                .isCompressible("text/html; charset=utf-8"));
+        assertTrue(CompressedVariants
+                .isCompressible("application/javascript"));
+        assertTrue(CompressedVariants.isCompressible("image/svg+xml"));
+        assertFalse(CompressedVariants.isCompressible("image/jpeg"));
+        assertFalse(CompressedVariants.isCompressible("image/gif"));
+    }
+
+    @Test
+    public void leastRecentlyUsedVariantsAreEvicted() {
+        for (int i = 0; i < 1000; i++) {
+            sut.get("/text" + i, version1, "gzip", TEXT);
+        }
+        assertTrue("weight should be capped", sut.weight() <= 64 * 1024);
+        assertTrue("some variants should be kept", sut.size() > 0);
+    }
+
+    private static byte[] decompress(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+}
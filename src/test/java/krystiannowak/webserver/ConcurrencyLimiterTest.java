@@ -0,0 +1,72 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MILLISECOND = 1_000_000L;
+
+    @Test
+    public void workOverLimitIsShed() {
+        ConcurrencyLimiter sut = new ConcurrencyLimiter(2, 10);
+
+        assertTrue(sut.tryAcquire());
+        assertTrue(sut.tryAcquire());
+        assertFalse("work over the limit should be shed", sut.tryAcquire());
+
+        sut.release();
+        assertTrue(sut.tryAcquire());
+        assertEquals(2, sut.getInFlight());
+    }
+
+    @Test
+    public void limitGrowsWhileLatencyIsSteadyAndLimitIsUsed() {
+        ConcurrencyLimiter sut = new ConcurrencyLimiter(8, 100);
+        while (sut.tryAcquire()) {
+            continue;
+        }
+
+        for (int i = 0; i < 20; i++) {
+            sut.onSample(MILLISECOND);
+        }
+        assertTrue("limit should grow", sut.getLimit() > 8);
+    }
+
+    @Test
+    public void limitDoesNotGrowWhenMostlyUnused() {
+        ConcurrencyLimiter sut = new ConcurrencyLimiter(8, 100);
+
+        for (int i = 0; i < 20; i++) {
+            sut.onSample(MILLISECOND);
+        }
+        assertEquals(8, sut.getLimit());
+    }
+
+    @Test
+    public void limitShrinksWhenLatencyRises() {
+        ConcurrencyLimiter sut = new ConcurrencyLimiter(64, 100);
+        for (int i = 0; i < 100; i++) {
+            sut.onSample(MILLISECOND);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            sut.onSample(10 * MILLISECOND);
+        }
+        assertTrue("limit should shrink", sut.getLimit() < 32);
+        assertTrue("limit should stay positive", sut.getLimit() >= 4);
+    }
+
+    @Test
+    public void disabledLimiterAdmitsAllWork() {
+        ConcurrencyLimiter sut = new ConcurrencyLimiter(0, 10);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sut.tryAcquire());
+            sut.onSample(i * MILLISECOND);
+        }
+        assertEquals(Integer.MAX_VALUE, sut.getLimit());
+    }
+}
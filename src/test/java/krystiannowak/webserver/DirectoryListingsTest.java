@@ -0,0 +1,113 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryListingsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DirectoryListings sut;
+
+    @Before
+    public void setUp() throws IOException {
+        folder.newFolder("dir");
+        folder.newFile("dir/file1");
+        sut = new DirectoryListings(folder.getRoot(), 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sut.close();
+    }
+
+    @Test
+    public void listingIsRenderedOnceAndCached() {
+        byte[] first = sut.get("/dir", Optional.empty()).getHtml();
+        byte[] second = sut.get("/dir", Optional.empty()).getHtml();
+
+        assertEquals("listing should match the generated one",
+                new IndexHtmlGenerator(folder.getRoot(), "/dir",
+                        Optional.empty()).getHtml(),
+                deserialize(first));
+        assertSame("listing should be served from the cache", first, second);
+    }
+
+    @Test
+    public void listingIsInvalidatedWhenDirectoryChanges()
+            throws IOException, InterruptedException {
+        sut.get("/dir", Optional.empty());
+        folder.newFile("dir/file2");
+
+        String listing = "";
+        for (int i = 0; i < 100 && !listing.contains("file2"); i++) {
+            Thread.sleep(50);
+            listing = deserialize(
+                    sut.get("/dir", Optional.empty()).getHtml());
+        }
+        assertTrue("new file should be listed", listing.contains("file2"));
+    }
+
+    @Test
+    public void evictedDirectoryIsNoLongerWatched() throws IOException {
+        folder.newFolder("other");
+        try (DirectoryListings single = new DirectoryListings(
+                folder.getRoot(), 1)) {
+            DirectoryListings.Listing evicted = single.get("/dir", Optional.empty());
+            assertTrue(evicted.isWatched());
+
+            DirectoryListings.Listing cached = single.get("/other", Optional.empty());
+
+            assertFalse("evicted directory should be unwatched",
+                    evicted.isWatched());
+            assertTrue(cached.isWatched());
+        }
+    }
+
+    @Test
+    public void directoryListedForAnotherHostIsWatchedStill()
+            throws IOException {
+        try (DirectoryListings single = new DirectoryListings(
+                folder.getRoot(), 1)) {
+            DirectoryListings.Listing evicted = single.get("/dir", Optional.of("a"));
+            single.get("/dir", Optional.of("b"));
+
+            assertEquals(1, single.size());
+            assertTrue("directory still cached should be watched",
+                    evicted.isWatched());
+        }
+    }
+
+    @Test
+    public void largeDirectoryIsMarkedToBeStreamed() throws IOException {
+        folder.newFile("dir/file2");
+        try (DirectoryListings small = new DirectoryListings(
+                folder.getRoot(), 16, 1)) {
+            assertTrue("listing should be streamed",
+                    small.get("/dir", Optional.empty()).isStreamed());
+        }
+    }
+
+    @Test
+    public void disabledCacheRendersEachTime() throws IOException {
+        try (DirectoryListings disabled = new DirectoryListings(
+                folder.getRoot(), 0)) {
+            disabled.get("/dir", Optional.empty());
+            assertEquals("nothing should be cached", 0, disabled.size());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+public class FileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachedResponseIsWrittenAsFileResponse() throws IOException {
+        File file = createFile("style.css", "body { color: red; }");
+        FileCache sut = new FileCache(1024 * 1024, 1024,
+                TimeUnit.HOURS.toNanos(1));
+
+        Response loaded = sut.load(file);
+        Response cached = sut.get(file);
+        assertNotNull("small file should be cached", loaded);
+        assertNotNull("cached file should be found", cached);
+
+        cached.getHeaders().put("Connection", "Keep-Alive");
+        ResourceMetadata metadata = new MetadataIndex().load(file);
+        FileResponse expected = new FileResponse(file);
+        metadata.applyTo(expected);
+        expected.putHeader("Connection", "Keep-Alive");
+        FileResponse expectedLoaded = new FileResponse(file);
+        metadata.applyTo(expectedLoaded);
+
+        assertEquals("cached response should match the file response",
+                write(expected), write(cached));
+        assertEquals("loaded response should match the file response",
+                write(expectedLoaded), write(loaded));
+    }
+
+    @Test
+    public void changedFileIsNotServedFromCache() throws IOException {
+        File file = createFile("index.txt", "old");
+        FileCache sut = new FileCache(1024 * 1024, 1024, 0);
+
+        sut.load(file);
+        Files.write("new content", file, StandardCharsets.UTF_8);
+
+        assertNull("changed file should not be served", sut.get(file));
+        assertTrue("changed file should be reloaded",
+                write(sut.load(file)).endsWith("new content"));
+    }
+
+    @Test
+    public void largeFileIsNotCached() throws IOException {
+        File file = createFile("large.txt", Strings.repeat("x", 2048));
+        FileCache sut = new FileCache(1024 * 1024, 1024);
+
+        assertNull("large file should not be cached", sut.load(file));
+        assertNull("large file should not be found", sut.get(file));
+    }
+
+    @Test
+    public void scanDoesNotEvictHotFile() throws IOException {
+        String content = Strings.repeat("x", 900);
+        File hot = createFile("hot.txt", content);
+        FileCache sut = new FileCache(10 * 1024, 1024,
+                TimeUnit.HOURS.toNanos(1));
+
+        sut.load(hot);
+        for (int i = 0; i < 10; i++) {
+            sut.get(hot);
+        }
+        for (int i = 0; i < 100; i++) {
+            sut.load(createFile("cold" + i + ".txt", content));
+        }
+
+        assertNotNull("frequently used file should stay cached",
+                sut.get(hot));
+        assertTrue("cache should stay within its capacity",
+                sut.weight() <= 10 * 1024);
+    }
+
+    @Test
+    public void frequentCandidateEvictsSingleMainEntry() throws IOException {
+        File a = createFile("a.bin", Strings.repeat("a", 60 * 1024));
+        File b = createFile("b.bin", Strings.repeat("b", 60 * 1024));
+        FileCache sut = new FileCache(100_000, 100_000,
+                TimeUnit.HOURS.toNanos(1));
+
+        Response loadedA = sut.load(a);
+        assertNotNull(loadedA);
+        sut.load(b);
+        Response loadedB = sut.load(b);
+        assertNotNull(loadedB);
+
+        assertEquals(1, sut.size());
+        assertEquals(write(loadedB).length(), sut.weight());
+        assertNull("compared victim should be evicted", sut.get(a));
+        assertNotNull("frequent candidate should be admitted", sut.get(b));
+    }
+
+    @Test
+    public void onlyAdmittedResponsesAreCopiedToDirectBuffers()
+            throws IOException {
+        File a = createFile("a.bin", Strings.repeat("a", 60 * 1024));
+        File b = createFile("b.bin", Strings.repeat("b", 60 * 1024));
+        FileCache sut = new FileCache(100_000, 100_000,
+                TimeUnit.HOURS.toNanos(1));
+
+        sut.load(a);
+        CachedResponse admitted = (CachedResponse) sut.get(a);
+        CachedResponse refused = (CachedResponse) sut.load(b);
+
+        assertTrue("admitted response should be direct",
+                admitted.getPrefix().isDirect());
+        assertFalse("refused response should stay on the heap",
+                refused.getPrefix().isDirect());
+        assertNull("infrequent candidate should be refused", sut.get(b));
+        assertEquals(write(sut.load(b)), write(refused));
+    }
+
+    @Test
+    public void frequentCandidateEvictsSeveralVictims() throws IOException {
+        File a = createFile("a.bin", Strings.repeat("a", 30 * 1024));
+        File b = createFile("b.bin", Strings.repeat("b", 30 * 1024));
+        File c = createFile("c.bin", Strings.repeat("c", 30 * 1024));
+        File d = createFile("d.bin", Strings.repeat("d", 60 * 1024));
+        FileCache sut = new FileCache(100_000, 100_000,
+                TimeUnit.HOURS.toNanos(1));
+
+        sut.load(a);
+        sut.load(b);
+        Response loadedC = sut.load(c);
+        sut.load(d);
+        Response loadedD = sut.load(d);
+
+        assertEquals(2, sut.size());
+        assertEquals(write(loadedC).length() + write(loadedD).length(),
+                sut.weight());
+        assertNull("least recently used victim should be evicted", sut.get(a));
+        assertNull("next victim should be evicted", sut.get(b));
+        assertNotNull("entry not needed to make room should stay", sut.get(c));
+        assertNotNull("frequent candidate should be admitted", sut.get(d));
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(content, file, StandardCharsets.UTF_8);
+        return file.getAbsoluteFile();
+    }
+
+    private static String write(Response response) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ResponseWriter writer = new ResponseWriter(baos)) {
+            writer.write(response);
+        }
+        return deserialize(baos.toByteArray());
+    }
+}
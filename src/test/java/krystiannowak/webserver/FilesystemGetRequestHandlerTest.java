@@ -0,0 +1,358 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+
+public class FilesystemGetRequestHandlerTest {
+
+    private final File documentRoot = new File(Server.DEFAULT_DOCUMENT_ROOT)
+            .getAbsoluteFile();
+
+    private final FilesystemGetRequestHandler sut =
+            new FilesystemGetRequestHandler(documentRoot,
+                    new FileCache(1024 * 1024, 64 * 1024), new MappedFiles(0),
+                    new DirectoryListings(documentRoot, 16),
+                    new MetadataIndex(),
+                    new CompressedVariants(1024 * 1024, 64 * 1024));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fileResponseHasValidators() {
+        Response response = sut.handle(request("/b/bfile1"));
+
+        assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+        assertNotNull("ETag should be set",
+                response.getHeaders().get(HttpHeaders.ETAG));
+        assertNotNull("Last-Modified should be set",
+                response.getHeaders().get(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    public void matchingEntityTagIsNotModified() {
+        String entityTag = sut.handle(request("/b/bfile1")).getHeaders()
+                .get(HttpHeaders.ETAG);
+
+        Request conditional = request("/b/bfile1");
+        conditional.setIfNoneMatch("\"other\", " + entityTag);
+        Response response = sut.handle(conditional);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                response.getStatusCode());
+        assertEquals("304 should have the entity tag", entityTag,
+                response.getHeaders().get(HttpHeaders.ETAG));
+        assertFalse("304 should have no content length",
+                response.getContentLength().isPresent());
+    }
+
+    @Test
+    public void indexedFileMadeUnreadableIsForbidden() throws IOException {
+        File file = folder.newFile("private.txt");
+        FilesystemGetRequestHandler handler = new FilesystemGetRequestHandler(
+                folder.getRoot(), new FileCache(0, 0), new MappedFiles(0),
+                new DirectoryListings(folder.getRoot(), 0),
+                new MetadataIndex(), new CompressedVariants(0, 0));
+        String entityTag = handler.handle(request("/private.txt"))
+                .getHeaders().get(HttpHeaders.ETAG);
+        file.setReadable(false);
+        assumeFalse("permissions should be enforced", file.canRead());
+
+        Request conditional = request("/private.txt");
+        conditional.setIfNoneMatch(entityTag);
+
+        assertEquals("access should be checked before the validators",
+                HttpURLConnection.HTTP_FORBIDDEN,
+                handler.handle(conditional).getStatusCode());
+    }
+
+    @Test
+    public void differentEntityTagIsServedFully() {
+        Request conditional = request("/b/bfile1");
+        conditional.setIfNoneMatch("\"other\"");
+
+        assertEquals(HttpURLConnection.HTTP_OK,
+                sut.handle(conditional).getStatusCode());
+    }
+
+    @Test
+    public void unmodifiedSinceDateIsNotModified() {
+        Request conditional = request("/b/bfile1");
+        conditional.setIfModifiedSince("Tue, 01 Jan 2999 00:00:00 GMT");
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                sut.handle(conditional).getStatusCode());
+
+        conditional.setIfModifiedSince("Thu, 01 Jan 1970 00:00:00 GMT");
+        assertEquals(HttpURLConnection.HTTP_OK,
+                sut.handle(conditional).getStatusCode());
+    }
+
+    @Test
+    public void directoryListingIsRevalidated() {
+        String entityTag = sut.handle(request("/a/aa/")).getHeaders()
+                .get(HttpHeaders.ETAG);
+
+        Request conditional = request("/a/aa/");
+        conditional.setIfNoneMatch(entityTag);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                sut.handle(conditional).getStatusCode());
+    }
+
+    @Test
+    public void singleRangeIsSentAsFileRegion() throws IOException {
+        FilesystemGetRequestHandler handler = rangedHandler();
+        Request ranged = request("/digits.txt");
+        ranged.setRange("bytes=2-4");
+        Response response = handler.handle(ranged);
+
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, response.getStatusCode());
+        assertEquals("bytes 2-4/10",
+                response.getHeaders().get(HttpHeaders.CONTENT_RANGE));
+        assertEquals("234", body(response));
+    }
+
+    @Test
+    public void manyRangesAreSentAsMultipart() throws IOException {
+        FilesystemGetRequestHandler handler = rangedHandler();
+        Request ranged = request("/digits.txt");
+        ranged.setRange("bytes=0-1,-2");
+        Response response = handler.handle(ranged);
+
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, response.getStatusCode());
+        String contentType = response.getHeaders()
+                .get(HttpHeaders.CONTENT_TYPE);
+        assertTrue("multipart expected: " + contentType,
+                contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        String body = body(response);
+        assertEquals(response.getContentLength().getAsLong(), body.length());
+        assertEquals("\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 8-9/10\r\n\r\n89"
+                + "\r\n--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    public void unsatisfiableRangeIsRejected() throws IOException {
+        Request ranged = request("/digits.txt");
+        ranged.setRange("bytes=10-");
+        Response response = rangedHandler().handle(ranged);
+
+        assertEquals(Responses.HTTP_RANGE_NOT_SATISFIABLE,
+                response.getStatusCode());
+        assertEquals("bytes */10",
+                response.getHeaders().get(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    public void staleIfRangeGetsWholeFile() throws IOException {
+        FilesystemGetRequestHandler handler = rangedHandler();
+        String entityTag = handler.handle(request("/digits.txt"))
+                .getHeaders().get(HttpHeaders.ETAG);
+
+        Request ranged = request("/digits.txt");
+        ranged.setRange("bytes=2-4");
+        ranged.setIfRange(entityTag);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL,
+                handler.handle(ranged).getStatusCode());
+
+        ranged.setIfRange("\"stale\"");
+        Response response = handler.handle(ranged);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+        assertEquals("0123456789", body(response));
+    }
+
+    @Test
+    public void precompressedVariantIsServedWhenAccepted() throws IOException {
+        FilesystemGetRequestHandler handler = precompressedHandler();
+        Request request = request("/style.css");
+        request.setAcceptEncoding("deflate, gzip;q=0.8");
+        Response response = handler.handle(request);
+
+        assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+        assertEquals("gzip",
+                response.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("text/css",
+                response.getHeaders().get(HttpHeaders.CONTENT_TYPE));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING,
+                response.getHeaders().get(HttpHeaders.VARY));
+        assertEquals("compressed", body(response));
+
+        Request conditional = request("/style.css");
+        conditional.setAcceptEncoding("gzip");
+        conditional.setIfNoneMatch(
+                response.getHeaders().get(HttpHeaders.ETAG));
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                handler.handle(conditional).getStatusCode());
+    }
+
+    @Test
+    public void originalIsServedWhenVariantNotAccepted() throws IOException {
+        FilesystemGetRequestHandler handler = precompressedHandler();
+        Request request = request("/style.css");
+        request.setAcceptEncoding("gzip;q=0, deflate");
+        Response response = handler.handle(request);
+
+        assertEquals(null,
+                response.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING,
+                response.getHeaders().get(HttpHeaders.VARY));
+        assertEquals("original", body(response));
+    }
+
+    @Test
+    public void outdatedVariantIsIgnored() throws IOException {
+        FilesystemGetRequestHandler handler = precompressedHandler();
+        Files.setLastModifiedTime(folder.getRoot().toPath()
+                .resolve("style.css.gz"), FileTime.fromMillis(1000));
+        Request request = request("/style.css");
+        request.setAcceptEncoding("gzip");
+
+        assertEquals("original", body(handler.handle(request)));
+    }
+
+    @Test
+    public void unreadableFileIsForbiddenDespiteReadableVariant()
+            throws IOException {
+        FilesystemGetRequestHandler handler = precompressedHandler();
+        File original = new File(folder.getRoot(), "style.css");
+        original.setReadable(false);
+        assumeFalse("permissions should be enforced", original.canRead());
+        Request request = request("/style.css");
+        request.setAcceptEncoding("gzip");
+
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN,
+                handler.handle(request).getStatusCode());
+    }
+
+    @Test
+    public void textIsCompressedOnTheFly() throws IOException {
+        FilesystemGetRequestHandler handler = precompressedHandler();
+        String text = Strings.repeat("compressible text ", 100);
+        Files.write(folder.newFile("page.txt").toPath(),
+                text.getBytes(StandardCharsets.US_ASCII));
+        Request request = request("/page.txt");
+        request.setAcceptEncoding("gzip");
+        Response response = handler.handle(request);
+
+        assertEquals("gzip",
+                response.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING,
+                response.getHeaders().get(HttpHeaders.VARY));
+        assertTrue("should be compressed",
+                response.getContentLength().getAsLong() < text.length());
+        assertEquals(text, gunzip(response));
+    }
+
+    @Test
+    public void directoryListingIsCompressedOnTheFly() throws IOException {
+        Request request = request("/a/aa/");
+        request.setAcceptEncoding("deflate;q=0.5, gzip");
+        Response response = sut.handle(request);
+
+        assertEquals("gzip",
+                response.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(gunzip(response).contains("aafile1"));
+    }
+
+    @Test
+    public void largeDirectoryListingIsStreamedChunked() throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            folder.newFile("file" + i);
+        }
+        FilesystemGetRequestHandler handler = new FilesystemGetRequestHandler(
+                folder.getRoot());
+        Response response = handler.handle(request("/"));
+
+        assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+        assertEquals("chunked",
+                response.getHeaders().get(HttpHeaders.TRANSFER_ENCODING));
+        assertFalse("chunked response should have no content length",
+                response.getContentLength().isPresent());
+        String html = IndexHtmlGeneratorTest.dechunk(
+                IndexHtmlGeneratorTest.readChunked(response.getMessageBody()));
+        assertTrue(html.contains("<a href=\"file4999\">file4999</a>"));
+        assertTrue(html.endsWith("</html>\n"));
+    }
+
+    private FilesystemGetRequestHandler precompressedHandler()
+            throws IOException {
+        Files.write(folder.newFile("style.css").toPath(),
+                "original".getBytes(StandardCharsets.US_ASCII));
+        Files.write(folder.newFile("style.css.gz").toPath(),
+                "compressed".getBytes(StandardCharsets.US_ASCII));
+        return new FilesystemGetRequestHandler(folder.getRoot(),
+                new FileCache(1024 * 1024, 64 * 1024), new MappedFiles(0),
+                new DirectoryListings(folder.getRoot(), 0),
+                new MetadataIndex(),
+                new CompressedVariants(1024 * 1024, 64 * 1024));
+    }
+
+    private FilesystemGetRequestHandler rangedHandler() throws IOException {
+        Files.write(folder.newFile("digits.txt").toPath(),
+                "0123456789".getBytes(StandardCharsets.US_ASCII));
+        return new FilesystemGetRequestHandler(folder.getRoot(),
+                new FileCache(1024 * 1024, 64 * 1024), new MappedFiles(0),
+                new DirectoryListings(folder.getRoot(), 0),
+                new MetadataIndex(),
+                new CompressedVariants(1024 * 1024, 64 * 1024));
+    }
+
+    private static String body(Response response) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (MessageBody body = response.getMessageBody()) {
+            while (!body.writeTo(Channels.newChannel(baos))) {
+                continue;
+            }
+        }
+        return new String(baos.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static String gunzip(Response response) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (MessageBody body = response.getMessageBody()) {
+            while (!body.writeTo(Channels.newChannel(baos))) {
+                continue;
+            }
+        }
+        try (GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(baos.toByteArray()))) {
+            return new String(ByteStreams.toByteArray(in),
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Request request(String requestUri) {
+        Request request = new Request();
+        request.setMethod("GET");
+        request.setRequestUri(requestUri);
+        request.setHttpVersion("HTTP/1.1");
+        return request;
+    }
+}
@@ -0,0 +1,97 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.net.HttpHeaders;
+
+public class FilesystemHeadRequestHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void headHasHeadersOfGetWithoutBody() {
+        File documentRoot = new File(Server.DEFAULT_DOCUMENT_ROOT)
+                .getAbsoluteFile();
+        FilesystemGetRequestHandler getHandler =
+                new FilesystemGetRequestHandler(documentRoot);
+        FilesystemHeadRequestHandler sut = new FilesystemHeadRequestHandler(
+                getHandler);
+
+        Response get = getHandler.handle(request("GET", "/b/bfile1"));
+        Response head = sut.handle(request("HEAD", "/b/bfile1"));
+
+        assertEquals(HttpURLConnection.HTTP_OK, head.getStatusCode());
+        for (String name : new String[] {HttpHeaders.CONTENT_TYPE,
+                HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED,
+                HttpHeaders.ACCEPT_RANGES, HttpHeaders.VARY}) {
+            assertEquals(get.getHeaders().get(name),
+                    head.getHeaders().get(name));
+        }
+        assertEquals(get.getContentLength(), head.getContentLength());
+        assertEquals(0, head.getMessageBody().getLength());
+    }
+
+    @Test
+    public void headOfMissingResourceKeepsContentLength() {
+        FilesystemHeadRequestHandler sut = new FilesystemHeadRequestHandler(
+                new FilesystemGetRequestHandler(folder.getRoot()));
+        Response head = sut.handle(request("HEAD", "/missing"));
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, head.getStatusCode());
+        assertEquals(true, head.getContentLength().getAsLong() > 0);
+        assertEquals(0, head.getMessageBody().getLength());
+    }
+
+    @Test
+    public void headDoesNotCompressFiles() throws IOException {
+        Files.write(folder.newFile("page.txt").toPath(),
+                Strings.repeat("compressible text ", 100)
+                        .getBytes(StandardCharsets.US_ASCII));
+        CompressedVariants compressedVariants = new CompressedVariants(
+                1024 * 1024, 64 * 1024);
+        FilesystemGetRequestHandler getHandler =
+                new FilesystemGetRequestHandler(folder.getRoot(),
+                        new FileCache(1024 * 1024, 64 * 1024),
+                        new MappedFiles(0),
+                        new DirectoryListings(folder.getRoot(), 0),
+                        new MetadataIndex(), compressedVariants);
+        FilesystemHeadRequestHandler sut = new FilesystemHeadRequestHandler(
+                getHandler);
+
+        Request head = request("HEAD", "/page.txt");
+        head.setAcceptEncoding("gzip");
+        assertNull(sut.handle(head).getHeaders()
+                .get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(0, compressedVariants.size());
+
+        Request get = request("GET", "/page.txt");
+        get.setAcceptEncoding("gzip");
+        Response compressed = getHandler.handle(get);
+        Response cached = sut.handle(head);
+        assertEquals("gzip",
+                cached.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(compressed.getContentLength(),
+                cached.getContentLength());
+    }
+
+    private static Request request(String method, String requestUri) {
+        Request request = new Request();
+        request.setMethod(method);
+        request.setRequestUri(requestUri);
+        request.setHttpVersion("HTTP/1.1");
+        return request;
+    }
+}
@@ -0,0 +1,281 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.Observables.get;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.common.io.Resources;
+
+public class IncrementalRequestParserTest {
+
+    private RequestParser sut = new IncrementalRequestParser();
+
+    @Test
+    public void curlGetRequestIsParsed() throws Exception {
+
+        Request request = parseRequestFromResource(
+                "/curl-GET-request-example.txt");
+
+        assertEquals("Request method should match", "GET", request.getMethod());
+
+        assertEquals("Request URI should match", "/", request.getRequestUri());
+
+        assertEquals("HTTP version should match", "HTTP/1.1",
+                request.getHttpVersion());
+
+        assertEquals("Host header should match", "127.0.0.1:31337",
+                request.getHost());
+
+        assertNotNull("User-Agent header should be set",
+                request.getUserAgent());
+        assertTrue("User-Agent header should start with curl",
+                request.getUserAgent().startsWith("curl"));
+
+        assertEquals("Accept header should match", "*/*", request.getAccept());
+
+        assertNull("Accept-Language header should not be set",
+                request.getAcceptLanguage());
+
+        assertNull("Accept-Encoding header should not be set",
+                request.getAcceptEncoding());
+
+        assertNull("Connection header should not be set",
+                request.getConnection());
+    }
+
+    @Test
+    public void firefoxGetRequestIsParsed() throws Exception {
+        Request request = parseRequestFromResource(
+                "/Firefox-GET-request-example.txt");
+
+        assertEquals("Request method should match", "GET", request.getMethod());
+
+        assertEquals("Request URI should match", "/", request.getRequestUri());
+
+        assertEquals("HTTP version should match", "HTTP/1.1",
+                request.getHttpVersion());
+
+        assertEquals("Host header should match", "127.0.0.1:31337",
+                request.getHost());
+
+        assertNotNull("User-Agent header should be set",
+                request.getUserAgent());
+        assertTrue("User-Agent header should start with Mozilla",
+                request.getUserAgent().startsWith("Mozilla"));
+        assertTrue("User-Agent header should contain Firefox",
+                request.getUserAgent().contains("Firefox"));
+
+        assertNotNull("Accept header should be set", request.getAccept());
+        assertTrue("Accept header should match",
+                request.getAccept().contains("*/*"));
+
+        assertNotNull("Accept-Language header should be set",
+                request.getAcceptLanguage());
+        assertTrue("Accept-Language header should match",
+                request.getAcceptLanguage().contains("en-US"));
+
+        assertNotNull("Accept-Encoding header should be set",
+                request.getAcceptEncoding());
+        assertTrue("Accept-Encoding header should match",
+                request.getAcceptEncoding().contains("deflate"));
+
+        assertEquals("Connection header should match", "keep-alive",
+                request.getConnection());
+
+    }
+
+    @Test
+    public void requestFedByteByByteIsDecoded() throws Exception {
+        byte[] data = Resources.toByteArray(
+                getClass().getResource("/Firefox-GET-request-example.txt"));
+        RequestDecoder decoder = new RequestDecoder();
+
+        for (int i = 0; i < data.length - 1; i++) {
+            assertEquals("single byte should be consumed", 1,
+                    decoder.decode(data, i, 1));
+            assertFalse("request should not be complete before the end",
+                    decoder.isComplete());
+        }
+        decoder.decode(data, data.length - 1, 1);
+
+        assertTrue("request should be complete", decoder.isComplete());
+        Request request = decoder.take();
+        assertEquals("Host header should match", "127.0.0.1:31337",
+                request.getHost());
+        assertEquals("Connection header should match", "keep-alive",
+                request.getConnection());
+    }
+
+    @Test
+    public void releasedRequestIsReused() throws Exception {
+        Function<byte[], Request> parser = sut.forConnection();
+
+        Request first = parser.apply(serialize("GET /first HTTP/1.1\r\n"
+                + "Host: localhost\r\nX-Trace: 1\r\n\r\n"));
+        assertEquals("localhost", first.getHost());
+        first.release();
+
+        Request second = parser.apply(
+                serialize("HEAD /second HTTP/1.1\r\nX-Other: 2\r\n\r\n"));
+        assertSame("released request should be reused", first, second);
+        assertEquals("HEAD", second.getMethod());
+        assertEquals("/second", second.getRequestUri());
+        assertNull("previous headers should be cleared", second.getHost());
+        assertNull(second.getHeader("X-Trace"));
+        assertEquals("2", second.getHeader("x-other"));
+        assertEquals(1, second.getHeaders().size());
+    }
+
+    @Test
+    public void requestNotReleasedIsNotReused() throws Exception {
+        Function<byte[], Request> parser = sut.forConnection();
+
+        Request first = parser.apply(
+                serialize("GET /first HTTP/1.1\r\nHost: a\r\n\r\n"));
+        Request second = parser.apply(
+                serialize("GET /second HTTP/1.1\r\nHost: b\r\n\r\n"));
+        second.release();
+        second.release();
+
+        assertNotSame(first, second);
+        assertEquals("/first", first.getRequestUri());
+        assertEquals("a", first.getHost());
+        assertSame("request released twice should be reused once", second,
+                parser.apply(serialize("GET /third HTTP/1.1\r\n\r\n")));
+        assertNotSame(second,
+                parser.apply(serialize("GET /fourth HTTP/1.1\r\n\r\n")));
+    }
+
+    @Test
+    public void unknownHeadersAreSkipped() throws Exception {
+        Request request = parseRequest("GET /a/aa/ HTTP/1.1\r\n"
+                + "X-Forwarded-For: 10.0.0.1, 10.0.0.2\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "host:   localhost:8080  \r\n"
+                + "DNT: 1\r\n\r\n");
+
+        assertEquals("Request URI should match", "/a/aa/",
+                request.getRequestUri());
+        assertEquals("Host header should match (case insensitive, trimmed)",
+                "localhost:8080", request.getHost());
+    }
+
+    @Test
+    public void arbitraryHeadersAreKeptInOrder() throws Exception {
+        Request request = parseRequest("GET / HTTP/1.1\r\n"
+                + "X-Request-Id: 42\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "X-Empty:\r\n"
+                + "CONNECTION: Keep-Alive\r\n\r\n");
+
+        RequestHeaders headers = request.getHeaders();
+        assertEquals("all headers should be kept", 4, headers.size());
+        assertEquals("X-Request-Id", headers.getName(0));
+        assertEquals("42", headers.getValue(0));
+        assertEquals("any header should be found (case insensitive)", "42",
+                request.getHeader("x-request-id"));
+        assertEquals("no-cache", headers.get(HeaderName.CACHE_CONTROL));
+        assertEquals("empty value should be kept", "",
+                request.getHeader("X-Empty"));
+        assertNull("missing header should not be found",
+                request.getHeader("X-Missing"));
+        assertTrue("Keep-Alive should be requested", request.isKeepAlive());
+    }
+
+    @Test
+    public void conditionalHeadersAreParsed() throws Exception {
+        Request request = parseRequest("GET /b/bfile1 HTTP/1.1\r\n"
+                + "If-None-Match: \"16b-2a\", W/\"17c-2b\"\r\n"
+                + "If-Modified-Since: Sun, 24 Jan 2016 00:02:08 GMT\r\n\r\n");
+
+        assertEquals("If-None-Match header should match",
+                "\"16b-2a\", W/\"17c-2b\"", request.getIfNoneMatch());
+        assertEquals("If-Modified-Since header should match",
+                "Sun, 24 Jan 2016 00:02:08 GMT", request.getIfModifiedSince());
+    }
+
+    @Test
+    public void rangeHeadersAreParsed() throws Exception {
+        Request request = parseRequest("GET /b/bfile1 HTTP/1.1\r\n"
+                + "Range: bytes=0-99,-100\r\n"
+                + "If-Range: \"16b-2a\"\r\n\r\n");
+
+        assertEquals("Range header should match", "bytes=0-99,-100",
+                request.getRange());
+        assertEquals("If-Range header should match", "\"16b-2a\"",
+                request.getIfRange());
+    }
+
+    @Test
+    public void pipelinedRequestsAreParsedInOrder() throws Exception {
+        List<Request> requests = sut.parse(stream(
+                "GET /first HTTP/1.1\r\nConnection: keep-alive\r\n\r\n"
+                + "GET /second HTTP/1.1\r\nConnection: keep-alive\r\n\r\n"
+                + "GET /third HTTP/1.1\r\nConnection: close\r\n\r\n"
+                + "GET /ignored HTTP/1.1\r\n\r\n"))
+                .toList().toBlocking().single();
+
+        assertEquals("requests till non Keep-Alive one should be parsed", 3,
+                requests.size());
+        assertEquals("/first", requests.get(0).getRequestUri());
+        assertEquals("/second", requests.get(1).getRequestUri());
+        assertEquals("/third", requests.get(2).getRequestUri());
+    }
+
+    @Test
+    public void pipelinedRequestsWithoutConnectionHeaderArePersistent()
+            throws Exception {
+        List<Request> requests = sut.parse(stream(
+                "GET /first HTTP/1.1\r\n\r\n"
+                + "GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /third HTTP/1.1\r\n\r\n"))
+                .toList().toBlocking().single();
+
+        assertEquals("HTTP/1.1 requests should be persistent by default", 3,
+                requests.size());
+        assertEquals("/third", requests.get(2).getRequestUri());
+    }
+
+    @Test
+    public void connectionOptionsAreMatchedAsTokens() throws Exception {
+        assertTrue(parseRequest("GET / HTTP/1.1\r\n\r\n").isKeepAlive());
+        assertFalse(parseRequest("GET / HTTP/1.1\r\nConnection: Upgrade, "
+                + "close\r\n\r\n").isKeepAlive());
+        assertTrue(parseRequest("GET / HTTP/1.1\r\nConnection: "
+                + "closed\r\n\r\n").isKeepAlive());
+        assertFalse(parseRequest("GET / HTTP/1.0\r\n\r\n").isKeepAlive());
+        assertTrue(parseRequest("GET / HTTP/1.0\r\nConnection: "
+                + "keep-alive\r\n\r\n").isKeepAlive());
+    }
+
+    private Request parseRequest(String request) throws Exception {
+        return get(sut.parse(stream(request)));
+    }
+
+    private InputStream stream(String data) {
+        return new ByteArrayInputStream(serialize(data));
+    }
+
+    private Request parseRequestFromResource(String resourceName)
+            throws Exception {
+        Request request = get(
+                sut.parse(getClass().getResourceAsStream(resourceName)));
+        assertNotNull("request should exist", request);
+
+        return request;
+    }
+
+}
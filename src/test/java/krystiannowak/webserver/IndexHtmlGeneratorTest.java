@@ -2,10 +2,17 @@ package krystiannowak.webserver;
 
 import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.Test;
@@ -29,6 +36,58 @@ public class IndexHtmlGeneratorTest {
         assertEquals("generated HTML should match the example", example, html);
     }
 
+    @Test
+    public void streamedHtmlIsChunkedWithSameContent() throws IOException {
+        String body = readChunked(sut.stream());
+
+        assertTrue("body should end with the last chunk",
+                body.endsWith("\r\n0\r\n\r\n"));
+        assertEquals("streamed HTML should have the same lines",
+                sortedLines(sut.getHtml()), sortedLines(dechunk(body)));
+    }
+
+    @Test
+    public void largeDirectoryIsNotRenderedInMemory() {
+        assertNull(sut.getHtml(2));
+        assertEquals(sut.getHtml(), sut.getHtml(100));
+    }
+
+    static String readChunked(MessageBody body) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (MessageBody chunked = body) {
+            assertEquals(MessageBody.UNKNOWN_LENGTH, chunked.getLength());
+            while (!chunked.writeTo(Channels.newChannel(baos))) {
+                continue;
+            }
+        }
+        return deserialize(baos.toByteArray());
+    }
+
+    static String dechunk(String chunked) {
+        StringBuilder content = new StringBuilder();
+        int position = 0;
+        while (true) {
+            int lineEnd = chunked.indexOf("\r\n", position);
+            int size = Integer.parseInt(
+                    chunked.substring(position, lineEnd), 16);
+            if (size == 0) {
+                return content.toString();
+            }
+            position = lineEnd + 2;
+            content.append(chunked, position, position + size);
+            position += size;
+            assertEquals("chunk should end with CRLF", "\r\n",
+                    chunked.substring(position, position + 2));
+            position += 2;
+        }
+    }
+
+    private static List<String> sortedLines(String html) {
+        List<String> lines = new ArrayList<>(Arrays.asList(html.split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+
     private byte[] readExample() throws IOException {
         return Resources
                 .toByteArray(getClass().getResource("/directoryListing.html"));
@@ -0,0 +1,70 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithBoundedError() {
+        for (long value : new long[] {0, 1, 7, 8, 15, 16, 1000, 123_456_789,
+                Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index(value);
+            long lowest = LatencyHistogram.lowestValue(index);
+            assertTrue("bucket of " + value + " should not start above it",
+                    lowest <= value);
+            assertTrue("bucket of " + value + " should be narrow",
+                    value - lowest <= lowest / 8);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKETS; i++) {
+            long lowest = LatencyHistogram.lowestValue(i);
+            assertEquals(i, LatencyHistogram.index(lowest));
+            assertEquals(i - 1, LatencyHistogram.index(lowest - 1));
+        }
+    }
+
+    @Test
+    public void countsBelowPowersOfTwoAreExact() {
+        LatencyHistogram sut = new LatencyHistogram();
+        sut.record(1023);
+        sut.record(1024);
+        sut.record(5000);
+        sut.record(-5);
+
+        assertEquals(4, sut.getCount());
+        assertEquals(2, sut.getCountBelow(1024));
+        assertEquals(3, sut.getCountBelow(4096));
+        assertEquals(4, sut.getCountBelow(8192));
+        assertEquals(1023 + 1024 + 5000, sut.getSum());
+    }
+
+    @Test
+    public void histogramIsWrittenInPrometheusFormat() {
+        LatencyHistogram sut = new LatencyHistogram();
+        sut.record(500);
+        sut.record(2_000_000_000L);
+
+        StringBuilder out = new StringBuilder();
+        sut.writeTo(out, "latency_seconds", "stage=\"parse\",");
+        String text = out.toString();
+
+        assertTrue(text, text.contains(
+                "latency_seconds_bucket{stage=\"parse\",le=\"1.024E-6\"} 1\n"));
+        assertTrue(text, text.contains(
+                "latency_seconds_bucket{stage=\"parse\",le=\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains(
+                "latency_seconds_sum{stage=\"parse\"} 2.0000005\n"));
+        assertTrue(text,
+                text.contains("latency_seconds_count{stage=\"parse\"} 2\n"));
+    }
+
+}
@@ -0,0 +1,126 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+public class MappedFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedFiles sut = new MappedFiles(1024);
+
+    @Test
+    public void onlyLargeFilesAreMapped() {
+        assertFalse("small file should not be mapped", sut.isMappable(1023));
+        assertTrue("large file should be mapped", sut.isMappable(1024));
+        assertFalse("mapping should be disabled with 0 threshold",
+                new MappedFiles(0).isMappable(1024));
+    }
+
+    @Test
+    public void mappingIsSharedAndKeptWhenNotUsed() throws IOException {
+        String content = Strings.repeat("0123456789", 200);
+        File file = createFile("large.bin", content);
+
+        MessageBody first = sut.map(file);
+        MessageBody second = sut.map(file);
+        assertEquals("mapping should be shared", 1, sut.size());
+
+        assertEquals("first body should be the file content", content,
+                write(first));
+        first.close();
+        first.close();
+        assertEquals("mapping should be kept while used", 1, sut.size());
+
+        assertEquals("second body should be the file content", content,
+                write(second));
+        second.close();
+        assertEquals("mapping should be kept for the next bodies", 1,
+                sut.size());
+        MessageBody third = sut.map(file);
+        assertEquals(content, write(third));
+        third.close();
+    }
+
+    @Test
+    public void leastRecentlyUsedMappingIsEvicted() throws IOException {
+        MappedFiles single = new MappedFiles(1024, 1);
+        File first = createFile("first.bin", Strings.repeat("a", 2000));
+        File second = createFile("second.bin", Strings.repeat("b", 2000));
+
+        MessageBody used = single.map(first);
+        single.map(second).close();
+
+        assertEquals("only one mapping should be kept", 1, single.size());
+        assertEquals("evicted mapping should be kept while used",
+                Strings.repeat("a", 2000), write(used));
+        used.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void fileTruncatedWhileWrittenFailsItsBody() throws IOException {
+        File file = createFile("large.bin", Strings.repeat("a", 64 * 1024));
+        MessageBody body = sut.map(file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(0);
+        }
+
+        try {
+            write(body);
+        } finally {
+            body.close();
+            assertEquals("mapping of truncated file should be dropped", 0,
+                    sut.size());
+        }
+    }
+
+    @Test
+    public void changedFileIsMappedAgain() throws IOException {
+        File file = createFile("large.bin", Strings.repeat("a", 2000));
+
+        MessageBody old = sut.map(file);
+        Files.write(Strings.repeat("b", 3000), file, StandardCharsets.UTF_8);
+        MessageBody current = sut.map(file);
+
+        assertEquals("changed file should be mapped again", 3000,
+                current.getLength());
+        assertEquals("old mapping should be kept while used", 2000,
+                old.getLength());
+        old.close();
+        assertEquals("current mapping should stay", 1, sut.size());
+        current.close();
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(content, file, StandardCharsets.UTF_8);
+        return file.getAbsoluteFile();
+    }
+
+    private static String write(MessageBody body) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(baos);
+        while (!body.writeTo(channel)) {
+            continue;
+        }
+        return deserialize(baos.toByteArray());
+    }
+}
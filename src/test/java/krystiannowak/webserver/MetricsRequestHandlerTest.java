@@ -0,0 +1,97 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import com.google.common.net.HttpHeaders;
+
+public class MetricsRequestHandlerTest {
+
+    private final Metrics metrics = new Metrics(new ConcurrencyLimiter(8, 100),
+            new BufferPool(0, false), null);
+
+    @Test
+    public void metricsAreRenderedInPrometheusFormat() {
+        metrics.record(Metrics.Stage.DISPATCH, 1500);
+        metrics.onResponse(200, 42);
+        metrics.onResponse(404, -1);
+        metrics.onConnectionOpened();
+
+        String text = metrics.render();
+
+        assertTrue(text, text.contains(
+                "# TYPE webserver_stage_latency_seconds histogram\n"));
+        assertTrue(text, text.contains("webserver_stage_latency_seconds_count"
+                + "{stage=\"dispatch\"} 1\n"));
+        assertTrue(text, text.contains("webserver_stage_latency_seconds_count"
+                + "{stage=\"accept\"} 0\n"));
+        assertTrue(text, text.contains("webserver_requests_total 2\n"));
+        assertTrue(text, text.contains("webserver_response_bytes_total 42\n"));
+        assertTrue(text,
+                text.contains("webserver_responses_total{class=\"2xx\"} 1\n"));
+        assertTrue(text,
+                text.contains("webserver_responses_total{class=\"4xx\"} 1\n"));
+        assertTrue(text, text.contains("webserver_connections_open 1\n"));
+        assertTrue(text, text.contains("webserver_concurrency_limit 8\n"));
+    }
+
+    @Test
+    public void reservedPathIsDispatchedToMetrics() throws IOException {
+        RequestDispatcher dispatcher = new RequestDispatcher();
+        dispatcher.setHandler(FilesystemGetRequestHandler.METHOD,
+                request -> Responses.notFound(request.getRequestUri()));
+        dispatcher.setPathHandler("/_metrics",
+                new MetricsRequestHandler(metrics));
+
+        Response response = dispatcher.handle(request("GET", "/_metrics?x=1"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals(MetricsRequestHandler.CONTENT_TYPE,
+                response.getHeaders().get(HttpHeaders.CONTENT_TYPE));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getMessageBody().writeTo(Channels.newChannel(body));
+        assertTrue(deserialize(body.toByteArray())
+                .contains("webserver_requests_total"));
+
+        assertEquals(404, dispatcher.handle(request("GET", "/_metrics/x"))
+                .getStatusCode());
+        assertEquals(405, dispatcher.handle(request("POST", "/_metrics"))
+                .getStatusCode());
+        assertEquals(0, dispatcher.handle(request("HEAD", "/_metrics"))
+                .getMessageBody().getLength());
+    }
+
+    @Test
+    public void reservedPathRefusesOtherMethods() {
+        RequestDispatcher dispatcher = new RequestDispatcher();
+        dispatcher.setHandler("POST",
+                request -> Responses.notFound(request.getRequestUri()));
+        dispatcher.setHandler("DELETE",
+                request -> Responses.notFound(request.getRequestUri()));
+        dispatcher.setPathHandler("/_metrics", request -> {
+            throw new AssertionError(request.getMethod() + " reached metrics");
+        });
+
+        assertEquals(405, dispatcher.handle(request("POST", "/_metrics"))
+                .getStatusCode());
+        assertEquals(405, dispatcher.handle(request("DELETE", "/_metrics?x"))
+                .getStatusCode());
+        assertEquals(404, dispatcher.handle(request("POST", "/other"))
+                .getStatusCode());
+    }
+
+    private static Request request(String method, String requestUri) {
+        Request request = new Request();
+        request.setMethod(method);
+        request.setRequestUri(requestUri);
+        request.setHttpVersion("HTTP/1.1");
+        return request;
+    }
+
+}
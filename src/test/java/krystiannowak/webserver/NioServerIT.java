@@ -0,0 +1,224 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class NioServerIT {
+
+    private static final int PORT = Server.DEFAULT_PORT_NUMBER + 1;
+
+    private static ExecutorService executorService;
+
+    private static NioServer server;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.setPort(PORT);
+        configuration.setKeepAliveTimeout(1);
+        configuration.setKeepAliveMaxRequests(3);
+        configuration.setEventLoops(2);
+        configuration.setDocumentRoot(
+                configuration.getDocumentRoot().getAbsoluteFile());
+        executorService = Executors.newSingleThreadExecutor();
+        server = new NioServer(configuration, new AntlrRequestParser());
+        executorService.submit(server);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+        executorService.shutdown();
+    }
+
+    @Test
+    public void serverRespondsToHttpRequests() throws Exception {
+        assertEquals("response data needs to match",
+                "this is just a dummy file",
+                fetch("/c/ca/caa/caaa/caaaa/caaaafile1"));
+    }
+
+    @Test
+    public void idleConnectionsDoNotBlockOtherClients() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                idle.add(new Socket("localhost", PORT));
+            }
+
+            assertEquals("response data needs to match",
+                    "this is just a dummy file",
+                    fetch("/c/ca/caa/caaa/caaaa/caaaafile1"));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.getOutputStream().write(serialize(
+                    "GET /c/ca/caa/caaa/caaaa/caaaafile1 HTTP/1.1\r\n"
+                    + "Connection: keep-alive\r\n\r\n"
+                    + "GET /missing HTTP/1.1\r\n\r\n"));
+
+            String responses = deserialize(
+                    ByteStreams.toByteArray(socket.getInputStream()));
+
+            int first = responses.indexOf("HTTP/1.1 200 OK");
+            int second = responses.indexOf("HTTP/1.1 404 Not Found");
+            assertTrue("first response should be sent", first == 0);
+            assertTrue("second response should follow", second > first);
+            assertTrue("file content should be in the first response",
+                    responses.substring(first, second)
+                            .contains("this is just a dummy file"));
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsWithoutConnectionHeaderAreAnswered()
+            throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(serialize(
+                    "GET /c/ca/caa/caaa/caaaa/caaaafile1 HTTP/1.1\r\n\r\n"
+                    + "GET /missing HTTP/1.1\r\nConnection: close\r\n\r\n"));
+
+            String responses = deserialize(
+                    ByteStreams.toByteArray(socket.getInputStream()));
+
+            assertTrue(responses, responses.startsWith("HTTP/1.1 200 OK"));
+            assertTrue("queued request should be answered",
+                    responses.contains("HTTP/1.1 404 Not Found"));
+        }
+    }
+
+    @Test
+    public void idleConnectionIsClosed() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            long start = System.nanoTime();
+            assertEquals("idle connection should be closed", -1,
+                    socket.getInputStream().read());
+            assertTrue("idle connection should not be closed too early",
+                    System.nanoTime() - start > 500_000_000L);
+        }
+    }
+
+    @Test
+    public void connectionIsClosedAfterMaxRequests() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            String request = "GET /c/ca/caa/caaa/caaaa/caaaafile1 HTTP/1.1\r\n"
+                    + "Connection: keep-alive\r\n\r\n";
+            socket.getOutputStream().write(serialize(
+                    request + request + request + request));
+            String responses = deserialize(
+                    ByteStreams.toByteArray(socket.getInputStream()));
+
+            assertEquals("only the allowed requests should be answered", 3,
+                    responses.split("HTTP/1.1 200 OK", -1).length - 1);
+            assertTrue(responses.contains("Keep-Alive: timeout=1, max=2"));
+            assertTrue(responses.contains("Keep-Alive: timeout=1, max=1"));
+            assertTrue(responses.contains("Connection: close"));
+        }
+    }
+
+    @Test
+    public void requestsAreNotShedByConcurrencyLimit() throws Exception {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.setPort(PORT + 21);
+        configuration.setDocumentRoot(
+                configuration.getDocumentRoot().getAbsoluteFile());
+        configuration.setEventLoops(4);
+        configuration.setConcurrencyLimit(1);
+        configuration.setMaxConcurrencyLimit(1);
+        NioServer limitedServer = new NioServer(configuration,
+                new AntlrRequestParser());
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        runner.submit(limitedServer);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                responses.add(clients.submit(() -> fetch(PORT + 21,
+                        "/c/ca/caa/caaa/caaaa/caaaafile1")));
+            }
+            for (Future<String> response : responses) {
+                assertEquals("request should not be shed",
+                        "this is just a dummy file", response.get());
+            }
+        } finally {
+            clients.shutdown();
+            limitedServer.close();
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    public void metricsAreExposedOnReservedPath() throws Exception {
+        fetch("/c/ca/caa/caaa/caaaa/caaaafile1");
+
+        String metrics = fetch("/_metrics");
+        assertTrue(metrics, metrics.contains(
+                "webserver_stage_latency_seconds_count{stage=\"parse\"}"));
+        assertTrue(metrics, metrics.contains("webserver_requests_total"));
+        assertTrue(metrics.contains("webserver_responses_total{class=\"2xx\"}"));
+    }
+
+    @Test
+    public void loopsListeningWithReusePortServeRequests() throws Exception {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.setPort(PORT + 20);
+        configuration.setDocumentRoot(
+                configuration.getDocumentRoot().getAbsoluteFile());
+        configuration.setEventLoops(3);
+        configuration.setReusePort(true);
+        NioServer reusePortServer = new NioServer(configuration,
+                new AntlrRequestParser());
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        runner.submit(reusePortServer);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("response data needs to match",
+                        "this is just a dummy file",
+                        fetch(PORT + 20, "/c/ca/caa/caaa/caaaa/caaaafile1"));
+            }
+        } finally {
+            reusePortServer.close();
+            runner.shutdown();
+        }
+    }
+
+    private String fetch(String path) throws Exception {
+        return fetch(PORT, path);
+    }
+
+    private String fetch(int port, String path) throws Exception {
+        InputStream is = new URL("http://localhost:" + port + path)
+                .openStream();
+        byte[] data = ByteStreams.toByteArray(is);
+        is.close();
+        return deserialize(data).trim();
+    }
+
+}
@@ -0,0 +1,113 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.deserialize;
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RequestFramerTest {
+
+    private static final String FIRST = "GET /first HTTP/1.1\r\n"
+            + "Host: localhost\r\nConnection: keep-alive\r\n\r\n";
+
+    private static final String SECOND = "GET /second HTTP/1.1\r\n"
+            + "Host: localhost\r\n\r\n";
+
+    private RequestFramer sut = new RequestFramer();
+
+    @Test
+    public void pipelinedRequestsAreSplit() throws IOException {
+        InputStream is = new ByteArrayInputStream(serialize(FIRST + SECOND));
+
+        assertEquals(FIRST, deserialize(sut.next(is)));
+        assertEquals(SECOND, deserialize(sut.next(is)));
+        assertNull("no more requests expected", sut.next(is));
+    }
+
+    @Test
+    public void requestSplitIntoManyReadsIsJoined() throws IOException {
+        InputStream is = new TricklingInputStream(serialize(FIRST + SECOND));
+
+        assertEquals(FIRST, deserialize(sut.next(is)));
+        assertEquals(SECOND, deserialize(sut.next(is)));
+        assertNull("no more requests expected", sut.next(is));
+    }
+
+    @Test
+    public void announcedBodyIsSkipped() throws IOException {
+        String post = "POST /form HTTP/1.1\r\ncontent-LENGTH: 11\r\n\r\n";
+        byte[] data = serialize(post + "hello=world" + SECOND);
+
+        sut.append(data, 0, post.length() + 3);
+        assertEquals(post, deserialize(sut.next()));
+        assertNull("body should not be framed as a request", sut.next());
+
+        sut.append(data, post.length() + 3, data.length - post.length() - 3);
+        assertEquals(SECOND, deserialize(sut.next()));
+        assertEquals("nothing should be pending", 0, sut.pending());
+    }
+
+    @Test
+    public void tooLongHeadIsReported() {
+        byte[] data = serialize("GET / HTTP/1.1\r\nX-Long: ");
+        sut.append(data, 0, data.length);
+        byte[] filler = new byte[RequestFramer.MAX_HEAD_LENGTH];
+        Arrays.fill(filler, (byte) 'x');
+        sut.append(filler, 0, filler.length);
+
+        assertNull("head should not be complete", sut.next());
+        assertTrue("head should be too long", sut.isOverflow());
+    }
+
+    @Test
+    public void pipelinedRequestsAreParsedInOrderByAntlrParser()
+            throws Exception {
+        List<Request> requests = new AntlrRequestParser()
+                .parse(new TricklingInputStream(
+                        serialize(FIRST + FIRST.replace("first", "again")
+                                + SECOND)))
+                .toList().toBlocking().single();
+
+        assertEquals("all the requests should be parsed", 3, requests.size());
+        assertEquals("/first", requests.get(0).getRequestUri());
+        assertEquals("/again", requests.get(1).getRequestUri());
+        assertEquals("/second", requests.get(2).getRequestUri());
+    }
+
+    /**
+     * Returns at most 3 bytes per read, as if data arrived in many segments.
+     */
+    private static final class TricklingInputStream extends InputStream {
+
+        private final InputStream delegate;
+
+        private TricklingInputStream(byte[] data) {
+            this.delegate = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return delegate.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return delegate.read(b, off, Math.min(len, 3));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package krystiannowak.webserver;
+
+import static krystiannowak.webserver.SimpleStringSerialization.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RequestHeadersTest {
+
+    @Test
+    public void wellKnownNamesAreInterned() {
+        for (HeaderName name : HeaderName.values()) {
+            assertSame(name, HeaderName.lookup(name.getName()));
+            assertSame(name, HeaderName.lookup(name.getName().toUpperCase()));
+        }
+        assertNull(HeaderName.lookup("X-Host"));
+        assertNull(HeaderName.lookup("Hos"));
+    }
+
+    @Test
+    public void valuesAreDecodedLazilyFromBuffer() {
+        byte[] buffer = serialize("Host: example.com\r\nDNT: 1\r\n");
+        RequestHeaders sut = new RequestHeaders();
+        sut.add(HeaderName.HOST, 0, 4, 6, 17);
+        sut.add(null, 19, 22, 24, 25);
+        sut.setBuffer(buffer);
+
+        assertEquals(2, sut.size());
+        assertEquals("example.com", sut.get(HeaderName.HOST));
+        assertSame("decoded value should be cached",
+                sut.get(HeaderName.HOST), sut.get("host"));
+        assertEquals("1", sut.get("dnt"));
+        assertEquals("DNT", sut.getName(1));
+    }
+
+    @Test
+    public void setReplacesAllHeadersWithName() {
+        RequestHeaders sut = new RequestHeaders();
+        sut.add("Accept", "text/html");
+        sut.add("X-Custom", "a");
+        sut.add("accept", "*/*");
+
+        sut.set(HeaderName.ACCEPT, "image/png");
+
+        assertEquals(2, sut.size());
+        assertEquals("image/png", sut.get(HeaderName.ACCEPT));
+        assertEquals("a", sut.get("X-Custom"));
+
+        sut.set(HeaderName.ACCEPT, null);
+
+        assertFalse(sut.contains(HeaderName.ACCEPT));
+        assertEquals(1, sut.size());
+    }
+
+    @Test
+    public void capacityGrows() {
+        RequestHeaders sut = new RequestHeaders();
+        for (int i = 0; i < 100; i++) {
+            sut.add("X-Header-" + i, String.valueOf(i));
+        }
+        sut.add("Connection", "close");
+
+        assertEquals(101, sut.size());
+        assertEquals("99", sut.get("x-header-99"));
+        assertTrue(sut.contains(HeaderName.CONNECTION));
+    }
+
+}
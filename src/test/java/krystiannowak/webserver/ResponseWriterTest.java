@@ -5,12 +5,18 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Collections;
 
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
 public class ResponseWriterTest {
@@ -43,6 +49,111 @@ public class ResponseWriterTest {
 
     }
 
+    @Test
+    public void pooledHeadBufferIsReleasedOnceWritten() throws IOException {
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+        StringResponse response = new StringResponse(HttpURLConnection.HTTP_OK,
+                "OK", "Hello world");
+        response.putHeader("X-Long", Strings.repeat("x", 2000));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ResponseWriter sut = new ResponseWriter(Channels.newChannel(baos),
+                pool);
+        sut.write(response);
+        sut.write(response);
+        sut.close();
+
+        assertTrue("head should be written",
+                deserialize(baos.toByteArray()).contains("X-Long: xxx"));
+        assertEquals("no buffer should leak", Collections.emptyList(),
+                pool.getLeaks());
+        assertEquals("head buffers should be reused", 2,
+                pool.getAllocated());
+    }
+
+    @Test
+    public void fileResponseIsTransferredFromFile() throws IOException {
+
+        File file = new File(Server.DEFAULT_DOCUMENT_ROOT,
+                "/c/ca/caa/caaa/caaaa/caaaafile1");
+        FileResponse response = new FileResponse(file);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ResponseWriter sut = new ResponseWriter(baos);
+        sut.write(response);
+        sut.close();
+
+        String written = deserialize(baos.toByteArray());
+
+        assertTrue("written message should contain content length",
+                written.contains("Content-Length: " + file.length() + "\r\n"));
+        assertTrue("written message should end with the file content",
+                written.endsWith("\r\n\r\n" + deserialize(
+                        Files.toByteArray(file))));
+    }
+
+    @Test
+    public void streamingBodyIsWrittenWithConstantBuffer() throws IOException {
+
+        final int length = 100000;
+        StringResponse response = new StringResponse(
+                HttpURLConnection.HTTP_OK, "OK", "");
+        response.setMessageBody(new StreamingBody(length, 16) {
+
+            private int produced;
+
+            @Override
+            protected boolean produce(ByteBuffer target) {
+                while (target.hasRemaining() && produced < length) {
+                    target.put((byte) ('a' + produced++ % 26));
+                }
+                return produced < length;
+            }
+        });
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ResponseWriter sut = new ResponseWriter(baos);
+        sut.write(response);
+        sut.close();
+
+        String written = deserialize(baos.toByteArray());
+        String body = written.substring(written.indexOf("\r\n\r\n") + 4);
+
+        assertTrue("written message should contain content length",
+                written.contains("Content-Length: " + length + "\r\n"));
+        assertEquals("whole body should be written", length, body.length());
+        assertTrue("body should be produced in order",
+                body.startsWith("abcdefghijklmnopqrstuvwxyzabc"));
+    }
+
+    @Test
+    public void consecutiveResponsesAreWrittenWithReusedHead()
+            throws IOException {
+
+        StringResponse notFound = new StringResponse(
+                HttpURLConnection.HTTP_NOT_FOUND, "Not Found", "missing");
+        notFound.putHeader("X-Custom", "first");
+        notFound.putHeader("x-custom", "replaced");
+        StringResponse ok = new StringResponse(HttpURLConnection.HTTP_OK,
+                "OK", "found");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ResponseWriter sut = new ResponseWriter(baos);
+        sut.write(notFound);
+        sut.write(ok);
+        sut.close();
+
+        assertEquals("both responses should be written completely",
+                "HTTP/1.1 404 Not Found\r\n"
+                        + "Content-Type: text/plain; charset=utf-8\r\n"
+                        + "X-Custom: replaced\r\n"
+                        + "Content-Length: 7\r\n\r\nmissing"
+                        + "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/plain; charset=utf-8\r\n"
+                        + "Content-Length: 5\r\n\r\nfound",
+                deserialize(baos.toByteArray()));
+    }
+
     private byte[] readExample() throws IOException {
         return Resources.toByteArray(
                 getClass().getResource("/Apache-200OK-response-example.txt"));
@@ -0,0 +1,88 @@
+package krystiannowak.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private final List<String> expired = new ArrayList<>();
+
+    private final TimingWheel sut = new TimingWheel(10, 8, 1000);
+
+    @Test
+    public void timeoutExpiresWithinTickAfterDeadline() {
+        TimingWheel.Timeout timeout = sut.schedule(() -> expired.add("a"),
+                1025);
+
+        sut.expire(1029);
+        assertTrue(expired.isEmpty());
+        assertFalse(timeout.isExpired());
+
+        sut.expire(1030);
+        assertEquals(1, expired.size());
+        assertTrue(timeout.isExpired());
+        assertEquals(0, sut.size());
+    }
+
+    @Test
+    public void timeoutBeyondRotationWaitsForItsRound() {
+        sut.schedule(() -> expired.add("far"), 1000 + 10 * 8 * 2 + 30);
+        sut.schedule(() -> expired.add("near"), 1030);
+
+        sut.expire(1100);
+        assertEquals(1, expired.size());
+        assertEquals("near", expired.get(0));
+
+        sut.expire(1189);
+        assertEquals(1, expired.size());
+
+        sut.expire(1190);
+        assertEquals(2, expired.size());
+        assertEquals("far", expired.get(1));
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotExpire() {
+        TimingWheel.Timeout timeout = sut.schedule(() -> expired.add("a"),
+                1020);
+        sut.schedule(() -> expired.add("b"), 1020);
+        sut.cancel(timeout);
+        sut.cancel(timeout);
+
+        sut.expire(2000);
+        assertEquals(1, expired.size());
+        assertEquals("b", expired.get(0));
+    }
+
+    @Test
+    public void rescheduledTimeoutMovesItsDeadline() {
+        TimingWheel.Timeout timeout = sut.schedule(() -> expired.add("a"),
+                1020);
+        sut.expire(1010);
+        assertTrue(sut.reschedule(timeout, 1050));
+
+        sut.expire(1040);
+        assertTrue(expired.isEmpty());
+        sut.expire(1050);
+        assertEquals(1, expired.size());
+        assertFalse("expired timeout should not be rescheduled",
+                sut.reschedule(timeout, 2000));
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextTick() {
+        sut.expire(1500);
+        sut.schedule(() -> expired.add("a"), 1200);
+
+        sut.expire(1509);
+        assertTrue(expired.isEmpty());
+        sut.expire(1510);
+        assertEquals(1, expired.size());
+    }
+}